@@ -9,9 +9,16 @@ package com.github.sticker;
 import com.github.kwhat.jnativehook.GlobalScreen;
 import com.github.kwhat.jnativehook.NativeHookException;
 import com.github.sticker.feature.StickerStage;
+import com.github.sticker.feature.widget.StickerMemoryManager;
+import com.github.sticker.history.HistoryIndexer;
+import com.github.sticker.history.HistoryStore;
+import com.github.sticker.history.SearchIndex;
 import com.github.sticker.screenshot.HookKeyListener;
 import com.github.sticker.screenshot.ScreenshotSelector;
 import com.github.sticker.screenshot.SystemTrayManager;
+import com.github.sticker.session.SessionStore;
+import com.github.sticker.util.EncodeService;
+import com.github.sticker.util.OCRUtil;
 import com.github.sticker.util.ScreenManager;
 import javafx.application.Application;
 import javafx.application.Platform;
@@ -62,13 +69,22 @@ public class ScreenshotStickerApp extends Application {
             setupPrimaryStage(primaryStage);
 
             screenshotSelector = new ScreenshotSelector(screenManager);
+            // Start reading the last session while the rest of the UI is set up
+            SessionStore sessionStore = SessionStore.getInstance();
             Platform.runLater(() -> {
                 stickerStage = StickerStage.getInstance();
+                sessionStore.restore(stickerStage);
             });
             systemTrayManager = new SystemTrayManager(screenshotSelector);
             systemTrayManager.initialize();
 
             HookKeyListener.start(screenshotSelector);
+
+            // Load the OCR models now so snip-to-text does not pay for it
+            OCRUtil.warmUp();
+
+            // Index captures saved before the search index existed
+            HistoryIndexer.backfill();
         }
     }
 
@@ -105,7 +121,14 @@ public class ScreenshotStickerApp extends Application {
         }
 
         screenshotSelector.dispose();
+        // Snapshot the stickers before their stage goes away
+        SessionStore.getInstance().close();
         stickerStage.dispose();
+        StickerMemoryManager.getInstance().shutdown();
+        // Let pending saves finish before the process exits
+        EncodeService.getInstance().shutdown();
+        SearchIndex.getInstance().close();
+        HistoryStore.getInstance().close();
         try {
             GlobalScreen.unregisterNativeHook();
         } catch (NativeHookException ignored) {
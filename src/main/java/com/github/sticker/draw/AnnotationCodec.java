@@ -0,0 +1,373 @@
+package com.github.sticker.draw;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.ClosePath;
+import javafx.scene.shape.CubicCurveTo;
+import javafx.scene.shape.Line;
+import javafx.scene.shape.LineTo;
+import javafx.scene.shape.MoveTo;
+import javafx.scene.shape.Path;
+import javafx.scene.shape.PathElement;
+import javafx.scene.shape.QuadCurveTo;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.shape.Shape;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 标注的二进制编码
+ * 把画布上的画笔、直线、矩形和打码区域编码为紧凑的字节序列，用于会话保存和恢复。
+ * 每个图形记录类型、颜色、线宽和虚线样式，坐标以float保存；画笔的轮廓是填充的图形，只记录颜色和路径。
+ * 打码区域只记录方式、强度和位置，不保存像素，恢复时按贴图图片重新计算。
+ */
+public final class AnnotationCodec {
+    private static final byte VERSION = 1;
+
+    private static final byte SHAPE_PATH = 1;
+    private static final byte SHAPE_LINE = 2;
+    private static final byte SHAPE_RECTANGLE = 3;
+    private static final byte SHAPE_REDACTION = 4;
+    private static final byte SHAPE_OUTLINE = 5;
+
+    private static final byte ELEMENT_MOVE = 0;
+    private static final byte ELEMENT_LINE = 1;
+    private static final byte ELEMENT_QUAD = 2;
+    private static final byte ELEMENT_CLOSE = 3;
+    private static final byte ELEMENT_CUBIC = 4;
+
+    private AnnotationCodec() {
+    }
+
+    /**
+     * 编码画布上的图形，不认识的节点会被跳过
+     *
+     * @param nodes 画布子节点
+     * @return 编码结果，没有图形时为空数组
+     */
+    public static byte[] encode(List<Node> nodes) {
+        return encode(null, nodes);
+    }
+
+    /**
+     * 编码已压平的日志和画布上的图形，日志部分直接复制，不需要解码重建节点
+     *
+     * @param log   已编码的标注，排在前面，可以为null
+     * @param nodes 画布子节点
+     * @return 和 {@link #encode(List)} 相同格式的结果
+     */
+    static byte[] encode(Log log, List<Node> nodes) {
+        List<Node> shapes = new ArrayList<>();
+        collectShapes(nodes, shapes);
+        int logged = log == null ? 0 : log.count;
+        if (shapes.isEmpty() && logged == 0) {
+            return new byte[0];
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                64 + (log == null ? 0 : log.length) + shapes.size() * 32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeInt(logged + shapes.size());
+            if (log != null) {
+                out.write(log.data, 0, log.length);
+            }
+            writeShapes(out, shapes);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeShapes(DataOutputStream out, List<Node> shapes) throws IOException {
+        for (Node shape : shapes) {
+            if (shape instanceof Redaction redaction) {
+                writeRedaction(out, redaction);
+            } else {
+                writeShape(out, (Shape) shape);
+            }
+        }
+    }
+
+    /**
+     * 逐个追加的编码日志，内容是不带头部的图形序列
+     * 压平的标注保持编码状态，保存时整段复制，撤销时截断
+     */
+    static final class Log {
+        private byte[] data = new byte[1024];
+        private int length;
+        private int count;
+
+        int length() {
+            return length;
+        }
+
+        int count() {
+            return count;
+        }
+
+        /**
+         * 追加一个标注包含的图形
+         *
+         * @return 追加的图形数量，不认识的节点为0
+         */
+        int append(Node node) {
+            List<Node> shapes = new ArrayList<>();
+            collectShapes(List.of(node), shapes);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                writeShapes(out, shapes);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            if (length + bytes.size() > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + bytes.size()));
+            }
+            System.arraycopy(bytes.toByteArray(), 0, data, length, bytes.size());
+            length += bytes.size();
+            count += shapes.size();
+            return shapes.size();
+        }
+
+        /**
+         * 截断到之前的位置，丢弃之后追加的图形
+         */
+        void truncate(int length, int count) {
+            this.length = length;
+            this.count = count;
+        }
+
+        /**
+         * 解码从offset开始的若干个图形
+         */
+        List<Node> decode(int offset, int count) {
+            List<Node> nodes = new ArrayList<>(count);
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, offset, length - offset))) {
+                for (int i = 0; i < count; i++) {
+                    nodes.add(readShape(in));
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to decode annotations: " + e.getMessage());
+            }
+            return nodes;
+        }
+
+        void clear() {
+            data = new byte[1024];
+            length = 0;
+            count = 0;
+        }
+    }
+
+    /**
+     * 收集可编码的图形，成组加入的节点展开保存，恢复后不再成组
+     */
+    private static void collectShapes(List<Node> nodes, List<Node> shapes) {
+        for (Node node : nodes) {
+            if (node instanceof Group group) {
+                collectShapes(group.getChildren(), shapes);
+            } else if (node instanceof Path || node instanceof Line || node instanceof Rectangle
+                    || node instanceof Redaction) {
+                shapes.add(node);
+            }
+        }
+    }
+
+    /**
+     * 解码图形
+     *
+     * @param data {@link #encode} 的结果
+     * @return 可直接加入画布的节点，数据损坏时返回已解码的部分
+     */
+    public static List<Node> decode(byte[] data) {
+        List<Node> nodes = new ArrayList<>();
+        if (data == null || data.length == 0) {
+            return nodes;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (in.readByte() != VERSION) {
+                return nodes;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                nodes.add(readShape(in));
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to decode annotations: " + e.getMessage());
+        }
+        return nodes;
+    }
+
+    private static void writeShape(DataOutputStream out, Shape shape) throws IOException {
+        if (shape instanceof Path path && path.getStroke() == null && path.getFill() instanceof Color fill) {
+            out.writeByte(SHAPE_OUTLINE);
+            out.writeInt(toArgb(fill));
+            writeElements(out, path);
+            return;
+        }
+        if (shape instanceof Path) {
+            out.writeByte(SHAPE_PATH);
+        } else if (shape instanceof Line) {
+            out.writeByte(SHAPE_LINE);
+        } else {
+            out.writeByte(SHAPE_RECTANGLE);
+        }
+        Color color = shape.getStroke() instanceof Color c ? c : Color.RED;
+        out.writeInt(toArgb(color));
+        out.writeFloat((float) shape.getStrokeWidth());
+        List<Double> dashes = shape.getStrokeDashArray();
+        out.writeByte(Math.min(dashes.size(), 255));
+        for (int i = 0; i < Math.min(dashes.size(), 255); i++) {
+            out.writeFloat(dashes.get(i).floatValue());
+        }
+
+        if (shape instanceof Path path) {
+            writeElements(out, path);
+        } else if (shape instanceof Line line) {
+            out.writeFloat((float) line.getStartX());
+            out.writeFloat((float) line.getStartY());
+            out.writeFloat((float) line.getEndX());
+            out.writeFloat((float) line.getEndY());
+        } else {
+            Rectangle rectangle = (Rectangle) shape;
+            out.writeFloat((float) rectangle.getX());
+            out.writeFloat((float) rectangle.getY());
+            out.writeFloat((float) rectangle.getWidth());
+            out.writeFloat((float) rectangle.getHeight());
+        }
+    }
+
+    private static void writeElements(DataOutputStream out, Path path) throws IOException {
+        // 画笔只产生MoveTo、LineTo、QuadCurveTo、CubicCurveTo和轮廓的ClosePath
+        List<PathElement> elements = path.getElements().stream()
+                .filter(e -> e instanceof MoveTo || e instanceof LineTo || e instanceof QuadCurveTo
+                        || e instanceof CubicCurveTo || e instanceof ClosePath)
+                .toList();
+        out.writeInt(elements.size());
+        for (PathElement element : elements) {
+            if (element instanceof MoveTo move) {
+                out.writeByte(ELEMENT_MOVE);
+                out.writeFloat((float) move.getX());
+                out.writeFloat((float) move.getY());
+            } else if (element instanceof QuadCurveTo quad) {
+                out.writeByte(ELEMENT_QUAD);
+                out.writeFloat((float) quad.getControlX());
+                out.writeFloat((float) quad.getControlY());
+                out.writeFloat((float) quad.getX());
+                out.writeFloat((float) quad.getY());
+            } else if (element instanceof CubicCurveTo cubic) {
+                out.writeByte(ELEMENT_CUBIC);
+                out.writeFloat((float) cubic.getControlX1());
+                out.writeFloat((float) cubic.getControlY1());
+                out.writeFloat((float) cubic.getControlX2());
+                out.writeFloat((float) cubic.getControlY2());
+                out.writeFloat((float) cubic.getX());
+                out.writeFloat((float) cubic.getY());
+            } else if (element instanceof ClosePath) {
+                out.writeByte(ELEMENT_CLOSE);
+            } else {
+                LineTo line = (LineTo) element;
+                out.writeByte(ELEMENT_LINE);
+                out.writeFloat((float) line.getX());
+                out.writeFloat((float) line.getY());
+            }
+        }
+    }
+
+    private static void writeRedaction(DataOutputStream out, Redaction redaction) throws IOException {
+        out.writeByte(SHAPE_REDACTION);
+        out.writeByte(redaction.getKind().ordinal());
+        out.writeFloat((float) redaction.getStrength());
+        Rectangle2D region = redaction.getRegion();
+        out.writeFloat((float) region.getMinX());
+        out.writeFloat((float) region.getMinY());
+        out.writeFloat((float) region.getWidth());
+        out.writeFloat((float) region.getHeight());
+    }
+
+    private static Node readShape(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        if (type == SHAPE_REDACTION) {
+            Redaction.Kind[] kinds = Redaction.Kind.values();
+            int kind = in.readUnsignedByte();
+            if (kind >= kinds.length) {
+                throw new IOException("Unknown redaction kind " + kind);
+            }
+            Redaction redaction = new Redaction(kinds[kind], in.readFloat());
+            redaction.setRegion(new Rectangle2D(in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat()));
+            return redaction;
+        }
+        if (type == SHAPE_OUTLINE) {
+            Color fill = fromArgb(in.readInt());
+            Path outline = readElements(in);
+            outline.setFill(fill);
+            outline.setStroke(null);
+            return outline;
+        }
+        Color color = fromArgb(in.readInt());
+        double width = in.readFloat();
+        int dashCount = in.readUnsignedByte();
+        List<Double> dashes = new ArrayList<>(dashCount);
+        for (int i = 0; i < dashCount; i++) {
+            dashes.add((double) in.readFloat());
+        }
+
+        Shape shape;
+        switch (type) {
+            case SHAPE_PATH -> shape = readElements(in);
+            case SHAPE_LINE -> shape = new Line(in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat());
+            case SHAPE_RECTANGLE -> {
+                Rectangle rectangle = new Rectangle(in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat());
+                rectangle.setFill(Color.TRANSPARENT);
+                shape = rectangle;
+            }
+            default -> throw new IOException("Unknown shape type " + type);
+        }
+        shape.setStroke(color);
+        shape.setStrokeWidth(width);
+        shape.getStrokeDashArray().setAll(dashes);
+        return shape;
+    }
+
+    private static Path readElements(DataInputStream in) throws IOException {
+        Path path = new Path();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            byte element = in.readByte();
+            if (element == ELEMENT_MOVE) {
+                path.getElements().add(new MoveTo(in.readFloat(), in.readFloat()));
+            } else if (element == ELEMENT_QUAD) {
+                path.getElements().add(new QuadCurveTo(in.readFloat(), in.readFloat(),
+                        in.readFloat(), in.readFloat()));
+            } else if (element == ELEMENT_CUBIC) {
+                path.getElements().add(new CubicCurveTo(in.readFloat(), in.readFloat(), in.readFloat(),
+                        in.readFloat(), in.readFloat(), in.readFloat()));
+            } else if (element == ELEMENT_CLOSE) {
+                path.getElements().add(new ClosePath());
+            } else {
+                path.getElements().add(new LineTo(in.readFloat(), in.readFloat()));
+            }
+        }
+        return path;
+    }
+
+    private static int toArgb(Color color) {
+        return (int) Math.round(color.getOpacity() * 255) << 24
+                | (int) Math.round(color.getRed() * 255) << 16
+                | (int) Math.round(color.getGreen() * 255) << 8
+                | (int) Math.round(color.getBlue() * 255);
+    }
+
+    private static Color fromArgb(int argb) {
+        return Color.rgb((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF, ((argb >>> 24) & 0xFF) / 255.0);
+    }
+}
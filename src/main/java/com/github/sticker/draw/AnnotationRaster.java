@@ -0,0 +1,335 @@
+package com.github.sticker.draw;
+
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.ClosePath;
+import javafx.scene.shape.CubicCurveTo;
+import javafx.scene.shape.Line;
+import javafx.scene.shape.LineTo;
+import javafx.scene.shape.MoveTo;
+import javafx.scene.shape.Path;
+import javafx.scene.shape.PathElement;
+import javafx.scene.shape.QuadCurveTo;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.shape.Shape;
+
+import java.awt.BasicStroke;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 画布上较早的标注压平后的位图
+ * 超出撤销窗口的标注从场景图中移除，画进一张位图，场景中只剩一个ImageView，节点数量不随标注增加。
+ * 每个压平的标注同时按顺序用 {@link AnnotationCodec} 编码进一段连续的日志，打码和组合另外保留节点本身。
+ * 保存时直接复制这段日志；撤销到窗口之外时截断日志最后一项，按剩下的日志重画位图。
+ * 图形用Java2D绘制，端点和连接方式与JavaFX图形的默认值一致，导出合成也使用这里的换算。
+ */
+public final class AnnotationRaster {
+    private static final int MAX_SIZE = 8192;
+    private static final double SCALE_EPSILON = 0.001;
+
+    private final ImageView view = new ImageView();
+    private final AnnotationCodec.Log encoded = new AnnotationCodec.Log();
+    private final List<Entry> log = new ArrayList<>();
+    private WritableImage raster;
+    private double scale = 1;                            // 每个画布单位对应的位图像素数
+
+    /**
+     * 一个压平的标注
+     *
+     * @param offset 在编码日志中的起始位置
+     * @param count  编码的图形数量
+     * @param node   打码、组合等需要保留的节点，普通图形为null，重画时从日志解码
+     */
+    private record Entry(int offset, int count, Node node) {
+    }
+
+    AnnotationRaster() {
+        view.setMouseTransparent(true);
+        view.setSmooth(true);
+    }
+
+    /**
+     * 显示位图的节点，放在画布最底层
+     */
+    ImageView getView() {
+        return view;
+    }
+
+    boolean isEmpty() {
+        return log.isEmpty();
+    }
+
+    /**
+     * 把一个标注画进位图并记入日志，需在JavaFX线程调用
+     *
+     * @param node         已从画布移除的标注
+     * @param canvasWidth  画布宽度，决定位图大小
+     * @param canvasHeight 画布高度
+     * @param renderScale  每个画布单位在屏幕上的物理像素数，位图按它保存
+     */
+    void add(Node node, double canvasWidth, double canvasHeight, double renderScale) {
+        if (raster == null) {
+            allocate(canvasWidth, canvasHeight, renderScale);
+        } else {
+            rescale(canvasWidth, canvasHeight, renderScale);
+        }
+        int offset = encoded.length();
+        int count = encoded.append(node);
+        boolean plain = node instanceof Shape && !(node instanceof Redaction) && count == 1;
+        log.add(new Entry(offset, count, plain ? null : node));
+
+        // 只读写标注覆盖的一块，成本与标注大小成正比，与已压平的数量无关
+        java.awt.Rectangle bounds = pixelBounds(node);
+        if (bounds.isEmpty()) {
+            return;
+        }
+        int[] pixels = new int[bounds.width * bounds.height];
+        raster.getPixelReader().getPixels(bounds.x, bounds.y, bounds.width, bounds.height,
+                PixelFormat.getIntArgbPreInstance(), pixels, 0, bounds.width);
+        BufferedImage patch = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_ARGB_PRE);
+        int[] data = ((DataBufferInt) patch.getRaster().getDataBuffer()).getData();
+        System.arraycopy(pixels, 0, data, 0, pixels.length);
+        Graphics2D g = patch.createGraphics();
+        try {
+            g.translate(-bounds.x, -bounds.y);
+            g.scale(scale, scale);
+            paint(g, node);
+        } finally {
+            g.dispose();
+        }
+        raster.getPixelWriter().setPixels(bounds.x, bounds.y, bounds.width, bounds.height,
+                PixelFormat.getIntArgbPreInstance(), data, 0, bounds.width);
+    }
+
+    /**
+     * 放大后位图不够清晰时按新的比例从日志重画，位图最长边不超过 {@value #MAX_SIZE}
+     * 缩小时保留原来的位图，不重画
+     *
+     * @param renderScale 每个画布单位在屏幕上的物理像素数
+     * @return 是否重画了位图
+     */
+    boolean rescale(double canvasWidth, double canvasHeight, double renderScale) {
+        if (!needsRescale(canvasWidth, canvasHeight, renderScale)) {
+            return false;
+        }
+        allocate(canvasWidth, canvasHeight, renderScale);
+        replay();
+        return true;
+    }
+
+    /**
+     * 当前位图是否比按这个比例显示所需的分辨率低
+     */
+    boolean needsRescale(double canvasWidth, double canvasHeight, double renderScale) {
+        return raster != null && scaleFor(canvasWidth, canvasHeight, renderScale) > scale * (1 + SCALE_EPSILON);
+    }
+
+    private static double scaleFor(double canvasWidth, double canvasHeight, double renderScale) {
+        return Math.min(renderScale, MAX_SIZE / Math.max(1, Math.max(canvasWidth, canvasHeight)));
+    }
+
+    private void allocate(double canvasWidth, double canvasHeight, double renderScale) {
+        scale = scaleFor(canvasWidth, canvasHeight, renderScale);
+        raster = new WritableImage(Math.max(1, (int) Math.ceil(canvasWidth * scale)),
+                Math.max(1, (int) Math.ceil(canvasHeight * scale)));
+        view.setImage(raster);
+        view.setFitWidth(raster.getWidth() / scale);
+        view.setFitHeight(raster.getHeight() / scale);
+    }
+
+    /**
+     * 取出最后压平的标注并重画位图
+     *
+     * @return 取出的标注，可以重新加入画布
+     */
+    Node removeLast() {
+        Entry last = log.remove(log.size() - 1);
+        Node node = toNode(last);
+        encoded.truncate(last.offset(), encoded.count() - last.count());
+        replay();
+        return node;
+    }
+
+    /**
+     * 按日志重画整张位图
+     */
+    private void replay() {
+        BufferedImage pixels = new BufferedImage((int) raster.getWidth(), (int) raster.getHeight(),
+                BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = pixels.createGraphics();
+        try {
+            g.scale(scale, scale);
+            for (Entry entry : log) {
+                paint(g, toNode(entry));
+            }
+        } finally {
+            g.dispose();
+        }
+        raster.getPixelWriter().setPixels(0, 0, pixels.getWidth(), pixels.getHeight(),
+                PixelFormat.getIntArgbPreInstance(), ((DataBufferInt) pixels.getRaster().getDataBuffer()).getData(),
+                0, pixels.getWidth());
+    }
+
+    /**
+     * 日志中的全部标注，按压平的顺序，用于导出
+     */
+    List<Node> nodes() {
+        List<Node> nodes = new ArrayList<>(log.size());
+        for (Entry entry : log) {
+            nodes.add(toNode(entry));
+        }
+        return nodes;
+    }
+
+    /**
+     * 编码日志加上画布上的标注，用于保存，日志不需要解码
+     */
+    byte[] encode(List<Node> live) {
+        return AnnotationCodec.encode(encoded, live);
+    }
+
+    /**
+     * 日志中保留为节点的标注，即打码和组合，不需要解码
+     */
+    List<Node> retainedNodes() {
+        List<Node> nodes = new ArrayList<>();
+        for (Entry entry : log) {
+            if (entry.node() != null) {
+                nodes.add(entry.node());
+            }
+        }
+        return nodes;
+    }
+
+    void clear() {
+        log.clear();
+        encoded.clear();
+        raster = null;
+        view.setImage(null);
+    }
+
+    private Node toNode(Entry entry) {
+        return entry.node() != null ? entry.node() : encoded.decode(entry.offset(), 1).get(0);
+    }
+
+    /**
+     * 标注在位图上覆盖的像素范围，包含线宽
+     */
+    private java.awt.Rectangle pixelBounds(Node node) {
+        javafx.geometry.Bounds bounds = node.getBoundsInParent();
+        // 方形端点和斜接会超出几何边界，多留一些
+        double pad = node instanceof Shape shape ? shape.getStrokeWidth() * 5 + 1 : 1;
+        int x0 = Math.max(0, (int) Math.floor((bounds.getMinX() - pad) * scale));
+        int y0 = Math.max(0, (int) Math.floor((bounds.getMinY() - pad) * scale));
+        int x1 = Math.min((int) raster.getWidth(), (int) Math.ceil((bounds.getMaxX() + pad) * scale));
+        int y1 = Math.min((int) raster.getHeight(), (int) Math.ceil((bounds.getMaxY() + pad) * scale));
+        return new java.awt.Rectangle(x0, y0, Math.max(0, x1 - x0), Math.max(0, y1 - y0));
+    }
+
+    /**
+     * 用Java2D画一个标注，g的坐标系为画布坐标
+     */
+    private static void paint(Graphics2D g, Node node) {
+        if (!node.isVisible()) {
+            return;
+        }
+        if (node instanceof Group group) {
+            for (Node child : group.getChildren()) {
+                paint(g, child);
+            }
+        } else if (node instanceof Shape shape) {
+            java.awt.Shape outline = outline(shape);
+            if (outline == null) {
+                return;
+            }
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+            // 画笔的轮廓是填充的图形，其他标注只有描边
+            if (shape.getFill() instanceof Color fill && fill.getOpacity() > 0) {
+                g.setColor(new java.awt.Color(argb(fill), true));
+                g.fill(outline);
+            }
+            if (shape.getStroke() instanceof Color color) {
+                g.setStroke(stroke(shape));
+                g.setColor(new java.awt.Color(argb(color), true));
+                g.draw(outline);
+            }
+        } else if (node instanceof ImageView image && image.getImage() != null) {
+            BufferedImage pixels = SwingFXUtils.fromFXImage(image.getImage(), null);
+            g.drawImage(pixels, new AffineTransform(image.getFitWidth() / pixels.getWidth(), 0, 0,
+                    image.getFitHeight() / pixels.getHeight(), image.getX(), image.getY()), null);
+        }
+    }
+
+    /**
+     * JavaFX图形的Java2D轮廓，不支持的图形返回null
+     */
+    public static java.awt.Shape outline(Shape shape) {
+        if (shape instanceof Line line) {
+            return new Line2D.Double(line.getStartX(), line.getStartY(), line.getEndX(), line.getEndY());
+        }
+        if (shape instanceof Rectangle rectangle) {
+            return new Rectangle2D.Double(rectangle.getX(), rectangle.getY(),
+                    rectangle.getWidth(), rectangle.getHeight());
+        }
+        if (shape instanceof Path path) {
+            Path2D.Double outline = new Path2D.Double();
+            for (PathElement element : path.getElements()) {
+                if (element instanceof MoveTo move) {
+                    outline.moveTo(move.getX(), move.getY());
+                } else if (element instanceof LineTo lineTo) {
+                    outline.lineTo(lineTo.getX(), lineTo.getY());
+                } else if (element instanceof QuadCurveTo quad) {
+                    outline.quadTo(quad.getControlX(), quad.getControlY(), quad.getX(), quad.getY());
+                } else if (element instanceof CubicCurveTo cubic) {
+                    outline.curveTo(cubic.getControlX1(), cubic.getControlY1(),
+                            cubic.getControlX2(), cubic.getControlY2(), cubic.getX(), cubic.getY());
+                } else if (element instanceof ClosePath) {
+                    outline.closePath();
+                }
+            }
+            return outline;
+        }
+        return null;
+    }
+
+    /**
+     * 和JavaFX图形的默认端点、连接方式一致的Java2D线型
+     */
+    public static BasicStroke stroke(Shape shape) {
+        return new BasicStroke((float) shape.getStrokeWidth(), BasicStroke.CAP_SQUARE, BasicStroke.JOIN_MITER,
+                10f, dashes(shape.getStrokeDashArray()), 0f);
+    }
+
+    private static float[] dashes(List<Double> dashes) {
+        if (dashes.isEmpty() || dashes.stream().allMatch(d -> d <= 0)) {
+            return null;
+        }
+        float[] result = new float[dashes.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (float) Math.max(0, dashes.get(i));
+        }
+        return result;
+    }
+
+    public static int argb(Color color) {
+        return (int) Math.round(color.getOpacity() * 255) << 24
+                | (int) Math.round(color.getRed() * 255) << 16
+                | (int) Math.round(color.getGreen() * 255) << 8
+                | (int) Math.round(color.getBlue() * 255);
+    }
+}
@@ -1,37 +1,58 @@
 package com.github.sticker.draw;
 
+import javafx.animation.PauseTransition;
 import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerProperty;
 import javafx.beans.property.SimpleBooleanProperty;
-import javafx.geometry.Point2D;
+import javafx.beans.property.SimpleIntegerProperty;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.Cursor;
+import javafx.scene.Group;
 import javafx.scene.Node;
+import javafx.scene.image.ImageView;
 import javafx.scene.layout.Pane;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.*;
+import javafx.scene.transform.Transform;
+import javafx.util.Duration;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Stack;
+import java.util.function.Supplier;
 
 import static com.github.sticker.draw.Icon.createDirectionalCursor;
 import static com.github.sticker.draw.Icon.point;
 
 public class DrawCanvas extends Pane {
     private Path currentPath;
-    private final List<Point2D> points = new ArrayList<>();
-    private static final double SAMPLE_DISTANCE = 3.0;
-    private Point2D lastSampledPoint;
+    private PenStroke currentStroke;
+    static final double SAMPLE_DISTANCE = 3.0; // 画笔的采样间距，屏幕像素
+    static final double SIMPLIFY_TOLERANCE = 0.25; // 画笔拟合允许的偏离，屏幕像素
 
     private Rectangle currentRectangle;
     private double startX, startY;
 
+    private static final double REDACTION_STRENGTH = 4.0; // 打码强度相对于线宽的倍数
+    private Supplier<PixelSource> pixelSource; // 打码工具读取的底层像素，每次开始打码时获取
+
     private Color strokeColor = Color.RED;
     private double strokeWidth = 2;
     private boolean strokeDashed = false;
 
 
+    // 场景中保留的标注数量上限，更早的标注压平进位图，撤销时从日志中取回
+    private static final int LIVE_LIMIT = 50;
+    private static final double RESCALE_SETTLE_MS = 200;  // 缩放停止多久后重画压平的位图
+    private final AnnotationRaster raster = new AnnotationRaster();
+    private final PauseTransition rescaleSettle = new PauseTransition(Duration.millis(RESCALE_SETTLE_MS));
+    private int undoableFlattened = 0; // 日志末尾可以撤销的标注数，恢复的标注不可撤销
+
     private final BooleanProperty undoStackEmpty = new SimpleBooleanProperty(true);
     private final BooleanProperty redoStackEmpty = new SimpleBooleanProperty(true);
+    // 每完成一次绘制、撤销或重做加一，用于保存会话
+    private final IntegerProperty revision = new SimpleIntegerProperty(0);
 
     public BooleanProperty undoStackEmptyProperty() {
         return undoStackEmpty;
@@ -41,6 +62,124 @@ public class DrawCanvas extends Pane {
         return redoStackEmpty;
     }
 
+    public ReadOnlyIntegerProperty revisionProperty() {
+        return revision;
+    }
+
+    /**
+     * 恢复保存的标注，不进入撤销栈
+     */
+    public void restore(List<Node> nodes) {
+        // 打码区域只保存了位置和强度，按当前像素重新计算
+        PixelSource source = null;
+        for (Node node : nodes) {
+            if (node instanceof Redaction redaction && !redaction.hasSource() && pixelSource != null) {
+                if (source == null) {
+                    source = pixelSource.get();
+                }
+                redaction.setSource(source);
+            }
+        }
+        getChildren().addAll(nodes);
+        flattenOverflow();
+    }
+
+    /**
+     * 全部标注，已压平的在前，按绘制顺序，用于导出
+     */
+    public List<Node> getAnnotations() {
+        List<Node> nodes = raster.nodes();
+        for (Node node : getChildren()) {
+            if (node != raster.getView()) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * 编码全部标注，用于保存
+     * 已压平的标注本来就以编码形式保存，直接复制，只有画布上的少量标注需要编码
+     */
+    public byte[] encodeAnnotations() {
+        List<Node> live = new ArrayList<>(getChildren());
+        live.remove(raster.getView());
+        return raster.encode(live);
+    }
+
+    /**
+     * 全部打码区域，画布坐标，包括已压平和组合内的打码
+     * 图形标注不会遮住文字，只看打码，不需要解码压平的日志
+     */
+    public List<Rectangle2D> getRedactedRegions() {
+        List<Rectangle2D> regions = new ArrayList<>();
+        for (Node node : raster.retainedNodes()) {
+            collectRedactedRegions(node, regions);
+        }
+        for (Node node : getChildren()) {
+            collectRedactedRegions(node, regions);
+        }
+        return regions;
+    }
+
+    private static void collectRedactedRegions(Node node, List<Rectangle2D> regions) {
+        if (!node.isVisible()) {
+            return;
+        }
+        if (node instanceof Redaction redaction) {
+            regions.add(redaction.getRegion());
+        } else if (node instanceof Group group) {
+            for (Node child : group.getChildren()) {
+                collectRedactedRegions(child, regions);
+            }
+        }
+    }
+
+    /**
+     * 清除全部标注和撤销记录
+     */
+    public void clear() {
+        getChildren().clear();
+        getChildren().add(raster.getView());
+        raster.clear();
+        undoableFlattened = 0;
+        undoStack.clear();
+        redoStack.clear();
+        updateStackState();
+    }
+
+    /**
+     * 设置打码工具读取的像素来源
+     *
+     * @param source 每次开始打码时调用，返回画布下方当前的像素；为null时不能打码
+     */
+    public void setPixelSource(Supplier<PixelSource> source) {
+        this.pixelSource = source;
+    }
+
+    /**
+     * 一次加入多个打码区域，例如自动识别出的敏感文字
+     * 所有区域在同一个后台任务里计算，撤销和重做时作为一步
+     *
+     * @param redactions 已设置区域的打码
+     * @return 是否加入，没有像素来源时不加入
+     */
+    public boolean addRedactions(List<Redaction> redactions) {
+        if (redactions.isEmpty() || pixelSource == null) {
+            return false;
+        }
+        PixelSource source = pixelSource.get();
+        if (source == null) {
+            return false;
+        }
+        Group group = new Group(redactions.toArray(new Node[0]));
+        group.setMouseTransparent(true);
+        getChildren().add(group);
+        saveState(group);
+        Redaction.renderAll(redactions, source);
+        return true;
+    }
+
 
     public Color getStrokeColor() {
         return strokeColor;
@@ -58,28 +197,38 @@ public class DrawCanvas extends Pane {
     private final Stack<Node> redoStack = new Stack<>();
 
     public DrawCanvas() {
-        this.setCache(true);
+        // 不缓存整个画布：较早的标注已经压平成一张位图，场景中的节点数量有上限
+        getChildren().add(raster.getView());
+        // 放大贴图后，缩放停下来再按新的比例重画压平的位图，避免缩放过程中反复重画
+        rescaleSettle.setOnFinished(e -> raster.rescale(canvasWidth(), canvasHeight(), renderScale()));
+        localToSceneTransformProperty().addListener(obs -> {
+            if (!raster.isEmpty() && raster.needsRescale(canvasWidth(), canvasHeight(), renderScale())) {
+                rescaleSettle.playFromStart();
+            }
+        });
     }
 
     private void saveState(Node node) {
         undoStack.push(node);
         redoStack.clear();
-        if (undoStack.size() > 50) {
-            undoStack.remove(0);
-        }
-        undoStackEmpty.set(undoStack.isEmpty());
-        redoStackEmpty.set(redoStack.isEmpty());
+        flattenOverflow();
+        updateStackState();
     }
 
     public void undo() {
+        Node node = null;
         if (!undoStack.isEmpty()) {
-            Node node = undoStack.pop();
+            node = undoStack.pop();
             this.getChildren().remove(node);
+        } else if (undoableFlattened > 0) {
+            // 撤销到场景中的标注之前，从日志取回并重画位图
+            node = raster.removeLast();
+            undoableFlattened--;
+        }
+        if (node != null) {
             redoStack.push(node);
             requestLayout();
-
-            undoStackEmpty.set(undoStack.isEmpty());
-            redoStackEmpty.set(redoStack.isEmpty());
+            updateStackState();
         }
     }
 
@@ -88,13 +237,75 @@ public class DrawCanvas extends Pane {
             Node node = redoStack.pop();
             this.getChildren().add(node);
             undoStack.push(node);
+            flattenOverflow();
             requestLayout();
+            updateStackState();
+        }
+    }
 
-            undoStackEmpty.set(undoStack.isEmpty());
-            redoStackEmpty.set(redoStack.isEmpty());
+    private void updateStackState() {
+        undoStackEmpty.set(undoStack.isEmpty() && undoableFlattened == 0);
+        redoStackEmpty.set(redoStack.isEmpty());
+        revision.set(revision.get() + 1);
+    }
+
+    /**
+     * 场景中的标注超过上限时，把最早的压平进位图
+     * 还在计算的打码要等结果显示后才能压平，留到下一次
+     */
+    private void flattenOverflow() {
+        ImageView view = raster.getView();
+        while (getChildren().size() - 1 > LIVE_LIMIT) {
+            Node oldest = getChildren().get(getChildren().get(0) == view ? 1 : 0);
+            if (isRendering(oldest)) {
+                return;
+            }
+            getChildren().remove(oldest);
+            if (undoStack.remove(oldest)) {
+                undoableFlattened++;
+            }
+            raster.add(oldest, canvasWidth(), canvasHeight(), renderScale());
         }
     }
 
+    private double canvasWidth() {
+        return Math.max(getWidth(), getPrefWidth());
+    }
+
+    private double canvasHeight() {
+        return Math.max(getHeight(), getPrefHeight());
+    }
+
+    /**
+     * 一个画布单位在屏幕上的物理像素数，压平的位图按它保存
+     */
+    private double renderScale() {
+        Transform transform = getLocalToSceneTransform();
+        double outputScale = getScene() != null && getScene().getWindow() != null
+                ? getScene().getWindow().getOutputScaleX() : 1;
+        return Math.max(1, outputScale * Math.hypot(transform.getMxx(), transform.getMyx()));
+    }
+
+    private static boolean isRendering(Node node) {
+        if (node instanceof Redaction redaction) {
+            return redaction.isRendering();
+        }
+        if (node instanceof Group group) {
+            return group.getChildren().stream().anyMatch(DrawCanvas::isRendering);
+        }
+        return false;
+    }
+
+    /**
+     * 一个屏幕像素对应的画布本地长度
+     * 贴图上的画布处于图片坐标系并随贴图缩放，线宽和采样间距按它换算，画出来的粗细与所选一致
+     */
+    private double screenUnit() {
+        Transform transform = getLocalToSceneTransform();
+        double scale = Math.hypot(transform.getMxx(), transform.getMyx());
+        return scale > 0 ? 1 / scale : 1;
+    }
+
     private boolean isPointInBounds(double x, double y) {
         return x >= 0 && x <= getWidth() && y >= 0 && y <= getHeight();
     }
@@ -107,16 +318,21 @@ public class DrawCanvas extends Pane {
 
         this.setOnMousePressed(e -> {
             if (!isPointInBounds(e.getX(), e.getY())) return;
-            
-            points.clear();
-            lastSampledPoint = new Point2D(e.getX(), e.getY());
-            points.add(lastSampledPoint);
 
+            currentStroke = new PenStroke();
+            currentStroke.add(e.getX(), e.getY(), System.nanoTime() / 1e6);
+
+            // 拖动时的预览，松开后换成简化的轮廓
             currentPath = new Path();
             if (strokeDashed) currentPath.getStrokeDashArray().setAll(5d, 10d);
 
             currentPath.setStroke(strokeColor);
-            currentPath.setStrokeWidth(strokeWidth);
+            currentPath.setStrokeWidth(strokeWidth * screenUnit());
+            if (!strokeDashed) {
+                // 和松开后的圆头轮廓一致
+                currentPath.setStrokeLineCap(StrokeLineCap.ROUND);
+                currentPath.setStrokeLineJoin(StrokeLineJoin.ROUND);
+            }
             currentPath.getElements().add(new MoveTo(e.getX(), e.getY()));
             getChildren().add(currentPath);
         });
@@ -126,41 +342,36 @@ public class DrawCanvas extends Pane {
             if (!isPointInBounds(e.getX(), e.getY())) return;
 
             this.setCursor(Cursor.NONE);
-            Point2D currentPoint = new Point2D(e.getX(), e.getY());
-            if (currentPoint.distance(lastSampledPoint) >= SAMPLE_DISTANCE) {
-                points.add(currentPoint);
-                lastSampledPoint = currentPoint;
-
-                if (points.size() >= 3) {
-                    Point2D p0 = points.get(points.size() - 3);
-                    Point2D p1 = points.get(points.size() - 2);
-                    Point2D p2 = points.get(points.size() - 1);
-
-                    currentPath.getElements().add(
-                            new QuadCurveTo(
-                                    p1.getX(), p1.getY(),
-                                    (p1.getX() + p2.getX()) / 2, (p1.getY() + p2.getY()) / 2
-                            )
-                    );
-                } else if (points.size() == 2) {
-                    currentPath.getElements().add(new LineTo(currentPoint.getX(), currentPoint.getY()));
-                }
+            int last = currentStroke.size() - 1;
+            if (Math.hypot(e.getX() - currentStroke.x(last), e.getY() - currentStroke.y(last))
+                    >= SAMPLE_DISTANCE * screenUnit()) {
+                currentStroke.add(e.getX(), e.getY(), System.nanoTime() / 1e6);
+                currentPath.getElements().add(new LineTo(e.getX(), e.getY()));
             }
         });
 
         this.setOnMouseReleased(e -> {
-            if (currentPath != null && points.size() >= 3) {
-                Point2D p1 = points.get(points.size() - 2);
-                Point2D p2 = points.get(points.size() - 1);
-                currentPath.getElements().add(
-                        new QuadCurveTo(
-                                p1.getX(), p1.getY(),
-                                p2.getX(), p2.getY()
-                        )
-                );
-                saveState(currentPath);
+            if (currentPath != null) {
+                getChildren().remove(currentPath);
+                if (currentStroke.size() >= 3) {
+                    double unit = screenUnit();
+                    double tolerance = SIMPLIFY_TOLERANCE * unit;
+                    Path stroke;
+                    if (strokeDashed) {
+                        // 虚线不能用填充轮廓表示，保留拟合后的中心线
+                        stroke = currentStroke.toCenterline(tolerance);
+                        stroke.getStrokeDashArray().setAll(currentPath.getStrokeDashArray());
+                        stroke.setStroke(strokeColor);
+                        stroke.setStrokeWidth(currentPath.getStrokeWidth());
+                    } else {
+                        stroke = currentStroke.toOutline(tolerance, strokeColor, currentPath.getStrokeWidth(), unit);
+                    }
+                    getChildren().add(stroke);
+                    saveState(stroke);
+                }
             }
             currentPath = null;
+            currentStroke = null;
             this.setCursor(createDirectionalCursor(point));
         });
     }
@@ -182,7 +393,7 @@ public class DrawCanvas extends Pane {
             );
 
             previewLine[0].setStroke(getStrokeColor());
-            previewLine[0].setStrokeWidth(getStrokeWidth());
+            previewLine[0].setStrokeWidth(getStrokeWidth() * screenUnit());
             if (isStrokeDashed()) {
                 previewLine[0].getStrokeDashArray().addAll(5d, 5d);
             }
@@ -209,7 +420,7 @@ public class DrawCanvas extends Pane {
                 );
 
                 finalLine.setStroke(getStrokeColor());
-                finalLine.setStrokeWidth(getStrokeWidth());
+                finalLine.setStrokeWidth(getStrokeWidth() * screenUnit());
                 if (isStrokeDashed()) {
                     finalLine.getStrokeDashArray().addAll(5d, 5d);
                 }
@@ -230,7 +441,7 @@ public class DrawCanvas extends Pane {
             currentRectangle = new Rectangle();
             currentRectangle.setStroke(strokeColor);
             currentRectangle.setFill(Color.TRANSPARENT);
-            currentRectangle.setStrokeWidth(strokeWidth);
+            currentRectangle.setStrokeWidth(strokeWidth * screenUnit());
 
             startX = e.getX();
             startY = e.getY();
@@ -279,6 +490,49 @@ public class DrawCanvas extends Pane {
         });
     }
 
+    /**
+     * 打码工具，拖出的矩形区域打上马赛克或模糊，拖动时实时预览
+     * 马赛克块大小和模糊半径随线宽变化
+     */
+    void setupRedactionTool(Redaction.Kind kind) {
+        final Redaction[] current = new Redaction[1];
+
+        this.setOnMousePressed(e -> {
+            if (!isPointInBounds(e.getX(), e.getY()) || pixelSource == null) return;
+            PixelSource source = pixelSource.get();
+            if (source == null) return;
+
+            startX = e.getX();
+            startY = e.getY();
+            current[0] = new Redaction(kind, strokeWidth * REDACTION_STRENGTH * screenUnit());
+            current[0].setSource(source);
+            getChildren().add(current[0]);
+        });
+
+        this.setOnMouseDragged(e -> {
+            if (current[0] == null) return;
+
+            this.setCursor(Cursor.NONE);
+            double currentX = Math.min(Math.max(0, e.getX()), getWidth());
+            double currentY = Math.min(Math.max(0, e.getY()), getHeight());
+            current[0].setRegion(new Rectangle2D(Math.min(startX, currentX), Math.min(startY, currentY),
+                    Math.abs(currentX - startX), Math.abs(currentY - startY)));
+        });
+
+        this.setOnMouseReleased(e -> {
+            if (current[0] != null) {
+                Rectangle2D region = current[0].getRegion();
+                if (region.getWidth() > 0 && region.getHeight() > 0) {
+                    saveState(current[0]);
+                } else {
+                    getChildren().remove(current[0]);
+                }
+                current[0] = null;
+            }
+            this.setCursor(createDirectionalCursor(point));
+        });
+    }
+
     public void setStrokeColor(Color color) {
         this.strokeColor = color;
     }
@@ -6,6 +6,8 @@ public enum DrawMode {
     RECTANGLE,
     SWITCH,
     LINE,
+    MOSAIC,
+    BLUR,
     SHOW
     ;
 
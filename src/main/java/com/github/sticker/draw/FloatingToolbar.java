@@ -1,13 +1,17 @@
 package com.github.sticker.draw;
 
 import com.github.sticker.feature.StickerStage;
+import com.github.sticker.feature.widget.StickerCompositor;
 import com.github.sticker.feature.widget.StickerPane;
 import com.github.sticker.screenshot.ScreenshotSelector;
+import com.github.sticker.util.EncodeService;
+import com.github.sticker.util.PngEncoder;
+import com.github.sticker.util.PngFileTypes;
 import com.github.sticker.util.ShotScreen;
 import javafx.animation.FadeTransition;
+import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
 import javafx.concurrent.Task;
-import javafx.embed.swing.SwingFXUtils;
 import javafx.geometry.Orientation;
 import javafx.geometry.Point2D;
 import javafx.geometry.Pos;
@@ -28,9 +32,8 @@ import javafx.scene.shape.SVGPath;
 import javafx.stage.FileChooser;
 import javafx.util.Duration;
 
-import javax.imageio.ImageIO;
 import java.io.File;
-import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 import static com.github.sticker.draw.DrawMode.*;
 import static com.github.sticker.draw.Icon.createDirectionalCursor;
@@ -51,6 +54,8 @@ public class FloatingToolbar {
     private Button penButton;
     private Button rectButton;
     private Button lineButton;
+    private Button mosaicButton;
+    private Button blurButton;
     private Button closeButton;
     private final DrawCanvas drawCanvas;
 
@@ -71,6 +76,8 @@ public class FloatingToolbar {
         createBrushButton();
         createLineButton();
         createRectButton();
+        createMosaicButton();
+        createBlurButton();
         toolbar.getChildren().add(group1Separator);
 
         createUndoButton();
@@ -82,6 +89,9 @@ public class FloatingToolbar {
         }
 
         createCopyButton();
+        if (stickerPane == null) {
+            createCopyTextButton();
+        }
         createSaveButton();
 
         if (stickerPane == null) {
@@ -127,6 +137,20 @@ public class FloatingToolbar {
     private void createCopyButton() {
         Button btn = createIconButton(Icon.copy, "Copy to Clipboard");
         btn.setOnAction(e -> {
+            if (isStickerToolbar()) {
+                // 贴图从原图合成，不截取屏幕
+                StickerCompositor.capture(stickerPane).renderAsync()
+                        .thenAccept(image -> Platform.runLater(() -> {
+                            ClipboardContent content = new ClipboardContent();
+                            content.putImage(image);
+                            Clipboard.getSystemClipboard().setContent(content);
+                        }))
+                        .exceptionally(ex -> {
+                            System.err.println("Failed to copy image: " + ex.getMessage());
+                            return null;
+                        });
+                return;
+            }
             Clipboard clipboard = Clipboard.getSystemClipboard();
             ClipboardContent content = new ClipboardContent();
             content.putImage(snapshotScreen());
@@ -136,6 +160,12 @@ public class FloatingToolbar {
         toolbar.getChildren().add(btn);
     }
 
+    private void createCopyTextButton() {
+        Button btn = createIconButton(Icon.text, "Copy text (T)");
+        btn.setOnAction(e -> screenshotSelector.copyText());
+        toolbar.getChildren().add(btn);
+    }
+
     private void createSaveButton() {
         Button btn = createIconButton(Icon.save, "Save to file");
         btn.setOnAction(e -> {
@@ -147,9 +177,7 @@ public class FloatingToolbar {
             String defaultFileName = "SnapSticker_" + timestamp + ".png";
 
             fileChooser.setInitialFileName(defaultFileName);
-            fileChooser.getExtensionFilters().add(
-                    new FileChooser.ExtensionFilter("PNG Image", "*.png")
-            );
+            PngFileTypes.addFilters(fileChooser);
             String userHome = System.getProperty("user.home");
             File picturesDir = new File(userHome, "Pictures");
             if (picturesDir.exists()) {
@@ -157,13 +185,23 @@ public class FloatingToolbar {
             }
 
             File file = fileChooser.showSaveDialog(toolbar.getScene().getWindow());
-            if (file != null) {
+            if (file != null && isStickerToolbar()) {
+                StickerCompositor compositor = StickerCompositor.capture(stickerPane);
+                PngEncoder.Palette palette = PngFileTypes.paletteFor(fileChooser);
+                CompletableFuture.supplyAsync(compositor::render)
+                        .thenCompose(pixels -> EncodeService.getInstance()
+                                .writePng(pixels, file, PngEncoder.Level.SMALL, palette).result())
+                        .exceptionally(ex -> {
+                            System.err.println("Failed to save image: " + ex.getMessage());
+                            return null;
+                        });
+            } else if (file != null) {
                 WritableImage image = snapshotScreen();
-                try {
-                    ImageIO.write(SwingFXUtils.fromFXImage(image, null), "png", file);
-                    cancleSelection();
-                } catch (IOException ignored) {
-                }
+                EncodeService.getInstance().writePng(image, file, PngEncoder.Level.SMALL, PngFileTypes.paletteFor(fileChooser)).result().exceptionally(ex -> {
+                    System.err.println("Failed to save screenshot: " + ex.getMessage());
+                    return null;
+                });
+                cancleSelection();
             }
         });
         toolbar.getChildren().add(btn);
@@ -181,6 +219,18 @@ public class FloatingToolbar {
         toolbar.getChildren().add(rectButton);
     }
 
+    private void createMosaicButton() {
+        mosaicButton = createIconButton(Icon.mosaic, "Mosaic");
+        mosaicButton.setOnAction(e -> activateTool(mosaicButton, MOSAIC));
+        toolbar.getChildren().add(mosaicButton);
+    }
+
+    private void createBlurButton() {
+        blurButton = createIconButton(Icon.blur, "Blur");
+        blurButton.setOnAction(e -> activateTool(blurButton, BLUR));
+        toolbar.getChildren().add(blurButton);
+    }
+
     private void createStickerButton() {
         Button btn = createIconButton(Icon.tuding, "Pin to screen(F3)");
         btn.setOnAction(e -> createSticker());
@@ -229,7 +279,7 @@ public class FloatingToolbar {
     public void drawMode(Button handleButton, DrawMode selectMode) {
         drawMode = false;
         switch (selectMode) {
-            case PEN, RECTANGLE, LINE -> {
+            case PEN, RECTANGLE, LINE, MOSAIC, BLUR -> {
                 if (currentMode != selectMode) {
                     drawMode = true;
                 }
@@ -389,6 +439,8 @@ public class FloatingToolbar {
             case PEN -> drawCanvas.setupPenTool();
             case RECTANGLE -> drawCanvas.setupRectTool();
             case LINE -> drawCanvas.setupLineTool();
+            case MOSAIC -> drawCanvas.setupRedactionTool(Redaction.Kind.MOSAIC);
+            case BLUR -> drawCanvas.setupRedactionTool(Redaction.Kind.BLUR);
         }
     }
 
@@ -443,6 +495,13 @@ public class FloatingToolbar {
         );
     }
 
+    /**
+     * 是否是贴图上的工具栏，截图选区的工具栏没有截图选择器以外的来源
+     */
+    private boolean isStickerToolbar() {
+        return screenshotSelector == null && stickerPane != null;
+    }
+
     private WritableImage snapshotScreen() {
         return ShotScreen.snapshotScreen(drawCanvas.getScene(), selectionArea);
     }
@@ -544,6 +603,10 @@ public class FloatingToolbar {
             if (e.getCode() == KeyCode.F3) {
                 createSticker();
                 e.consume();
+            } else if (e.getCode() == KeyCode.T && screenshotSelector != null && !drawMode
+                    && screenshotSelector.getSelectionArea() == selectionArea) {
+                screenshotSelector.copyText();
+                e.consume();
             }
         });
     }
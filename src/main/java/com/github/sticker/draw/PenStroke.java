@@ -0,0 +1,646 @@
+package com.github.sticker.draw;
+
+import javafx.scene.paint.Color;
+import javafx.scene.shape.ClosePath;
+import javafx.scene.shape.CubicCurveTo;
+import javafx.scene.shape.LineTo;
+import javafx.scene.shape.MoveTo;
+import javafx.scene.shape.Path;
+import javafx.scene.shape.PathElement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 画笔的一笔
+ * 拖动时把采样点和时间记在基本类型数组里；松开后先用Ramer–Douglas–Peucker算法找出急转弯，
+ * 急转弯之间的每一段用尽量少的三次曲线拟合，曲线到采样点的偏离不超过容差，相邻曲线在接点处切线一致。
+ * 轮廓沿拟合的曲线两侧各偏移半个线宽，急转弯保持尖角，两端为圆头。
+ * 线宽随速度变化，移动越快越细，采样之间的速度先做平滑，避免轮廓抖动。
+ * 路径元素数量与笔画的弯曲程度成正比，而不是与采样数成正比。
+ */
+final class PenStroke {
+    /** 最快时线宽相对于所选线宽的缩减比例 */
+    private static final double THINNING = 0.4;
+    /** 达到最细时的速度，屏幕像素每毫秒 */
+    private static final double MAX_SPEED = 3.0;
+    /** 速度的平滑系数，越小越平稳 */
+    private static final double SPEED_SMOOTHING = 0.3;
+    /** 前后方向夹角的余弦低于它时按急转弯处理，约60度 */
+    private static final double SHARP_TURN = 0.5;
+    /** 估计切线时向前后各看几个采样 */
+    private static final int TANGENT_SPAN = 2;
+    /** 拟合时按新的参数重新求解控制点的次数 */
+    private static final int REPARAMETERIZE = 3;
+    /** 偏移曲线前细分的系数，曲线转角越大、半宽相对容差越大，分的段越多 */
+    private static final double OFFSET_SPLIT = 8;
+    /** 偏移时一段曲线最多分成的段数 */
+    private static final int MAX_OFFSET_PARTS = 8;
+
+    /**
+     * 拟合出的一段，从采样first到采样last，中间两个控制点
+     *
+     * @param line   是否为直线，直线的控制点没有意义
+     * @param corner 起点是否为急转弯，否则和前一段在起点处平滑相接
+     */
+    private record Piece(int first, int last, double x1, double y1, double x2, double y2,
+                         boolean line, boolean corner) {
+    }
+
+    private double[] xs = new double[64];
+    private double[] ys = new double[64];
+    private double[] times = new double[64]; // 毫秒
+    private int size = 0;
+
+    void add(double x, double y, double time) {
+        if (size == xs.length) {
+            int capacity = size * 2;
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            times = Arrays.copyOf(times, capacity);
+        }
+        xs[size] = x;
+        ys[size] = y;
+        times[size] = time;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    double x(int i) {
+        return xs[i];
+    }
+
+    double y(int i) {
+        return ys[i];
+    }
+
+    /**
+     * Ramer–Douglas–Peucker简化后保留的采样序号，首尾总是保留，用来找出急转弯
+     * 用显式的栈代替递归，长笔画不会栈溢出
+     *
+     * @param tolerance 允许的最大偏离距离，画布单位
+     */
+    private int[] simplify(double tolerance) {
+        if (size <= 2) {
+            int[] all = new int[size];
+            for (int i = 0; i < size; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        boolean[] keep = new boolean[size];
+        keep[0] = true;
+        keep[size - 1] = true;
+        double toleranceSquared = tolerance * tolerance;
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = size - 1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            int farthest = farthestFromChord(first, last, toleranceSquared);
+            if (farthest >= 0) {
+                keep[farthest] = true;
+                if (top + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = first;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = last;
+            }
+        }
+        int count = 0;
+        for (boolean k : keep) {
+            if (k) {
+                count++;
+            }
+        }
+        int[] kept = new int[count];
+        for (int i = 0, j = 0; i < size; i++) {
+            if (keep[i]) {
+                kept[j++] = i;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * 点(px, py)到线段a-b的距离的平方
+     */
+    private static double segmentDistanceSquared(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double ex = px - ax;
+        double ey = py - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared == 0) {
+            return ex * ex + ey * ey;
+        }
+        double t = Math.max(0, Math.min(1, (ex * dx + ey * dy) / lengthSquared));
+        ex -= t * dx;
+        ey -= t * dy;
+        return ex * ex + ey * ey;
+    }
+
+    /**
+     * 每个采样处的半宽，按平滑后的速度计算
+     *
+     * @param width      所选线宽，画布单位
+     * @param screenUnit 一个屏幕像素对应的画布长度，速度按屏幕像素计算，与贴图缩放无关
+     */
+    double[] radii(double width, double screenUnit) {
+        double[] radii = new double[size];
+        double speed = 0;
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                double distance = Math.hypot(xs[i] - xs[i - 1], ys[i] - ys[i - 1]) / screenUnit;
+                double elapsed = Math.max(1, times[i] - times[i - 1]);
+                speed += (distance / elapsed - speed) * SPEED_SMOOTHING;
+            }
+            double thinning = THINNING * Math.min(1, speed / MAX_SPEED);
+            radii[i] = width / 2 * (1 - thinning);
+        }
+        return radii;
+    }
+
+    /**
+     * 拟合整笔，急转弯处断开，各段之间用曲线首尾相接
+     *
+     * @param tolerance 允许的最大偏离距离，画布单位
+     */
+    private List<Piece> fit(double tolerance) {
+        int[] kept = simplify(tolerance);
+        List<Piece> pieces = new ArrayList<>();
+        int runStart = 0;
+        for (int k = 1; k < kept.length; k++) {
+            if (k == kept.length - 1 || isCorner(kept, k)) {
+                fitRun(runStart, kept[k], tolerance, pieces);
+                runStart = kept[k];
+            }
+        }
+        return pieces;
+    }
+
+    /**
+     * 简化后的第k个点是否为急转弯
+     */
+    private boolean isCorner(int[] kept, int k) {
+        double inX = xs[kept[k]] - xs[kept[k - 1]];
+        double inY = ys[kept[k]] - ys[kept[k - 1]];
+        double outX = xs[kept[k + 1]] - xs[kept[k]];
+        double outY = ys[kept[k + 1]] - ys[kept[k]];
+        return inX * outX + inY * outY < SHARP_TURN * Math.hypot(inX, inY) * Math.hypot(outX, outY);
+    }
+
+    /**
+     * 用三次曲线拟合采样start到end之间没有急转弯的一段
+     * 从前往后每次取能在容差内拟合的最远采样：先按倍数向前试探，再在最后成功和第一次失败之间二分。
+     * 相邻曲线在接点使用同一条切线，所以是平滑的
+     */
+    private void fitRun(int start, int end, double tolerance, List<Piece> pieces) {
+        double toleranceSquared = tolerance * tolerance;
+        int first = start;
+        while (first < end) {
+            int good = first + 1;
+            Piece best = line(first, good);
+            int bad = end + 1;
+            for (int span = 2; first + span / 2 < end; span *= 2) {
+                int last = Math.min(end, first + span);
+                Piece piece = tryFit(first, last, start, end, toleranceSquared);
+                if (piece == null) {
+                    bad = last;
+                    break;
+                }
+                good = last;
+                best = piece;
+            }
+            while (bad - good > 1) {
+                int last = (good + bad) >>> 1;
+                Piece piece = tryFit(first, last, start, end, toleranceSquared);
+                if (piece == null) {
+                    bad = last;
+                } else {
+                    good = last;
+                    best = piece;
+                }
+            }
+            pieces.add(first == start && start > 0 ? new Piece(best.first(), best.last(),
+                    best.x1(), best.y1(), best.x2(), best.y2(), best.line(), true) : best);
+            first = good;
+        }
+    }
+
+    private Piece line(int first, int last) {
+        return new Piece(first, last, 0, 0, 0, 0, true, false);
+    }
+
+    /**
+     * 用一条直线或三次曲线拟合采样first到last，偏离超过容差时返回null
+     */
+    private Piece tryFit(int first, int last, int runStart, int runEnd, double toleranceSquared) {
+        if (farthestFromChord(first, last, toleranceSquared) < 0) {
+            return line(first, last);
+        }
+        Piece curve = curve(first, last, runStart, runEnd);
+        return curve != null && farthestFromCurve(curve, toleranceSquared) < 0 ? curve : null;
+    }
+
+    /**
+     * 两端沿切线方向、最小二乘求出两个控制点的三次曲线
+     * 采样的参数先按弦长取，每次求解后用牛顿法移到曲线上离采样最近的点再重新求解
+     */
+    private Piece curve(int first, int last, int runStart, int runEnd) {
+        double[] t0 = tangent(first, runStart, runEnd);
+        double[] t1 = tangent(last, runStart, runEnd);
+        double[] u = chordParameters(first, last);
+        if (u == null) {
+            return null;
+        }
+        for (int pass = 0; ; pass++) {
+            Piece piece = solve(first, last, t0, t1, u);
+            if (piece == null || pass == REPARAMETERIZE) {
+                return piece;
+            }
+            reparameterize(piece, u);
+        }
+    }
+
+    /**
+     * 采样first到last按累计弦长归一化的参数，所有采样重合时返回null
+     */
+    private double[] chordParameters(int first, int last) {
+        double[] u = new double[last - first + 1];
+        for (int i = first + 1; i <= last; i++) {
+            u[i - first] = u[i - first - 1] + Math.hypot(xs[i] - xs[i - 1], ys[i] - ys[i - 1]);
+        }
+        double total = u[u.length - 1];
+        if (total == 0) {
+            return null;
+        }
+        for (int k = 1; k < u.length; k++) {
+            u[k] /= total;
+        }
+        return u;
+    }
+
+    /**
+     * 给定每个采样的参数，求控制点沿两端切线的距离
+     * 控制多边形的任一转角超过90度时返回null，这样的曲线偏移后会变形
+     */
+    private Piece solve(int first, int last, double[] t0, double[] t1, double[] u) {
+        double x0 = xs[first], y0 = ys[first];
+        double x3 = xs[last], y3 = ys[last];
+        double chord = Math.hypot(x3 - x0, y3 - y0);
+        if (chord == 0) {
+            return null;
+        }
+        double c00 = 0, c01 = 0, c11 = 0, r0 = 0, r1 = 0;
+        for (int i = first; i <= last; i++) {
+            double t = u[i - first];
+            double b0 = (1 - t) * (1 - t) * (1 - t);
+            double b1 = 3 * t * (1 - t) * (1 - t);
+            double b2 = 3 * t * t * (1 - t);
+            double b3 = t * t * t;
+            // 第一个控制点沿t0，第二个沿-t1
+            double ax = t0[0] * b1, ay = t0[1] * b1;
+            double bx = -t1[0] * b2, by = -t1[1] * b2;
+            double ex = xs[i] - (x0 * (b0 + b1) + x3 * (b2 + b3));
+            double ey = ys[i] - (y0 * (b0 + b1) + y3 * (b2 + b3));
+            c00 += ax * ax + ay * ay;
+            c01 += ax * bx + ay * by;
+            c11 += bx * bx + by * by;
+            r0 += ax * ex + ay * ey;
+            r1 += bx * ex + by * ey;
+        }
+        double determinant = c00 * c11 - c01 * c01;
+        double alpha = Math.abs(determinant) > 1e-12 ? (r0 * c11 - r1 * c01) / determinant : 0;
+        double beta = Math.abs(determinant) > 1e-12 ? (c00 * r1 - c01 * r0) / determinant : 0;
+        if (alpha <= chord * 1e-3 || beta <= chord * 1e-3) {
+            alpha = chord / 3;
+            beta = chord / 3;
+        }
+        double x1 = x0 + t0[0] * alpha, y1 = y0 + t0[1] * alpha;
+        double x2 = x3 - t1[0] * beta, y2 = y3 - t1[1] * beta;
+        double[] middle = direction(x2 - x1, y2 - y1);
+        if (t0[0] * middle[0] + t0[1] * middle[1] < 0 || middle[0] * t1[0] + middle[1] * t1[1] < 0) {
+            return null;
+        }
+        return new Piece(first, last, x1, y1, x2, y2, false, false);
+    }
+
+    /**
+     * 牛顿法的一步：把每个采样的参数移向曲线上离它最近的点，两端的参数不变
+     */
+    private void reparameterize(Piece curve, double[] u) {
+        double x0 = xs[curve.first()], y0 = ys[curve.first()];
+        double x3 = xs[curve.last()], y3 = ys[curve.last()];
+        double x1 = curve.x1(), y1 = curve.y1();
+        double x2 = curve.x2(), y2 = curve.y2();
+        for (int k = 1; k < u.length - 1; k++) {
+            double t = u[k];
+            double s = 1 - t;
+            // 曲线上的点与采样之差，一阶和二阶导数
+            double ex = s * s * s * x0 + 3 * s * s * t * x1 + 3 * s * t * t * x2 + t * t * t * x3 - xs[curve.first() + k];
+            double ey = s * s * s * y0 + 3 * s * s * t * y1 + 3 * s * t * t * y2 + t * t * t * y3 - ys[curve.first() + k];
+            double dx = 3 * (s * s * (x1 - x0) + 2 * s * t * (x2 - x1) + t * t * (x3 - x2));
+            double dy = 3 * (s * s * (y1 - y0) + 2 * s * t * (y2 - y1) + t * t * (y3 - y2));
+            double ddx = 6 * (s * (x2 - 2 * x1 + x0) + t * (x3 - 2 * x2 + x1));
+            double ddy = 6 * (s * (y2 - 2 * y1 + y0) + t * (y3 - 2 * y2 + y1));
+            double slope = dx * dx + dy * dy + ex * ddx + ey * ddy;
+            if (slope > 0) {
+                u[k] = Math.max(0, Math.min(1, t - (ex * dx + ey * dy) / slope));
+            }
+        }
+    }
+
+    /**
+     * 第i个采样处的单位切线，不越过所在一段的两端
+     * 两端只看相邻的一个采样，急转弯前后正在转向的采样不影响切线
+     */
+    private double[] tangent(int i, int runStart, int runEnd) {
+        int before = i == runEnd ? i - 1 : Math.max(runStart, i - TANGENT_SPAN);
+        int after = i == runStart ? i + 1 : Math.min(runEnd, i + TANGENT_SPAN);
+        return direction(xs[after] - xs[before], ys[after] - ys[before]);
+    }
+
+    private static double[] direction(double dx, double dy) {
+        double length = Math.hypot(dx, dy);
+        return length > 0 ? new double[]{dx / length, dy / length} : new double[]{1, 0};
+    }
+
+    /**
+     * 偏离first-last连线超过容差的采样中最远的一个，都不超过时返回-1
+     */
+    private int farthestFromChord(int first, int last, double toleranceSquared) {
+        int farthest = -1;
+        double maxDistance = toleranceSquared;
+        for (int i = first + 1; i < last; i++) {
+            double distance = segmentDistanceSquared(xs[i], ys[i], xs[first], ys[first], xs[last], ys[last]);
+            if (distance > maxDistance) {
+                maxDistance = distance;
+                farthest = i;
+            }
+        }
+        return farthest;
+    }
+
+    /**
+     * 偏离曲线超过容差的采样中最远的一个，都不超过时返回-1
+     * 偏离按采样到曲线上参数处的点计算，参数先用牛顿法逼近最近点，所以不会小于真实的距离
+     */
+    private int farthestFromCurve(Piece curve, double toleranceSquared) {
+        double[] u = chordParameters(curve.first(), curve.last());
+        for (int pass = 0; pass < REPARAMETERIZE; pass++) {
+            reparameterize(curve, u);
+        }
+        double x0 = xs[curve.first()], y0 = ys[curve.first()];
+        double x3 = xs[curve.last()], y3 = ys[curve.last()];
+        int farthest = -1;
+        double maxDistance = toleranceSquared;
+        for (int i = curve.first() + 1; i < curve.last(); i++) {
+            double t = u[i - curve.first()];
+            double s = 1 - t;
+            double ex = s * s * s * x0 + 3 * s * s * t * curve.x1() + 3 * s * t * t * curve.x2() + t * t * t * x3 - xs[i];
+            double ey = s * s * s * y0 + 3 * s * s * t * curve.y1() + 3 * s * t * t * curve.y2() + t * t * t * y3 - ys[i];
+            double distance = ex * ex + ey * ey;
+            if (distance > maxDistance) {
+                maxDistance = distance;
+                farthest = i;
+            }
+        }
+        return farthest;
+    }
+
+    /**
+     * 生成填充的轮廓
+     *
+     * @param tolerance  拟合允许的最大偏离距离，画布单位
+     * @param color      颜色
+     * @param width      所选线宽，画布单位
+     * @param screenUnit 一个屏幕像素对应的画布长度
+     * @return 单个填充的路径，没有描边
+     */
+    Path toOutline(double tolerance, Color color, double width, double screenUnit) {
+        List<Piece> pieces = fit(tolerance);
+        double[] radii = radii(width, screenUnit);
+        List<PathElement> elements = new ArrayList<>(2 * pieces.size() + 8);
+        Piece first = pieces.get(0);
+        Piece last = pieces.get(pieces.size() - 1);
+        double[] startDirection = startTangent(first);
+        double[] endDirection = endTangent(last);
+
+        double r = radii[first.first()];
+        elements.add(new MoveTo(xs[first.first()] - startDirection[1] * r, ys[first.first()] + startDirection[0] * r));
+        addSide(elements, pieces, radii, tolerance, false);
+        addCap(elements, last.last(), endDirection[0], endDirection[1], radii[last.last()]);
+        addSide(elements, pieces, radii, tolerance, true);
+        addCap(elements, first.first(), -startDirection[0], -startDirection[1], r);
+        elements.add(new ClosePath());
+
+        Path outline = new Path(elements);
+        outline.setFill(color);
+        outline.setStroke(null);
+        return outline;
+    }
+
+    /**
+     * 生成拟合后的中心线，用于虚线等不能用填充轮廓表示的笔画
+     *
+     * @param tolerance 拟合允许的最大偏离距离，画布单位
+     */
+    Path toCenterline(double tolerance) {
+        List<Piece> pieces = fit(tolerance);
+        List<PathElement> elements = new ArrayList<>(pieces.size() + 1);
+        elements.add(new MoveTo(xs[0], ys[0]));
+        for (Piece piece : pieces) {
+            if (piece.line()) {
+                elements.add(new LineTo(xs[piece.last()], ys[piece.last()]));
+            } else {
+                elements.add(new CubicCurveTo(piece.x1(), piece.y1(), piece.x2(), piece.y2(),
+                        xs[piece.last()], ys[piece.last()]));
+            }
+        }
+        return new Path(elements);
+    }
+
+    private double[] startTangent(Piece piece) {
+        return piece.line()
+                ? direction(xs[piece.last()] - xs[piece.first()], ys[piece.last()] - ys[piece.first()])
+                : direction(piece.x1() - xs[piece.first()], piece.y1() - ys[piece.first()]);
+    }
+
+    private double[] endTangent(Piece piece) {
+        return piece.line()
+                ? direction(xs[piece.last()] - xs[piece.first()], ys[piece.last()] - ys[piece.first()])
+                : direction(xs[piece.last()] - piece.x2(), ys[piece.last()] - piece.y2());
+    }
+
+    /**
+     * 沿一侧偏移半个线宽，正向为左侧，反向沿右侧走回起点
+     * 急转弯的外侧直接连接，内侧经过转角点，两侧重叠的部分由非零环绕规则填满。路径当前位于这一侧的第一个点
+     */
+    private void addSide(List<PathElement> elements, List<Piece> pieces, double[] radii, double tolerance,
+                         boolean reverse) {
+        double[] previous = null;
+        for (int j = 0; j < pieces.size(); j++) {
+            int index = reverse ? pieces.size() - 1 - j : j;
+            Piece piece = pieces.get(index);
+            // 和上一段的接点是否为急转弯，反向时接点是后一段的起点
+            boolean corner = j > 0 && (reverse ? pieces.get(index + 1).corner() : piece.corner());
+            int from = reverse ? piece.last() : piece.first();
+            int to = reverse ? piece.first() : piece.last();
+            double[] fromTangent = reverse ? negate(endTangent(piece)) : startTangent(piece);
+            double[] toTangent = reverse ? negate(startTangent(piece)) : endTangent(piece);
+            // 左侧法线(-dy, dx)，反向时正好是原来的右侧
+            double fromX = xs[from] - fromTangent[1] * radii[from];
+            double fromY = ys[from] + fromTangent[0] * radii[from];
+            double toX = xs[to] - toTangent[1] * radii[to];
+            double toY = ys[to] + toTangent[0] * radii[to];
+            if (corner) {
+                // 急转弯：转向这一侧时为内侧
+                if (-previous[1] * fromTangent[0] + previous[0] * fromTangent[1] > 0) {
+                    elements.add(new LineTo(xs[from], ys[from]));
+                }
+                elements.add(new LineTo(fromX, fromY));
+            }
+            previous = toTangent;
+
+            if (piece.line()) {
+                elements.add(new LineTo(toX, toY));
+                continue;
+            }
+            double[] control = {xs[from], ys[from],
+                    reverse ? piece.x2() : piece.x1(), reverse ? piece.y2() : piece.y1(),
+                    reverse ? piece.x1() : piece.x2(), reverse ? piece.y1() : piece.y2(),
+                    xs[to], ys[to]};
+            addOffsetCurve(elements, control, radii[from], radii[to], tolerance);
+        }
+    }
+
+    /**
+     * 把一段曲线向左偏移后加入路径，路径当前位于偏移后的起点
+     * 偏移把控制多边形的每条边平移半宽，控制点取相邻两条边的交点。曲线转得越多、线越宽，这样偏移的误差越大，
+     * 所以先按参数等分成几段，每段分别偏移
+     *
+     * @param control 四个控制点，依次为x、y
+     * @param r0      起点的半宽
+     * @param r1      终点的半宽，中间按参数线性变化
+     */
+    private static void addOffsetCurve(List<PathElement> elements, double[] control, double r0, double r1,
+                                       double tolerance) {
+        double[] start = direction(control[2] - control[0], control[3] - control[1]);
+        double[] middle = direction(control[4] - control[2], control[5] - control[3]);
+        double[] end = direction(control[6] - control[4], control[7] - control[5]);
+        double turn = angle(start, middle) + angle(middle, end);
+        int parts = (int) Math.min(MAX_OFFSET_PARTS,
+                Math.max(1, Math.ceil(turn * Math.sqrt(Math.max(r0, r1) / tolerance) / OFFSET_SPLIT)));
+        for (int k = 0; k < parts; k++) {
+            double from = k / (double) parts;
+            double to = (k + 1) / (double) parts;
+            double[] c = parts == 1 ? control : segment(control, from, to);
+            double ra = r0 + (r1 - r0) * from;
+            double rb = r0 + (r1 - r0) * to;
+            double[] fromTangent = direction(c[2] - c[0], c[3] - c[1]);
+            double[] toTangent = direction(c[6] - c[4], c[7] - c[5]);
+            middle = direction(c[4] - c[2], c[5] - c[3]);
+            // 左侧法线(-dy, dx)
+            double fromX = c[0] - fromTangent[1] * ra;
+            double fromY = c[1] + fromTangent[0] * ra;
+            double toX = c[6] - toTangent[1] * rb;
+            double toY = c[7] + toTangent[0] * rb;
+            double[] offset1 = miter(fromTangent, middle);
+            double[] offset2 = miter(middle, toTangent);
+            double cx1 = c[2] + offset1[0] * ra;
+            double cy1 = c[3] + offset1[1] * ra;
+            double cx2 = c[4] + offset2[0] * rb;
+            double cy2 = c[5] + offset2[1] * rb;
+            // 内侧比曲率半径还宽时偏移曲线会打结，退化成直线
+            if ((toX - fromX) * (c[6] - c[0]) + (toY - fromY) * (c[7] - c[1]) <= 0
+                    || (cx1 - fromX) * fromTangent[0] + (cy1 - fromY) * fromTangent[1] < 0
+                    || (toX - cx2) * toTangent[0] + (toY - cy2) * toTangent[1] < 0) {
+                elements.add(new LineTo(toX, toY));
+            } else {
+                elements.add(new CubicCurveTo(cx1, cy1, cx2, cy2, toX, toY));
+            }
+        }
+    }
+
+    /**
+     * 曲线在参数from到to之间的一段，用de Casteljau算法求控制点
+     */
+    private static double[] segment(double[] control, double from, double to) {
+        double[] head = split(control, to, true);
+        return from == 0 ? head : split(head, from / to, false);
+    }
+
+    /**
+     * 在参数t处把曲线分成两段，返回前一段或后一段的控制点
+     */
+    private static double[] split(double[] c, double t, boolean head) {
+        double[] result = new double[8];
+        for (int axis = 0; axis < 2; axis++) {
+            double p01 = c[axis] + (c[2 + axis] - c[axis]) * t;
+            double p12 = c[2 + axis] + (c[4 + axis] - c[2 + axis]) * t;
+            double p23 = c[4 + axis] + (c[6 + axis] - c[4 + axis]) * t;
+            double p012 = p01 + (p12 - p01) * t;
+            double p123 = p12 + (p23 - p12) * t;
+            double p0123 = p012 + (p123 - p012) * t;
+            if (head) {
+                result[axis] = c[axis];
+                result[2 + axis] = p01;
+                result[4 + axis] = p012;
+                result[6 + axis] = p0123;
+            } else {
+                result[axis] = p0123;
+                result[2 + axis] = p123;
+                result[4 + axis] = p23;
+                result[6 + axis] = c[6 + axis];
+            }
+        }
+        return result;
+    }
+
+    private static double angle(double[] a, double[] b) {
+        return Math.acos(Math.max(-1, Math.min(1, a[0] * b[0] + a[1] * b[1])));
+    }
+
+    /**
+     * 两条边各向左平移单位距离后，交点相对于原顶点的位移
+     */
+    private static double[] miter(double[] in, double[] out) {
+        double scale = 1 / (1 + in[0] * out[0] + in[1] * out[1]);
+        return new double[]{-(in[1] + out[1]) * scale, (in[0] + out[0]) * scale};
+    }
+
+    private static double[] negate(double[] direction) {
+        return new double[]{-direction[0], -direction[1]};
+    }
+
+    /**
+     * 在端点处画半圆形的圆头，从左侧的偏移点绕到右侧
+     *
+     * @param end 端点的采样序号
+     * @param dx  端点处朝外的单位方向
+     * @param dy  端点处朝外的单位方向
+     */
+    private void addCap(List<PathElement> elements, int end, double dx, double dy, double radius) {
+        // 两段三次曲线近似半圆，控制柄长度为半径的0.552倍
+        double handle = radius * 0.5523;
+        double leftX = xs[end] - dy * radius;
+        double leftY = ys[end] + dx * radius;
+        double rightX = xs[end] + dy * radius;
+        double rightY = ys[end] - dx * radius;
+        double tipX = xs[end] + dx * radius;
+        double tipY = ys[end] + dy * radius;
+        elements.add(new CubicCurveTo(leftX + dx * handle, leftY + dy * handle,
+                tipX - dy * handle, tipY + dx * handle, tipX, tipY));
+        elements.add(new CubicCurveTo(tipX + dy * handle, tipY - dx * handle,
+                rightX + dx * handle, rightY + dy * handle, rightX, rightY));
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.sticker.draw;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * 画布下方的像素，打码工具从这里读取要处理的区域
+ * 像素坐标和画布坐标之间只差平移和一个固定的比例，读取可以在任意线程进行
+ */
+public interface PixelSource {
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * 像素(0, 0)在画布坐标中的位置
+     */
+    double getOriginX();
+
+    double getOriginY();
+
+    /**
+     * 每个画布单位对应的像素数
+     */
+    double getScale();
+
+    /**
+     * 读取一块预乘ARGB格式的像素
+     *
+     * @param argb 输出，按行存放，长度至少为 width * height
+     */
+    void read(int x, int y, int width, int height, int[] argb);
+
+    /**
+     * 以JavaFX图片为来源，图片铺在画布原点处
+     *
+     * @param image 图片，之后不能再被修改
+     * @param scale 每个画布单位对应的像素数
+     */
+    static PixelSource of(Image image, double scale) {
+        return new PixelSource() {
+            @Override
+            public double getOriginX() {
+                return 0;
+            }
+
+            @Override
+            public double getOriginY() {
+                return 0;
+            }
+
+            @Override
+            public int getWidth() {
+                return (int) image.getWidth();
+            }
+
+            @Override
+            public int getHeight() {
+                return (int) image.getHeight();
+            }
+
+            @Override
+            public double getScale() {
+                return scale;
+            }
+
+            @Override
+            public void read(int x, int y, int width, int height, int[] argb) {
+                image.getPixelReader().getPixels(x, y, width, height, PixelFormat.getIntArgbPreInstance(),
+                        argb, 0, width);
+            }
+        };
+    }
+
+    /**
+     * 以AWT图片为来源，用于屏幕截取的像素
+     *
+     * @param image   图片，之后不能再被修改
+     * @param originX 图片左上角在画布坐标中的位置
+     * @param originY 图片左上角在画布坐标中的位置
+     * @param scale   每个画布单位对应的像素数
+     */
+    static PixelSource of(BufferedImage image, double originX, double originY, double scale) {
+        return new PixelSource() {
+            @Override
+            public double getOriginX() {
+                return originX;
+            }
+
+            @Override
+            public double getOriginY() {
+                return originY;
+            }
+
+            @Override
+            public int getWidth() {
+                return image.getWidth();
+            }
+
+            @Override
+            public int getHeight() {
+                return image.getHeight();
+            }
+
+            @Override
+            public double getScale() {
+                return scale;
+            }
+
+            @Override
+            public void read(int x, int y, int width, int height, int[] argb) {
+                image.getRGB(x, y, width, height, argb, 0, width);
+                // getRGB返回非预乘的颜色，屏幕截图都是不透明的，只有半透明像素需要换算
+                for (int i = 0; i < width * height; i++) {
+                    int p = argb[i];
+                    int alpha = p >>> 24;
+                    if (alpha != 0xFF) {
+                        argb[i] = alpha << 24
+                                | (((p >> 16) & 0xFF) * alpha + 127) / 255 << 16
+                                | (((p >> 8) & 0xFF) * alpha + 127) / 255 << 8
+                                | ((p & 0xFF) * alpha + 127) / 255;
+                    }
+                }
+            }
+        };
+    }
+}
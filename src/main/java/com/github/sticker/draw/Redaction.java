@@ -0,0 +1,220 @@
+package com.github.sticker.draw;
+
+import com.github.sticker.util.RedactionFilters;
+import javafx.application.Platform;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 打码区域
+ * 显示画布下方一块像素打上马赛克或模糊后的结果。它本身就是一张图片，截图、复制和导出时和其他标注一样被合成进去，
+ * 原来的像素不会出现在结果里。
+ * 拖动时区域不断变化：后台同时只计算一次，计算期间的变化在算完后合并成一次重算，拖动不会排队积压。
+ */
+public class Redaction extends ImageView {
+    /**
+     * 打码方式
+     */
+    public enum Kind {
+        MOSAIC,
+        BLUR
+    }
+
+    private final Kind kind;
+    private final double strength;             // 马赛克块大小或模糊半径，画布单位
+    private Rectangle2D region = Rectangle2D.EMPTY; // 打码区域，画布坐标
+    private PixelSource source;
+    private boolean rendering = false;
+    private boolean dirty = false;
+
+    /**
+     * 计算结果，位置和大小为画布坐标
+     */
+    private record Patch(WritableImage image, double x, double y, double width, double height) {
+    }
+
+    /**
+     * @param kind     打码方式
+     * @param strength 马赛克块大小或模糊半径，画布单位
+     */
+    public Redaction(Kind kind, double strength) {
+        this.kind = kind;
+        this.strength = strength;
+        // 放大贴图时马赛克保持清晰的方块
+        setSmooth(false);
+        setMouseTransparent(true);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public double getStrength() {
+        return strength;
+    }
+
+    public Rectangle2D getRegion() {
+        return region;
+    }
+
+    /**
+     * 设置打码区域，有像素来源时重新计算
+     *
+     * @param region 画布坐标
+     */
+    public void setRegion(Rectangle2D region) {
+        this.region = region;
+        render();
+    }
+
+    /**
+     * 设置读取像素的来源并重新计算，恢复保存的打码区域时在画布上调用
+     */
+    public void setSource(PixelSource source) {
+        this.source = source;
+        render();
+    }
+
+    boolean hasSource() {
+        return source != null;
+    }
+
+    /**
+     * 是否还有尚未显示的计算结果
+     */
+    boolean isRendering() {
+        return rendering;
+    }
+
+    private void render() {
+        if (source == null) {
+            return;
+        }
+        if (rendering) {
+            dirty = true;
+            return;
+        }
+        rendering = true;
+        dirty = false;
+        PixelSource pixels = source;
+        Rectangle2D area = region;
+        CompletableFuture.supplyAsync(() -> compute(pixels, area))
+                .whenComplete((patch, ex) -> Platform.runLater(() -> {
+                    rendering = false;
+                    if (ex != null) {
+                        System.err.println("Failed to redact region: " + ex.getMessage());
+                    } else if (pixels == source) {
+                        show(patch);
+                    }
+                    if (dirty) {
+                        render();
+                    }
+                }));
+    }
+
+    /**
+     * 在同一个后台任务里计算多个打码区域，结果在同一次界面更新中显示
+     *
+     * @param redactions 已设置区域、尚未计算的打码区域
+     * @param source     共同的像素来源
+     */
+    static void renderAll(List<Redaction> redactions, PixelSource source) {
+        for (Redaction redaction : redactions) {
+            redaction.source = source;
+            redaction.rendering = true;
+        }
+        CompletableFuture.supplyAsync(() -> redactions.parallelStream()
+                        .map(redaction -> redaction.compute(source, redaction.region))
+                        .toList())
+                .whenComplete((patches, ex) -> Platform.runLater(() -> {
+                    if (ex != null) {
+                        System.err.println("Failed to redact regions: " + ex.getMessage());
+                    }
+                    for (int i = 0; i < redactions.size(); i++) {
+                        Redaction redaction = redactions.get(i);
+                        redaction.rendering = false;
+                        if (patches != null && redaction.source == source) {
+                            redaction.show(patches.get(i));
+                        }
+                        if (redaction.dirty) {
+                            redaction.render();
+                        }
+                    }
+                }));
+    }
+
+    private void show(Patch patch) {
+        if (patch == null) {
+            setImage(null);
+            return;
+        }
+        setImage(patch.image());
+        setX(patch.x());
+        setY(patch.y());
+        setFitWidth(patch.width());
+        setFitHeight(patch.height());
+    }
+
+    /**
+     * 计算一块打码结果，区域按像素边界向外取整
+     *
+     * @return 区域和像素不相交时为null
+     */
+    private Patch compute(PixelSource pixels, Rectangle2D area) {
+        double scale = pixels.getScale();
+        int width = pixels.getWidth();
+        int height = pixels.getHeight();
+        int x0 = clamp((int) Math.floor((area.getMinX() - pixels.getOriginX()) * scale), width);
+        int y0 = clamp((int) Math.floor((area.getMinY() - pixels.getOriginY()) * scale), height);
+        int x1 = clamp((int) Math.ceil((area.getMaxX() - pixels.getOriginX()) * scale), width);
+        int y1 = clamp((int) Math.ceil((area.getMaxY() - pixels.getOriginY()) * scale), height);
+        if (x1 <= x0 || y1 <= y0) {
+            return null;
+        }
+        int amount = Math.max(1, (int) Math.round(strength * scale));
+
+        // 读取输出区域外模糊半径内或所在马赛克块内的像素，边缘的结果和区域内部一致
+        int px0;
+        int py0;
+        int px1;
+        int py1;
+        if (kind == Kind.BLUR) {
+            amount = Math.min(amount, RedactionFilters.MAX_RADIUS);
+            px0 = Math.max(0, x0 - amount);
+            py0 = Math.max(0, y0 - amount);
+            px1 = Math.min(width, x1 + amount);
+            py1 = Math.min(height, y1 + amount);
+        } else {
+            px0 = Math.max(0, Math.floorDiv(x0, amount) * amount);
+            py0 = Math.max(0, Math.floorDiv(y0, amount) * amount);
+            px1 = Math.min(width, (Math.floorDiv(x1 - 1, amount) + 1) * amount);
+            py1 = Math.min(height, (Math.floorDiv(y1 - 1, amount) + 1) * amount);
+        }
+        int patchWidth = px1 - px0;
+        int patchHeight = py1 - py0;
+        int[] patch = new int[patchWidth * patchHeight];
+        pixels.read(px0, py0, patchWidth, patchHeight, patch);
+
+        int outWidth = x1 - x0;
+        int outHeight = y1 - y0;
+        int[] out = kind == Kind.BLUR
+                ? RedactionFilters.blur(patch, patchWidth, patchHeight,
+                x0 - px0, y0 - py0, outWidth, outHeight, amount)
+                : RedactionFilters.pixelate(patch, patchWidth, patchHeight, px0, py0,
+                x0 - px0, y0 - py0, outWidth, outHeight, amount);
+        WritableImage image = new WritableImage(outWidth, outHeight);
+        image.getPixelWriter().setPixels(0, 0, outWidth, outHeight, PixelFormat.getIntArgbPreInstance(),
+                out, 0, outWidth);
+        return new Patch(image, pixels.getOriginX() + x0 / scale, pixels.getOriginY() + y0 / scale,
+                outWidth / scale, outHeight / scale);
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(max, value));
+    }
+}
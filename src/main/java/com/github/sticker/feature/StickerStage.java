@@ -1,15 +1,26 @@
 package com.github.sticker.feature;
 
+import com.github.sticker.feature.widget.StickerCompositor;
+import com.github.sticker.feature.widget.StickerImageLoader;
+import com.github.sticker.feature.widget.StickerMemoryManager;
 import com.github.sticker.feature.widget.StickerPane;
+import com.github.sticker.session.SessionStore;
+import com.github.sticker.util.EncodeService;
+import com.github.sticker.util.PngEncoder;
+import com.github.sticker.util.PulseMonitor;
 import com.github.sticker.util.StealthWindow;
+import javafx.geometry.Point2D;
 import javafx.geometry.Rectangle2D;
-import javafx.scene.CacheHint;
 import javafx.scene.Scene;
+import javafx.scene.image.Image;
+import javafx.scene.image.WritableImage;
+import javafx.scene.input.TransferMode;
 import javafx.scene.layout.Pane;
 import javafx.stage.Screen;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -19,6 +30,7 @@ import java.util.Objects;
  * 创建一个覆盖所有屏幕的透明窗口用于贴图
  */
 public class StickerStage {
+    private static final double DROP_OFFSET = 24;
     private static StickerStage instance;
     private Stage stage;
     private Pane root;
@@ -32,6 +44,13 @@ public class StickerStage {
         return instance;
     }
 
+    /**
+     * 贴图窗口是否已经创建，不会因此创建窗口
+     */
+    public static boolean isCreated() {
+        return instance != null;
+    }
+
     private StickerStage() {
         initializeTotalBounds();
         createStage();
@@ -77,14 +96,15 @@ public class StickerStage {
         stage.setHeight(totalBounds.getHeight());
 
         // 创建根面板
+        // 不缓存根面板，否则所有贴图会再多占一份整屏纹理
         root = new Pane();
-        root.setCache(true);
-        root.setCacheHint(CacheHint.SPEED);
         root.setStyle("-fx-background-color: transparent;");
         root.setPickOnBounds(false);
         // 创建场景
         Scene scene = new Scene(root);
         scene.setFill(null);
+        PulseMonitor.attach(scene);
+        setupFileDrop(scene);
 
         stage.setScene(scene);
         StealthWindow.configure(stage);
@@ -121,6 +141,9 @@ public class StickerStage {
      * 清除所有贴图
      */
     public void clearStickers() {
+        for (StickerPane stickerPane : List.copyOf(stickerStageList)) {
+            removeSticker(stickerPane);
+        }
         root.getChildren().clear();
         hide();
     }
@@ -150,6 +173,118 @@ public class StickerStage {
     public void addSticker(StickerPane stickerPane) {
         stickerStageList.add(stickerPane);
         root.getChildren().add(0, stickerPane);
+        StickerMemoryManager.getInstance().register(stickerPane);
+        SessionStore.getInstance().track(stickerPane);
+    }
+
+    /**
+     * 关闭贴图并从会话中移除
+     *
+     * @param stickerPane 要关闭的贴图
+     */
+    public void removeSticker(StickerPane stickerPane) {
+        stickerStageList.remove(stickerPane);
+        SessionStore.getInstance().forget(stickerPane);
+        StickerMemoryManager.getInstance().unregister(stickerPane);
+        stickerPane.destroy();
+    }
+
+    /**
+     * 把一张图片钉到主屏幕中央
+     * 用于从历史记录等非截图来源创建贴图
+     *
+     * @param image 要显示的图片
+     * @return 新建的贴图
+     */
+    public StickerPane pinImage(Image image) {
+        WritableImage pixels = image instanceof WritableImage writable ? writable
+                : new WritableImage(image.getPixelReader(), (int) image.getWidth(), (int) image.getHeight());
+        StickerPane stickerPane = new StickerPane(pixels);
+        stickerPane.setSize(pixels.getWidth(), pixels.getHeight());
+
+        // 居中到主屏幕可见区域
+        Rectangle2D bounds = Screen.getPrimary().getVisualBounds();
+        Point2D stagePoint = root.screenToLocal(
+                bounds.getMinX() + Math.max(0, (bounds.getWidth() - pixels.getWidth()) / 2),
+                bounds.getMinY() + Math.max(0, (bounds.getHeight() - pixels.getHeight()) / 2));
+        stickerPane.setPosition(stagePoint.getX(), stagePoint.getY());
+
+        addSticker(stickerPane);
+        stickerPane.setToolbar(root);
+        if (!stage.isShowing()) {
+            stage.show();
+        }
+        return stickerPane;
+    }
+
+    /**
+     * 把图片文件拖到贴图窗口上钉成贴图
+     * 拖入多个文件时依次错开摆放
+     */
+    private void setupFileDrop(Scene scene) {
+        scene.setOnDragOver(event -> {
+            if (event.getDragboard().hasFiles()
+                    && event.getDragboard().getFiles().stream().anyMatch(StickerImageLoader::isImageFile)) {
+                event.acceptTransferModes(TransferMode.COPY);
+            }
+            event.consume();
+        });
+        scene.setOnDragDropped(event -> {
+            List<File> files = event.getDragboard().hasFiles() ? event.getDragboard().getFiles().stream()
+                    .filter(StickerImageLoader::isImageFile).toList() : List.of();
+            for (int i = 0; i < files.size(); i++) {
+                pinFile(files.get(i), event.getScreenX() + i * DROP_OFFSET, event.getScreenY() + i * DROP_OFFSET);
+            }
+            event.setDropCompleted(!files.isEmpty());
+            event.consume();
+        });
+    }
+
+    /**
+     * 在后台加载图片文件并钉到屏幕上的指定位置
+     * 预览图解码后立即钉住，完整图片就绪后再替换；拖放处理不会等待解码
+     *
+     * @param file    图片文件
+     * @param screenX 贴图左上角的屏幕坐标
+     * @param screenY 贴图左上角的屏幕坐标
+     */
+    public void pinFile(File file, double screenX, double screenY) {
+        List<Screen> screens = Screen.getScreensForRectangle(screenX, screenY, 1, 1);
+        Screen screen = screens.isEmpty() ? Screen.getPrimary() : screens.get(0);
+        StickerImageLoader.Loading loading = StickerImageLoader.load(file, screen);
+        loading.onDisplay(image -> {
+            double width = loading.getSize().getWidth();
+            double height = loading.getSize().getHeight();
+            StickerPane stickerPane = pinImage(image);
+            stickerPane.setSize(width, height);
+
+            // 尽量完整地留在放下位置所在的屏幕内
+            Rectangle2D bounds = screen.getVisualBounds();
+            Point2D stagePoint = root.screenToLocal(
+                    Math.max(bounds.getMinX(), Math.min(screenX, bounds.getMaxX() - width)),
+                    Math.max(bounds.getMinY(), Math.min(screenY, bounds.getMaxY() - height)));
+            stickerPane.setPosition(stagePoint.getX(), stagePoint.getY());
+            stickerPane.awaitImage(loading);
+        }).onFailed(ex -> System.err.println("Error loading image: " + ex.getMessage()));
+    }
+
+    /**
+     * 导出所有贴图
+     * 在JavaFX线程记录每张贴图的内容，按原图分辨率合成和编码在后台并行进行；
+     * 某一张失败不影响其他贴图，失败的贴图记录在结果中
+     *
+     * @param target 导出的文件夹，zip为true时为ZIP文件
+     * @param zip    是否导出为单个ZIP文件
+     * @return 导出任务，进度为已完成贴图的比例
+     */
+    public EncodeService.Job<EncodeService.BatchResult> exportStickers(File target, boolean zip) {
+        List<EncodeService.BatchItem> items = new ArrayList<>(stickerStageList.size());
+        for (int i = 0; i < stickerStageList.size(); i++) {
+            StickerCompositor compositor = StickerCompositor.capture(stickerStageList.get(i));
+            items.add(new EncodeService.BatchItem(String.format("sticker-%03d.png", i + 1),
+                    compositor.estimateBytes(), compositor::render));
+        }
+        return EncodeService.getInstance().writePngBatch(items, target, zip, PngEncoder.Level.SMALL);
     }
 
     /**
@@ -0,0 +1,255 @@
+package com.github.sticker.feature.widget;
+
+import com.github.sticker.draw.AnnotationRaster;
+import com.github.sticker.draw.Redaction;
+import com.github.sticker.util.AdjustmentStack;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Shape;
+
+import java.awt.BasicStroke;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * 贴图导出合成器
+ * 在JavaFX线程记录贴图的原图、图片调整、标注、打码和旋转、翻转、透明度，之后在任意线程离屏合成。
+ * 按原图分辨率输出，不受屏幕上的缩放、遮挡和边框光晕影响，同一张贴图无论屏幕上是什么样子结果都相同；
+ * 只使用Java2D，没有显示器时也能运行。输出按行分带，各带并行绘制后拼接。
+ */
+public final class StickerCompositor {
+    private static final int BAND_ROWS = 256;
+
+    private final Supplier<Image> source;
+    private final AdjustmentStack adjustments;
+    private final int width;
+    private final int height;
+    private final List<Layer> layers;
+    private final double rotate;
+    private final boolean flipX;
+    private final boolean flipY;
+    private final double opacity;
+
+    /**
+     * 画在原图上的一层标注，按画布上的顺序合成
+     */
+    private sealed interface Layer permits Stroke, Fill, Patch {
+    }
+
+    /**
+     * 一条标注，坐标和线宽都在原图坐标系中
+     */
+    private record Stroke(java.awt.Shape shape, int argb, BasicStroke stroke) implements Layer {
+    }
+
+    /**
+     * 一个填充的标注，例如画笔的轮廓
+     */
+    private record Fill(java.awt.Shape shape, int argb) implements Layer {
+    }
+
+    /**
+     * 一块打码结果，覆盖原图上的区域
+     */
+    private record Patch(BufferedImage pixels, Rectangle2D bounds) implements Layer {
+    }
+
+    private StickerCompositor(Supplier<Image> source, AdjustmentStack adjustments, int width, int height,
+                              List<Layer> layers, double rotate, boolean flipX, boolean flipY, double opacity) {
+        this.source = source;
+        this.adjustments = adjustments;
+        this.width = width;
+        this.height = height;
+        this.layers = layers;
+        this.rotate = rotate;
+        this.flipX = flipX;
+        this.flipY = flipY;
+        this.opacity = opacity;
+    }
+
+    /**
+     * 记录贴图当前的内容，需在JavaFX线程调用
+     * 被内存管理降级的贴图不会恢复原图，合成时才在后台解码；超大图片使用代理图，标注也画在代理图坐标上
+     *
+     * @param stickerPane 贴图
+     * @return 可在后台线程合成的快照，之后贴图被修改或销毁都不影响它
+     */
+    public static StickerCompositor capture(StickerPane stickerPane) {
+        javafx.scene.shape.Rectangle frame = stickerPane.getFrame();
+        List<Layer> layers = new ArrayList<>();
+        collectLayers(stickerPane.getDrawCanvas().getAnnotations(), layers);
+        return new StickerCompositor(StickerMemoryManager.getInstance().pixelSource(stickerPane),
+                stickerPane.getAdjustments(), (int) stickerPane.getImageWidth(), (int) stickerPane.getImageHeight(),
+                layers, frame.getRotate(), stickerPane.isFlippedX(), stickerPane.isFlippedY(), frame.getOpacity());
+    }
+
+    /**
+     * 合成并编码一张贴图时内存占用的估计值，用于批量导出控制同时处理的数量
+     * 包括原图像素、调整或旋转用的副本、合成结果和编码后的数据，各按原图大小计
+     */
+    public long estimateBytes() {
+        return (long) width * height * 4 * 4;
+    }
+
+    /**
+     * 在后台合成
+     */
+    public CompletableFuture<WritableImage> renderAsync() {
+        return CompletableFuture.supplyAsync(this::renderImage);
+    }
+
+    /**
+     * 合成为JavaFX图片，可在任意线程调用
+     */
+    public WritableImage renderImage() {
+        BufferedImage pixels = render();
+        WritableImage result = new WritableImage(pixels.getWidth(), pixels.getHeight());
+        result.getPixelWriter().setPixels(0, 0, pixels.getWidth(), pixels.getHeight(),
+                PixelFormat.getIntArgbPreInstance(), ((DataBufferInt) pixels.getRaster().getDataBuffer()).getData(),
+                0, pixels.getWidth());
+        return result;
+    }
+
+    /**
+     * 合成为预乘ARGB格式的图片，可在任意线程调用
+     * 输出大小为旋转后原图的外接矩形，原图以外的部分透明
+     */
+    public BufferedImage render() {
+        BufferedImage original;
+        if (adjustments.isEmpty()) {
+            original = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+            source.get().getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbPreInstance(),
+                    ((DataBufferInt) original.getRaster().getDataBuffer()).getData(), 0, width);
+        } else {
+            // 图片调整作用于非预乘的像素，在原图上应用后再旋转，和屏幕上显示的一致
+            original = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            int[] pixels = ((DataBufferInt) original.getRaster().getDataBuffer()).getData();
+            source.get().getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(),
+                    pixels, 0, width);
+            adjustments.apply(pixels, width, height);
+        }
+
+        // 先翻转再绕中心旋转，和贴图内容组的变换顺序相同
+        boolean quadrant = rotate % 90 == 0;
+        AffineTransform orientation = new AffineTransform();
+        if (quadrant) {
+            orientation.quadrantRotate((int) (rotate / 90));
+        } else {
+            orientation.rotate(Math.toRadians(rotate));
+        }
+        orientation.scale(flipX ? -1 : 1, flipY ? -1 : 1);
+        Rectangle2D bounds = orientation.createTransformedShape(
+                new Rectangle2D.Double(-width / 2.0, -height / 2.0, width, height)).getBounds2D();
+        int outWidth = Math.max(1, (int) Math.round(bounds.getWidth()));
+        int outHeight = Math.max(1, (int) Math.round(bounds.getHeight()));
+        AffineTransform transform = AffineTransform.getTranslateInstance(outWidth / 2.0, outHeight / 2.0);
+        transform.concatenate(orientation);
+        transform.translate(-width / 2.0, -height / 2.0);
+
+        BufferedImage result = new BufferedImage(outWidth, outHeight, BufferedImage.TYPE_INT_ARGB_PRE);
+        int[] out = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        int bands = (outHeight + BAND_ROWS - 1) / BAND_ROWS;
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int y0 = band * BAND_ROWS;
+            int rows = Math.min(BAND_ROWS, outHeight - y0);
+            int[] pixels = renderBand(original, transform, quadrant, outWidth, y0, rows);
+            System.arraycopy(pixels, 0, out, y0 * outWidth, pixels.length);
+        });
+        return result;
+    }
+
+    /**
+     * 绘制一条输出带，每条带有自己的画布，各带互不影响
+     */
+    private int[] renderBand(BufferedImage source, AffineTransform transform, boolean quadrant,
+                             int outWidth, int y0, int rows) {
+        BufferedImage band = new BufferedImage(outWidth, rows, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = band.createGraphics();
+        try {
+            g.translate(0, -y0);
+            g.transform(transform);
+            // 直角旋转时像素一一对应，用最近邻保持原样
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, quadrant
+                    ? RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR
+                    : RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(source, 0, 0, null);
+
+            g.clip(new Rectangle2D.Double(0, 0, width, height));
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+            for (Layer layer : layers) {
+                if (layer instanceof Patch patch) {
+                    Rectangle2D bounds = patch.bounds();
+                    g.drawImage(patch.pixels(), new AffineTransform(
+                            bounds.getWidth() / patch.pixels().getWidth(), 0, 0,
+                            bounds.getHeight() / patch.pixels().getHeight(), bounds.getX(), bounds.getY()), null);
+                } else if (layer instanceof Fill fill) {
+                    g.setColor(new java.awt.Color(fill.argb(), true));
+                    g.fill(fill.shape());
+                } else if (layer instanceof Stroke stroke) {
+                    g.setStroke(stroke.stroke());
+                    g.setColor(new java.awt.Color(stroke.argb(), true));
+                    g.draw(stroke.shape());
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+
+        int[] pixels = ((DataBufferInt) band.getRaster().getDataBuffer()).getData();
+        if (opacity < 1) {
+            // 透明度作用于图片和标注合成后的整体，预乘格式下四个通道同比缩小
+            int scale = (int) Math.round(Math.max(0, opacity) * 256);
+            for (int i = 0; i < pixels.length; i++) {
+                int p = pixels[i];
+                pixels[i] = ((p >>> 24) * scale >> 8) << 24
+                        | (((p >> 16) & 0xFF) * scale >> 8) << 16
+                        | (((p >> 8) & 0xFF) * scale >> 8) << 8
+                        | ((p & 0xFF) * scale >> 8);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * 按画布顺序收集标注，成组加入的打码展开
+     * 已压平的标注取日志中的原始图形，按原图分辨率重新绘制，不使用屏幕上的位图
+     */
+    private static void collectLayers(List<Node> nodes, List<Layer> layers) {
+        for (Node node : nodes) {
+            if (node instanceof Group group && group.isVisible()) {
+                collectLayers(group.getChildren(), layers);
+            } else if (node instanceof Shape shape && shape.isVisible()) {
+                java.awt.Shape outline = AnnotationRaster.outline(shape);
+                if (outline == null) {
+                    continue;
+                }
+                if (shape.getFill() instanceof Color fill && fill.getOpacity() > 0) {
+                    layers.add(new Fill(outline, AnnotationRaster.argb(fill)));
+                }
+                if (shape.getStroke() instanceof Color color) {
+                    layers.add(new Stroke(outline, AnnotationRaster.argb(color), AnnotationRaster.stroke(shape)));
+                }
+            } else if (node instanceof Redaction redaction && redaction.isVisible() && redaction.getImage() != null) {
+                // 打码结果已经是像素，导出时原样盖在原图上
+                layers.add(new Patch(SwingFXUtils.fromFXImage(redaction.getImage(), null),
+                        new Rectangle2D.Double(redaction.getX(), redaction.getY(),
+                                redaction.getFitWidth(), redaction.getFitHeight())));
+            }
+        }
+    }
+}
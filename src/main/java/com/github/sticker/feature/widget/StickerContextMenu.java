@@ -1,11 +1,24 @@
 package com.github.sticker.feature.widget;
 
 import com.github.sticker.draw.DrawMode;
-import com.github.sticker.util.ShotScreen;
+import com.github.sticker.draw.Redaction;
+import com.github.sticker.feature.StickerStage;
+import com.github.sticker.history.HistoryBrowserWindow;
+import com.github.sticker.history.HistoryIndexer;
+import com.github.sticker.history.HistoryPaths;
+import com.github.sticker.history.HistoryStore;
+import com.github.sticker.util.AdjustmentStack;
+import com.github.sticker.util.EncodeService;
+import com.github.sticker.util.ImageAdjustments;
+import com.github.sticker.util.OCRUtil;
+import com.github.sticker.util.PngEncoder;
+import com.github.sticker.util.PngFileTypes;
+import javafx.application.Platform;
 import javafx.embed.swing.SwingFXUtils;
+import javafx.geometry.Bounds;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.Node;
 import javafx.scene.control.*;
-import javafx.scene.effect.ColorAdjust;
 import javafx.scene.effect.DropShadow;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
@@ -14,11 +27,12 @@ import javafx.scene.input.ClipboardContent;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
 import javafx.stage.FileChooser;
+import javafx.stage.Screen;
 import javafx.stage.Stage;
 
-import javax.imageio.ImageIO;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -26,6 +40,9 @@ import java.util.concurrent.CompletableFuture;
  * Handles all right-click menu operations for stickers.
  */
 public class StickerContextMenu extends ContextMenu {
+    // Hamming distance between perceptual hashes still counted as the same screen
+    private static final int SIMILAR_DISTANCE = 8;
+
     private final Stage stage;
     private final StickerPane stickerPane;
 
@@ -36,6 +53,9 @@ public class StickerContextMenu extends ContextMenu {
     private final MenuItem opacityItem;
     private final MenuItem rotationItem;
     private final MenuItem invertedItem;
+    private final CheckMenuItem invertItem;
+    private final CheckMenuItem grayscaleItem;
+    private final CheckMenuItem sharpenItem;
     private final MenuItem currentZoomItem;
 
     public StickerContextMenu(Stage stage, StickerPane stickerPane) {
@@ -51,6 +71,9 @@ public class StickerContextMenu extends ContextMenu {
         this.opacityItem = new MenuItem("Opacity: 100%");
         this.rotationItem = new MenuItem("Rotation: 0°");
         this.invertedItem = new MenuItem("Color inverted: No");
+        this.invertItem = new CheckMenuItem("Invert colors");
+        this.grayscaleItem = new CheckMenuItem("Grayscale");
+        this.sharpenItem = new CheckMenuItem("Sharpen");
         this.currentZoomItem = new MenuItem("100%         Current");
 
         initializeMenuItems();
@@ -84,8 +107,12 @@ public class StickerContextMenu extends ContextMenu {
         // Create image processing menu
         Menu imageProcessingMenu = createImageProcessingMenu();
 
+        // Create text recognition menu
+        Menu textMenu = createTextMenu();
+
         // Create other menu items
         MenuItem viewFolderItem = new MenuItem("View in folder");
+        MenuItem similarItem = new MenuItem("Find similar snips");
         MenuItem closeItem = new MenuItem("Close and save");
         MenuItem destroyItem = new MenuItem("Destroy");
 
@@ -96,13 +123,15 @@ public class StickerContextMenu extends ContextMenu {
         // Add all items to the menu
         getItems().addAll(
                 copyItem, saveItem, new SeparatorMenuItem(),
-                zoomMenu, imageProcessingMenu, new SeparatorMenuItem(),
+                zoomMenu, imageProcessingMenu, textMenu, new SeparatorMenuItem(),
                 pasteItem, replaceItem, new SeparatorMenuItem(),
                 shownItem, showToolbarItem, new SeparatorMenuItem(),
-                viewFolderItem, closeItem, destroyItem, new SeparatorMenuItem(),
+                viewFolderItem, similarItem, closeItem, destroyItem, new SeparatorMenuItem(),
                 sizeMenu
         );
 
+        similarItem.setOnAction(e -> handleFindSimilar());
+
         // Initialize size menu items
         initializeSizeMenu();
     }
@@ -136,8 +165,8 @@ public class StickerContextMenu extends ContextMenu {
 
         currentZoomItem.setDisable(true);
         CheckMenuItem smoothingItem = new CheckMenuItem("Smoothing");
-        smoothingItem.setSelected(true);
-        smoothingItem.setDisable(true);
+        smoothingItem.setSelected(stickerPane.isSmoothing());
+        smoothingItem.setOnAction(e -> stickerPane.setSmoothing(smoothingItem.isSelected()));
 
         zoomMenu.getItems().addAll(
                 zoom33Item, zoom50Item, zoom100Item, zoom200Item,
@@ -162,10 +191,26 @@ public class StickerContextMenu extends ContextMenu {
         MenuItem flipHorizontalItem = new MenuItem("Horizontal flip");
         MenuItem flipVerticalItem = new MenuItem("Vertical flip");
 
+        MenuItem brighterItem = new MenuItem("Brighter");
+        MenuItem darkerItem = new MenuItem("Darker");
+        MenuItem moreContrastItem = new MenuItem("More contrast");
+        MenuItem lessContrastItem = new MenuItem("Less contrast");
+        MenuItem lightenMidtonesItem = new MenuItem("Lighten midtones");
+        MenuItem darkenMidtonesItem = new MenuItem("Darken midtones");
+        MenuItem autoLevelsItem = new MenuItem("Auto levels");
+        MenuItem resetItem = new MenuItem("Reset adjustments");
+
         menu.getItems().addAll(
                 rotateLeftItem, rotateRightItem,
                 new SeparatorMenuItem(),
-                flipHorizontalItem, flipVerticalItem
+                flipHorizontalItem, flipVerticalItem,
+                new SeparatorMenuItem(),
+                invertItem, grayscaleItem, sharpenItem,
+                new SeparatorMenuItem(),
+                brighterItem, darkerItem, moreContrastItem, lessContrastItem,
+                lightenMidtonesItem, darkenMidtonesItem, autoLevelsItem,
+                new SeparatorMenuItem(),
+                resetItem
         );
 
         // Set up event handlers
@@ -174,6 +219,45 @@ public class StickerContextMenu extends ContextMenu {
         flipHorizontalItem.setOnAction(e -> handleFlip(e, true));
         flipVerticalItem.setOnAction(e -> handleFlip(e, false));
 
+        // Adjustments never touch the original pixels, they are recomputed from it on every change
+        invertItem.setOnAction(e -> toggleAdjustment(new AdjustmentStack.Invert()));
+        grayscaleItem.setOnAction(e -> toggleAdjustment(new AdjustmentStack.Grayscale()));
+        sharpenItem.setOnAction(e -> toggleAdjustment(new AdjustmentStack.Sharpen(1)));
+        brighterItem.setOnAction(e -> adjustBrightnessContrast(0.1, 0));
+        darkerItem.setOnAction(e -> adjustBrightnessContrast(-0.1, 0));
+        moreContrastItem.setOnAction(e -> adjustBrightnessContrast(0, 0.1));
+        lessContrastItem.setOnAction(e -> adjustBrightnessContrast(0, -0.1));
+        lightenMidtonesItem.setOnAction(e -> adjustGamma(1.25));
+        darkenMidtonesItem.setOnAction(e -> adjustGamma(1 / 1.25));
+        autoLevelsItem.setOnAction(e -> handleAutoLevels());
+        resetItem.setOnAction(e -> stickerPane.setAdjustments(AdjustmentStack.EMPTY));
+
+        return menu;
+    }
+
+    private Menu createTextMenu() {
+        Menu menu = new Menu("Text");
+
+        MenuItem regionItem = new MenuItem("Recognize region (Alt+drag)");
+        MenuItem tsvItem = new MenuItem("Copy table as TSV");
+        MenuItem csvItem = new MenuItem("Copy table as CSV");
+        Menu redactMenu = new Menu("Redact sensitive text");
+        MenuItem redactMosaicItem = new MenuItem("Mosaic");
+        MenuItem redactBlurItem = new MenuItem("Blur");
+        redactMenu.getItems().addAll(redactMosaicItem, redactBlurItem);
+
+        menu.getItems().addAll(regionItem, new SeparatorMenuItem(), tsvItem, csvItem,
+                new SeparatorMenuItem(), redactMenu);
+
+        regionItem.setOnAction(e -> {
+            stickerPane.startRegionOcr();
+            hide();
+        });
+        tsvItem.setOnAction(e -> handleCopyTable(false));
+        csvItem.setOnAction(e -> handleCopyTable(true));
+        redactMosaicItem.setOnAction(e -> handleRedactSensitiveText(Redaction.Kind.MOSAIC));
+        redactBlurItem.setOnAction(e -> handleRedactSensitiveText(Redaction.Kind.BLUR));
+
         return menu;
     }
 
@@ -213,31 +297,111 @@ public class StickerContextMenu extends ContextMenu {
 
     private void handleFlip(javafx.event.ActionEvent e, boolean horizontal) {
         if (e.getTarget() instanceof MenuItem menuItem) {
-            if (menuItem.getParentMenu().getParentPopup().getOwnerNode() instanceof Rectangle frame) {
-                if (horizontal) {
-                    frame.setScaleX(frame.getScaleX() * -1);
-                } else {
-                    frame.setScaleY(frame.getScaleY() * -1);
-                }
+            if (menuItem.getParentMenu().getParentPopup().getOwnerNode() instanceof Rectangle) {
+                // Flip the content, not the transparent frame, so the screen and exports agree
+                stickerPane.flip(horizontal);
                 hide();
             }
         }
     }
 
+    private void toggleAdjustment(AdjustmentStack.Adjustment adjustment) {
+        stickerPane.setAdjustments(stickerPane.getAdjustments().toggle(adjustment));
+    }
+
+    private void adjustBrightnessContrast(double brightness, double contrast) {
+        AdjustmentStack stack = stickerPane.getAdjustments();
+        AdjustmentStack.BrightnessContrast current = stack.find(AdjustmentStack.BrightnessContrast.class)
+                .orElse(new AdjustmentStack.BrightnessContrast(0, 0));
+        AdjustmentStack.BrightnessContrast next = new AdjustmentStack.BrightnessContrast(
+                current.brightness() + brightness, current.contrast() + contrast);
+        // Back at neutral the step is dropped instead of kept as a no-op
+        boolean neutral = Math.abs(next.brightness()) < 1e-6 && Math.abs(next.contrast()) < 1e-6;
+        stickerPane.setAdjustments(neutral
+                ? stack.without(AdjustmentStack.BrightnessContrast.class) : stack.with(next));
+    }
+
+    private void adjustGamma(double factor) {
+        AdjustmentStack stack = stickerPane.getAdjustments();
+        double gamma = stack.find(AdjustmentStack.Gamma.class).map(AdjustmentStack.Gamma::gamma).orElse(1.0) * factor;
+        stickerPane.setAdjustments(Math.abs(gamma - 1) < 1e-6
+                ? stack.without(AdjustmentStack.Gamma.class) : stack.with(new AdjustmentStack.Gamma(gamma)));
+    }
+
+    private void handleAutoLevels() {
+        Image image = stickerPane.getImage();
+        if (image == null) {
+            return;
+        }
+        // The histogram is taken from the original, so repeating the action gives the same result
+        CompletableFuture.supplyAsync(() -> ImageAdjustments.autoLevels(ImageAdjustments.readPixels(image), 0.005))
+                .thenAccept(levels -> Platform.runLater(() -> {
+                    if (stickerPane.getImage() == image) {
+                        stickerPane.setAdjustments(stickerPane.getAdjustments().with(levels));
+                    }
+                }))
+                .exceptionally(ex -> {
+                    System.err.println("Error computing auto levels: " + ex.getMessage());
+                    return null;
+                });
+    }
+
     private void handleCopy(javafx.event.ActionEvent e) {
         if (e.getTarget() instanceof MenuItem) {
-            Clipboard clipboard = Clipboard.getSystemClipboard();
-            ClipboardContent content = new ClipboardContent();
-            content.putImage(ShotScreen.snapshotScreen(stickerPane.getScene(), stickerPane.getFrame()));
-            clipboard.setContent(content);
             hide();
+            // Rendered from the source pixels, so overlapping windows and the border glow are not copied
+            StickerCompositor.capture(stickerPane).renderAsync()
+                    .thenAccept(image -> Platform.runLater(() -> {
+                        ClipboardContent content = new ClipboardContent();
+                        content.putImage(image);
+                        Clipboard.getSystemClipboard().setContent(content);
+                    }))
+                    .exceptionally(ex -> {
+                        System.err.println("Failed to copy image: " + ex.getMessage());
+                        return null;
+                    });
         }
     }
 
+    private void handleCopyTable(boolean csv) {
+        hide();
+        long start = System.nanoTime();
+        stickerPane.extractTable().thenAccept(table -> Platform.runLater(() -> {
+            if (table.rowCount() == 0) {
+                System.out.println("No table text found");
+                return;
+            }
+            ClipboardContent content = new ClipboardContent();
+            content.putString(csv ? table.toCsv() : table.toTsv());
+            Clipboard.getSystemClipboard().setContent(content);
+            System.out.printf("Table copied: %d x %d in %d ms%n",
+                    table.rowCount(), table.columnCount(), (System.nanoTime() - start) / 1_000_000);
+        })).exceptionally(ex -> {
+            System.err.println("Table extraction failed: " + ex.getMessage());
+            return null;
+        });
+    }
+
+    private void handleRedactSensitiveText(Redaction.Kind kind) {
+        hide();
+        long start = System.nanoTime();
+        stickerPane.redactSensitiveText(kind).thenAccept(findings -> {
+            if (findings.isEmpty()) {
+                System.out.println("No sensitive text found");
+                return;
+            }
+            System.out.printf("Redacted %d sensitive text regions in %d ms%n",
+                    findings.size(), (System.nanoTime() - start) / 1_000_000);
+        }).exceptionally(ex -> {
+            System.err.println("Sensitive text redaction failed: " + ex.getMessage());
+            return null;
+        });
+    }
+
     private void handleSave(javafx.event.ActionEvent e) {
         if (e.getTarget() instanceof MenuItem) {
-            saveImage(ShotScreen.snapshotScreen(stickerPane.getScene(), stickerPane.getFrame()));
             hide();
+            saveImage(StickerCompositor.capture(stickerPane));
         }
     }
 
@@ -245,8 +409,19 @@ public class StickerContextMenu extends ContextMenu {
         if (e.getTarget() instanceof MenuItem menuItem) {
             if (menuItem.getParentPopup().getOwnerNode() instanceof Rectangle frame) {
                 Clipboard clipboard = Clipboard.getSystemClipboard();
-                if (clipboard.hasImage()) {
-                    updateStickerImage(frame, clipboard.getImage());
+                // Copied image files are decoded in the background instead of through the clipboard
+                File file = clipboard.hasFiles() ? clipboard.getFiles().stream()
+                        .filter(StickerImageLoader::isImageFile).findFirst().orElse(null) : null;
+                if (file != null) {
+                    stickerPane.loadImage(file);
+                    hide();
+                } else if (clipboard.hasImage()) {
+                    Image image = clipboard.getImage();
+                    if (TiledImage.needsTiling(image.getWidth(), image.getHeight())) {
+                        showTiledImage(frame, TiledImage.fromImageAsync(image));
+                    } else {
+                        updateStickerImage(frame, image);
+                    }
                     hide();
                 }
             }
@@ -255,25 +430,34 @@ public class StickerContextMenu extends ContextMenu {
 
     private void handleReplace(javafx.event.ActionEvent e) {
         if (e.getTarget() instanceof MenuItem menuItem) {
-            if (menuItem.getParentPopup().getOwnerNode() instanceof Rectangle frame) {
+            if (menuItem.getParentPopup().getOwnerNode() instanceof Rectangle) {
                 FileChooser fileChooser = createImageFileChooser();
                 File file = fileChooser.showOpenDialog(stage);
                 if (file != null) {
-                    try {
-                        Image newImage = new Image(file.toURI().toString());
-                        updateStickerImage(frame, newImage);
-                        hide();
-                    } catch (Exception ex) {
-                        System.err.println("Error loading image: " + ex.getMessage());
-                    }
+                    // Preview first, full resolution (or tiles for huge images) once decoded
+                    stickerPane.loadImage(file);
+                    hide();
                 }
             }
         }
     }
 
+    private void handleFindSimilar() {
+        hide();
+        Image image = stickerPane.getImage();
+        CompletableFuture.supplyAsync(() -> SwingFXUtils.fromFXImage(image, null))
+                .thenCompose(pixels -> HistoryStore.getInstance().findSimilar(pixels, SIMILAR_DISTANCE))
+                .thenAccept(matches -> Platform.runLater(() -> HistoryBrowserWindow.showEntries(
+                        "Similar snips", matches.stream().map(HistoryStore.Similar::entry).toList())))
+                .exceptionally(ex -> {
+                    System.err.println("Similarity search failed: " + ex.getMessage());
+                    return null;
+                });
+    }
+
     private void handleViewFolder() {
         try {
-            File historyDir = getHistoryDirectory();
+            File historyDir = HistoryPaths.getHistoryDirectory();
             openInFileExplorer(historyDir);
             hide();
         } catch (IOException ignored) {
@@ -283,10 +467,16 @@ public class StickerContextMenu extends ContextMenu {
 
     private void handleClose(javafx.event.ActionEvent e) {
         if (e.getTarget() instanceof MenuItem menuItem) {
-            if (menuItem.getParentPopup().getOwnerNode() instanceof ImageView sticker) {
+            if (menuItem.getParentPopup().getOwnerNode() instanceof Rectangle frame) {
+                // Capture before the sticker is destroyed, rendering and encoding happen in the background
+                StickerCompositor compositor = StickerCompositor.capture(stickerPane);
+                String screen = describeScreen(frame);
+                CompletableFuture<List<OCRUtil.OCRResult>> ocrResults = stickerPane.getOcrResultsAsync();
+                // Redacted text must not become searchable, collect the regions before the canvas is cleared
+                List<Rectangle2D> redacted = stickerPane.getDrawCanvas().getRedactedRegions();
                 removeSticker();
                 hide();
-                saveToHistory();
+                saveToHistory(compositor, screen, ocrResults, redacted);
             }
         }
     }
@@ -331,15 +521,27 @@ public class StickerContextMenu extends ContextMenu {
     }
 
     private void updateStickerImage(Rectangle frame, Image newImage) {
-        ImageView sticker = stickerPane.getImageView();
-        sticker.setImage(newImage);
+        stickerPane.cancelLoading();
+        stickerPane.setImage(newImage);
         frame.setHeight(newImage.getHeight());
         frame.setWidth(newImage.getWidth());
     }
 
-    private void removeSticker() {
-        stickerPane.destroy();
+    private void showTiledImage(Rectangle frame, CompletableFuture<TiledImage> tiled) {
+        stickerPane.cancelLoading();
+        tiled.whenComplete((image, ex) -> Platform.runLater(() -> {
+            if (ex != null) {
+                System.err.println("Error loading image: " + ex.getMessage());
+                return;
+            }
+            stickerPane.setTiledImage(image);
+            frame.setHeight(image.getProxy().getHeight());
+            frame.setWidth(image.getProxy().getWidth());
+        }));
+    }
 
+    private void removeSticker() {
+        StickerStage.getInstance().removeSticker(stickerPane);
     }
 
     private FileChooser createImageFileChooser() {
@@ -357,15 +559,6 @@ public class StickerContextMenu extends ContextMenu {
         return fileChooser;
     }
 
-    private File getHistoryDirectory() {
-        File picturesDir = new File(System.getProperty("user.home"), "Pictures");
-        File historyDir = new File(picturesDir, "SnapSticker/history");
-        if (!historyDir.exists()) {
-            historyDir.mkdirs();
-        }
-        return historyDir;
-    }
-
     private void openInFileExplorer(File directory) throws IOException {
         String os = System.getProperty("os.name").toLowerCase();
         if (os.contains("win")) {
@@ -377,15 +570,13 @@ public class StickerContextMenu extends ContextMenu {
         }
     }
 
-    private void saveImage(Image image) {
+    private void saveImage(StickerCompositor compositor) {
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Save Image");
         String timestamp = String.format("%1$tY%1$tm%1$td%1$tH%1$tM%1$tS",
                 System.currentTimeMillis());
         fileChooser.setInitialFileName("SnapSticker_" + timestamp + ".png");
-        fileChooser.getExtensionFilters().add(
-                new FileChooser.ExtensionFilter("PNG Image", "*.png")
-        );
+        PngFileTypes.addFilters(fileChooser);
 
         File picturesDir = new File(System.getProperty("user.home"), "Pictures");
         if (picturesDir.exists()) {
@@ -394,26 +585,43 @@ public class StickerContextMenu extends ContextMenu {
 
         File file = fileChooser.showSaveDialog(stage);
         if (file != null) {
-            try {
-                ImageIO.write(SwingFXUtils.fromFXImage(image, null), "png", file);
-            } catch (IOException ignored) {
-            }
+            PngEncoder.Palette palette = PngFileTypes.paletteFor(fileChooser);
+            CompletableFuture.supplyAsync(compositor::render)
+                    .thenCompose(pixels -> EncodeService.getInstance()
+                            .writePng(pixels, file, PngEncoder.Level.SMALL, palette).result())
+                    .exceptionally(ex -> {
+                        System.err.println("Failed to save image: " + ex.getMessage());
+                        return null;
+                    });
         }
     }
 
-    private void saveToHistory() {
-        CompletableFuture.runAsync(() -> {
-            try {
-                File historyDir = getHistoryDirectory();
-                String timestamp = String.format("%1$tY%1$tm%1$td_%1$tH%1$tM%1$tS",
-                        System.currentTimeMillis());
-                File outputFile = new File(historyDir, "SnapSticker_" + timestamp + ".png");
-                ImageIO.write(SwingFXUtils.fromFXImage(ShotScreen.snapshotScreen(stickerPane.getScene(), stickerPane.getFrame()), null), "png", outputFile);
-                System.out.println("Image saved to history: " + outputFile.getAbsolutePath());
-            } catch (IOException ignored) {
-
-            }
-        });
+    private void saveToHistory(StickerCompositor compositor, String screen,
+                               CompletableFuture<List<OCRUtil.OCRResult>> ocrResults, List<Rectangle2D> redacted) {
+        compositor.renderAsync()
+                .thenCompose(image -> HistoryStore.getInstance().add(image, screen))
+                .thenAccept(entry -> {
+                    System.out.println("Image saved to history: " + HistoryStore.getInstance().getFile(entry));
+                    // Make the capture searchable once its OCR text is available
+                    ocrResults.thenAccept(results -> HistoryIndexer.index(entry, results, redacted));
+                })
+                .exceptionally(ex -> {
+                    System.err.println("Failed to save history image: " + ex.getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * Describe the screen the sticker is on, e.g. "2: 2560x1440 @ 1920,0"
+     */
+    private static String describeScreen(Node frame) {
+        Bounds frameBounds = frame.localToScreen(frame.getBoundsInLocal());
+        List<Screen> screens = frameBounds == null ? List.of() : Screen.getScreensForRectangle(
+                frameBounds.getMinX(), frameBounds.getMinY(), frameBounds.getWidth(), frameBounds.getHeight());
+        Screen screen = screens.isEmpty() ? Screen.getPrimary() : screens.get(0);
+        Rectangle2D bounds = screen.getBounds();
+        return String.format("%d: %.0fx%.0f @ %.0f,%.0f", Screen.getScreens().indexOf(screen) + 1,
+                bounds.getWidth(), bounds.getHeight(), bounds.getMinX(), bounds.getMinY());
     }
 
     // Methods that need to be implemented in StickerStage
@@ -448,8 +656,12 @@ public class StickerContextMenu extends ContextMenu {
         double rotation = frame.getRotate();
         rotationItem.setText(String.format("Rotation: %.1f°", rotation));
 
-        boolean isInverted = frame.getEffect() instanceof ColorAdjust;
+        AdjustmentStack adjustments = stickerPane.getAdjustments();
+        boolean isInverted = adjustments.contains(AdjustmentStack.Invert.class);
         invertedItem.setText("Color inverted: " + (isInverted ? "Yes" : "No"));
+        invertItem.setSelected(isInverted);
+        grayscaleItem.setSelected(adjustments.contains(AdjustmentStack.Grayscale.class));
+        sharpenItem.setSelected(adjustments.contains(AdjustmentStack.Sharpen.class));
 
         // Update shadow state
         shownItem.setSelected(Boolean.TRUE.equals(frame.getProperties().get("shadow")));
@@ -486,4 +698,4 @@ public class StickerContextMenu extends ContextMenu {
     public MenuItem getCurrentZoomItem() {
         return currentZoomItem;
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,250 @@
+package com.github.sticker.feature.widget;
+
+import javafx.application.Platform;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.geometry.Dimension2D;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.Image;
+import javafx.stage.Screen;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 贴图图片的后台加载
+ * 图片文件在后台线程解码：先用ImageIO隔行隔列采样读出一张不小于贴图显示尺寸的预览图，
+ * 贴图立即显示它；随后解码完整分辨率的图片替换预览，超大图片则交给 {@link TiledImage} 分块。
+ * 贴图按图片大小显示，但不超过屏幕的可见区域。
+ * 结果都在JavaFX线程回调，JavaFX线程不会等待任何解码。
+ */
+public final class StickerImageLoader {
+    private static final Set<String> EXTENSIONS = Set.of("png", "jpg", "jpeg", "gif", "bmp");
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(2, r -> {
+        Thread thread = new Thread(r, "sticker-loader-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private StickerImageLoader() {
+    }
+
+    /**
+     * 一次加载，依次产生预览图和完整图片（或分块图片）
+     * 回调可以在结果产生后再注册，已经产生的结果会立即在JavaFX线程回调
+     */
+    public static final class Loading {
+        private final CompletableFuture<Image> preview = new CompletableFuture<>();
+        private final CompletableFuture<Image> display = new CompletableFuture<>();
+        private final CompletableFuture<Image> image = new CompletableFuture<>();
+        private final CompletableFuture<TiledImage> tiled = new CompletableFuture<>();
+        private volatile Dimension2D size;
+        private volatile boolean cancelled = false;
+
+        /**
+         * 贴图应显示的尺寸，第一次回调时已确定
+         */
+        public Dimension2D getSize() {
+            return size;
+        }
+
+        /**
+         * 预览图就绪，图片本身不比显示尺寸大很多时没有预览
+         */
+        public Loading onPreview(Consumer<Image> listener) {
+            deliver(preview, listener, null);
+            return this;
+        }
+
+        /**
+         * 第一张可以显示的图片就绪：预览图，没有预览时为完整图片或分块的代理图
+         */
+        public Loading onDisplay(Consumer<Image> listener) {
+            deliver(display, listener, null);
+            return this;
+        }
+
+        /**
+         * 完整分辨率的图片就绪
+         */
+        public Loading onImage(Consumer<Image> listener) {
+            deliver(image, listener, null);
+            return this;
+        }
+
+        /**
+         * 超大图片分块完成，取消时分块图片会被关闭
+         */
+        public Loading onTiled(Consumer<TiledImage> listener) {
+            deliver(tiled, listener, TiledImage::close);
+            return this;
+        }
+
+        /**
+         * 加载失败，取消不算失败
+         */
+        public Loading onFailed(Consumer<Throwable> listener) {
+            CompletableFuture.anyOf(image, tiled).whenComplete((result, ex) -> {
+                Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+                if (cause != null && !(cause instanceof CancellationException)) {
+                    Platform.runLater(() -> listener.accept(cause));
+                }
+            });
+            return this;
+        }
+
+        /**
+         * 取消加载，之后不再回调
+         */
+        public void cancel() {
+            cancelled = true;
+            preview.cancel(false);
+            display.cancel(false);
+            image.cancel(false);
+            tiled.cancel(false);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void completePreview(Image result) {
+            preview.complete(result);
+            display.complete(result);
+        }
+
+        private void completeImage(Image result) {
+            display.complete(result);
+            image.complete(result);
+        }
+
+        private void completeTiled(TiledImage result) {
+            display.complete(result.getProxy());
+            if (!tiled.complete(result)) {
+                // 分块期间已经取消
+                result.close();
+            }
+        }
+
+        private <T> void deliver(CompletableFuture<T> future, Consumer<T> listener, Consumer<T> discard) {
+            future.thenAccept(result -> Platform.runLater(() -> {
+                if (!cancelled) {
+                    listener.accept(result);
+                } else if (discard != null) {
+                    discard.accept(result);
+                }
+            }));
+        }
+    }
+
+    /**
+     * 是否是可以钉成贴图的图片文件
+     */
+    public static boolean isImageFile(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return file.isFile() && dot >= 0 && EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * 在后台加载图片文件，贴图显示在指定屏幕上
+     *
+     * @param file   图片文件
+     * @param screen 贴图所在的屏幕，决定显示尺寸上限和预览图的分辨率
+     * @return 加载过程
+     */
+    public static Loading load(File file, Screen screen) {
+        Rectangle2D bounds = screen.getVisualBounds();
+        double renderScale = screen.getOutputScaleX();
+        Loading loading = new Loading();
+        POOL.execute(() -> {
+            try {
+                decode(file, bounds.getWidth(), bounds.getHeight(), renderScale, loading);
+            } catch (IOException | RuntimeException e) {
+                loading.image.completeExceptionally(e);
+            }
+        });
+        return loading;
+    }
+
+    private static void decode(File file, double maxWidth, double maxHeight, double renderScale, Loading loading)
+            throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                // ImageIO不认识的格式交给JavaFX解码，没有预览
+                Image full = new Image(file.toURI().toString());
+                if (full.isError()) {
+                    throw new IOException("Cannot decode " + file.getName(), full.getException());
+                }
+                loading.size = fit(full.getWidth(), full.getHeight(), maxWidth, maxHeight);
+                loading.completeImage(full);
+                return;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, false, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                boolean tiling = TiledImage.needsTiling(width, height);
+                Dimension2D shown = tiling ? TiledImage.proxySize(width, height) : new Dimension2D(width, height);
+                loading.size = fit(shown.getWidth(), shown.getHeight(), maxWidth, maxHeight);
+
+                // 采样间隔取两个方向比例中较小的一个，预览图在两个方向上都不小于显示的物理像素
+                int step = (int) Math.floor(Math.min(width / (loading.size.getWidth() * renderScale),
+                        height / (loading.size.getHeight() * renderScale)));
+                if (step >= 2 && !loading.cancelled) {
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceSubsampling(step, step, 0, 0);
+                    try {
+                        loading.completePreview(SwingFXUtils.toFXImage(reader.read(0, param), null));
+                    } catch (IOException e) {
+                        // 预览只是过渡，读不出来时等完整图片
+                        System.err.println("Failed to read preview: " + e.getMessage());
+                    }
+                }
+                if (loading.cancelled) {
+                    return;
+                }
+
+                if (tiling) {
+                    TiledImage.loadAsync(file).whenComplete((result, ex) -> {
+                        if (ex != null) {
+                            loading.tiled.completeExceptionally(ex);
+                        } else {
+                            loading.completeTiled(result);
+                        }
+                    });
+                } else {
+                    // 完整图片转成可写图片，钉成贴图时不需要再复制
+                    loading.completeImage(SwingFXUtils.toFXImage(reader.read(0), null));
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * 按比例缩小到不超过屏幕可见区域，小图保持原大小
+     */
+    private static Dimension2D fit(double width, double height, double maxWidth, double maxHeight) {
+        double scale = Math.min(1, Math.min(maxWidth / width, maxHeight / height));
+        return new Dimension2D(Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale)));
+    }
+}
@@ -0,0 +1,548 @@
+package com.github.sticker.feature.widget;
+
+import com.github.sticker.util.QoiCodec;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.application.Platform;
+import javafx.geometry.Bounds;
+import javafx.scene.Node;
+import javafx.scene.Parent;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.util.Duration;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 贴图内存管理
+ * 贴图原图分三层保存：
+ * FULL       原图在堆上并直接显示；
+ * COMPRESSED 原图以QOI压缩保存在堆上，界面显示缩小的预览图；
+ * SPILLED    压缩数据写入临时文件，恢复时通过内存映射解码，不占用堆。
+ * 每隔两秒检查一次：被遮挡或隐藏的贴图空闲片刻后直接溢出到文件，只保留预览图，
+ * 重新露出时先显示预览图，不必等下一次检查；
+ * 原图总量超出预算时，最久未使用的贴图先被压缩；压缩数据超出预算时再溢出到文件。
+ * 鼠标移入或获得焦点时在后台恢复原图，需要原图的操作会同步恢复。
+ */
+public final class StickerMemoryManager {
+    /**
+     * 原图所在的层
+     */
+    public enum Tier {
+        FULL,
+        COMPRESSED,
+        SPILLED
+    }
+
+    /**
+     * 各层的贴图数量和占用字节数
+     */
+    public record Usage(int fullCount, long fullBytes, int compressedCount, long compressedBytes,
+                        int spilledCount, long spilledBytes) {
+    }
+
+    private static final double SWEEP_INTERVAL_MS = 2000;
+    private static final long HIDDEN_GRACE_MS = 5000;   // 被遮挡或隐藏多久后溢出到文件
+    private static final int PREVIEW_SIZE = 512;        // 预览图最长边
+
+    private static StickerMemoryManager instance;
+
+    private final Map<StickerPane, Entry> entries = new IdentityHashMap<>(); // 只在JavaFX线程访问
+    private final ExecutorService workers;
+    private final Timeline sweeper;
+    private long fullBudget;
+    private long compressedBudget;
+    private Path spillDirectory;
+
+    /**
+     * 一张贴图的存储状态
+     */
+    private static final class Entry {
+        final StickerPane stickerPane;
+        Tier tier = Tier.FULL;
+        long lastUsed = System.currentTimeMillis();
+        long hiddenSince = 0;       // 0表示可见
+        boolean busy = false;       // 有后台降级或恢复任务
+        int stamp = 0;              // 使用或替换图片时加一，使进行中的降级作废
+        byte[] compressed;
+        Path spillFile;
+        long spillBytes;
+
+        Entry(StickerPane stickerPane) {
+            this.stickerPane = stickerPane;
+        }
+
+        long fullBytes() {
+            // 有图片调整时还持有一份同样大小的调整结果
+            long bytes = (long) stickerPane.getImageWidth() * (long) stickerPane.getImageHeight() * 4;
+            return stickerPane.holdsAdjusted() ? bytes * 2 : bytes;
+        }
+    }
+
+    /**
+     * 后台降级的结果
+     */
+    private record Demoted(byte[] compressed, Image preview, Path spillFile) {
+    }
+
+    public static StickerMemoryManager getInstance() {
+        if (instance == null) {
+            instance = new StickerMemoryManager();
+        }
+        return instance;
+    }
+
+    private StickerMemoryManager() {
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        fullBudget = maxMemory / 4;
+        compressedBudget = maxMemory / 8;
+
+        AtomicInteger count = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(2, r -> {
+            Thread thread = new Thread(r, "sticker-memory-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper = new Timeline(new KeyFrame(Duration.millis(SWEEP_INTERVAL_MS), e -> sweep()));
+        sweeper.setCycleCount(Animation.INDEFINITE);
+    }
+
+    /**
+     * 设置内存预算
+     *
+     * @param fullBytes       原图层的字节上限
+     * @param compressedBytes 压缩层的字节上限
+     */
+    public void setBudget(long fullBytes, long compressedBytes) {
+        this.fullBudget = fullBytes;
+        this.compressedBudget = compressedBytes;
+    }
+
+    /**
+     * 开始管理一张贴图
+     */
+    public void register(StickerPane stickerPane) {
+        if (entries.containsKey(stickerPane)) {
+            return;
+        }
+        Entry entry = new Entry(stickerPane);
+        entries.put(stickerPane, entry);
+        stickerPane.hoverProperty().addListener((obs, oldVal, hover) -> {
+            if (hover) {
+                touch(entry);
+            }
+        });
+        stickerPane.getFrame().focusedProperty().addListener((obs, oldVal, focused) -> {
+            if (focused) {
+                touch(entry);
+            }
+        });
+        stickerPane.imageRevisionProperty().addListener(obs -> {
+            // 新图片已经在贴图上，旧的压缩数据作废
+            entry.stamp++;
+            dropStorage(entry);
+            entry.tier = Tier.FULL;
+        });
+        if (sweeper.getStatus() != Animation.Status.RUNNING) {
+            sweeper.play();
+        }
+    }
+
+    /**
+     * 停止管理一张贴图并删除它的溢出文件
+     */
+    public void unregister(StickerPane stickerPane) {
+        Entry entry = entries.remove(stickerPane);
+        if (entry != null) {
+            entry.stamp++;
+            dropStorage(entry);
+        }
+        if (entries.isEmpty()) {
+            sweeper.stop();
+        }
+    }
+
+    /**
+     * 获取各层的当前占用
+     */
+    public Usage getUsage() {
+        int fullCount = 0, compressedCount = 0, spilledCount = 0;
+        long fullBytes = 0, compressedBytes = 0, spilledBytes = 0;
+        for (Entry entry : entries.values()) {
+            switch (entry.tier) {
+                case FULL -> {
+                    fullCount++;
+                    fullBytes += entry.fullBytes();
+                }
+                case COMPRESSED -> {
+                    compressedCount++;
+                    compressedBytes += entry.compressed.length;
+                }
+                case SPILLED -> {
+                    spilledCount++;
+                    spilledBytes += entry.spillBytes;
+                }
+            }
+        }
+        return new Usage(fullCount, fullBytes, compressedCount, compressedBytes, spilledCount, spilledBytes);
+    }
+
+    /**
+     * 获取贴图当前所在的层
+     */
+    public Tier getTier(StickerPane stickerPane) {
+        Entry entry = entries.get(stickerPane);
+        return entry != null ? entry.tier : Tier.FULL;
+    }
+
+    /**
+     * 同步恢复原图，供需要原图的操作使用
+     */
+    void rehydrateNow(StickerPane stickerPane) {
+        Entry entry = entries.get(stickerPane);
+        if (entry == null || entry.tier == Tier.FULL) {
+            return;
+        }
+        entry.lastUsed = System.currentTimeMillis();
+        entry.stamp++;
+        try {
+            promote(entry, decode(entry.compressed, entry.spillFile));
+        } catch (IOException e) {
+            System.err.println("Failed to restore sticker pixels: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 不恢复原图而读取贴图像素，返回的函数可以在后台线程调用
+     * 原图在内存中时直接使用它，已降级的贴图从压缩数据或溢出文件解码一份副本
+     */
+    Supplier<Image> pixelSource(StickerPane stickerPane) {
+        Entry entry = entries.get(stickerPane);
+        if (entry == null || entry.tier == Tier.FULL) {
+            Image image = stickerPane.getImage();
+            return () -> image;
+        }
+        byte[] compressed = entry.compressed;
+        Path spillFile = entry.spillFile;
+        return () -> {
+            try {
+                return decode(compressed, spillFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    private void touch(Entry entry) {
+        entry.lastUsed = System.currentTimeMillis();
+        entry.stamp++;
+        if (entry.tier != Tier.FULL && !entry.busy) {
+            rehydrate(entry);
+        }
+    }
+
+    private void rehydrate(Entry entry) {
+        entry.busy = true;
+        byte[] compressed = entry.compressed;
+        Path spillFile = entry.spillFile;
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return decode(compressed, spillFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, workers).whenComplete((image, ex) -> Platform.runLater(() -> {
+            entry.busy = false;
+            if (ex != null) {
+                System.err.println("Failed to restore sticker pixels: " + ex.getMessage());
+            } else if (entries.get(entry.stickerPane) == entry && entry.tier != Tier.FULL) {
+                promote(entry, image);
+            }
+        }));
+    }
+
+    private void promote(Entry entry, WritableImage image) {
+        entry.stickerPane.restoreImage(image);
+        dropStorage(entry);
+        entry.tier = Tier.FULL;
+    }
+
+    /**
+     * 后台把贴图降到目标层，从原图降级时换成预览图显示
+     */
+    private void demote(Entry entry, Tier target) {
+        int stamp = entry.stamp;
+        Tier from = entry.tier;
+        Image full = from == Tier.FULL ? entry.stickerPane.getImage() : null;
+        byte[] compressed = entry.compressed;
+        entry.busy = true;
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return demote(full, compressed, target);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, workers).whenComplete((demoted, ex) -> Platform.runLater(() -> {
+            entry.busy = false;
+            if (ex != null) {
+                System.err.println("Failed to compress sticker pixels: " + ex.getMessage());
+                return;
+            }
+            if (entries.get(entry.stickerPane) != entry || entry.stamp != stamp || entry.tier != from) {
+                // 期间贴图被使用、替换或关闭，结果作废
+                deleteSpillFile(demoted.spillFile());
+                return;
+            }
+            if (from == Tier.FULL) {
+                entry.stickerPane.releaseImage(demoted.preview());
+            }
+            entry.tier = target;
+            if (target == Tier.SPILLED) {
+                entry.compressed = null;
+                entry.spillFile = demoted.spillFile();
+                entry.spillBytes = demoted.compressed().length;
+            } else {
+                entry.compressed = demoted.compressed();
+            }
+        }));
+    }
+
+    private Demoted demote(Image full, byte[] compressed, Tier target) throws IOException {
+        Image preview = null;
+        if (full != null) {
+            int width = (int) full.getWidth();
+            int height = (int) full.getHeight();
+            int[] pixels = new int[width * height];
+            full.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+            compressed = QoiCodec.encode(pixels, width, height, 4);
+            preview = preview(pixels, width, height);
+        }
+        Path spillFile = null;
+        if (target == Tier.SPILLED) {
+            spillFile = Files.createTempFile(spillDirectory(), "sticker", QoiCodec.EXTENSION);
+            try (FileChannel channel = FileChannel.open(spillFile, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(compressed);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+        return new Demoted(compressed, preview, spillFile);
+    }
+
+    /**
+     * 按块平均缩小到预览尺寸
+     */
+    private static Image preview(int[] pixels, int width, int height) {
+        double factor = Math.max(1.0, Math.max(width, height) / (double) PREVIEW_SIZE);
+        int previewWidth = Math.max(1, (int) (width / factor));
+        int previewHeight = Math.max(1, (int) (height / factor));
+        int[] target = new int[previewWidth * previewHeight];
+        for (int y = 0; y < previewHeight; y++) {
+            int y0 = (int) (y * factor);
+            int y1 = Math.max(y0 + 1, Math.min(height, (int) ((y + 1) * factor)));
+            for (int x = 0; x < previewWidth; x++) {
+                int x0 = (int) (x * factor);
+                int x1 = Math.max(x0 + 1, Math.min(width, (int) ((x + 1) * factor)));
+                long a = 0, r = 0, g = 0, b = 0;
+                for (int sy = y0; sy < y1; sy++) {
+                    int row = sy * width;
+                    for (int sx = x0; sx < x1; sx++) {
+                        int argb = pixels[row + sx];
+                        a += argb >>> 24;
+                        r += (argb >> 16) & 0xFF;
+                        g += (argb >> 8) & 0xFF;
+                        b += argb & 0xFF;
+                    }
+                }
+                int n = (y1 - y0) * (x1 - x0);
+                target[y * previewWidth + x] = (int) (a / n) << 24 | (int) (r / n) << 16 | (int) (g / n) << 8 | (int) (b / n);
+            }
+        }
+        WritableImage preview = new WritableImage(previewWidth, previewHeight);
+        preview.getPixelWriter().setPixels(0, 0, previewWidth, previewHeight,
+                PixelFormat.getIntArgbInstance(), target, 0, previewWidth);
+        return preview;
+    }
+
+    private static WritableImage decode(byte[] compressed, Path spillFile) throws IOException {
+        QoiCodec.QoiImage qoi;
+        if (compressed != null) {
+            qoi = QoiCodec.decode(compressed);
+        } else {
+            try (FileChannel channel = FileChannel.open(spillFile, StandardOpenOption.READ)) {
+                qoi = QoiCodec.decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+        WritableImage image = new WritableImage(qoi.width(), qoi.height());
+        image.getPixelWriter().setPixels(0, 0, qoi.width(), qoi.height(),
+                PixelFormat.getIntArgbInstance(), qoi.pixels(), 0, qoi.width());
+        return image;
+    }
+
+    /**
+     * 检查可见性并按预算降级
+     */
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        List<Entry> list = new ArrayList<>(entries.values());
+        for (Entry entry : list) {
+            if (isShown(entry.stickerPane)) {
+                entry.hiddenSince = 0;
+            } else if (entry.hiddenSince == 0) {
+                entry.hiddenSince = now;
+            }
+        }
+
+        // 被遮挡或隐藏一段时间的贴图直接溢出到文件，预览图保留，重新露出时立即可见
+        for (Entry entry : list) {
+            if (!entry.busy && entry.tier != Tier.SPILLED && entry.hiddenSince != 0
+                    && now - entry.hiddenSince >= HIDDEN_GRACE_MS && !isActive(entry)
+                    && (entry.tier != Tier.FULL || worthPreview(entry))) {
+                demote(entry, Tier.SPILLED);
+            }
+        }
+
+        // 原图超出预算时压缩最久未使用的贴图
+        long fullBytes = 0;
+        List<Entry> candidates = new ArrayList<>();
+        for (Entry entry : list) {
+            if (entry.tier == Tier.FULL && !entry.busy) {
+                fullBytes += entry.fullBytes();
+                if (!isActive(entry) && worthPreview(entry)) {
+                    candidates.add(entry);
+                }
+            }
+        }
+        candidates.sort(Comparator.comparingLong(entry -> entry.lastUsed));
+        for (Entry entry : candidates) {
+            if (fullBytes <= fullBudget) {
+                break;
+            }
+            fullBytes -= entry.fullBytes();
+            demote(entry, Tier.COMPRESSED);
+        }
+
+        // 压缩数据超出预算时溢出到文件，预览图保留
+        long compressedBytes = 0;
+        candidates.clear();
+        for (Entry entry : list) {
+            if (entry.tier == Tier.COMPRESSED && !entry.busy) {
+                compressedBytes += entry.compressed.length;
+                candidates.add(entry);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(entry -> entry.lastUsed));
+        for (Entry entry : candidates) {
+            if (compressedBytes <= compressedBudget) {
+                break;
+            }
+            compressedBytes -= entry.compressed.length;
+            demote(entry, Tier.SPILLED);
+        }
+    }
+
+    /**
+     * 太小的贴图换成预览图省不了多少内存，不降级
+     */
+    private static boolean worthPreview(Entry entry) {
+        return (long) PREVIEW_SIZE * PREVIEW_SIZE * 4 < entry.fullBytes();
+    }
+
+    /**
+     * 正在被使用的贴图不降级
+     */
+    private static boolean isActive(Entry entry) {
+        StickerPane stickerPane = entry.stickerPane;
+        return stickerPane.isHover() || stickerPane.getFrame().isFocused()
+                || !stickerPane.getDrawCanvas().isMouseTransparent();
+    }
+
+    /**
+     * 贴图是否在屏幕上可见：窗口显示、节点可见，且没有被上层某一张不透明贴图完全盖住
+     */
+    private static boolean isShown(StickerPane stickerPane) {
+        if (!stickerPane.isVisible() || stickerPane.getScene() == null
+                || stickerPane.getScene().getWindow() == null || !stickerPane.getScene().getWindow().isShowing()) {
+            return false;
+        }
+        Parent parent = stickerPane.getParent();
+        if (parent == null) {
+            return false;
+        }
+        Bounds bounds = stickerPane.getBoundsInParent();
+        List<Node> children = parent.getChildrenUnmodifiable();
+        for (int i = children.indexOf(stickerPane) + 1; i < children.size(); i++) {
+            if (children.get(i) instanceof StickerPane above && above.isVisible()
+                    && above.getFrame().getOpacity() >= 1 && above.getOpacity() >= 1
+                    && above.getBoundsInParent().contains(bounds)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void dropStorage(Entry entry) {
+        entry.compressed = null;
+        deleteSpillFile(entry.spillFile);
+        entry.spillFile = null;
+        entry.spillBytes = 0;
+    }
+
+    private Path spillDirectory() throws IOException {
+        synchronized (this) {
+            if (spillDirectory == null) {
+                spillDirectory = Files.createTempDirectory("snapsticker-spill");
+            }
+            return spillDirectory;
+        }
+    }
+
+    private static void deleteSpillFile(Path spillFile) {
+        if (spillFile == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(spillFile);
+        } catch (IOException e) {
+            // Windows不允许删除仍被映射的文件，退出时再删
+            spillFile.toFile().deleteOnExit();
+        }
+    }
+
+    /**
+     * 停止后台任务并删除所有溢出文件
+     */
+    public void shutdown() {
+        sweeper.stop();
+        workers.shutdownNow();
+        for (Entry entry : entries.values()) {
+            deleteSpillFile(entry.spillFile);
+        }
+        entries.clear();
+        synchronized (this) {
+            if (spillDirectory != null) {
+                deleteSpillFile(spillDirectory);
+                spillDirectory = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.github.sticker.feature.widget;
+
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.shape.Rectangle;
+import javafx.stage.Window;
+import javafx.util.Duration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 贴图的多级缩小图（mipmap）
+ * 缩小显示时不再让ImageView直接采样原图，而是选用不小于显示尺寸的最近一级缩小图：
+ * 每一级都是上一级按2×2盒式滤波得到的一半尺寸，只在第一次需要时于后台生成。
+ * 缩放停止片刻后，再从该级用Lanczos滤波重采样到实际显示尺寸替换上去。
+ * 放大超过100%时直接显示原图并关闭平滑，用最近邻采样方便查看像素。
+ * 关闭平滑后缩小时也使用最近邻采样，但仍然选用缩小图以减少填充开销。
+ * 所有方法只在JavaFX线程调用。
+ */
+final class StickerMipmap {
+    private static final double SETTLE_MS = 200;        // 缩放停止多久后做高质量重采样
+    private static final double SCALE_EPSILON = 0.001;
+    private static final int LANCZOS_RADIUS = 3;
+
+    private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "sticker-mipmap");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ImageView imageView;
+    private final Rectangle frame;
+    private final PauseTransition settle = new PauseTransition(Duration.millis(SETTLE_MS));
+    private final List<Image> levels = new ArrayList<>(); // 第i项为原图的1/2^(i+1)
+    private Image source;
+    private Image resampled;            // 按当前显示尺寸重采样的结果
+    private volatile int generation;    // 每次更换原图加一，使进行中的后台任务作废
+    private boolean building = false;
+    private boolean smoothing = true;
+
+    StickerMipmap(ImageView imageView, Rectangle frame) {
+        this.imageView = imageView;
+        this.frame = frame;
+        settle.setOnFinished(e -> resample());
+        frame.widthProperty().addListener((obs, oldVal, newVal) -> update());
+        frame.heightProperty().addListener((obs, oldVal, newVal) -> update());
+    }
+
+    /**
+     * 更换原图，已有的缩小图全部作废
+     *
+     * @param image 新的原图，为null时不再管理显示
+     */
+    void setSource(Image image) {
+        generation++;
+        source = image;
+        levels.clear();
+        resampled = null;
+        building = false;
+        settle.stop();
+        if (image != null) {
+            update();
+        }
+    }
+
+    /**
+     * 设置是否平滑缩小
+     */
+    void setSmoothing(boolean smoothing) {
+        this.smoothing = smoothing;
+        resampled = null;
+        update();
+    }
+
+    boolean isSmoothing() {
+        return smoothing;
+    }
+
+    /**
+     * 按当前显示比例选择要显示的图片
+     */
+    void update() {
+        if (source == null || frame.getWidth() <= 0 || frame.getHeight() <= 0) {
+            return;
+        }
+        double scale = displayScale();
+        if (scale >= 1 - SCALE_EPSILON) {
+            settle.stop();
+            show(source, scale <= 1 + SCALE_EPSILON);
+            return;
+        }
+
+        if (resampled != null && resampled.getWidth() == targetWidth(scale)
+                && resampled.getHeight() == targetHeight(scale)) {
+            show(resampled, true);
+            return;
+        }
+        resampled = null;
+
+        // 第k级的比例为1/2^k，取不小于显示比例的最小一级
+        int wanted = Math.min(maxLevel(), (int) Math.floor(Math.log(1 / scale) / Math.log(2)));
+        int available = Math.min(wanted, levels.size());
+        show(available == 0 ? source : levels.get(available - 1), smoothing);
+        if (available < wanted) {
+            buildLevels(wanted);
+        }
+        if (smoothing) {
+            settle.playFromStart();
+        }
+    }
+
+    private void show(Image image, boolean smooth) {
+        if (imageView.getImage() != image) {
+            imageView.setImage(image);
+        }
+        imageView.setSmooth(smooth);
+    }
+
+    /**
+     * 每个图片像素对应的屏幕物理像素数
+     * 取长边计算，旋转后同样适用
+     */
+    private double displayScale() {
+        Window window = frame.getScene() != null ? frame.getScene().getWindow() : null;
+        double renderScale = window != null ? window.getRenderScaleX() : 1.0;
+        double longest = Math.max(source.getWidth(), source.getHeight());
+        return Math.max(frame.getWidth(), frame.getHeight()) * renderScale / longest;
+    }
+
+    private int targetWidth(double scale) {
+        return Math.max(1, (int) Math.round(source.getWidth() * scale));
+    }
+
+    private int targetHeight(double scale) {
+        return Math.max(1, (int) Math.round(source.getHeight() * scale));
+    }
+
+    private int maxLevel() {
+        int shortest = (int) Math.min(source.getWidth(), source.getHeight());
+        return Math.max(0, 31 - Integer.numberOfLeadingZeros(Math.max(1, shortest)));
+    }
+
+    /**
+     * 在后台依次生成缩小图直到指定级别
+     */
+    private void buildLevels(int wanted) {
+        if (building) {
+            return;
+        }
+        building = true;
+        int gen = generation;
+        Image start = levels.isEmpty() ? source : levels.get(levels.size() - 1);
+        int count = wanted - levels.size();
+        WORKER.execute(() -> {
+            List<Image> built = new ArrayList<>(count);
+            if (gen == generation) {
+                int width = (int) start.getWidth();
+                int height = (int) start.getHeight();
+                int[] pixels = readPixels(start);
+                for (int i = 0; i < count && gen == generation; i++) {
+                    int halfWidth = Math.max(1, width / 2);
+                    int halfHeight = Math.max(1, height / 2);
+                    pixels = halve(pixels, width, height, halfWidth, halfHeight);
+                    width = halfWidth;
+                    height = halfHeight;
+                    built.add(toImage(pixels, width, height));
+                }
+            }
+            Platform.runLater(() -> {
+                if (gen != generation) {
+                    return;
+                }
+                building = false;
+                levels.addAll(built);
+                update();
+            });
+        });
+    }
+
+    /**
+     * 缩放停止后，从最近的一级重采样到实际显示尺寸
+     */
+    private void resample() {
+        if (source == null || !smoothing) {
+            return;
+        }
+        double scale = displayScale();
+        if (scale >= 1 - SCALE_EPSILON) {
+            return;
+        }
+        int width = targetWidth(scale);
+        int height = targetHeight(scale);
+        int gen = generation;
+        Image from = imageView.getImage();
+        WORKER.execute(() -> {
+            if (gen != generation) {
+                return;
+            }
+            int[] pixels = lanczos(readPixels(from), (int) from.getWidth(), (int) from.getHeight(), width, height);
+            Image result = toImage(pixels, width, height);
+            Platform.runLater(() -> {
+                if (gen != generation || source == null || !smoothing) {
+                    return;
+                }
+                double current = displayScale();
+                if (current < 1 - SCALE_EPSILON && targetWidth(current) == width && targetHeight(current) == height) {
+                    resampled = result;
+                    show(result, true);
+                }
+            });
+        });
+    }
+
+    private static int[] readPixels(Image image) {
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        int[] pixels = new int[width * height];
+        image.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbPreInstance(), pixels, 0, width);
+        return pixels;
+    }
+
+    private static Image toImage(int[] pixels, int width, int height) {
+        WritableImage image = new WritableImage(width, height);
+        image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbPreInstance(), pixels, 0, width);
+        return image;
+    }
+
+    /**
+     * 2×2盒式滤波缩小一半，奇数边的最后一行或列并入前一格
+     * 在预乘透明度的颜色上平均，透明边缘不会发灰
+     */
+    private static int[] halve(int[] pixels, int width, int height, int halfWidth, int halfHeight) {
+        int[] result = new int[halfWidth * halfHeight];
+        for (int y = 0; y < halfHeight; y++) {
+            int y0 = Math.min(y * 2, height - 1);
+            int y1 = Math.min(y * 2 + 1, height - 1);
+            for (int x = 0; x < halfWidth; x++) {
+                int x0 = Math.min(x * 2, width - 1);
+                int x1 = Math.min(x * 2 + 1, width - 1);
+                result[y * halfWidth + x] = average(pixels[y0 * width + x0], pixels[y0 * width + x1],
+                        pixels[y1 * width + x0], pixels[y1 * width + x1]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 四个预乘像素逐通道取平均
+     */
+    static int average(int p0, int p1, int p2, int p3) {
+        int argb = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int sum = ((p0 >>> shift) & 0xFF) + ((p1 >>> shift) & 0xFF)
+                    + ((p2 >>> shift) & 0xFF) + ((p3 >>> shift) & 0xFF);
+            argb |= ((sum + 2) >> 2) << shift;
+        }
+        return argb;
+    }
+
+    /**
+     * 可分离的Lanczos重采样，先水平后垂直
+     */
+    private static int[] lanczos(int[] pixels, int width, int height, int targetWidth, int targetHeight) {
+        float[] horizontal = new float[targetWidth * height * 4];
+        Kernel columns = new Kernel(width, targetWidth);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < targetWidth; x++) {
+                float a = 0, r = 0, g = 0, b = 0;
+                int first = columns.first[x];
+                for (int i = 0; i < columns.count[x]; i++) {
+                    float w = columns.weights[x][i];
+                    int p = pixels[y * width + first + i];
+                    a += w * (p >>> 24);
+                    r += w * ((p >> 16) & 0xFF);
+                    g += w * ((p >> 8) & 0xFF);
+                    b += w * (p & 0xFF);
+                }
+                int o = (y * targetWidth + x) * 4;
+                horizontal[o] = a;
+                horizontal[o + 1] = r;
+                horizontal[o + 2] = g;
+                horizontal[o + 3] = b;
+            }
+        }
+
+        int[] result = new int[targetWidth * targetHeight];
+        Kernel rows = new Kernel(height, targetHeight);
+        for (int y = 0; y < targetHeight; y++) {
+            int first = rows.first[y];
+            for (int x = 0; x < targetWidth; x++) {
+                float a = 0, r = 0, g = 0, b = 0;
+                for (int i = 0; i < rows.count[y]; i++) {
+                    float w = rows.weights[y][i];
+                    int o = ((first + i) * targetWidth + x) * 4;
+                    a += w * horizontal[o];
+                    r += w * horizontal[o + 1];
+                    g += w * horizontal[o + 2];
+                    b += w * horizontal[o + 3];
+                }
+                // Lanczos有负瓣，预乘颜色不能超过透明度
+                int alpha = clamp(a, 255);
+                result[y * targetWidth + x] = alpha << 24 | clamp(r, alpha) << 16 | clamp(g, alpha) << 8 | clamp(b, alpha);
+            }
+        }
+        return result;
+    }
+
+    private static int clamp(float value, int max) {
+        return Math.max(0, Math.min(max, Math.round(value)));
+    }
+
+    /**
+     * 一个方向上每个目标像素的采样起点和归一化权重
+     */
+    private static final class Kernel {
+        final int[] first;
+        final int[] count;
+        final float[][] weights;
+
+        Kernel(int sourceSize, int targetSize) {
+            first = new int[targetSize];
+            count = new int[targetSize];
+            weights = new float[targetSize][];
+            double ratio = (double) sourceSize / targetSize;
+            double stretch = Math.max(1, ratio);   // 缩小时按比例拉宽滤波核
+            double support = LANCZOS_RADIUS * stretch;
+            for (int i = 0; i < targetSize; i++) {
+                double center = (i + 0.5) * ratio;
+                int start = Math.max(0, (int) Math.floor(center - support));
+                int end = Math.min(sourceSize - 1, (int) Math.ceil(center + support));
+                float[] w = new float[end - start + 1];
+                double total = 0;
+                for (int j = start; j <= end; j++) {
+                    double value = sinc((j + 0.5 - center) / stretch);
+                    w[j - start] = (float) value;
+                    total += value;
+                }
+                for (int j = 0; j < w.length; j++) {
+                    w[j] = (float) (w[j] / total);
+                }
+                first[i] = start;
+                count[i] = w.length;
+                weights[i] = w;
+            }
+        }
+
+        private static double sinc(double x) {
+            if (Math.abs(x) >= LANCZOS_RADIUS) {
+                return 0;
+            }
+            if (x == 0) {
+                return 1;
+            }
+            double px = Math.PI * x;
+            return LANCZOS_RADIUS * Math.sin(px) * Math.sin(px / LANCZOS_RADIUS) / (px * px);
+        }
+    }
+}
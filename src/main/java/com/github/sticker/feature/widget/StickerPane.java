@@ -2,147 +2,102 @@ package com.github.sticker.feature.widget;
 
 import com.github.sticker.draw.DrawCanvas;
 import com.github.sticker.draw.FloatingToolbar;
+import com.github.sticker.draw.PixelSource;
+import com.github.sticker.draw.Redaction;
+import com.github.sticker.util.AdjustmentStack;
+import com.github.sticker.util.ImageAdjustments;
 import com.github.sticker.util.OCRUtil;
+import com.github.sticker.util.PreprocessedImage;
+import com.github.sticker.util.PulseMonitor;
+import com.github.sticker.util.SensitiveTextDetector;
+import com.github.sticker.util.TableExtractor;
 import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.geometry.Point2D;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.Cursor;
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.Group;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.image.WritableImage;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
-import javafx.scene.text.Font;
-import javafx.scene.text.FontWeight;
-import javafx.scene.text.Text;
-import javafx.scene.effect.BlendMode;
+import javafx.scene.transform.Rotate;
+import javafx.scene.transform.Scale;
+import javafx.stage.Screen;
 
-import java.util.List;
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
-import static com.github.sticker.draw.Icon.createDirectionalCursor;
-import static com.github.sticker.draw.Icon.point;
-
 /**
  * 贴图面板
  * 包含图片显示和绘图功能
  */
 public class StickerPane extends StackPane {
     private final ImageView imageView;
+    private final TiledImageLayer tileLayer = new TiledImageLayer(); // 超大图片的原图分块
+    private TiledImage tiledImage;           // 超大图片时为分块原图，image是它的代理图
+    private final Group content;             // 图片坐标系下的图片、文字层和画布
+    private final Rotate contentRotate = new Rotate(0, Rotate.Z_AXIS);
+    private final Scale contentFlip = new Scale(1, 1, 0, 0);   // 水平、竖直翻转，-1表示已翻转
+    private final Scale contentScale = new Scale(1, 1, 0, 0);
+    private final StickerMipmap mipmap;      // 缩小显示用的多级缩小图
     private final DrawCanvas drawCanvas;
     private FloatingToolbar floatingToolbar;
     private final Rectangle frame;
     private final BorderEffect borderEffect;
-    private final Canvas textCanvas; // 使用Canvas替代TextFlow
-    private final Pane selectionPane; // 用于文本选择的透明层
-    private final List<TextSelection> textSelections; // 存储所有文本选择区域
-    private TextSelection currentSelection; // 当前正在选择的文本
-    private double startX, startY; // 选择起始点
-
-    // 内部类：表示一个可选择的文本区域
-    private class TextSelection {
-        private final Text text;
-        private final Rectangle highlight;
-        private final double x, y, width, height;
-        private final String content;
-        private static final Color HOVER_COLOR = Color.rgb(0, 120, 215, 0.2);    // 悬停时的浅蓝色
-        private static final Color SELECTED_COLOR = Color.rgb(0, 120, 215, 0.4); // 选中时的深蓝色
-        private static final Color TRANSPARENT_TEXT = Color.TRANSPARENT;          // 透明文本
-
-        public TextSelection(String content, double x, double y, double width, double height) {
-            this.content = content;
-            this.x = x;
-            this.y = y;
-            this.width = width;
-            this.height = height;
-
-            // 创建文本节点，设置为透明
-            text = new Text(content);
-            text.setFont(new Font("System", 20));
-            text.setFill(TRANSPARENT_TEXT);
-            text.setX(x);
-            text.setY(y + height);
-            text.setMouseTransparent(true);
-
-            // 创建高亮背景
-            highlight = new Rectangle(x, y, width, height);
-            highlight.setFill(Color.TRANSPARENT);
-            highlight.setMouseTransparent(false);
-
-            // 设置鼠标事件
-            setupMouseEvents();
-        }
-
-        private void setupMouseEvents() {
-            // 鼠标进入时显示可选择状态
-            highlight.setOnMouseEntered(e -> {
-                if (this != currentSelection) {
-                    highlight.setFill(HOVER_COLOR);
-                }
-                selectionPane.setCursor(Cursor.TEXT);
-                e.consume();
-            });
-
-            // 鼠标离开时恢复透明
-            highlight.setOnMouseExited(e -> {
-                if (this != currentSelection) {
-                    highlight.setFill(Color.TRANSPARENT);
-                }
-                selectionPane.setCursor(Cursor.DEFAULT);
-                e.consume();
-            });
-
-            // 处理双击事件
-            highlight.setOnMouseClicked(e -> {
-                if (e.getClickCount() == 2) {
-                    // 如果已有选中的文本，取消其选中状态
-                    if (currentSelection != null && currentSelection != this) {
-                        currentSelection.setSelected(false);
-                    }
-                    // 设置当前文本为选中状态
-                    currentSelection = this;
-                    setSelected(true);
-                    
-                    // 确保面板获得焦点以接收键盘事件
-                    StickerPane.this.requestFocus();
-                    
-                    System.out.println("Selected text: " + content);
-                } else if (e.getClickCount() == 1) {
-                    // 单击时只显示hover效果
-                    if (this != currentSelection) {
-                        highlight.setFill(HOVER_COLOR);
-                    }
-                }
-                e.consume();
-            });
-        }
-
-        public void setSelected(boolean selected) {
-            highlight.setFill(selected ? SELECTED_COLOR : Color.TRANSPARENT);
-        }
-
-        public boolean contains(double x, double y) {
-            return x >= this.x && x <= this.x + width &&
-                   y >= this.y && y <= this.y + height;
-        }
-
-        public void addToPane(Pane pane) {
-            pane.getChildren().addAll(highlight, text);
-        }
-
-        public void removeFromPane(Pane pane) {
-            pane.getChildren().removeAll(highlight, text);
-        }
+    private final TextSelectionLayer textLayer; // OCR文字选择层
+    private CompletableFuture<List<OCRUtil.OCRResult>> ocrTask; // 后台OCR任务
+    private boolean fullOcrApplied = false; // 整图识别结果是否已显示，区域识别可能先于它落地
+    private final ReadOnlyObjectWrapper<List<OCRUtil.OCRResult>> ocrResults =
+            new ReadOnlyObjectWrapper<>(List.of()); // 最近一次的OCR结果
+    private boolean textSelectionEnabled = true;
+    private boolean selectingText = false;
+    private boolean regionOcrArmed = false;  // 下一次拖拽识别区域
+    private Point2D regionStart;             // 区域识别的拖拽起点，图片坐标
+    private Image image;                     // 原图，被内存管理降级时为null
+    private double imageWidth;
+    private double imageHeight;
+    private final ReadOnlyIntegerWrapper imageRevision = new ReadOnlyIntegerWrapper(0); // 图片内容被替换的次数
+    private int preprocessedRevision = -1;   // 预处理缓存对应的图片版本
+    private boolean destroyed = false;
+    private CompletableFuture<PreprocessedImage> preprocessTask; // 预处理缓存，供多次区域识别复用
+    private StickerImageLoader.Loading loading; // 正在后台加载的新图片
+    private final ReadOnlyObjectWrapper<AdjustmentStack> adjustments =
+            new ReadOnlyObjectWrapper<>(AdjustmentStack.EMPTY); // 图片调整，不修改原图
+    private Image adjusted;                  // 应用调整后的显示图片，没有调整或尚未算完时为null
+    private AdjustedKey adjustedKey;         // adjusted对应的图片版本和调整
+    private Image preview;                   // 原图被内存管理释放后显示的预览图，未调整
 
-        public String getContent() {
-            return content;
-        }
+    /**
+     * 调整结果的缓存键，图片版本和调整都相同时复用
+     */
+    private record AdjustedKey(int revision, AdjustmentStack adjustments) {
     }
 
     public StickerPane(WritableImage image) {
+        this(image, null);
+    }
+
+    /**
+     * 创建贴图
+     *
+     * @param image      贴图图片
+     * @param restoredResults 已有的OCR结果，恢复会话时传入以免重新识别；为null时后台识别
+     */
+    public StickerPane(WritableImage image, List<OCRUtil.OCRResult> restoredResults) {
         setPickOnBounds(false);
         setMouseTransparent(true);
 
@@ -153,12 +108,17 @@ public class StickerPane extends StackPane {
         frame.setMouseTransparent(false);
 
         // 设置图片显示
+        this.image = image;
+        this.imageWidth = image.getWidth();
+        this.imageHeight = image.getHeight();
         imageView = new ImageView(image);
-        imageView.setPreserveRatio(true);
+        imageView.setPreserveRatio(false);
         imageView.setSmooth(true);
         imageView.setPickOnBounds(false);
         imageView.setMouseTransparent(true);
         imageView.setFocusTraversable(false);
+        mipmap = new StickerMipmap(imageView, frame);
+        mipmap.setSource(image);
 
         borderEffect = new BorderEffect(frame);
         frame.getProperties().put("borderEffect", borderEffect);
@@ -168,64 +128,54 @@ public class StickerPane extends StackPane {
         drawCanvas = new DrawCanvas();
         drawCanvas.setPickOnBounds(true);
         drawCanvas.setMouseTransparent(true);
+        // 打码读取显示中的图片，画布处于图片坐标系，一个画布单位就是一个像素
+        drawCanvas.setPixelSource(() -> {
+            Image shown = adjusted != null ? adjusted : getImage();
+            return shown != null ? PixelSource.of(shown, 1) : null;
+        });
 
-        // 创建文本绘制Canvas
-        textCanvas = new Canvas();
-        textCanvas.setPickOnBounds(false);
-        textCanvas.setMouseTransparent(true);
-
-        // 初始化文本选择相关的组件
-        selectionPane = new Pane();
-        selectionPane.setPickOnBounds(false);
-        selectionPane.setMouseTransparent(false);
-        textSelections = new ArrayList<>();
-
-        // 设置选择层的大小绑定
-        selectionPane.prefWidthProperty().bind(frame.widthProperty());
-        selectionPane.prefHeightProperty().bind(frame.heightProperty());
+        // 创建文字选择层
+        textLayer = new TextSelectionLayer();
+        textLayer.setImageSize(image.getWidth(), image.getHeight());
 
-        // 设置键盘事件处理
+        // 设置键盘和文字选择事件处理
         setupKeyboardEvents();
+        setupTextSelectionEvents();
+
+        // 图片、文字层和画布都放在图片坐标系的内容组里，尺寸只在换图时改变；
+        // 缩放和旋转通过内容组的变换跟随frame，滚轮缩放不会触发布局，也不会重建画布纹理；
+        // 翻转也是内容组的变换，先翻转再绕中心旋转，和StickerCompositor导出时的顺序相同
+        content = new Group(imageView, tileLayer, textLayer, drawCanvas);
+        content.setManaged(false);
+        content.getTransforms().addAll(contentRotate, contentFlip, contentScale);
+        contentRotate.angleProperty().bind(frame.rotateProperty());
+        contentRotate.pivotXProperty().bind(frame.widthProperty().divide(2));
+        contentRotate.pivotYProperty().bind(frame.heightProperty().divide(2));
+        contentFlip.pivotXProperty().bind(frame.widthProperty().divide(2));
+        contentFlip.pivotYProperty().bind(frame.heightProperty().divide(2));
+        frame.widthProperty().addListener((obs, oldVal, newVal) -> updateContentScale());
+        frame.heightProperty().addListener((obs, oldVal, newVal) -> updateContentScale());
+        resizeContent();
 
-        // 确保画布和图片大小跟随frame大小
-        imageView.fitWidthProperty().bind(frame.widthProperty());
-        imageView.fitHeightProperty().bind(frame.heightProperty());
-        drawCanvas.prefWidthProperty().bind(frame.widthProperty());
-        drawCanvas.prefHeightProperty().bind(frame.heightProperty());
-        
-        // 绑定Canvas大小
-        textCanvas.widthProperty().bind(frame.widthProperty());
-        textCanvas.heightProperty().bind(frame.heightProperty());
-
-        // 绑定旋转属性
-        imageView.rotateProperty().bind(frame.rotateProperty());
-        drawCanvas.rotateProperty().bind(frame.rotateProperty());
-        textCanvas.rotateProperty().bind(frame.rotateProperty());
-        
-        // 设置旋转中心点
         frame.setRotationAxis(javafx.scene.transform.Rotate.Z_AXIS);
-        imageView.setRotationAxis(javafx.scene.transform.Rotate.Z_AXIS);
-        drawCanvas.setRotationAxis(javafx.scene.transform.Rotate.Z_AXIS);
-        textCanvas.setRotationAxis(javafx.scene.transform.Rotate.Z_AXIS);
-
-        // 监听旋转变化，调整缩放基准点
-        frame.rotateProperty().addListener((obs, oldVal, newVal) -> {
-            //updateScaleOrigin();
-        });
 
         StickerScaleLabel scaleLabel = new StickerScaleLabel(this);
         StickerScaleHandler scaleHandler = new StickerScaleHandler(this, scaleLabel);
         this.getFrame().getProperties().put("scaleHandler", scaleHandler);
 
         // 添加组件到面板
-        getChildren().addAll(frame, imageView, textCanvas, selectionPane, drawCanvas, scaleLabel);
+        getChildren().addAll(frame, content, scaleLabel);
 
         // 设置面板样式
         setStyle("-fx-background-color: transparent;");
 
-        // 绑定frame位置到StackPane的位置
+        // frame的x、y保存贴图在父容器中的位置，供工具栏定位；
+        // frame不参与布局，用layoutX抵消x，使它在面板内从原点开始绘制
+        frame.setManaged(false);
         frame.xProperty().bind(layoutXProperty());
         frame.yProperty().bind(layoutYProperty());
+        frame.layoutXProperty().bind(layoutXProperty().negate());
+        frame.layoutYProperty().bind(layoutYProperty().negate());
 
         // 创建并设置事件处理器
         new StickerEventHandler(frame, this, borderEffect);
@@ -234,22 +184,24 @@ public class StickerPane extends StackPane {
         setPickOnBounds(true);
         setMouseTransparent(false);
 
+        if (restoredResults != null) {
+            fullOcrApplied = true;
+            setOcrResults(restoredResults);
+            setOcrTextVisible(true);
+            return;
+        }
+
         // 异步执行OCR识别
-        CompletableFuture.runAsync(() -> {
-            List<OCRUtil.OCRResult> results = OCRUtil.ocr(image);
-            System.out.println(results);
+        ocrTask = OCRUtil.submit(image);
+        ocrTask.thenAccept(results -> {
             // 在JavaFX线程中更新UI
             Platform.runLater(() -> {
-                clearOcrText();
-                for (OCRUtil.OCRResult result : results) {
-                    addOcrText(
-                        result.getText(),
-                        result.getX(),
-                        result.getY(),
-                        result.getWidth(),
-                        result.getHeight()
-                    );
+                // 区域识别先落地时已经合并了整图结果，不能再覆盖
+                if (fullOcrApplied) {
+                    return;
                 }
+                fullOcrApplied = true;
+                setOcrResults(results);
                 setOcrTextVisible(true);
             });
         });
@@ -260,14 +212,12 @@ public class StickerPane extends StackPane {
      */
     private void setupKeyboardEvents() {
         this.setOnKeyPressed(e -> {
-            if (e.isControlDown() && e.getCode() == javafx.scene.input.KeyCode.C && currentSelection != null) {
+            if (e.isControlDown() && e.getCode() == javafx.scene.input.KeyCode.C && textLayer.hasSelection()) {
                 // 复制选中的文本到剪贴板
                 javafx.scene.input.Clipboard clipboard = javafx.scene.input.Clipboard.getSystemClipboard();
                 javafx.scene.input.ClipboardContent content = new javafx.scene.input.ClipboardContent();
-                content.putString(currentSelection.getContent());
+                content.putString(textLayer.getSelectedText());
                 clipboard.setContent(content);
-                
-                System.out.println("Copied text: " + currentSelection.getContent());
                 e.consume();
             }
         });
@@ -277,71 +227,357 @@ public class StickerPane extends StackPane {
     }
 
     /**
-     * 添加OCR识别的文字到指定位置
+     * 设置文字选择事件处理
+     * 文字层本身不接收鼠标事件，这里在面板上用事件过滤器做命中测试，
+     * 只有落在文字上的操作才会被拦截，其余事件照常交给frame处理拖拽和菜单。
      */
-    public void addOcrText(String text, double x, double y, double width, double height) {
-        // 创建新的文本选择区域
-        TextSelection selection = new TextSelection(text, x, y, width, height);
-        textSelections.add(selection);
-        selection.addToPane(selectionPane);
-        
-        // 调试信息
-        System.out.println(String.format(
-            "Added selectable text '%s' at position (%.1f,%.1f)",
-            text, x, y
-        ));
+    private void setupTextSelectionEvents() {
+        setupRegionOcrEvents();
+
+        addEventFilter(MouseEvent.MOUSE_MOVED, e -> {
+            if (regionOcrArmed || !isTextSelectionActive()) {
+                return;
+            }
+            Point2D p = toImageCoordinates(e);
+            boolean overText = textLayer.hover(p.getX(), p.getY());
+            setCursor(overText ? Cursor.TEXT : null);
+        });
+
+        addEventFilter(MouseEvent.MOUSE_EXITED, e -> {
+            textLayer.hover(-1, -1);
+            setCursor(null);
+        });
+
+        addEventFilter(MouseEvent.MOUSE_PRESSED, e -> {
+            // 同一节点上的过滤器在事件被消费后仍会执行，区域识别已接管时跳过
+            if (regionStart != null || !isTextSelectionActive() || e.getButton() != MouseButton.PRIMARY) {
+                return;
+            }
+            Point2D p = toImageCoordinates(e);
+            if (!textLayer.hitsText(p.getX(), p.getY())) {
+                textLayer.clearSelection();
+                return;
+            }
+            if (e.getClickCount() == 2) {
+                textLayer.selectLine(p.getX(), p.getY());
+            } else {
+                textLayer.beginSelection(p.getX(), p.getY());
+                selectingText = true;
+            }
+            // 确保面板获得焦点以接收键盘事件
+            requestFocus();
+            e.consume();
+        });
+
+        addEventFilter(MouseEvent.MOUSE_DRAGGED, e -> {
+            if (selectingText) {
+                Point2D p = toImageCoordinates(e);
+                textLayer.extendSelection(p.getX(), p.getY());
+                e.consume();
+            }
+        });
+
+        addEventFilter(MouseEvent.MOUSE_RELEASED, e -> {
+            if (selectingText) {
+                selectingText = false;
+                e.consume();
+            }
+        });
     }
 
     /**
-     * 计算合适的字体大小
+     * 设置区域识别事件处理
+     * 按住Alt拖拽，或从菜单进入区域识别后拖拽，框选的区域会单独识别
      */
-    private double calculateFontSize(GraphicsContext gc, String text, double targetWidth, double targetHeight) {
-        // 从一个初始字体大小开始
-        double fontSize = 20;
-        gc.setFont(new Font("System", fontSize));
-        
-        // 创建临时Text对象来测量文本大小
-        javafx.scene.text.Text tempText = new javafx.scene.text.Text(text);
-        tempText.setFont(gc.getFont());
-        
-        double textWidth = tempText.getBoundsInLocal().getWidth();
-        double textHeight = tempText.getBoundsInLocal().getHeight();
-        
-        // 计算缩放比例
-        double widthRatio = targetWidth / textWidth;
-        double heightRatio = targetHeight / textHeight;
-        
-        // 使用较小的比例来确保文本完全适应目标区域
-        double ratio = Math.min(widthRatio, heightRatio);
-        
-        // 计算最终字体大小，并限制在合理范围内
-        fontSize = Math.max(8, Math.min(50, fontSize * ratio * 0.9)); // 0.9是为了留一些边距
-        
-        System.out.println(String.format(
-            "Text: '%s', Target size: %.1fx%.1f, Calculated font size: %.1f",
-            text, targetWidth, targetHeight, fontSize
-        ));
-        
-        return fontSize;
+    private void setupRegionOcrEvents() {
+        addEventFilter(MouseEvent.MOUSE_PRESSED, e -> {
+            if (e.getButton() != MouseButton.PRIMARY || !drawCanvas.isMouseTransparent()
+                    || !(regionOcrArmed || e.isAltDown())) {
+                return;
+            }
+            regionStart = toImageCoordinates(e);
+            textLayer.clearSelection();
+            e.consume();
+        });
+
+        addEventFilter(MouseEvent.MOUSE_DRAGGED, e -> {
+            if (regionStart != null) {
+                textLayer.setRegion(regionBetween(regionStart, toImageCoordinates(e)));
+                e.consume();
+            }
+        });
+
+        addEventFilter(MouseEvent.MOUSE_RELEASED, e -> {
+            if (regionStart == null) {
+                return;
+            }
+            Rectangle2D region = regionBetween(regionStart, toImageCoordinates(e));
+            regionStart = null;
+            regionOcrArmed = false;
+            setCursor(null);
+            if (region.getWidth() >= 4 && region.getHeight() >= 4) {
+                recognizeRegion(region);
+            } else {
+                textLayer.setRegion(null);
+            }
+            e.consume();
+        });
+    }
+
+    private Rectangle2D regionBetween(Point2D a, Point2D b) {
+        double maxX = imageWidth;
+        double maxY = imageHeight;
+        double minX = Math.max(0, Math.min(a.getX(), b.getX()));
+        double minY = Math.max(0, Math.min(a.getY(), b.getY()));
+        double width = Math.min(maxX, Math.max(a.getX(), b.getX())) - minX;
+        double height = Math.min(maxY, Math.max(a.getY(), b.getY())) - minY;
+        return new Rectangle2D(minX, minY, Math.max(0, width), Math.max(0, height));
+    }
+
+    /**
+     * 进入区域识别模式，下一次拖拽框选的区域将被识别
+     */
+    public void startRegionOcr() {
+        regionOcrArmed = true;
+        setCursor(Cursor.CROSSHAIR);
+    }
+
+    /**
+     * 只识别图片中的一个区域，结果合并到文字选择层
+     *
+     * @param region 图片坐标中的区域
+     * @return 区域内的识别结果
+     */
+    public CompletableFuture<List<OCRUtil.OCRResult>> recognizeRegion(Rectangle2D region) {
+        textLayer.setRegion(region);
+        java.awt.geom.Rectangle2D awtRegion = new java.awt.geom.Rectangle2D.Double(
+                region.getMinX(), region.getMinY(), region.getWidth(), region.getHeight());
+        CompletableFuture<List<OCRUtil.OCRResult>> regionTask = getPreprocessedImage()
+                .thenCompose(preprocessed -> OCRUtil.submitRegion(preprocessed, awtRegion));
+
+        // 整图识别尚未完成时等它的结果，在同一次界面更新中先装入整图结果再合并，
+        // 不依赖两个回调的执行顺序
+        getOcrResultsAsync().thenCombine(regionTask, List::of)
+                .thenAccept(both -> Platform.runLater(() -> {
+                    List<OCRUtil.OCRResult> base = fullOcrApplied ? ocrResults.get() : both.get(0);
+                    fullOcrApplied = true;
+                    mergeOcrResults(base, region, both.get(1));
+                    textLayer.setRegion(null);
+                }))
+                .exceptionally(ex -> {
+                    System.err.println("Region OCR failed: " + ex.getMessage());
+                    Platform.runLater(() -> textLayer.setRegion(null));
+                    return null;
+                });
+        return regionTask;
+    }
+
+    /**
+     * 获取预处理后的图片，同一张图片只处理一次
+     */
+    public CompletableFuture<PreprocessedImage> getPreprocessedImage() {
+        if (preprocessTask == null || preprocessedRevision != imageRevision.get()) {
+            Image image = getImage();
+            preprocessedRevision = imageRevision.get();
+            preprocessTask = CompletableFuture.supplyAsync(
+                    () -> PreprocessedImage.of(SwingFXUtils.fromFXImage(image, null)));
+        }
+        return preprocessTask;
+    }
+
+    /**
+     * 把贴图识别为表格
+     * 复用已有的整图OCR结果和预处理缓存，不会逐个单元格再识别
+     */
+    public CompletableFuture<TableExtractor.Table> extractTable() {
+        return getOcrResultsAsync().thenCombineAsync(getPreprocessedImage(),
+                (results, preprocessed) -> TableExtractor.extract(preprocessed, results));
+    }
+
+    /**
+     * 自动给敏感文字打码
+     * 复用已有的OCR单词框，不会再识别一次；找到的区域一次性加入画布，撤销时作为一步
+     * 马赛克块大小和模糊半径按文字高度决定，保证文字无法辨认
+     *
+     * @param kind 打码方式
+     * @return 打码的文字，JavaFX线程上完成
+     */
+    public CompletableFuture<List<SensitiveTextDetector.Finding>> redactSensitiveText(Redaction.Kind kind) {
+        CompletableFuture<List<SensitiveTextDetector.Finding>> result = new CompletableFuture<>();
+        getOcrResultsAsync().thenApplyAsync(SensitiveTextDetector::detect)
+                .whenComplete((findings, ex) -> Platform.runLater(() -> {
+                    if (ex != null) {
+                        result.completeExceptionally(ex);
+                        return;
+                    }
+                    if (destroyed) {
+                        result.complete(List.of());
+                        return;
+                    }
+                    List<Redaction> redactions = new ArrayList<>();
+                    for (SensitiveTextDetector.Finding finding : findings) {
+                        Redaction redaction = new Redaction(kind,
+                                kind == Redaction.Kind.MOSAIC ? finding.height() / 3 : finding.height() / 2);
+                        redaction.setRegion(new Rectangle2D(finding.x(), finding.y(), finding.width(), finding.height()));
+                        redactions.add(redaction);
+                    }
+                    result.complete(drawCanvas.addRedactions(redactions) ? findings : List.of());
+                }));
+        return result;
+    }
+
+    /**
+     * 用区域识别结果替换该区域内原有的文字行
+     *
+     * @param base 合并前的整图结果
+     */
+    private void mergeOcrResults(List<OCRUtil.OCRResult> base, Rectangle2D region,
+                                 List<OCRUtil.OCRResult> results) {
+        List<OCRUtil.OCRResult> merged = new ArrayList<>();
+        for (OCRUtil.OCRResult line : base) {
+            double centerX = line.getX() + line.getWidth() / 2;
+            double centerY = line.getY() + line.getHeight() / 2;
+            if (!region.contains(centerX, centerY)) {
+                merged.add(line);
+            }
+        }
+        merged.addAll(results);
+        // 选择顺序按阅读顺序：从上到下，从左到右
+        merged.sort(Comparator.comparingDouble(OCRUtil.OCRResult::getY).thenComparingDouble(OCRUtil.OCRResult::getX));
+        setOcrResults(merged);
+        setOcrTextVisible(true);
+    }
+
+    private boolean isTextSelectionActive() {
+        return textSelectionEnabled && drawCanvas.isMouseTransparent() && !textLayer.isEmpty();
+    }
+
+    /**
+     * 将鼠标位置换算为图片像素坐标
+     * 文字层位于图片坐标系，本地坐标就是图片坐标
+     */
+    private Point2D toImageCoordinates(MouseEvent e) {
+        return textLayer.sceneToLocal(e.getSceneX(), e.getSceneY());
+    }
+
+    /**
+     * 按图片尺寸设置内容组中各层的大小，只在换图时调用
+     */
+    private void resizeContent() {
+        imageView.setFitWidth(imageWidth);
+        imageView.setFitHeight(imageHeight);
+        drawCanvas.setPrefSize(imageWidth, imageHeight);
+        textLayer.setWidth(imageWidth);
+        textLayer.setHeight(imageHeight);
+        updateContentScale();
+    }
+
+    /**
+     * 水平或竖直翻转贴图内容
+     *
+     * @param horizontal true为水平翻转，false为竖直翻转
+     */
+    public void flip(boolean horizontal) {
+        if (horizontal) {
+            contentFlip.setX(-contentFlip.getX());
+        } else {
+            contentFlip.setY(-contentFlip.getY());
+        }
+    }
+
+    /**
+     * 设置翻转状态，恢复会话时使用
+     */
+    public void setFlipped(boolean flipX, boolean flipY) {
+        contentFlip.setX(flipX ? -1 : 1);
+        contentFlip.setY(flipY ? -1 : 1);
+    }
+
+    public boolean isFlippedX() {
+        return contentFlip.getX() < 0;
+    }
+
+    public boolean isFlippedY() {
+        return contentFlip.getY() < 0;
+    }
+
+    /**
+     * 水平翻转的缩放值，翻转时为-1，可用于监听翻转
+     */
+    public ReadOnlyDoubleProperty flipXProperty() {
+        return contentFlip.xProperty();
+    }
+
+    /**
+     * 竖直翻转的缩放值，翻转时为-1，可用于监听翻转
+     */
+    public ReadOnlyDoubleProperty flipYProperty() {
+        return contentFlip.yProperty();
+    }
+
+    /**
+     * 让内容组的缩放跟随frame尺寸
+     */
+    private void updateContentScale() {
+        contentScale.setX(imageWidth > 0 ? frame.getWidth() / imageWidth : 1);
+        contentScale.setY(imageHeight > 0 ? frame.getHeight() / imageHeight : 1);
+    }
+
+    @Override
+    protected void layoutChildren() {
+        PulseMonitor.layoutPass();
+        super.layoutChildren();
+    }
+
+    /**
+     * 设置OCR识别结果
+     *
+     * @param results 行级OCR结果，包含单词框
+     */
+    public void setOcrResults(List<OCRUtil.OCRResult> results) {
+        ocrResults.set(List.copyOf(results));
+        textLayer.setLines(results, imageWidth, imageHeight);
+    }
+
+    /**
+     * 获取最近一次的OCR结果
+     */
+    public List<OCRUtil.OCRResult> getOcrResults() {
+        return ocrResults.get();
+    }
+
+    /**
+     * OCR结果属性，识别或区域识别完成后更新
+     */
+    public ReadOnlyObjectProperty<List<OCRUtil.OCRResult>> ocrResultsProperty() {
+        return ocrResults.getReadOnlyProperty();
+    }
+
+    /**
+     * 获取OCR结果，识别尚未完成时返回后台任务
+     */
+    public CompletableFuture<List<OCRUtil.OCRResult>> getOcrResultsAsync() {
+        if (ocrTask != null && !ocrTask.isDone()) {
+            return ocrTask;
+        }
+        return CompletableFuture.completedFuture(ocrResults.get());
     }
 
     /**
      * 清除所有OCR文字
      */
     public void clearOcrText() {
-        if (currentSelection != null) {
-            currentSelection.setSelected(false);
-            currentSelection = null;
-        }
-        selectionPane.getChildren().clear();
-        textSelections.clear();
+        ocrResults.set(List.of());
+        selectingText = false;
+        regionStart = null;
+        textLayer.clear();
     }
 
     /**
      * 设置OCR文字层的可见性
      */
     public void setOcrTextVisible(boolean visible) {
-        selectionPane.setVisible(visible);
+        textLayer.setVisible(visible);
     }
 
     /**
@@ -349,14 +585,287 @@ public class StickerPane extends StackPane {
      * @param enabled true 启用文字选择，false 禁用文字选择
      */
     public void setTextSelectionEnabled(boolean enabled) {
-        selectionPane.setMouseTransparent(!enabled);
-        selectionPane.setCursor(enabled ? Cursor.DEFAULT : Cursor.NONE);
-        if (!enabled && currentSelection != null) {
-            currentSelection.setSelected(false);
-            currentSelection = null;
+        textSelectionEnabled = enabled;
+        if (!enabled) {
+            selectingText = false;
+            textLayer.hover(-1, -1);
+            textLayer.clearSelection();
+        }
+    }
+
+    /**
+     * 获取贴图原图
+     * 图片被内存管理降级时会先同步恢复
+     */
+    public Image getImage() {
+        if (image == null && !destroyed) {
+            StickerMemoryManager.getInstance().rehydrateNow(this);
+        }
+        return image;
+    }
+
+    /**
+     * 替换贴图图片
+     *
+     * @param newImage 新图片
+     */
+    public void setImage(Image newImage) {
+        if (destroyed) {
+            return;
+        }
+        closeTiledImage();
+        image = newImage;
+        preview = null;
+        imageWidth = newImage.getWidth();
+        imageHeight = newImage.getHeight();
+        textLayer.setImageSize(imageWidth, imageHeight);
+        imageView.setImage(newImage);
+        resizeContent();
+        adjusted = null;
+        adjustedKey = null;
+        mipmap.setSource(newImage);
+        imageRevision.set(imageRevision.get() + 1);
+        updateAdjusted();
+    }
+
+    /**
+     * 当前的图片调整
+     */
+    public AdjustmentStack getAdjustments() {
+        return adjustments.get();
+    }
+
+    public ReadOnlyObjectProperty<AdjustmentStack> adjustmentsProperty() {
+        return adjustments.getReadOnlyProperty();
+    }
+
+    /**
+     * 设置图片调整
+     * 调整只作用于显示和导出，原图、OCR和内存管理都不受影响；调整后的图片在后台计算，算完之前显示原来的图片
+     *
+     * @param stack 新的调整，{@link AdjustmentStack#EMPTY} 表示恢复原样
+     */
+    public void setAdjustments(AdjustmentStack stack) {
+        if (destroyed || stack.equals(adjustments.get())) {
+            return;
+        }
+        adjustments.set(stack);
+        tileLayer.setAdjustments(stack);
+        updateAdjusted();
+    }
+
+    /**
+     * 按当前图片版本和调整更新显示的图片，结果已缓存时直接使用
+     */
+    private void updateAdjusted() {
+        if (adjustments.get().isEmpty()) {
+            adjusted = null;
+            adjustedKey = null;
+            showAdjusted();
+            showPreview();
+            return;
+        }
+        AdjustedKey key = new AdjustedKey(imageRevision.get(), adjustments.get());
+        if (key.equals(adjustedKey)) {
+            showAdjusted();
+            return;
+        }
+        Image source = image;
+        if (source == null) {
+            // 被内存管理降级，先调整预览图，恢复原图时再计算
+            showPreview();
+            return;
+        }
+        CompletableFuture.supplyAsync(() -> ImageAdjustments.apply(key.adjustments(), source))
+                .whenComplete((result, ex) -> Platform.runLater(() -> {
+                    if (ex != null) {
+                        System.err.println("Failed to adjust image: " + ex.getMessage());
+                        return;
+                    }
+                    // 计算期间换了图片或调整，结果作废
+                    if (destroyed || image != source || !key.equals(new AdjustedKey(imageRevision.get(), adjustments.get()))) {
+                        return;
+                    }
+                    adjusted = result;
+                    adjustedKey = key;
+                    showAdjusted();
+                }));
+    }
+
+    private void showAdjusted() {
+        if (image == null) {
+            return;
+        }
+        Image shown = adjusted != null ? adjusted : image;
+        imageView.setImage(shown);
+        mipmap.setSource(shown);
+    }
+
+    /**
+     * 原图已释放时显示应用了调整的预览图
+     * 预览图最长边不超过512，直接在JavaFX线程计算，避免先闪一下未调整的图片
+     */
+    private void showPreview() {
+        if (image != null) {
+            return;
+        }
+        imageView.setImage(preview == null || adjustments.get().isEmpty()
+                ? preview : ImageAdjustments.apply(adjustments.get(), preview));
+    }
+
+    /**
+     * 换成分块显示的超大图片
+     * 贴图的图片是堆上的代理图，识别、保存等操作都使用它；
+     * 放大到代理图不够清晰时，只读取窗口内可见的原图分块
+     *
+     * @param tiled 分块图片，贴图销毁或换图时关闭
+     */
+    public void setTiledImage(TiledImage tiled) {
+        if (destroyed) {
+            tiled.close();
+            return;
+        }
+        setImage(tiled.getProxy());
+        tiledImage = tiled;
+        tileLayer.setImage(tiled);
+    }
+
+    /**
+     * 在后台加载图片文件替换贴图图片
+     * 先显示采样读出的预览图，完整图片解码后再替换；贴图按图片大小显示，不超过所在屏幕的可见区域
+     *
+     * @param file 图片文件
+     */
+    public void loadImage(File file) {
+        Point2D origin = frame.localToScreen(0, 0);
+        List<Screen> screens = origin == null ? List.of()
+                : Screen.getScreensForRectangle(origin.getX(), origin.getY(), 1, 1);
+        StickerImageLoader.Loading next = StickerImageLoader.load(file,
+                screens.isEmpty() ? Screen.getPrimary() : screens.get(0));
+        next.onPreview(preview -> {
+            setImage(preview);
+            setSize(next.getSize().getWidth(), next.getSize().getHeight());
+        });
+        awaitImage(next);
+    }
+
+    /**
+     * 等待后台加载的完整图片并替换贴图图片，之前未完成的加载被取消
+     *
+     * @param next 加载过程，预览图由调用方处理
+     */
+    public void awaitImage(StickerImageLoader.Loading next) {
+        cancelLoading();
+        loading = next;
+        next.onImage(full -> {
+            finishLoading(next);
+            if (full != image) {
+                setImage(full);
+            }
+            setSize(next.getSize().getWidth(), next.getSize().getHeight());
+        }).onTiled(tiled -> {
+            finishLoading(next);
+            setTiledImage(tiled);
+            setSize(next.getSize().getWidth(), next.getSize().getHeight());
+        }).onFailed(ex -> {
+            finishLoading(next);
+            System.err.println("Error loading image: " + ex.getMessage());
+        });
+    }
+
+    private void finishLoading(StickerImageLoader.Loading finished) {
+        if (loading == finished) {
+            loading = null;
+        }
+    }
+
+    /**
+     * 取消正在后台加载的图片，直接换图前调用，以免加载完成后覆盖
+     */
+    public void cancelLoading() {
+        if (loading != null) {
+            loading.cancel();
+            loading = null;
+        }
+    }
+
+    private void closeTiledImage() {
+        if (tiledImage != null) {
+            tileLayer.setImage(null);
+            tiledImage.close();
+            tiledImage = null;
+        }
+    }
+
+    /**
+     * 图片内容版本，每次替换图片加一
+     */
+    public ReadOnlyIntegerProperty imageRevisionProperty() {
+        return imageRevision.getReadOnlyProperty();
+    }
+
+    public double getImageWidth() {
+        return imageWidth;
+    }
+
+    public double getImageHeight() {
+        return imageHeight;
+    }
+
+    /**
+     * 设置缩小显示时是否平滑，关闭后使用最近邻采样
+     */
+    public void setSmoothing(boolean smoothing) {
+        mipmap.setSmoothing(smoothing);
+    }
+
+    public boolean isSmoothing() {
+        return mipmap.isSmoothing();
+    }
+
+    /**
+     * 是否持有原图
+     */
+    boolean holdsImage() {
+        return image != null;
+    }
+
+    /**
+     * 是否持有调整后的图片，它和原图一样大，内存管理需要一并计入
+     */
+    boolean holdsAdjusted() {
+        return image != null && adjusted != null;
+    }
+
+    /**
+     * 释放原图，只显示预览图，图片调整同样作用于预览图
+     *
+     * @param preview 缩小的预览图，被遮挡或隐藏时为null
+     */
+    void releaseImage(Image preview) {
+        image = null;
+        adjusted = null;
+        adjustedKey = null;
+        this.preview = preview;
+        mipmap.setSource(null);
+        showPreview();
+        imageView.setSmooth(true);
+        if (preprocessTask != null && preprocessTask.isDone()) {
+            preprocessTask = null;
         }
     }
 
+    /**
+     * 换回恢复的原图
+     */
+    void restoreImage(Image restored) {
+        image = restored;
+        preview = null;
+        imageView.setImage(restored);
+        mipmap.setSource(restored);
+        updateAdjusted();
+    }
+
     /**
      * 获取图片视图组件
      */
@@ -364,6 +873,13 @@ public class StickerPane extends StackPane {
         return imageView;
     }
 
+    /**
+     * 获取标注画布
+     */
+    public DrawCanvas getDrawCanvas() {
+        return drawCanvas;
+    }
+
     /**
      * 获取frame容器
      */
@@ -391,7 +907,7 @@ public class StickerPane extends StackPane {
      * 清除所有绘制内容
      */
     public void clearDrawing() {
-        drawCanvas.getChildren().clear();
+        drawCanvas.clear();
     }
 
     public void setToolbar(Pane root) {
@@ -410,17 +926,25 @@ public class StickerPane extends StackPane {
         clearOcrText();
 
         // 解除绑定
-        imageView.fitWidthProperty().unbind();
-        imageView.fitHeightProperty().unbind();
-        drawCanvas.prefWidthProperty().unbind();
-        drawCanvas.prefHeightProperty().unbind();
-        textCanvas.widthProperty().unbind();
-        textCanvas.heightProperty().unbind();
+        contentRotate.angleProperty().unbind();
+        contentRotate.pivotXProperty().unbind();
+        contentRotate.pivotYProperty().unbind();
+        contentFlip.pivotXProperty().unbind();
+        contentFlip.pivotYProperty().unbind();
         frame.xProperty().unbind();
         frame.yProperty().unbind();
+        frame.layoutXProperty().unbind();
+        frame.layoutYProperty().unbind();
 
         // 清理图片资源
+        cancelLoading();
+        closeTiledImage();
+        mipmap.setSource(null);
         imageView.setImage(null);
+        image = null;
+        adjusted = null;
+        destroyed = true;
+        preprocessTask = null;
 
         // 清理工具栏
         if (floatingToolbar != null) {
@@ -457,24 +981,13 @@ public class StickerPane extends StackPane {
         clearOcrText();
         
         // 获取当前图片
-        Image image = imageView.getImage();
+        Image image = getImage();
         if (image == null) {
             return;
         }
         
-        // 执行OCR识别
-        List<OCRUtil.OCRResult> results = OCRUtil.ocr(image);
-        
-        // 显示识别结果
-        for (OCRUtil.OCRResult result : results) {
-            addOcrText(
-                result.getText(),
-                result.getX(),
-                result.getY(),
-                result.getWidth(),
-                result.getHeight()
-            );
-        }
+        // 执行OCR识别并显示识别结果
+        setOcrResults(OCRUtil.ocr(image));
         
         // 显示文字层
         setOcrTextVisible(true);
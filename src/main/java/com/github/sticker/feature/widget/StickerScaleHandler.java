@@ -31,27 +31,26 @@ public class StickerScaleHandler {
         this.scaleLabel = scaleLabel;
 
         // 记录原始尺寸
-        this.originalWidth = stickerPane.getImageView().getImage().getWidth();
-        this.originalHeight = stickerPane.getImageView().getImage().getHeight();
+        this.originalWidth = stickerPane.getImageWidth();
+        this.originalHeight = stickerPane.getImageHeight();
 
         // 设置滚轮事件处理
         setupScrollHandler();
 
         stickerPane.getFrame().rotateProperty().addListener((obs, oldValue, newValue) -> {
             if (Math.abs(newValue.doubleValue()) == 90 || Math.abs(newValue.doubleValue()) == 270) {
-                this.originalWidth = stickerPane.getImageView().getImage().getHeight();
-                this.originalHeight = stickerPane.getImageView().getImage().getWidth();
+                this.originalWidth = stickerPane.getImageHeight();
+                this.originalHeight = stickerPane.getImageWidth();
             } else {
-                this.originalWidth = stickerPane.getImageView().getImage().getWidth();
-                this.originalHeight = stickerPane.getImageView().getImage().getHeight();
+                this.originalWidth = stickerPane.getImageWidth();
+                this.originalHeight = stickerPane.getImageHeight();
             }
         });
 
-        stickerPane.getImageView().imageProperty().addListener((observable, oldImage, newImage) -> {
-            if (newImage != null) {
-                this.originalWidth = newImage.getWidth();
-                this.originalHeight = newImage.getHeight();
-            }
+        // 内存管理换成预览图时尺寸不变，只在替换图片时更新
+        stickerPane.imageRevisionProperty().addListener((observable, oldRevision, newRevision) -> {
+            this.originalWidth = stickerPane.getImageWidth();
+            this.originalHeight = stickerPane.getImageHeight();
         });
     }
 
@@ -147,6 +146,16 @@ public class StickerScaleHandler {
         stickerPane.setTextSelectionEnabled(Math.abs(newScale - 1.0) < 0.001);
     }
 
+    /**
+     * 恢复保存的缩放比例，贴图尺寸由调用方设置
+     *
+     * @param scale 保存时的缩放比例
+     */
+    public void restoreScale(double scale) {
+        accumulatedScale = Math.min(Math.max(scale, minScale), maxScale);
+        stickerPane.setTextSelectionEnabled(Math.abs(accumulatedScale - 1.0) < 0.001);
+    }
+
     /**
      * 获取当前缩放比例
      *
@@ -0,0 +1,384 @@
+package com.github.sticker.feature.widget;
+
+import com.github.sticker.util.IntervalTree;
+import com.github.sticker.util.OCRUtil;
+import com.github.sticker.util.PulseMonitor;
+import javafx.animation.AnimationTimer;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import javafx.scene.transform.Transform;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * OCR文字选择层
+ * 用单个Canvas绘制悬停和选中高亮，行和单词的命中测试通过区间树完成，
+ * 无论识别出多少文字，场景图中的节点数量都保持不变。
+ * 所有坐标均为图片像素坐标，由调用方负责把鼠标位置换算过来。
+ */
+public class TextSelectionLayer extends Canvas {
+    private static final Color HOVER_COLOR = Color.rgb(0, 120, 215, 0.2);    // 悬停时的浅蓝色
+    private static final Color SELECTED_COLOR = Color.rgb(0, 120, 215, 0.4); // 选中时的深蓝色
+    private static final Color REGION_COLOR = Color.rgb(0, 120, 215);          // 区域识别框
+
+    private final List<TextLine> lines = new ArrayList<>();
+    private IntervalTree<TextLine> lineTree = new IntervalTree<>(List.of(), l -> l.y, l -> l.y + l.height);
+    private double imageWidth = 1;
+    private double imageHeight = 1;
+
+    private TextLine hoverLine;
+    private TextPosition anchor;  // 拖拽起点
+    private TextPosition caret;   // 拖拽终点
+    private Rectangle2D region;   // 正在框选的识别区域
+
+    // 一个脉冲内的多次状态变化只重绘一次
+    private boolean dirty = false;
+    private final AnimationTimer repaintTimer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            if (dirty) {
+                dirty = false;
+                paint();
+            }
+            stop();
+        }
+    };
+
+    /**
+     * 行内的一个单词，记录其在整行文本中的字符范围
+     */
+    private static final class TextWord {
+        final double x, width;
+        final int charStart, charEnd;
+
+        TextWord(double x, double width, int charStart, int charEnd) {
+            this.x = x;
+            this.width = width;
+            this.charStart = charStart;
+            this.charEnd = charEnd;
+        }
+
+        /**
+         * 单词内按字符数平均估算每个字符的位置
+         */
+        double charX(int charIndex) {
+            int count = charEnd - charStart;
+            if (count <= 0) {
+                return x;
+            }
+            int offset = Math.max(0, Math.min(count, charIndex - charStart));
+            return x + width * offset / count;
+        }
+
+        int charAt(double px) {
+            int count = charEnd - charStart;
+            if (count <= 0 || width <= 0) {
+                return charStart;
+            }
+            double ratio = (px - x) / width;
+            int offset = (int) Math.round(ratio * count);
+            return charStart + Math.max(0, Math.min(count, offset));
+        }
+    }
+
+    /**
+     * 一行识别结果
+     */
+    private static final class TextLine {
+        final int index;
+        final String text;
+        final double x, y, width, height;
+        final List<TextWord> words = new ArrayList<>();
+        final IntervalTree<TextWord> wordTree;
+
+        TextLine(int index, OCRUtil.OCRResult result) {
+            this.index = index;
+            this.x = result.getX();
+            this.y = result.getY();
+            this.width = result.getWidth();
+            this.height = result.getHeight();
+
+            StringBuilder builder = new StringBuilder();
+            for (OCRUtil.OCRResult word : result.getWords()) {
+                if (builder.length() > 0) {
+                    builder.append(' ');
+                }
+                int start = builder.length();
+                builder.append(word.getText());
+                words.add(new TextWord(word.getX(), word.getWidth(), start, builder.length()));
+            }
+            if (words.isEmpty()) {
+                // 没有单词框时，把整行当成一个单词
+                builder.append(result.getText());
+                words.add(new TextWord(x, width, 0, builder.length()));
+            }
+            this.text = builder.toString();
+            this.wordTree = new IntervalTree<>(words, w -> w.x, w -> w.x + w.width);
+        }
+
+        boolean contains(double px, double py) {
+            return px >= x && px <= x + width && py >= y && py <= y + height;
+        }
+
+        int charAt(double px) {
+            if (px <= words.get(0).x) {
+                return 0;
+            }
+            List<TextWord> hits = wordTree.stab(px);
+            if (!hits.isEmpty()) {
+                return hits.get(0).charAt(px);
+            }
+            // 落在单词间隙时，取最近单词的边界
+            TextWord nearest = wordTree.nearest(px);
+            return px < nearest.x ? nearest.charStart : nearest.charEnd;
+        }
+
+        double charX(int charIndex) {
+            for (TextWord word : words) {
+                if (charIndex <= word.charEnd) {
+                    return charIndex < word.charStart ? word.x : word.charX(charIndex);
+                }
+            }
+            TextWord last = words.get(words.size() - 1);
+            return last.x + last.width;
+        }
+    }
+
+    /**
+     * 选择位置：行号加行内字符偏移
+     */
+    private record TextPosition(int line, int offset) implements Comparable<TextPosition> {
+        @Override
+        public int compareTo(TextPosition other) {
+            return line != other.line ? Integer.compare(line, other.line) : Integer.compare(offset, other.offset);
+        }
+    }
+
+    public TextSelectionLayer() {
+        setMouseTransparent(true);
+        setPickOnBounds(false);
+        widthProperty().addListener((obs, oldVal, newVal) -> resized());
+        heightProperty().addListener((obs, oldVal, newVal) -> resized());
+    }
+
+    /**
+     * 替换全部识别结果
+     *
+     * @param results     行级OCR结果（包含单词框）
+     * @param imageWidth  图片宽度，用于坐标换算
+     * @param imageHeight 图片高度，用于坐标换算
+     */
+    public void setLines(List<OCRUtil.OCRResult> results, double imageWidth, double imageHeight) {
+        this.imageWidth = Math.max(1, imageWidth);
+        this.imageHeight = Math.max(1, imageHeight);
+        lines.clear();
+        for (OCRUtil.OCRResult result : results) {
+            lines.add(new TextLine(lines.size(), result));
+        }
+        lineTree = new IntervalTree<>(lines, l -> l.y, l -> l.y + l.height);
+        hoverLine = null;
+        anchor = null;
+        caret = null;
+        requestRepaint();
+    }
+
+    /**
+     * 设置图片尺寸，没有识别结果时用于绘制区域框
+     */
+    public void setImageSize(double imageWidth, double imageHeight) {
+        this.imageWidth = Math.max(1, imageWidth);
+        this.imageHeight = Math.max(1, imageHeight);
+        requestRepaint();
+    }
+
+    /**
+     * 清除所有文字和选择
+     */
+    public void clear() {
+        setLines(List.of(), imageWidth, imageHeight);
+    }
+
+    public boolean isEmpty() {
+        return lines.isEmpty();
+    }
+
+    /**
+     * 判断图片坐标处是否有文字
+     */
+    public boolean hitsText(double x, double y) {
+        return lineAt(x, y) != null;
+    }
+
+    /**
+     * 更新悬停高亮
+     *
+     * @return 鼠标是否位于文字上
+     */
+    public boolean hover(double x, double y) {
+        TextLine line = lineAt(x, y);
+        if (line != hoverLine) {
+            hoverLine = line;
+            requestRepaint();
+        }
+        return line != null;
+    }
+
+    /**
+     * 开始拖拽选择
+     */
+    public void beginSelection(double x, double y) {
+        TextLine line = lineAt(x, y);
+        if (line == null) {
+            clearSelection();
+            return;
+        }
+        anchor = new TextPosition(line.index, line.charAt(x));
+        caret = anchor;
+        requestRepaint();
+    }
+
+    /**
+     * 拖拽过程中扩展选择范围，可跨行跨单词
+     */
+    public void extendSelection(double x, double y) {
+        if (anchor == null || lines.isEmpty()) {
+            return;
+        }
+        TextLine line = lineAt(x, y);
+        if (line == null) {
+            line = lineTree.nearest(y);
+        }
+        TextPosition position = new TextPosition(line.index, line.charAt(x));
+        if (!position.equals(caret)) {
+            caret = position;
+            requestRepaint();
+        }
+    }
+
+    /**
+     * 选中整行
+     */
+    public void selectLine(double x, double y) {
+        TextLine line = lineAt(x, y);
+        if (line != null) {
+            anchor = new TextPosition(line.index, 0);
+            caret = new TextPosition(line.index, line.text.length());
+            requestRepaint();
+        }
+    }
+
+    public void clearSelection() {
+        if (anchor != null || caret != null) {
+            anchor = null;
+            caret = null;
+            requestRepaint();
+        }
+    }
+
+    public boolean hasSelection() {
+        return anchor != null && caret != null && anchor.compareTo(caret) != 0;
+    }
+
+    /**
+     * 获取选中的文字，跨行时以换行符连接
+     */
+    public String getSelectedText() {
+        if (!hasSelection()) {
+            return "";
+        }
+        TextPosition start = anchor.compareTo(caret) <= 0 ? anchor : caret;
+        TextPosition end = start == anchor ? caret : anchor;
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = start.line(); i <= end.line(); i++) {
+            String text = lines.get(i).text;
+            int from = i == start.line() ? start.offset() : 0;
+            int to = i == end.line() ? end.offset() : text.length();
+            if (i > start.line()) {
+                builder.append(System.lineSeparator());
+            }
+            builder.append(text, Math.min(from, text.length()), Math.min(to, text.length()));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 显示区域识别框
+     *
+     * @param region 图片坐标中的区域，为null时隐藏
+     */
+    public void setRegion(Rectangle2D region) {
+        this.region = region;
+        requestRepaint();
+    }
+
+    private TextLine lineAt(double x, double y) {
+        for (TextLine line : lineTree.stab(y)) {
+            if (line.contains(x, y)) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 画布尺寸变化会重新分配纹理，只应在换图时发生
+     */
+    private void resized() {
+        PulseMonitor.canvasResized();
+        requestRepaint();
+    }
+
+    private void requestRepaint() {
+        if (!dirty) {
+            dirty = true;
+            repaintTimer.start();
+        }
+    }
+
+    private void paint() {
+        GraphicsContext gc = getGraphicsContext2D();
+        gc.clearRect(0, 0, getWidth(), getHeight());
+        if (lines.isEmpty() && region == null) {
+            return;
+        }
+
+        gc.save();
+        gc.scale(getWidth() / imageWidth, getHeight() / imageHeight);
+
+        if (region != null) {
+            // 线宽和虚线按屏幕像素计算，不随缩放变化
+            Transform transform = getLocalToSceneTransform();
+            double screenScale = Math.hypot(transform.getMxx(), transform.getMyx()) * getWidth() / imageWidth;
+            double unit = screenScale > 0 ? 1 / screenScale : 1;
+            gc.setStroke(REGION_COLOR);
+            gc.setLineWidth(1.5 * unit);
+            gc.setLineDashes(6 * unit, 4 * unit);
+            gc.strokeRect(region.getMinX(), region.getMinY(), region.getWidth(), region.getHeight());
+            gc.setLineDashes((double[]) null);
+        }
+
+        if (hoverLine != null) {
+            gc.setFill(HOVER_COLOR);
+            gc.fillRect(hoverLine.x, hoverLine.y, hoverLine.width, hoverLine.height);
+        }
+
+        if (hasSelection()) {
+            TextPosition start = anchor.compareTo(caret) <= 0 ? anchor : caret;
+            TextPosition end = start == anchor ? caret : anchor;
+            gc.setFill(SELECTED_COLOR);
+            for (int i = start.line(); i <= end.line(); i++) {
+                TextLine line = lines.get(i);
+                double from = i == start.line() ? line.charX(start.offset()) : line.x;
+                double to = i == end.line() ? line.charX(end.offset()) : line.x + line.width;
+                if (to > from) {
+                    gc.fillRect(from, line.y, to - from, line.height);
+                }
+            }
+        }
+        gc.restore();
+    }
+}
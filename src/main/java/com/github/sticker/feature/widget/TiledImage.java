@@ -0,0 +1,532 @@
+package com.github.sticker.feature.widget;
+
+import javafx.geometry.Dimension2D;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * 分块保存的超大图片
+ * 原图解码后切成固定大小的分块，连同逐级缩小一半的各级一起写入临时文件并内存映射，
+ * 堆上只保留一张最长边不超过 {@value #PROXY_SIZE} 的代理图。
+ * 贴图平时显示代理图，放大到代理图不够清晰时才按需读取视口内的分块，
+ * 所以三亿像素的图片也能在默认堆大小下钉住和拖动。
+ * 分块按预乘BGRA保存，和JavaFX图片的内部格式相同，读取时不需要转换。
+ */
+public final class TiledImage implements AutoCloseable {
+    static final int TILE_SIZE = 512;
+    static final int PROXY_SIZE = 4096;                   // 代理图最长边
+    private static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+    private static final int TILING_EDGE = 8192;          // 超过显卡常见的纹理尺寸上限
+    private static final long TILING_PIXELS = 32L << 20;  // 或者像素数多到整张解码太占内存
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(2, r -> {
+        Thread thread = new Thread(r, "sticker-tiles-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int width;
+    private final int height;
+    private final Path directory;
+    private final List<Level> levels;   // 比代理图清晰的各级，第0级为原图
+    private final WritableImage proxy;
+    private volatile boolean closed = false;
+
+    /**
+     * 一级分块，每一行分块单独映射，单个映射不会超过2GB
+     */
+    private static final class Level {
+        final int width;
+        final int height;
+        final int tilesX;
+        final int tilesY;
+        final Path file;
+        final ByteBuffer[] rows;
+
+        Level(Path file, int width, int height) throws IOException {
+            this.file = file;
+            this.width = width;
+            this.height = height;
+            this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+            this.tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+            long rowBytes = (long) tilesX * TILE_BYTES;
+            if (rowBytes > Integer.MAX_VALUE) {
+                throw new IOException("Image too wide to tile: " + width);
+            }
+            rows = new ByteBuffer[tilesY];
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                for (int ty = 0; ty < tilesY; ty++) {
+                    rows[ty] = channel.map(FileChannel.MapMode.READ_WRITE, ty * rowBytes, rowBytes)
+                            .order(ByteOrder.LITTLE_ENDIAN);
+                }
+            }
+        }
+
+        int tileWidth(int tx) {
+            return Math.min(TILE_SIZE, width - tx * TILE_SIZE);
+        }
+
+        int tileHeight(int ty) {
+            return Math.min(TILE_SIZE, height - ty * TILE_SIZE);
+        }
+
+        /**
+         * 分块的像素，行跨度固定为一个分块宽
+         */
+        ByteBuffer tile(int tx, int ty) {
+            return rows[ty].slice(tx * TILE_BYTES, TILE_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        int pixel(int x, int y) {
+            int offset = (x / TILE_SIZE) * TILE_BYTES + ((y % TILE_SIZE) * TILE_SIZE + x % TILE_SIZE) * 4;
+            return rows[y / TILE_SIZE].getInt(offset);
+        }
+    }
+
+    private TiledImage(int width, int height, Path directory, List<Level> levels, WritableImage proxy) {
+        this.width = width;
+        this.height = height;
+        this.directory = directory;
+        this.levels = levels;
+        this.proxy = proxy;
+    }
+
+    /**
+     * 该尺寸的图片是否应该分块显示
+     */
+    public static boolean needsTiling(double width, double height) {
+        return Math.max(width, height) > TILING_EDGE || width * height > TILING_PIXELS;
+    }
+
+    /**
+     * 该尺寸的图片分块后代理图的尺寸，和逐级缩小的结果一致
+     */
+    public static Dimension2D proxySize(int width, int height) {
+        while (Math.max(width, height) > PROXY_SIZE) {
+            width = Math.max(1, width / 2);
+            height = Math.max(1, height / 2);
+        }
+        return new Dimension2D(width, height);
+    }
+
+    /**
+     * 只读取文件头判断图片是否应该分块显示，无法识别的格式返回false
+     */
+    public static boolean needsTiling(File file) {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                return false;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return needsTiling(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 在后台解码图片文件并分块
+     */
+    public static CompletableFuture<TiledImage> loadAsync(File file) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return decode(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, POOL);
+    }
+
+    /**
+     * 在后台把已经在内存中的图片分块，完成后调用方即可释放原图
+     */
+    public static CompletableFuture<TiledImage> fromImageAsync(Image image) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return fromImage(image);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, POOL);
+    }
+
+    static TiledImage fromImage(Image image) throws IOException {
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        Path directory = Files.createTempDirectory("snapsticker-tiles");
+        try {
+            Level level = new Level(directory.resolve("level0.tiles"), width, height);
+            for (int ty = 0; ty < level.tilesY; ty++) {
+                for (int tx = 0; tx < level.tilesX; tx++) {
+                    image.getPixelReader().getPixels(tx * TILE_SIZE, ty * TILE_SIZE, level.tileWidth(tx),
+                            level.tileHeight(ty), PixelFormat.getByteBgraPreInstance(), level.tile(tx, ty),
+                            TILE_SIZE * 4);
+                }
+            }
+            return build(directory, level);
+        } catch (IOException | RuntimeException e) {
+            deleteDirectory(directory);
+            throw e;
+        }
+    }
+
+    /**
+     * 解码图片文件并分块
+     * 解码目标是映射到临时文件的栅格，整张原图不进入堆
+     */
+    static TiledImage decode(File file) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Unsupported image: " + file);
+            }
+            ImageReader reader = readers.next();
+            Path directory = Files.createTempDirectory("snapsticker-tiles");
+            Path raw = directory.resolve("decoded.raw");
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                ImageTypeSpecifier type = reader.getImageTypes(0).next();
+                SampleModel sampleModel = type.getSampleModel(width, height);
+                ColorModel colorModel = type.getColorModel();
+
+                Level level;
+                try (FileChannel channel = FileChannel.open(raw, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    int elementSize = DataBuffer.getDataTypeSize(sampleModel.getDataType()) / 8;
+                    long elements = elementCount(sampleModel, width, height);
+                    if (elements * elementSize > Integer.MAX_VALUE) {
+                        throw new IOException("Image too large: " + width + "x" + height);
+                    }
+                    ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, elements * elementSize);
+                    WritableRaster raster = Raster.createWritableRaster(sampleModel,
+                            new MappedDataBuffer(sampleModel.getDataType(), buffer, (int) elements), null);
+                    BufferedImage decoded = new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
+
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setDestination(decoded);
+                    reader.read(0, param);
+
+                    level = new Level(directory.resolve("level0.tiles"), width, height);
+                    writeTiles(decoded, buffer, level);
+                }
+                deleteQuietly(raw);
+                return build(directory, level);
+            } catch (IOException | RuntimeException e) {
+                deleteDirectory(directory);
+                throw e;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * 采样模型覆盖的元素个数
+     */
+    private static long elementCount(SampleModel sampleModel, int width, int height) throws IOException {
+        if (sampleModel instanceof ComponentSampleModel component) {
+            int maxOffset = Arrays.stream(component.getBandOffsets()).max().orElse(0);
+            return (long) component.getScanlineStride() * (height - 1)
+                    + (long) component.getPixelStride() * (width - 1) + maxOffset + 1;
+        } else if (sampleModel instanceof MultiPixelPackedSampleModel packed) {
+            return (long) packed.getScanlineStride() * height;
+        } else if (sampleModel instanceof SinglePixelPackedSampleModel packed) {
+            return (long) packed.getScanlineStride() * height;
+        }
+        throw new IOException("Unsupported sample model: " + sampleModel.getClass().getSimpleName());
+    }
+
+    /**
+     * 把解码结果转换为预乘BGRA写入第0级分块
+     * 最常见的8位sRGB格式直接读映射的字节，其余格式经由颜色模型转换
+     */
+    private static void writeTiles(BufferedImage decoded, ByteBuffer buffer, Level level) {
+        ColorModel colorModel = decoded.getColorModel();
+        SampleModel sampleModel = decoded.getSampleModel();
+        int bands = sampleModel.getNumBands();
+        boolean direct = colorModel instanceof ComponentColorModel && colorModel.getColorSpace().isCS_sRGB()
+                && sampleModel instanceof PixelInterleavedSampleModel
+                && sampleModel.getDataType() == DataBuffer.TYPE_BYTE
+                && (bands == 3 && !colorModel.hasAlpha() || bands == 4 && colorModel.hasAlpha());
+        int[] tile = new int[TILE_SIZE * TILE_SIZE];
+        int[] row = new int[TILE_SIZE];
+
+        for (int ty = 0; ty < level.tilesY; ty++) {
+            for (int tx = 0; tx < level.tilesX; tx++) {
+                int tileWidth = level.tileWidth(tx);
+                int tileHeight = level.tileHeight(ty);
+                for (int y = 0; y < tileHeight; y++) {
+                    int sourceY = ty * TILE_SIZE + y;
+                    if (direct) {
+                        readDirect((PixelInterleavedSampleModel) sampleModel, colorModel.isAlphaPremultiplied(),
+                                buffer, tx * TILE_SIZE, sourceY, tileWidth, row);
+                    } else {
+                        decoded.getRGB(tx * TILE_SIZE, sourceY, tileWidth, 1, row, 0, tileWidth);
+                        for (int x = 0; x < tileWidth; x++) {
+                            row[x] = premultiply(row[x]);
+                        }
+                    }
+                    System.arraycopy(row, 0, tile, y * TILE_SIZE, tileWidth);
+                }
+                IntBuffer target = level.tile(tx, ty).asIntBuffer();
+                target.put(tile, 0, TILE_SIZE * tileHeight);
+            }
+        }
+    }
+
+    private static void readDirect(PixelInterleavedSampleModel sampleModel, boolean premultiplied,
+                                   ByteBuffer buffer, int x0, int y, int count, int[] row) {
+        int[] offsets = sampleModel.getBandOffsets();
+        int pixelStride = sampleModel.getPixelStride();
+        boolean alpha = offsets.length == 4;
+        int base = y * sampleModel.getScanlineStride() + x0 * pixelStride;
+        for (int x = 0; x < count; x++, base += pixelStride) {
+            int r = buffer.get(base + offsets[0]) & 0xFF;
+            int g = buffer.get(base + offsets[1]) & 0xFF;
+            int b = buffer.get(base + offsets[2]) & 0xFF;
+            int a = alpha ? buffer.get(base + offsets[3]) & 0xFF : 0xFF;
+            int argb = a << 24 | r << 16 | g << 8 | b;
+            row[x] = premultiplied ? argb : premultiply(argb);
+        }
+    }
+
+    private static int premultiply(int argb) {
+        int a = argb >>> 24;
+        if (a == 0xFF) {
+            return argb;
+        }
+        if (a == 0) {
+            return 0;
+        }
+        int r = ((argb >> 16) & 0xFF) * a / 255;
+        int g = ((argb >> 8) & 0xFF) * a / 255;
+        int b = (argb & 0xFF) * a / 255;
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * 从第0级逐级缩小，直到可以作为代理图的一级
+     */
+    private static TiledImage build(Path directory, Level first) throws IOException {
+        List<Level> levels = new ArrayList<>();
+        levels.add(first);
+        Level current = first;
+        while (Math.max(current.width, current.height) > PROXY_SIZE) {
+            current = halve(current, directory.resolve("level" + levels.size() + ".tiles"));
+            levels.add(current);
+        }
+
+        // 最后一级放入堆上的代理图，它的分块文件就不再需要
+        Level last = levels.remove(levels.size() - 1);
+        WritableImage proxy = new WritableImage(last.width, last.height);
+        for (int ty = 0; ty < last.tilesY; ty++) {
+            for (int tx = 0; tx < last.tilesX; tx++) {
+                proxy.getPixelWriter().setPixels(tx * TILE_SIZE, ty * TILE_SIZE, last.tileWidth(tx),
+                        last.tileHeight(ty), PixelFormat.getByteBgraPreInstance(), last.tile(tx, ty), TILE_SIZE * 4);
+            }
+        }
+        deleteQuietly(last.file);
+        return new TiledImage(first.width, first.height, directory, levels, proxy);
+    }
+
+    /**
+     * 2×2盒式滤波生成下一级
+     */
+    private static Level halve(Level source, Path file) throws IOException {
+        Level level = new Level(file, Math.max(1, source.width / 2), Math.max(1, source.height / 2));
+        int[] tile = new int[TILE_SIZE * TILE_SIZE];
+        for (int ty = 0; ty < level.tilesY; ty++) {
+            for (int tx = 0; tx < level.tilesX; tx++) {
+                int tileWidth = level.tileWidth(tx);
+                int tileHeight = level.tileHeight(ty);
+                for (int y = 0; y < tileHeight; y++) {
+                    int sourceY = (ty * TILE_SIZE + y) * 2;
+                    int y0 = Math.min(sourceY, source.height - 1);
+                    int y1 = Math.min(sourceY + 1, source.height - 1);
+                    for (int x = 0; x < tileWidth; x++) {
+                        int sourceX = (tx * TILE_SIZE + x) * 2;
+                        int x0 = Math.min(sourceX, source.width - 1);
+                        int x1 = Math.min(sourceX + 1, source.width - 1);
+                        tile[y * TILE_SIZE + x] = StickerMipmap.average(source.pixel(x0, y0), source.pixel(x1, y0),
+                                source.pixel(x0, y1), source.pixel(x1, y1));
+                    }
+                }
+                level.tile(tx, ty).asIntBuffer().put(tile, 0, TILE_SIZE * tileHeight);
+            }
+        }
+        return level;
+    }
+
+    /**
+     * 原图宽度
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * 原图高度
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * 堆上的代理图，贴图平时显示它，OCR和保存也使用它
+     */
+    public WritableImage getProxy() {
+        return proxy;
+    }
+
+    /**
+     * 比代理图清晰的级数，代理图的比例为原图的1/2^级数
+     */
+    int getLevelCount() {
+        return levels.size();
+    }
+
+    int getTilesX(int level) {
+        return levels.get(level).tilesX;
+    }
+
+    int getTilesY(int level) {
+        return levels.get(level).tilesY;
+    }
+
+    /**
+     * 读取一个分块
+     */
+    WritableImage readTile(int level, int tx, int ty) {
+        if (closed) {
+            throw new IllegalStateException("Tiled image closed");
+        }
+        Level source = levels.get(level);
+        int tileWidth = source.tileWidth(tx);
+        int tileHeight = source.tileHeight(ty);
+        WritableImage image = new WritableImage(tileWidth, tileHeight);
+        image.getPixelWriter().setPixels(0, 0, tileWidth, tileHeight, PixelFormat.getByteBgraPreInstance(),
+                source.tile(tx, ty), TILE_SIZE * 4);
+        return image;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    static ExecutorService pool() {
+        return POOL;
+    }
+
+    /**
+     * 删除分块文件
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Level level : levels) {
+            deleteQuietly(level.file);
+        }
+        deleteQuietly(directory);
+    }
+
+    private static void deleteDirectory(Path directory) {
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(TiledImage::deleteQuietly);
+        } catch (IOException e) {
+            System.err.println("Failed to clean up tiles: " + e.getMessage());
+        }
+        deleteQuietly(directory);
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // Windows不允许删除仍被映射的文件，退出时再删
+            path.toFile().deleteOnExit();
+        }
+    }
+
+    /**
+     * 映射到临时文件的数据缓冲，解码器写入的像素直接落到文件里
+     */
+    private static final class MappedDataBuffer extends DataBuffer {
+        private final ByteBuffer buffer;
+
+        MappedDataBuffer(int dataType, ByteBuffer buffer, int size) throws IOException {
+            super(dataType, size);
+            if (dataType != TYPE_BYTE && dataType != TYPE_USHORT && dataType != TYPE_INT) {
+                throw new IOException("Unsupported data type: " + dataType);
+            }
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            return switch (dataType) {
+                case TYPE_BYTE -> buffer.get(i) & 0xFF;
+                case TYPE_USHORT -> buffer.getShort(i * 2) & 0xFFFF;
+                default -> buffer.getInt(i * 4);
+            };
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            switch (dataType) {
+                case TYPE_BYTE -> buffer.put(i, (byte) val);
+                case TYPE_USHORT -> buffer.putShort(i * 2, (short) val);
+                default -> buffer.putInt(i * 4, val);
+            }
+        }
+    }
+}
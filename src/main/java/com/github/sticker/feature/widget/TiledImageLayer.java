@@ -0,0 +1,274 @@
+package com.github.sticker.feature.widget;
+
+import com.github.sticker.util.AdjustmentStack;
+import com.github.sticker.util.ImageAdjustments;
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.scene.Group;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.transform.Transform;
+import javafx.stage.Window;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * 超大图片的分块显示层
+ * 位于贴图内容组中代理图的上方，坐标系与代理图相同。
+ * 贴图被放大到代理图不够清晰时，按显示比例选择分块级别，只读取与窗口可见区域相交的分块；
+ * 新分块就绪前继续显示之前的分块或代理图。
+ * 读取的分块放在所有贴图共享的缓存中，超出上限时淘汰最久未用且不在显示的分块。
+ * 除后台读取外，所有方法只在JavaFX线程调用。
+ */
+final class TiledImageLayer extends Group {
+    private static final long CACHE_BYTES = 96L * 1024 * 1024;
+    private static final double SCALE_EPSILON = 0.001;
+
+    // 所有贴图共享的分块缓存，按访问顺序排列
+    private static final Map<TileKey, Image> CACHE = new LinkedHashMap<>(64, 0.75f, true);
+    private static long cachedBytes = 0;
+
+    /**
+     * 一个分块，layer区分不同贴图
+     */
+    private record TileKey(TiledImageLayer layer, int level, int tx, int ty) {
+    }
+
+    private final Map<TileKey, ImageView> shown = new HashMap<>();
+    private final Set<TileKey> pending = new HashSet<>();
+    private final Set<TileKey> wanted = ConcurrentHashMap.newKeySet(); // 后台读取前检查，滚动过去的分块不再读取
+    private final InvalidationListener transformListener = obs -> requestUpdate();
+    private TiledImage image;
+    private AdjustmentStack adjustments = AdjustmentStack.EMPTY; // 读取分块后在后台应用
+    private boolean updateQueued = false;
+
+    TiledImageLayer() {
+        setMouseTransparent(true);
+        setManaged(false);
+        sceneProperty().addListener(obs -> requestUpdate());
+    }
+
+    /**
+     * 更换显示的分块图片
+     *
+     * @param tiledImage 新图片，为null时清空
+     */
+    void setImage(TiledImage tiledImage) {
+        if (image != null) {
+            localToSceneTransformProperty().removeListener(transformListener);
+            clear();
+        }
+        image = tiledImage;
+        if (image != null) {
+            // 缩放、旋转和拖动都会改变到场景的变换
+            localToSceneTransformProperty().addListener(transformListener);
+            requestUpdate();
+        }
+    }
+
+    /**
+     * 更换图片调整，已读取的分块全部作废
+     */
+    void setAdjustments(AdjustmentStack stack) {
+        if (stack.equals(adjustments)) {
+            return;
+        }
+        adjustments = stack;
+        if (image != null) {
+            clear();
+            requestUpdate();
+        }
+    }
+
+    /**
+     * 同一个脉冲内的多次变化只更新一次
+     */
+    private void requestUpdate() {
+        if (!updateQueued) {
+            updateQueued = true;
+            Platform.runLater(() -> {
+                updateQueued = false;
+                update();
+            });
+        }
+    }
+
+    private void update() {
+        if (image == null || image.isClosed() || getScene() == null) {
+            return;
+        }
+        Transform transform = getLocalToSceneTransform();
+        int proxyLevel = image.getLevelCount();
+        Window window = getScene().getWindow();
+        double renderScale = window != null ? window.getRenderScaleX() : 1.0;
+        // 每个原图像素对应的屏幕物理像素数
+        double scale = Math.hypot(transform.getMxx(), transform.getMyx()) * renderScale / (1 << proxyLevel);
+        if (proxyLevel == 0 || scale * (1 << proxyLevel) <= 1 + SCALE_EPSILON) {
+            // 代理图已经足够清晰
+            wanted.clear();
+            removeShown(key -> true);
+            return;
+        }
+
+        int level = scale >= 1 ? 0 : Math.min(proxyLevel - 1, (int) Math.floor(Math.log(1 / scale) / Math.log(2)));
+        Bounds visible = visibleBounds();
+        Set<TileKey> needed = new HashSet<>();
+        if (visible != null) {
+            // 代理图坐标换算到该级的像素坐标
+            double toLevel = (double) (1 << proxyLevel) / (1 << level);
+            int tx0 = Math.max(0, (int) Math.floor(visible.getMinX() * toLevel / TiledImage.TILE_SIZE));
+            int ty0 = Math.max(0, (int) Math.floor(visible.getMinY() * toLevel / TiledImage.TILE_SIZE));
+            int tx1 = Math.min(image.getTilesX(level) - 1,
+                    (int) Math.floor(visible.getMaxX() * toLevel / TiledImage.TILE_SIZE));
+            int ty1 = Math.min(image.getTilesY(level) - 1,
+                    (int) Math.floor(visible.getMaxY() * toLevel / TiledImage.TILE_SIZE));
+            for (int ty = ty0; ty <= ty1; ty++) {
+                for (int tx = tx0; tx <= tx1; tx++) {
+                    needed.add(new TileKey(this, level, tx, ty));
+                }
+            }
+        }
+        wanted.retainAll(needed);
+        wanted.addAll(needed);
+
+        // 和代理图一样，放大超过原图时用最近邻采样
+        boolean smooth = scale < 1 - SCALE_EPSILON;
+        boolean complete = true;
+        for (TileKey key : needed) {
+            Image tile = CACHE.get(key);
+            if (tile != null) {
+                show(key, tile, factor(key, proxyLevel)).setSmooth(smooth);
+            } else {
+                complete = false;
+                load(key);
+            }
+        }
+        // 新分块读完之前保留其他级别的分块，避免闪回模糊的代理图
+        boolean replaceOtherLevels = complete;
+        removeShown(key -> !needed.contains(key) && (replaceOtherLevels || key.level() == level));
+    }
+
+    /**
+     * 窗口可见区域在本层坐标中的范围，与图片不相交时返回null
+     */
+    private Bounds visibleBounds() {
+        Bounds viewport = sceneToLocal(new BoundingBox(0, 0, getScene().getWidth(), getScene().getHeight()));
+        double imageWidth = image.getProxy().getWidth();
+        double imageHeight = image.getProxy().getHeight();
+        double minX = Math.max(0, viewport.getMinX());
+        double minY = Math.max(0, viewport.getMinY());
+        double maxX = Math.min(imageWidth, viewport.getMaxX());
+        double maxY = Math.min(imageHeight, viewport.getMaxY());
+        if (minX >= maxX || minY >= maxY) {
+            return null;
+        }
+        return new BoundingBox(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    /**
+     * 分块像素到代理图坐标的比例
+     */
+    private static double factor(TileKey key, int proxyLevel) {
+        return (double) (1 << key.level()) / (1 << proxyLevel);
+    }
+
+    private ImageView show(TileKey key, Image tile, double factor) {
+        ImageView view = shown.get(key);
+        if (view == null) {
+            view = new ImageView(tile);
+            view.setLayoutX(key.tx() * TiledImage.TILE_SIZE * factor);
+            view.setLayoutY(key.ty() * TiledImage.TILE_SIZE * factor);
+            view.setFitWidth(tile.getWidth() * factor);
+            view.setFitHeight(tile.getHeight() * factor);
+            shown.put(key, view);
+            getChildren().add(view);
+        }
+        return view;
+    }
+
+    private void removeShown(Predicate<TileKey> filter) {
+        List<ImageView> removed = new ArrayList<>();
+        for (Iterator<Map.Entry<TileKey, ImageView>> it = shown.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<TileKey, ImageView> entry = it.next();
+            if (filter.test(entry.getKey())) {
+                removed.add(entry.getValue());
+                it.remove();
+            }
+        }
+        getChildren().removeAll(removed);
+    }
+
+    /**
+     * 在后台读取分块，读完后放入缓存并重新更新
+     */
+    private void load(TileKey key) {
+        if (!pending.add(key)) {
+            return;
+        }
+        TiledImage source = image;
+        AdjustmentStack stack = adjustments;
+        CompletableFuture.supplyAsync(() -> wanted.contains(key) && !source.isClosed()
+                        ? adjust(stack, source.readTile(key.level(), key.tx(), key.ty())) : null, TiledImage.pool())
+                .whenComplete((tile, ex) -> Platform.runLater(() -> {
+                    if (source != image || stack != adjustments) {
+                        return;
+                    }
+                    pending.remove(key);
+                    if (ex != null) {
+                        System.err.println("Failed to read tile: " + ex.getMessage());
+                    } else if (tile != null) {
+                        cache(key, tile);
+                        requestUpdate();
+                    }
+                }));
+    }
+
+    private static Image adjust(AdjustmentStack stack, Image tile) {
+        return stack.isEmpty() ? tile : ImageAdjustments.apply(stack, tile);
+    }
+
+    private static void cache(TileKey key, Image tile) {
+        CACHE.put(key, tile);
+        cachedBytes += bytes(tile);
+        for (Iterator<Map.Entry<TileKey, Image>> it = CACHE.entrySet().iterator();
+             it.hasNext() && cachedBytes > CACHE_BYTES; ) {
+            Map.Entry<TileKey, Image> entry = it.next();
+            if (!entry.getKey().layer().shown.containsKey(entry.getKey())) {
+                cachedBytes -= bytes(entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    private static long bytes(Image tile) {
+        return (long) tile.getWidth() * (long) tile.getHeight() * 4;
+    }
+
+    /**
+     * 移除本层的全部分块和缓存
+     */
+    private void clear() {
+        wanted.clear();
+        pending.clear();
+        removeShown(key -> true);
+        for (Iterator<Map.Entry<TileKey, Image>> it = CACHE.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<TileKey, Image> entry = it.next();
+            if (entry.getKey().layer() == this) {
+                cachedBytes -= bytes(entry.getValue());
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.github.sticker.history;
+
+import com.github.sticker.util.PerceptualHash;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Burkhard-Keller tree over 64-bit hashes under the Hamming distance.
+ * <p>
+ * Every child edge is labelled with its distance to the parent, and the
+ * triangle inequality lets a query within radius {@code r} skip all children
+ * whose label differs from the query distance by more than {@code r}. Nodes
+ * live in flat arrays with first-child/next-sibling links, so a tree of 100k
+ * hashes is a handful of primitive arrays rather than 100k objects.
+ * <p>
+ * Values cannot be removed; callers filter stale matches and rebuild the
+ * tree when enough of it is stale.
+ *
+ * @param <T> payload attached to each hash
+ */
+final class BkTree<T> {
+    private long[] hashes = new long[64];
+    private byte[] labels = new byte[64];
+    private int[] firstChild = new int[64];
+    private int[] nextSibling = new int[64];
+    private Object[] values = new Object[64];
+    private int size = 0;
+
+    /**
+     * A query result
+     *
+     * @param distance Hamming distance to the query
+     */
+    record Match<T>(T value, long hash, int distance) {
+    }
+
+    int size() {
+        return size;
+    }
+
+    void add(long hash, T value) {
+        ensureCapacity(size + 1);
+        int node = size++;
+        hashes[node] = hash;
+        values[node] = value;
+        firstChild[node] = -1;
+        nextSibling[node] = -1;
+        if (node == 0) {
+            return;
+        }
+
+        int parent = 0;
+        while (true) {
+            int distance = PerceptualHash.distance(hashes[parent], hash);
+            int child = firstChild[parent];
+            while (child >= 0 && labels[child] != distance) {
+                child = nextSibling[child];
+            }
+            if (child < 0) {
+                labels[node] = (byte) distance;
+                nextSibling[node] = firstChild[parent];
+                firstChild[parent] = node;
+                return;
+            }
+            parent = child;
+        }
+    }
+
+    /**
+     * Find all values within a Hamming distance of a hash
+     *
+     * @return matches ordered by distance
+     */
+    @SuppressWarnings("unchecked")
+    List<Match<T>> search(long hash, int maxDistance) {
+        List<Match<T>> matches = new ArrayList<>();
+        if (size == 0) {
+            return matches;
+        }
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(0);
+        while (!stack.isEmpty()) {
+            int node = stack.pop();
+            int distance = PerceptualHash.distance(hashes[node], hash);
+            if (distance <= maxDistance) {
+                matches.add(new Match<>((T) values[node], hashes[node], distance));
+            }
+            for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+                if (Math.abs(labels[child] - distance) <= maxDistance) {
+                    stack.push(child);
+                }
+            }
+        }
+        matches.sort(Comparator.comparingInt(Match::distance));
+        return matches;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= hashes.length) {
+            return;
+        }
+        int grown = Math.max(capacity, hashes.length * 2);
+        hashes = Arrays.copyOf(hashes, grown);
+        labels = Arrays.copyOf(labels, grown);
+        firstChild = Arrays.copyOf(firstChild, grown);
+        nextSibling = Arrays.copyOf(nextSibling, grown);
+        values = Arrays.copyOf(values, grown);
+    }
+}
@@ -0,0 +1,242 @@
+package com.github.sticker.history;
+
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Cursor;
+import javafx.scene.Scene;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.Tooltip;
+import javafx.scene.image.ImageView;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.StackPane;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+
+import java.text.SimpleDateFormat;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Thumbnail grid over all history captures, newest first, or over a
+ * selection such as the results of a similarity search.
+ * <p>
+ * The grid is a {@link ListView} whose items are row numbers, so only the
+ * rows on screen have cells and only their thumbnails are requested from the
+ * {@link ThumbnailCache}. Cells scrolled away cancel their pending decodes.
+ * Clicking a thumbnail pins the capture as a new sticker.
+ */
+public class HistoryBrowserWindow {
+    private static final int THUMB_WIDTH = 160;
+    private static final int THUMB_HEIGHT = 120;
+    private static final int TILE_GAP = 8;
+    private static final int TILE_WIDTH = THUMB_WIDTH + TILE_GAP;
+    private static final long CACHE_BYTES = 48L * 1024 * 1024;
+    private static HistoryBrowserWindow instance;
+
+    private final Stage stage;
+    private final Label summaryLabel = new Label();
+    private final ListView<Integer> grid = new ListView<>();
+    private List<HistoryStore.Entry> entries = List.of();
+    private int columns = 1;
+    private ThumbnailCache cache;
+
+    /**
+     * Show the browser, creating it on first use
+     */
+    public static void showWindow() {
+        if (instance == null) {
+            instance = new HistoryBrowserWindow();
+        }
+        instance.open();
+    }
+
+    private HistoryBrowserWindow() {
+        stage = new Stage();
+        stage.setTitle("Browse snips");
+
+        grid.setCellFactory(list -> new RowCell());
+        grid.setFocusTraversable(false);
+        grid.widthProperty().addListener((obs, oldVal, newVal) -> updateColumns());
+
+        VBox root = new VBox(8, summaryLabel, grid);
+        root.setPadding(new Insets(10));
+        VBox.setVgrow(grid, Priority.ALWAYS);
+
+        Scene scene = new Scene(root, 6 * TILE_WIDTH + 40, 600);
+        scene.setOnKeyPressed(e -> {
+            if (e.getCode() == KeyCode.ESCAPE) {
+                stage.hide();
+            }
+        });
+        stage.setScene(scene);
+        // Thumbnails are only worth their memory while the window is open
+        stage.setOnHidden(e -> {
+            if (cache != null) {
+                cache.dispose();
+                cache = null;
+            }
+            grid.getItems().clear();
+        });
+    }
+
+    /**
+     * Show a selection of captures, such as the results of a similarity search
+     *
+     * @param title   window title
+     * @param entries captures in display order
+     */
+    public static void showEntries(String title, List<HistoryStore.Entry> entries) {
+        if (instance == null) {
+            instance = new HistoryBrowserWindow();
+        }
+        instance.open(title, entries, entries.size() + (entries.size() == 1 ? " snip" : " snips"));
+    }
+
+    private void open() {
+        HistoryStore store = HistoryStore.getInstance();
+        List<HistoryStore.Entry> all = store.getEntries();
+        open("Browse snips", all,
+                String.format("%d snips, %.1f MB", all.size(), store.getTotalBytes() / (1024.0 * 1024.0)));
+    }
+
+    private void open(String title, List<HistoryStore.Entry> entries, String summary) {
+        if (cache == null) {
+            cache = new ThumbnailCache(CACHE_BYTES, THUMB_WIDTH);
+        }
+        this.entries = entries;
+        stage.setTitle(title);
+        summaryLabel.setText(summary);
+        updateRows();
+        grid.scrollTo(0);
+        stage.show();
+        stage.toFront();
+    }
+
+    private void updateColumns() {
+        int fitting = Math.max(1, (int) ((grid.getWidth() - 24) / TILE_WIDTH));
+        if (fitting != columns) {
+            columns = fitting;
+            updateRows();
+        }
+    }
+
+    /**
+     * Replace the row items with a virtual list of row numbers
+     */
+    private void updateRows() {
+        int rows = (entries.size() + columns - 1) / columns;
+        grid.getItems().setAll(new AbstractList<>() {
+            @Override
+            public Integer get(int index) {
+                return index;
+            }
+
+            @Override
+            public int size() {
+                return rows;
+            }
+        });
+    }
+
+    /**
+     * One grid row, reusing its tiles as it is scrolled to other rows
+     */
+    private final class RowCell extends ListCell<Integer> {
+        private final HBox box = new HBox(TILE_GAP);
+        private final List<Tile> tiles = new ArrayList<>();
+
+        RowCell() {
+            box.setPadding(new Insets(TILE_GAP / 2.0, 0, TILE_GAP / 2.0, 0));
+            setPadding(Insets.EMPTY);
+        }
+
+        @Override
+        protected void updateItem(Integer row, boolean empty) {
+            super.updateItem(row, empty);
+            if (empty || row == null) {
+                tiles.forEach(tile -> tile.show(null));
+                setGraphic(null);
+                return;
+            }
+            while (tiles.size() < columns) {
+                tiles.add(new Tile());
+            }
+            box.getChildren().clear();
+            for (int column = 0; column < tiles.size(); column++) {
+                int index = row * columns + column;
+                Tile tile = tiles.get(column);
+                HistoryStore.Entry entry = column < columns && index < entries.size() ? entries.get(index) : null;
+                tile.show(entry);
+                if (entry != null) {
+                    box.getChildren().add(tile);
+                }
+            }
+            setGraphic(box);
+        }
+    }
+
+    /**
+     * A thumbnail with its capture time
+     */
+    private final class Tile extends VBox {
+        private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        private final ImageView imageView = new ImageView();
+        private final Label label = new Label();
+        private final Tooltip tooltip = new Tooltip();
+        private HistoryStore.Entry entry;
+
+        Tile() {
+            imageView.setFitWidth(THUMB_WIDTH);
+            imageView.setFitHeight(THUMB_HEIGHT);
+            imageView.setPreserveRatio(true);
+            imageView.setSmooth(true);
+            StackPane frame = new StackPane(imageView);
+            frame.setPrefSize(THUMB_WIDTH, THUMB_HEIGHT);
+            frame.setMinSize(THUMB_WIDTH, THUMB_HEIGHT);
+            frame.setStyle("-fx-background-color: #f0f0f0;");
+            label.setMaxWidth(THUMB_WIDTH);
+            setAlignment(Pos.CENTER);
+            setSpacing(2);
+            getChildren().addAll(frame, label);
+            setCursor(Cursor.HAND);
+            Tooltip.install(this, tooltip);
+            setOnMouseClicked(e -> {
+                if (e.getButton() == MouseButton.PRIMARY && entry != null) {
+                    HistorySearchWindow.pinCapture(HistoryStore.getInstance().getFile(entry));
+                }
+            });
+        }
+
+        void show(HistoryStore.Entry next) {
+            if (next == entry) {
+                return;
+            }
+            if (entry != null && cache != null) {
+                cache.cancel(entry, this);
+            }
+            entry = next;
+            if (next == null || cache == null) {
+                imageView.setImage(null);
+                return;
+            }
+            label.setText(dateFormat.format(new Date(next.timestamp())));
+            tooltip.setText(next.width() + " x " + next.height() + "    screen " + next.screen()
+                    + (next.summary().isEmpty() ? "" : "\n" + next.summary()));
+            imageView.setImage(cache.getIfPresent(next));
+            if (imageView.getImage() == null) {
+                cache.load(next, this, image -> {
+                    if (entry == next) {
+                        imageView.setImage(image);
+                    }
+                });
+            }
+        }
+    }
+}
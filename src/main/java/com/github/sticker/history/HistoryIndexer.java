@@ -0,0 +1,188 @@
+package com.github.sticker.history;
+
+import com.github.sticker.util.OCRUtil;
+import javafx.geometry.Rectangle2D;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+/**
+ * Feeds captures into the {@link SearchIndex}.
+ * Live captures are indexed from the OCR results their sticker already has;
+ * the batch backfill moves captures saved before the {@link HistoryStore}
+ * existed into the store and runs unrecognised captures through the OCR pool.
+ */
+public final class HistoryIndexer {
+    // One capture at a time keeps the heap small and leaves OCR workers free for interactive use
+    private static final int IN_FLIGHT = 1;
+
+    private HistoryIndexer() {
+    }
+
+    /**
+     * Join OCR lines into the plain text stored in the index
+     */
+    public static String plainText(List<OCRUtil.OCRResult> results) {
+        return results.stream().map(OCRUtil.OCRResult::getText).collect(Collectors.joining("\n"));
+    }
+
+    /**
+     * Index a stored capture whose OCR results are already known
+     */
+    public static void index(HistoryStore.Entry entry, List<OCRUtil.OCRResult> results) {
+        index(entry, results, List.of());
+    }
+
+    /**
+     * Index a stored capture, leaving out text hidden under redactions
+     *
+     * @param redacted redacted regions in the same coordinates as the OCR boxes
+     */
+    public static void index(HistoryStore.Entry entry, List<OCRUtil.OCRResult> results,
+                             List<Rectangle2D> redacted) {
+        String text = plainText(withoutRedacted(results, redacted));
+        HistoryStore store = HistoryStore.getInstance();
+        store.setSummary(entry, text);
+        SearchIndex.getInstance().add(store.getFile(entry), text);
+    }
+
+    /**
+     * Drop OCR words whose boxes touch a redacted region.
+     * Lines keep their remaining words; lines recognised without word boxes
+     * are dropped whole when they touch a region.
+     */
+    static List<OCRUtil.OCRResult> withoutRedacted(List<OCRUtil.OCRResult> results, List<Rectangle2D> redacted) {
+        if (redacted.isEmpty()) {
+            return results;
+        }
+        List<OCRUtil.OCRResult> kept = new ArrayList<>(results.size());
+        for (OCRUtil.OCRResult line : results) {
+            if (line.getWords().isEmpty()) {
+                if (!isRedacted(line, redacted)) {
+                    kept.add(line);
+                }
+                continue;
+            }
+            List<OCRUtil.OCRResult> words = line.getWords().stream()
+                    .filter(word -> !isRedacted(word, redacted))
+                    .toList();
+            if (words.size() == line.getWords().size()) {
+                kept.add(line);
+            } else if (!words.isEmpty()) {
+                double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+                double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+                for (OCRUtil.OCRResult word : words) {
+                    minX = Math.min(minX, word.getX());
+                    minY = Math.min(minY, word.getY());
+                    maxX = Math.max(maxX, word.getX() + word.getWidth());
+                    maxY = Math.max(maxY, word.getY() + word.getHeight());
+                }
+                String text = words.stream().map(OCRUtil.OCRResult::getText).collect(Collectors.joining(" "));
+                kept.add(new OCRUtil.OCRResult(text, minX, minY, maxX - minX, maxY - minY,
+                        line.getConfidence(), words));
+            }
+        }
+        return kept;
+    }
+
+    private static boolean isRedacted(OCRUtil.OCRResult box, List<Rectangle2D> redacted) {
+        for (Rectangle2D region : redacted) {
+            if (region.intersects(box.getX(), box.getY(), box.getWidth(), box.getHeight())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Index every history capture that is not in the index yet
+     *
+     * @return future completing with the number of captures processed
+     */
+    public static CompletableFuture<Integer> backfill() {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                result.complete(runBackfill());
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        }, "history-backfill");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return result;
+    }
+
+    private static int runBackfill() {
+        HistoryStore store = HistoryStore.getInstance();
+        store.whenLoaded().join();
+        importLegacyCaptures();
+
+        SearchIndex index = SearchIndex.getInstance();
+        int processed = 0;
+        List<CompletableFuture<Void>> inFlight = new ArrayList<>();
+        for (HistoryStore.Entry entry : store.getEntries()) {
+            File file = store.getFile(entry);
+            if (!entry.summary().isEmpty() || index.contains(file)) {
+                continue;
+            }
+            BufferedImage image;
+            try {
+                image = HistoryPaths.readCapture(file);
+            } catch (IOException e) {
+                System.err.println("Skipping unreadable capture " + file + ": " + e.getMessage());
+                continue;
+            }
+            if (image == null) {
+                continue;
+            }
+            inFlight.add(OCRUtil.submit(image).thenAccept(results -> index(entry, results)));
+            processed++;
+            if (inFlight.size() >= IN_FLIGHT) {
+                CompletableFuture.allOf(inFlight.toArray(CompletableFuture[]::new)).join();
+                inFlight.clear();
+            }
+        }
+        CompletableFuture.allOf(inFlight.toArray(CompletableFuture[]::new)).join();
+        if (processed > 0) {
+            System.out.println("Backfilled " + processed + " captures into the search index");
+        }
+        return processed;
+    }
+
+    /**
+     * Move timestamped capture files from the top of the history directory into the store
+     */
+    private static void importLegacyCaptures() {
+        File[] files = HistoryPaths.getHistoryDirectory().listFiles((dir, name) -> HistoryPaths.isCapture(name));
+        if (files == null) {
+            return;
+        }
+        HistoryStore store = HistoryStore.getInstance();
+        int imported = 0;
+        for (File file : files) {
+            try {
+                BufferedImage image = HistoryPaths.readCapture(file);
+                if (image == null) {
+                    continue;
+                }
+                store.add(image, file.lastModified(), "").join();
+                Files.delete(file.toPath());
+                imported++;
+            } catch (IOException | CompletionException e) {
+                System.err.println("Failed to import capture " + file + ": " + e.getMessage());
+            }
+        }
+        if (imported > 0) {
+            System.out.println("Imported " + imported + " captures into the history store");
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.sticker.history;
+
+import com.github.sticker.util.QoiCodec;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+/**
+ * Locations of the on-disk capture history.
+ */
+public final class HistoryPaths {
+    private HistoryPaths() {
+    }
+
+    /**
+     * Get the directory holding saved captures, creating it when missing
+     *
+     * @return the history directory
+     */
+    public static File getHistoryDirectory() {
+        File picturesDir = new File(System.getProperty("user.home"), "Pictures");
+        File historyDir = new File(picturesDir, "SnapSticker/history");
+        if (!historyDir.exists()) {
+            historyDir.mkdirs();
+        }
+        return historyDir;
+    }
+
+    /**
+     * Get the directory holding the full-text search segments
+     *
+     * @return the index directory
+     */
+    public static File getIndexDirectory() {
+        File indexDir = new File(getHistoryDirectory().getParentFile(), "index");
+        if (!indexDir.exists()) {
+            indexDir.mkdirs();
+        }
+        return indexDir;
+    }
+
+    /**
+     * Get the directory holding the saved sticker session
+     *
+     * @return the session directory
+     */
+    public static File getSessionDirectory() {
+        File sessionDir = new File(getHistoryDirectory().getParentFile(), "session");
+        if (!sessionDir.exists()) {
+            sessionDir.mkdirs();
+        }
+        return sessionDir;
+    }
+
+    /**
+     * Check whether a history file name is a capture
+     */
+    public static boolean isCapture(String fileName) {
+        String lower = fileName.toLowerCase();
+        return !lower.startsWith(".") && (QoiCodec.isQoi(lower) || lower.endsWith(".png"));
+    }
+
+    /**
+     * Read a history capture in either QOI or PNG format
+     *
+     * @return the decoded image, or null when the file cannot be decoded
+     */
+    public static BufferedImage readCapture(File file) throws IOException {
+        if (QoiCodec.isQoi(file.getName())) {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                return QoiCodec.read(in).toBufferedImage();
+            }
+        }
+        return ImageIO.read(file);
+    }
+}
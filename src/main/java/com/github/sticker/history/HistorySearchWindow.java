@@ -0,0 +1,165 @@
+package com.github.sticker.history;
+
+import com.github.sticker.feature.StickerStage;
+import javafx.application.Platform;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.geometry.Insets;
+import javafx.scene.Scene;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TextField;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Small search window over the OCR text of history captures.
+ * Results update while typing; Enter or double-click pins the selected
+ * capture as a new sticker.
+ */
+public class HistorySearchWindow {
+    private static final int MAX_RESULTS = 50;
+    private static HistorySearchWindow instance;
+
+    private final Stage stage;
+    private final TextField queryField = new TextField();
+    private final ListView<SearchIndex.SearchHit> resultList = new ListView<>();
+    private final ExecutorService searcher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "history-search");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long queryVersion = 0;
+
+    /**
+     * Show the search window, creating it on first use
+     */
+    public static void showWindow() {
+        if (instance == null) {
+            instance = new HistorySearchWindow();
+        }
+        instance.stage.show();
+        instance.stage.toFront();
+        instance.queryField.requestFocus();
+        instance.queryField.selectAll();
+    }
+
+    private HistorySearchWindow() {
+        stage = new Stage();
+        stage.setTitle("Search snips");
+        stage.setAlwaysOnTop(true);
+
+        queryField.setPromptText("Search text in captures...");
+        queryField.textProperty().addListener((obs, oldVal, newVal) -> runQuery(newVal));
+        queryField.setOnKeyPressed(e -> {
+            if (e.getCode() == KeyCode.DOWN) {
+                resultList.requestFocus();
+                resultList.getSelectionModel().selectFirst();
+                e.consume();
+            }
+        });
+        queryField.setOnAction(e -> openSelected());
+
+        resultList.setCellFactory(list -> new ListCell<>() {
+            private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+            @Override
+            protected void updateItem(SearchIndex.SearchHit hit, boolean empty) {
+                super.updateItem(hit, empty);
+                if (empty || hit == null) {
+                    setText(null);
+                    return;
+                }
+                HistoryStore.Entry entry = HistoryStore.getInstance().find(hit.file());
+                long time = entry != null ? entry.timestamp() : hit.file().lastModified();
+                String label = entry != null && !entry.summary().isEmpty() ? entry.summary() : hit.file().getName();
+                setText(dateFormat.format(new Date(time)) + "    " + label);
+            }
+        });
+        resultList.setOnMouseClicked(e -> {
+            if (e.getButton() == MouseButton.PRIMARY && e.getClickCount() == 2) {
+                openSelected();
+            }
+        });
+        resultList.setOnKeyPressed(e -> {
+            if (e.getCode() == KeyCode.ENTER) {
+                openSelected();
+            }
+        });
+
+        VBox root = new VBox(8, queryField, resultList);
+        root.setPadding(new Insets(10));
+        VBox.setVgrow(resultList, Priority.ALWAYS);
+
+        Scene scene = new Scene(root, 480, 360);
+        scene.setOnKeyPressed(e -> {
+            if (e.getCode() == KeyCode.ESCAPE) {
+                stage.hide();
+            }
+        });
+        stage.setScene(scene);
+    }
+
+    /**
+     * Run a query off the FX thread, discarding results of outdated queries
+     */
+    private void runQuery(String query) {
+        long version = ++queryVersion;
+        CompletableFuture.supplyAsync(() -> SearchIndex.getInstance().search(query, MAX_RESULTS), searcher)
+                .thenAccept(hits -> Platform.runLater(() -> {
+                    if (version == queryVersion) {
+                        showHits(hits);
+                    }
+                }))
+                .exceptionally(e -> {
+                    System.err.println("Search failed: " + e.getMessage());
+                    return null;
+                });
+    }
+
+    private void showHits(List<SearchIndex.SearchHit> hits) {
+        resultList.getItems().setAll(hits);
+    }
+
+    private void openSelected() {
+        SearchIndex.SearchHit hit = resultList.getSelectionModel().getSelectedItem();
+        if (hit == null && !resultList.getItems().isEmpty()) {
+            hit = resultList.getItems().get(0);
+        }
+        if (hit == null) {
+            return;
+        }
+        pinCapture(hit.file());
+    }
+
+    /**
+     * Decode a capture in the background and pin it as a new sticker
+     */
+    static void pinCapture(File file) {
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                BufferedImage capture = HistoryPaths.readCapture(file);
+                return capture == null ? null : SwingFXUtils.toFXImage(capture, null);
+            } catch (IOException e) {
+                System.err.println("Failed to open capture " + file + ": " + e.getMessage());
+                return null;
+            }
+        }).thenAccept(image -> {
+            if (image != null) {
+                Platform.runLater(() -> StickerStage.getInstance().pinImage(image));
+            }
+        });
+    }
+}
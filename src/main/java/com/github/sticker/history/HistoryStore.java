@@ -0,0 +1,840 @@
+package com.github.sticker.history;
+
+import com.github.sticker.util.EncodeService;
+import com.github.sticker.util.PerceptualHash;
+import com.github.sticker.util.PngEncoder;
+import com.github.sticker.util.QoiCodec;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed store of history captures.
+ * <p>
+ * Each capture is stored once as QOI under the SHA-256 of its encoded bytes,
+ * so capturing the same content again only refreshes its timestamp. Photos
+ * and gradients, which QOI barely compresses, are also tried as a
+ * {@link PngEncoder.Level#FAST fast PNG} and stored as PNG when that is
+ * smaller. An
+ * append-only index file records additions, refreshes, OCR summaries and
+ * removals; it is replayed on start-up, so listing the history never touches
+ * the object directories. Thumbnails are appended to a single pack file and
+ * addressed by offset from the index.
+ * <p>
+ * Encoding runs on the {@link EncodeService} pool. Every mutation of the index
+ * happens on one background thread, which also applies the size and age
+ * retention after each addition and compacts the index once most of its
+ * records are dead.
+ * <p>
+ * Every entry also carries a {@link PerceptualHash#dHash difference hash}.
+ * The hashes are kept in a {@link BkTree} so visually similar captures can
+ * be found without comparing against every entry, and near-duplicates can
+ * optionally be folded into the capture they resemble.
+ */
+public final class HistoryStore {
+    private static final int MAGIC = 0x53534853; // "SSHS"
+    private static final int VERSION = 3;       // 2 added the perceptual hash, 3 the storage format to add records
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte RECORD_ADD = 1;
+    private static final byte RECORD_TOUCH = 2;
+    private static final byte RECORD_SUMMARY = 3;
+    private static final byte RECORD_REMOVE = 4;
+
+    private static final int SUMMARY_LENGTH = 200;
+    private static final int THUMB_SIZE = 160;
+    private static final int MIN_COMPACT_RECORDS = 1024;
+    private static final int NEAR_DUPLICATE_DISTANCE = 3;
+    // QOI output above this fraction of the raw pixels is worth a PNG trial
+    private static final double PNG_TRIAL_RATIO = 0.25;
+    private static final String PNG_EXTENSION = ".png";
+
+    private static final long DEFAULT_MAX_BYTES = 2L << 30;
+    private static final long DEFAULT_MAX_AGE = TimeUnit.DAYS.toMillis(90);
+
+    private static HistoryStore instance;
+
+    private final File directory;
+    private final File objectDirectory;
+    private final File indexFile;
+    private final File thumbFile;
+    private final CompletableFuture<Void> loaded;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "history-store");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Live entries by hash, least recently captured first; only touched on the worker
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private volatile List<Entry> snapshot = List.of();
+    private volatile Map<String, Entry> snapshotByHash = Map.of();
+    private long totalBytes = 0;
+    private int recordCount = 0;
+    private volatile long maxBytes = DEFAULT_MAX_BYTES;
+    private volatile long maxAge = DEFAULT_MAX_AGE;
+    private volatile boolean skipNearDuplicates = false;
+    // Perceptual hashes of all entries added since the last rebuild, removed ones included
+    private BkTree<String> similarity = new BkTree<>();
+
+    /**
+     * One stored capture
+     *
+     * @param hash        hex SHA-256 prefix of the encoded capture
+     * @param timestamp   last time this content was captured
+     * @param screen      description of the screen the sticker was on
+     * @param summary     start of the recognised text, empty until OCR finishes
+     * @param size        size of the capture file in bytes
+     * @param thumbOffset offset of the QOI thumbnail in the thumbnail pack
+     * @param thumbLength length of the thumbnail
+     * @param fingerprint perceptual hash of the capture
+     * @param png         whether the capture is stored as PNG rather than QOI
+     */
+    public record Entry(String hash, long timestamp, int width, int height, String screen, String summary,
+                        long size, long thumbOffset, int thumbLength, long fingerprint, boolean png) {
+        Entry withTimestamp(long timestamp) {
+            return new Entry(hash, timestamp, width, height, screen, summary, size, thumbOffset, thumbLength, fingerprint, png);
+        }
+
+        Entry withSummary(String summary) {
+            return new Entry(hash, timestamp, width, height, screen, summary, size, thumbOffset, thumbLength, fingerprint, png);
+        }
+
+        Entry withThumbnail(long thumbOffset, int thumbLength) {
+            return new Entry(hash, timestamp, width, height, screen, summary, size, thumbOffset, thumbLength, fingerprint, png);
+        }
+
+        Entry withFingerprint(long fingerprint) {
+            return new Entry(hash, timestamp, width, height, screen, summary, size, thumbOffset, thumbLength, fingerprint, png);
+        }
+    }
+
+    /**
+     * A capture resembling a query
+     *
+     * @param distance Hamming distance between the perceptual hashes, 0 to 64
+     */
+    public record Similar(Entry entry, int distance) {
+    }
+
+    /**
+     * An encoded capture waiting to be committed
+     */
+    private record Prepared(String hash, int width, int height, byte[] data, byte[] thumbnail, long fingerprint,
+                            boolean png) {
+    }
+
+    public static synchronized HistoryStore getInstance() {
+        if (instance == null) {
+            instance = new HistoryStore(HistoryPaths.getHistoryDirectory());
+        }
+        return instance;
+    }
+
+    private HistoryStore(File directory) {
+        this.directory = directory;
+        this.objectDirectory = new File(directory, "objects");
+        this.indexFile = new File(directory, "store.idx");
+        this.thumbFile = new File(directory, "thumbs.pack");
+        loaded = CompletableFuture.runAsync(this::load, worker);
+        worker.execute(this::purge);
+    }
+
+    /**
+     * Future completing once the index has been replayed and {@link #getEntries()} is complete
+     */
+    public CompletableFuture<Void> whenLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Change the retention limits and purge in the background
+     *
+     * @param maxBytes   total size of all captures to keep
+     * @param maxAgeDays age in days after which captures are dropped
+     */
+    public void setRetention(long maxBytes, int maxAgeDays) {
+        this.maxBytes = maxBytes;
+        this.maxAge = TimeUnit.DAYS.toMillis(maxAgeDays);
+        worker.execute(this::purge);
+    }
+
+    /**
+     * Store a capture shown on screen
+     *
+     * @param image  the capture
+     * @param screen description of the screen it was taken from
+     * @return future completing with the new or refreshed entry
+     */
+    public CompletableFuture<Entry> add(Image image, String screen) {
+        long timestamp = System.currentTimeMillis();
+        return EncodeService.getInstance()
+                .<Prepared>submit(job -> prepare(SwingFXUtils.fromFXImage(image, null)))
+                .result()
+                .thenApplyAsync(prepared -> commit(prepared, timestamp, screen), worker);
+    }
+
+    /**
+     * Store a capture read from elsewhere, keeping its original time
+     */
+    public CompletableFuture<Entry> add(BufferedImage image, long timestamp, String screen) {
+        return EncodeService.getInstance()
+                .<Prepared>submit(job -> prepare(image))
+                .result()
+                .thenApplyAsync(prepared -> commit(prepared, timestamp, screen), worker);
+    }
+
+    /**
+     * Record the recognised text of a capture
+     */
+    public void setSummary(Entry entry, String text) {
+        String summary = summarize(text);
+        worker.execute(() -> {
+            Entry current = entries.get(entry.hash());
+            if (current == null || current.summary().equals(summary)) {
+                return;
+            }
+            try {
+                appendRecord(out -> {
+                    out.writeByte(RECORD_SUMMARY);
+                    out.writeUTF(entry.hash());
+                    out.writeUTF(summary);
+                });
+                entries.put(entry.hash(), current.withSummary(summary));
+                publish();
+            } catch (IOException e) {
+                System.err.println("Failed to record capture summary: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Fold captures that look almost the same as a stored one into that entry instead of storing them
+     */
+    public void setSkipNearDuplicates(boolean skipNearDuplicates) {
+        this.skipNearDuplicates = skipNearDuplicates;
+    }
+
+    public boolean isSkipNearDuplicates() {
+        return skipNearDuplicates;
+    }
+
+    /**
+     * Find captures that look like an image
+     *
+     * @param image       the image to compare against
+     * @param maxDistance largest Hamming distance between perceptual hashes to report
+     * @return future completing with matches, closest first
+     */
+    public CompletableFuture<List<Similar>> findSimilar(BufferedImage image, int maxDistance) {
+        long fingerprint = PerceptualHash.dHash(image);
+        return CompletableFuture.supplyAsync(() -> similarTo(fingerprint, maxDistance), worker);
+    }
+
+    private List<Similar> similarTo(long fingerprint, int maxDistance) {
+        List<Similar> result = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (BkTree.Match<String> match : similarity.search(fingerprint, maxDistance)) {
+            Entry entry = entries.get(match.value());
+            // The tree keeps removed and re-added hashes until the next rebuild
+            if (entry != null && seen.add(entry.hash())) {
+                result.add(new Similar(entry, match.distance()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * All live entries, most recent first
+     */
+    public List<Entry> getEntries() {
+        return snapshot;
+    }
+
+    /**
+     * Find the entry of a capture file in this store
+     *
+     * @return the entry, or null for files outside the store
+     */
+    public Entry find(File file) {
+        String name = file.getName();
+        boolean png = name.endsWith(PNG_EXTENSION);
+        if (!png && !QoiCodec.isQoi(name)) {
+            return null;
+        }
+        Entry entry = snapshotByHash.get(name.substring(0, name.lastIndexOf('.')));
+        return entry != null && entry.png() == png ? entry : null;
+    }
+
+    /**
+     * Location of the capture file of an entry
+     */
+    public File getFile(Entry entry) {
+        return objectFile(entry.hash(), entry.png());
+    }
+
+    // Two-character fan-out keeps each object directory small
+    private File objectFile(String hash, boolean png) {
+        return new File(new File(objectDirectory, hash.substring(0, 2)), hash + (png ? PNG_EXTENSION : QoiCodec.EXTENSION));
+    }
+
+    /**
+     * Decode the stored thumbnail of an entry
+     */
+    public BufferedImage readThumbnail(Entry entry) throws IOException {
+        byte[] data = new byte[entry.thumbLength()];
+        try (RandomAccessFile file = new RandomAccessFile(thumbFile, "r")) {
+            file.seek(entry.thumbOffset());
+            file.readFully(data);
+        }
+        return QoiCodec.decode(data).toBufferedImage();
+    }
+
+    /**
+     * Total size of all stored captures in bytes
+     */
+    public long getTotalBytes() {
+        long total = 0;
+        for (Entry entry : snapshot) {
+            total += entry.size();
+        }
+        return total;
+    }
+
+    /**
+     * Remove one capture in the background
+     */
+    public CompletableFuture<Void> remove(Entry entry) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                removeEntry(entry.hash());
+                publish();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }, worker);
+    }
+
+    /**
+     * Delete every capture, including files written before the store existed
+     *
+     * @return future completing with the number of files deleted
+     */
+    public CompletableFuture<Integer> clear() {
+        return CompletableFuture.supplyAsync(() -> {
+            int deleted = 0;
+            try {
+                if (objectDirectory.exists()) {
+                    try (Stream<Path> files = Files.walk(objectDirectory.toPath())) {
+                        List<Path> paths = files.sorted(Collections.reverseOrder()).toList();
+                        for (Path path : paths) {
+                            if (Files.isRegularFile(path)) {
+                                deleted++;
+                            }
+                            Files.deleteIfExists(path);
+                        }
+                    }
+                }
+                File[] legacy = directory.listFiles((dir, name) -> HistoryPaths.isCapture(name));
+                if (legacy != null) {
+                    for (File file : legacy) {
+                        if (file.delete()) {
+                            deleted++;
+                        }
+                    }
+                }
+                entries.clear();
+                totalBytes = 0;
+                similarity = new BkTree<>();
+                rewriteIndex(List.of());
+                SearchIndex.getInstance().clear();
+                publish();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return deleted;
+        }, worker);
+    }
+
+    /**
+     * Encode a capture and its thumbnail, off the store thread
+     */
+    private static Prepared prepare(BufferedImage image) throws NoSuchAlgorithmException, IOException {
+        byte[] data = QoiCodec.encode(image);
+        boolean png = false;
+        if (data.length > (double) image.getWidth() * image.getHeight() * 4 * PNG_TRIAL_RATIO) {
+            byte[] compressed = PngEncoder.encode(image, PngEncoder.Level.FAST);
+            if (compressed.length < data.length) {
+                data = compressed;
+                png = true;
+            }
+        }
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+        String hash = HexFormat.of().formatHex(digest, 0, 16);
+        return new Prepared(hash, image.getWidth(), image.getHeight(), data, QoiCodec.encode(thumbnail(image)),
+                PerceptualHash.dHash(image), png);
+    }
+
+    private static BufferedImage thumbnail(BufferedImage image) {
+        double scale = Math.min(1, (double) THUMB_SIZE / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        BufferedImage thumb = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = thumb.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(image, 0, 0, width, height, null);
+        g.dispose();
+        return thumb;
+    }
+
+    private static String summarize(String text) {
+        String flat = text == null ? "" : text.replaceAll("\\s+", " ").trim();
+        return flat.length() <= SUMMARY_LENGTH ? flat : flat.substring(0, SUMMARY_LENGTH);
+    }
+
+    /**
+     * Add a prepared capture to the index, or refresh it when the content is already stored
+     */
+    private Entry commit(Prepared prepared, long timestamp, String screen) {
+        try {
+            Entry existing = entries.get(prepared.hash());
+            if (existing == null && skipNearDuplicates) {
+                List<Similar> near = similarTo(prepared.fingerprint(), NEAR_DUPLICATE_DISTANCE);
+                if (!near.isEmpty()) {
+                    existing = near.get(0).entry();
+                }
+            }
+            File file = objectFile(prepared.hash(), prepared.png());
+            if (existing == null || (existing.hash().equals(prepared.hash()) && !file.exists())) {
+                writeObject(file, prepared.data());
+            }
+
+            Entry entry;
+            if (existing != null) {
+                entry = existing.withTimestamp(Math.max(existing.timestamp(), timestamp));
+                appendRecord(out -> {
+                    out.writeByte(RECORD_TOUCH);
+                    out.writeUTF(entry.hash());
+                    out.writeLong(entry.timestamp());
+                });
+                entries.remove(entry.hash());
+            } else {
+                long thumbOffset = appendThumbnail(prepared.thumbnail());
+                entry = new Entry(prepared.hash(), timestamp, prepared.width(), prepared.height(), screen == null ? "" : screen,
+                        "", prepared.data().length, thumbOffset, prepared.thumbnail().length, prepared.fingerprint(),
+                        prepared.png());
+                appendRecord(out -> writeAdd(out, entry));
+                totalBytes += entry.size();
+                similarity.add(entry.fingerprint(), entry.hash());
+            }
+            entries.put(entry.hash(), entry);
+            purge();
+            publish();
+            return entry;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void writeObject(File file, byte[] data) throws IOException {
+        Path target = file.toPath();
+        Files.createDirectories(target.getParent());
+        Path temp = target.resolveSibling("." + target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        EncodeService.moveAtomically(temp, target);
+    }
+
+    private long appendThumbnail(byte[] thumbnail) throws IOException {
+        try (FileChannel channel = FileChannel.open(thumbFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long offset = channel.size();
+            ByteBuffer buffer = ByteBuffer.wrap(thumbnail);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
+            channel.force(false);
+            return offset;
+        }
+    }
+
+    /**
+     * Drop captures older than the age limit, then the oldest until the size limit is met
+     */
+    private void purge() {
+        long cutoff = System.currentTimeMillis() - maxAge;
+        int removed = 0;
+        try {
+            List<Entry> byAge = new ArrayList<>(entries.values());
+            for (Entry entry : byAge) {
+                if (entry.timestamp() >= cutoff && totalBytes <= maxBytes) {
+                    break;
+                }
+                removeEntry(entry.hash());
+                removed++;
+            }
+            if (removed > 0) {
+                System.out.println("Purged " + removed + " captures from history");
+                publish();
+            }
+            if (recordCount >= MIN_COMPACT_RECORDS && recordCount > 2 * entries.size()) {
+                compact();
+            } else if (similarity.size() > 2 * entries.size() + MIN_COMPACT_RECORDS) {
+                rebuildSimilarity();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to purge history: " + e.getMessage());
+        }
+    }
+
+    private void removeEntry(String hash) throws IOException {
+        Entry entry = entries.get(hash);
+        if (entry == null) {
+            return;
+        }
+        appendRecord(out -> {
+            out.writeByte(RECORD_REMOVE);
+            out.writeUTF(hash);
+        });
+        entries.remove(hash);
+        totalBytes -= entry.size();
+        Files.deleteIfExists(getFile(entry).toPath());
+        SearchIndex.getInstance().remove(getFile(entry));
+    }
+
+    /**
+     * Rewrite the index and thumbnail pack with live entries only
+     */
+    private void compact() throws IOException {
+        Path packTemp = new File(directory, ".thumbs.pack.tmp").toPath();
+        List<Entry> moved = new ArrayList<>();
+        try (RandomAccessFile source = new RandomAccessFile(thumbFile, "r");
+             FileChannel target = FileChannel.open(packTemp,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long offset = 0;
+            for (Entry entry : entries.values()) {
+                byte[] data = new byte[entry.thumbLength()];
+                source.seek(entry.thumbOffset());
+                source.readFully(data);
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                moved.add(entry.withThumbnail(offset, data.length));
+                offset += data.length;
+            }
+            target.force(true);
+        }
+        // The index is swapped first: a crash in between leaves offsets pointing into the old pack,
+        // which then only shows wrong thumbnails until the next compaction
+        rewriteIndex(moved);
+        EncodeService.moveAtomically(packTemp, thumbFile.toPath());
+        entries.clear();
+        for (Entry entry : moved) {
+            entries.put(entry.hash(), entry);
+        }
+        rebuildSimilarity();
+        publish();
+    }
+
+    private void rewriteIndex(List<Entry> live) throws IOException {
+        Path temp = new File(directory, ".store.idx.tmp").toPath();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        for (Entry entry : live) {
+            writeAdd(out, entry);
+        }
+        out.flush();
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        EncodeService.moveAtomically(temp, indexFile.toPath());
+        if (live.isEmpty()) {
+            Files.deleteIfExists(thumbFile.toPath());
+        }
+        recordCount = live.size();
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Append one record and force it to disk before the in-memory state changes
+     */
+    private void appendRecord(RecordWriter record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (!indexFile.exists() || indexFile.length() < HEADER_SIZE) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+        record.write(out);
+        out.flush();
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        recordCount++;
+    }
+
+    private static void writeAdd(DataOutputStream out, Entry entry) throws IOException {
+        out.writeByte(RECORD_ADD);
+        out.writeUTF(entry.hash());
+        out.writeLong(entry.timestamp());
+        out.writeInt(entry.width());
+        out.writeInt(entry.height());
+        out.writeUTF(entry.screen());
+        out.writeUTF(entry.summary());
+        out.writeLong(entry.size());
+        out.writeLong(entry.thumbOffset());
+        out.writeInt(entry.thumbLength());
+        out.writeLong(entry.fingerprint());
+        out.writeBoolean(entry.png());
+    }
+
+    private void rebuildSimilarity() {
+        BkTree<String> tree = new BkTree<>();
+        for (Entry entry : entries.values()) {
+            tree.add(entry.fingerprint(), entry.hash());
+        }
+        similarity = tree;
+    }
+
+    /**
+     * Replay the index, cutting off a record torn by a crash
+     */
+    private void load() {
+        if (!indexFile.exists()) {
+            return;
+        }
+        long valid = 0;
+        boolean torn = false;
+        int fromVersion = VERSION;
+        try (InputStream raw = Files.newInputStream(indexFile.toPath());
+             DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 64 * 1024))) {
+            int version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version < 1 || version > VERSION) {
+                System.err.println("Ignoring unknown history index " + indexFile);
+                return;
+            }
+            valid = HEADER_SIZE;
+            fromVersion = version;
+            RecordReader reader = new RecordReader(in, version);
+            while (reader.readRecord()) {
+                valid = HEADER_SIZE + reader.position;
+            }
+        } catch (EOFException | UTFDataFormatException e) {
+            torn = true;
+        } catch (IOException e) {
+            System.err.println("Failed to read history index: " + e.getMessage());
+        }
+        if (torn) {
+            try {
+                if (valid == 0) {
+                    Files.delete(indexFile.toPath());
+                } else {
+                    try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.WRITE)) {
+                        channel.truncate(valid);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to repair history index: " + e.getMessage());
+            }
+        }
+        if (fromVersion < VERSION) {
+            upgrade(fromVersion);
+        }
+        rebuildSimilarity();
+        publish();
+    }
+
+    /**
+     * Rewrite an older index in the current record layout, so later records can be appended to it.
+     * Perceptual hashes missing before version 2 are computed from the thumbnails.
+     */
+    private void upgrade(int fromVersion) {
+        List<Entry> upgraded = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (fromVersion >= 2) {
+                upgraded.add(entry);
+                continue;
+            }
+            long fingerprint = 0;
+            try {
+                fingerprint = PerceptualHash.dHash(readThumbnail(entry));
+            } catch (IOException e) {
+                System.err.println("Failed to fingerprint capture " + entry.hash() + ": " + e.getMessage());
+            }
+            upgraded.add(entry.withFingerprint(fingerprint));
+        }
+        try {
+            rewriteIndex(upgraded);
+            entries.clear();
+            for (Entry entry : upgraded) {
+                entries.put(entry.hash(), entry);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to upgrade history index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Applies index records to the live entries while tracking the bytes consumed
+     */
+    private final class RecordReader {
+        private final DataInputStream in;
+        private final int version;
+        private long position = 0;
+
+        RecordReader(DataInputStream in, int version) {
+            this.in = in;
+            this.version = version;
+        }
+
+        /**
+         * Apply the next record
+         *
+         * @return false at the clean end of the index
+         */
+        boolean readRecord() throws IOException {
+            int type = in.read();
+            if (type < 0) {
+                return false;
+            }
+            long consumed = 1;
+            String hash = in.readUTF();
+            consumed += utfLength(hash);
+            switch (type) {
+                case RECORD_ADD -> {
+                    long timestamp = in.readLong();
+                    int width = in.readInt();
+                    int height = in.readInt();
+                    String screen = in.readUTF();
+                    String summary = in.readUTF();
+                    long size = in.readLong();
+                    long thumbOffset = in.readLong();
+                    int thumbLength = in.readInt();
+                    long fingerprint = version >= 2 ? in.readLong() : 0;
+                    boolean png = version >= 3 && in.readBoolean();
+                    consumed += 8 + 4 + 4 + utfLength(screen) + utfLength(summary) + 8 + 8 + 4
+                            + (version >= 2 ? 8 : 0) + (version >= 3 ? 1 : 0);
+                    Entry previous = entries.remove(hash);
+                    if (previous != null) {
+                        totalBytes -= previous.size();
+                    }
+                    entries.put(hash, new Entry(hash, timestamp, width, height, screen, summary,
+                            size, thumbOffset, thumbLength, fingerprint, png));
+                    totalBytes += size;
+                }
+                case RECORD_TOUCH -> {
+                    long timestamp = in.readLong();
+                    consumed += 8;
+                    Entry entry = entries.remove(hash);
+                    if (entry != null) {
+                        entries.put(hash, entry.withTimestamp(timestamp));
+                    }
+                }
+                case RECORD_SUMMARY -> {
+                    String summary = in.readUTF();
+                    consumed += utfLength(summary);
+                    entries.computeIfPresent(hash, (k, entry) -> entry.withSummary(summary));
+                }
+                case RECORD_REMOVE -> {
+                    Entry entry = entries.remove(hash);
+                    if (entry != null) {
+                        totalBytes -= entry.size();
+                    }
+                }
+                default -> throw new EOFException("Unknown record type " + type);
+            }
+            position += consumed;
+            recordCount++;
+            return true;
+        }
+
+        private static long utfLength(String value) {
+            long length = 2;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                length += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+            }
+            return length;
+        }
+    }
+
+    /**
+     * Publish an immutable newest-first view for readers on other threads
+     */
+    private void publish() {
+        List<Entry> view = new ArrayList<>(entries.values());
+        Collections.reverse(view);
+        snapshot = Collections.unmodifiableList(view);
+        snapshotByHash = new HashMap<>(entries);
+    }
+
+    /**
+     * Apply pending changes and stop the store thread
+     */
+    public void close() {
+        worker.shutdown();
+        try {
+            worker.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
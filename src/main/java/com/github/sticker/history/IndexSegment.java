@@ -0,0 +1,254 @@
+package com.github.sticker.history;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+/**
+ * An immutable, persisted slice of the search index.
+ * <p>
+ * Layout: a small header, a metadata block holding the document paths and
+ * the sorted term dictionary, then the postings region with delta-encoded
+ * varint document ids. Only the metadata is read onto the heap; postings are
+ * memory-mapped and decoded per query.
+ */
+final class IndexSegment {
+    private static final int MAGIC = 0x53534958; // "SSIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    static final String EXTENSION = ".six";
+
+    private final File file;
+    private final int firstDoc;
+    private final String[] paths;
+    private final String[] terms;
+    private final int[] counts;
+    private final long[] offsets;
+    private final MappedByteBuffer postings;
+
+    private IndexSegment(File file, int firstDoc, String[] paths, String[] terms,
+                         int[] counts, long[] offsets, MappedByteBuffer postings) {
+        this.file = file;
+        this.firstDoc = firstDoc;
+        this.paths = paths;
+        this.terms = terms;
+        this.counts = counts;
+        this.offsets = offsets;
+        this.postings = postings;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    int getFirstDoc() {
+        return firstDoc;
+    }
+
+    int getLastDoc() {
+        return firstDoc + paths.length - 1;
+    }
+
+    int getDocCount() {
+        return paths.length;
+    }
+
+    String getPath(int doc) {
+        return paths[doc - firstDoc];
+    }
+
+    /**
+     * Decode the postings of a term
+     *
+     * @return ascending global document ids, empty when the term is absent
+     */
+    int[] postings(String term) {
+        int index = Arrays.binarySearch(terms, term);
+        if (index < 0) {
+            return new int[0];
+        }
+        int[] docs = new int[counts[index]];
+        int position = (int) offsets[index];
+        int doc = 0;
+        for (int i = 0; i < docs.length; i++) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = postings.get(position++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            doc += value;
+            docs[i] = doc;
+        }
+        return docs;
+    }
+
+    /**
+     * Level used by the merge policy, grows with the base-8 log of the document count
+     */
+    int level() {
+        int level = 0;
+        for (int n = paths.length; n >= 8; n /= 8) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Write a segment atomically
+     *
+     * @param dir      index directory
+     * @param firstDoc id of the first document
+     * @param paths    document paths, one per consecutive id
+     * @param postings term to ascending global document ids
+     */
+    static IndexSegment write(File dir, int firstDoc, List<String> paths,
+                              SortedMap<String, int[]> postings) throws IOException {
+        ByteArrayOutputStream postingBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream metaBytes = new ByteArrayOutputStream();
+        DataOutputStream meta = new DataOutputStream(metaBytes);
+
+        meta.writeInt(firstDoc);
+        meta.writeInt(paths.size());
+        for (String path : paths) {
+            meta.writeUTF(path);
+        }
+        meta.writeInt(postings.size());
+        for (Map.Entry<String, int[]> entry : postings.entrySet()) {
+            int[] docs = entry.getValue();
+            meta.writeUTF(entry.getKey());
+            meta.writeInt(docs.length);
+            meta.writeLong(postingBytes.size());
+            int previous = 0;
+            for (int doc : docs) {
+                writeVarInt(postingBytes, doc - previous);
+                previous = doc;
+            }
+        }
+        meta.flush();
+
+        String name = String.format("seg_%010d_%010d%s", firstDoc, firstDoc + paths.size() - 1, EXTENSION);
+        File target = new File(dir, name);
+        File temp = new File(dir, name + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             OutputStream raw = Channels.newOutputStream(channel);
+             DataOutputStream out = new DataOutputStream(raw)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(metaBytes.size());
+            metaBytes.writeTo(out);
+            postingBytes.writeTo(out);
+            out.flush();
+            channel.force(true);
+        }
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return open(target);
+    }
+
+    /**
+     * Open a persisted segment
+     */
+    static IndexSegment open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a search segment: " + file);
+            }
+            int metaLength = in.readInt();
+            byte[] metaBytes = in.readNBytes(metaLength);
+            DataInputStream meta = new DataInputStream(new ByteArrayInputStream(metaBytes));
+
+            int firstDoc = meta.readInt();
+            String[] paths = new String[meta.readInt()];
+            for (int i = 0; i < paths.length; i++) {
+                paths[i] = meta.readUTF();
+            }
+            int termCount = meta.readInt();
+            String[] terms = new String[termCount];
+            int[] counts = new int[termCount];
+            long[] offsets = new long[termCount];
+            for (int i = 0; i < termCount; i++) {
+                terms[i] = meta.readUTF();
+                counts[i] = meta.readInt();
+                offsets[i] = meta.readLong();
+            }
+
+            long postingsStart = HEADER_SIZE + (long) metaLength;
+            MappedByteBuffer postings = channel.map(FileChannel.MapMode.READ_ONLY,
+                    postingsStart, channel.size() - postingsStart);
+            return new IndexSegment(file, firstDoc, paths, terms, counts, offsets, postings);
+        }
+    }
+
+    /**
+     * Merge consecutive segments into one
+     *
+     * @param dir      index directory
+     * @param segments segments ordered by document id, with contiguous ranges
+     * @param deleted  documents to leave out; they keep their id with an empty path and no postings
+     */
+    static IndexSegment merge(File dir, List<IndexSegment> segments, IntPredicate deleted) throws IOException {
+        List<String> paths = new ArrayList<>();
+        SortedMap<String, List<int[]>> parts = new TreeMap<>();
+        for (IndexSegment segment : segments) {
+            for (int i = 0; i < segment.paths.length; i++) {
+                paths.add(deleted.test(segment.firstDoc + i) ? "" : segment.paths[i]);
+            }
+            for (String term : segment.terms) {
+                int[] docs = Arrays.stream(segment.postings(term)).filter(doc -> !deleted.test(doc)).toArray();
+                if (docs.length > 0) {
+                    parts.computeIfAbsent(term, k -> new ArrayList<>()).add(docs);
+                }
+            }
+        }
+
+        SortedMap<String, int[]> postings = new TreeMap<>();
+        for (Map.Entry<String, List<int[]>> entry : parts.entrySet()) {
+            // Segments are ordered by document id, so concatenation keeps postings sorted
+            int total = 0;
+            for (int[] docs : entry.getValue()) {
+                total += docs.length;
+            }
+            int[] merged = new int[total];
+            int position = 0;
+            for (int[] docs : entry.getValue()) {
+                System.arraycopy(docs, 0, merged, position, docs.length);
+                position += docs.length;
+            }
+            postings.put(entry.getKey(), merged);
+        }
+        return write(dir, segments.get(0).firstDoc, paths, postings);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
@@ -0,0 +1,522 @@
+package com.github.sticker.history;
+
+import com.github.sticker.util.EncodeService;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Local full-text index over the OCR text of saved captures.
+ * <p>
+ * Documents are appended incrementally: each batch of pending documents is
+ * written as a new immutable segment by a single background writer, and
+ * small segments are merged in groups of eight so the number of segments
+ * stays logarithmic in the number of captures. Queries read an immutable
+ * snapshot of the segment list and never block on the writer.
+ * <p>
+ * Segments are never edited in place. Removed captures are recorded as
+ * tombstones, the ids of deleted documents appended to a small file, and
+ * hidden from queries; merges leave their postings out. Clearing the index
+ * records that every id issued so far is gone and deletes the segments.
+ */
+public final class SearchIndex {
+    private static final int MERGE_FACTOR = 8;
+    private static final String TOMBSTONE_FILE = "deleted.tomb";
+    private static SearchIndex instance;
+
+    private final File directory;
+    private volatile List<IndexSegment> segments = List.of();
+    private final Set<String> indexedPaths = ConcurrentHashMap.newKeySet();
+    private final Set<Integer> deletedDocs = ConcurrentHashMap.newKeySet();
+    private final ConcurrentLinkedQueue<PendingDocument> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "search-index-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private int nextDoc = 0;
+    // Every document below this id was removed by clearing the index
+    private int clearedBelow = 0;
+
+    /**
+     * A single search result
+     *
+     * @param file  the matching capture
+     * @param score number of query terms matched, whole words counting double
+     */
+    public record SearchHit(File file, int score) {
+    }
+
+    /**
+     * A queued change: a document, a removal when the text is null, or a clear when the path is null too
+     */
+    private record PendingDocument(String path, String text) {
+    }
+
+    public static synchronized SearchIndex getInstance() {
+        if (instance == null) {
+            instance = new SearchIndex(HistoryPaths.getIndexDirectory());
+        }
+        return instance;
+    }
+
+    private SearchIndex(File directory) {
+        this.directory = directory;
+        load();
+    }
+
+    /**
+     * Open all segments on disk, dropping leftovers of interrupted merges
+     */
+    private void load() {
+        loadTombstones();
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(IndexSegment.EXTENSION));
+        List<IndexSegment> loaded = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    loaded.add(IndexSegment.open(file));
+                } catch (IOException e) {
+                    System.err.println("Skipping unreadable index segment " + file + ": " + e.getMessage());
+                }
+            }
+        }
+        // A merged segment covers the ranges of its inputs; inputs that could not be
+        // deleted while still mapped are dropped here
+        loaded.sort(Comparator.comparingInt(IndexSegment::getFirstDoc)
+                .thenComparing(Comparator.comparingInt(IndexSegment::getDocCount).reversed()));
+        List<IndexSegment> live = new ArrayList<>();
+        for (IndexSegment segment : loaded) {
+            IndexSegment last = live.isEmpty() ? null : live.get(live.size() - 1);
+            if (segment.getLastDoc() < clearedBelow
+                    || (last != null && segment.getLastDoc() <= last.getLastDoc())) {
+                deleteQuietly(segment.getFile());
+                continue;
+            }
+            live.add(segment);
+        }
+        for (IndexSegment segment : live) {
+            for (int doc = segment.getFirstDoc(); doc <= segment.getLastDoc(); doc++) {
+                if (!deletedDocs.contains(doc) && !segment.getPath(doc).isEmpty()) {
+                    indexedPaths.add(segment.getPath(doc));
+                }
+            }
+            nextDoc = Math.max(nextDoc, segment.getLastDoc() + 1);
+        }
+        nextDoc = Math.max(nextDoc, clearedBelow);
+        segments = List.copyOf(live);
+    }
+
+    /**
+     * Read the tombstone file: the clear mark followed by the ids of removed documents
+     */
+    private void loadTombstones() {
+        File file = new File(directory, TOMBSTONE_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        try (InputStream raw = Files.newInputStream(file.toPath());
+             DataInputStream in = new DataInputStream(new BufferedInputStream(raw))) {
+            clearedBelow = in.readInt();
+            while (true) {
+                deletedDocs.add(in.readInt());
+            }
+        } catch (EOFException e) {
+            // End of the file; an id torn by a crash is simply not deleted
+        } catch (IOException e) {
+            System.err.println("Failed to read index tombstones: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Queue the OCR text of a capture for indexing
+     *
+     * @param capture the saved capture file
+     * @param text    recognised text, lines separated by newlines
+     */
+    public void add(File capture, String text) {
+        String path = capture.getAbsolutePath();
+        if (!indexedPaths.add(path)) {
+            return;
+        }
+        // Captures without text are still written as documents without postings,
+        // so they count as indexed after a restart and are not recognised again
+        enqueue(new PendingDocument(path, text == null ? "" : text));
+    }
+
+    /**
+     * Drop a deleted capture from the index
+     */
+    public void remove(File capture) {
+        String path = capture.getAbsolutePath();
+        if (indexedPaths.remove(path)) {
+            enqueue(new PendingDocument(path, null));
+        }
+    }
+
+    /**
+     * Drop every document and delete the segments
+     */
+    public void clear() {
+        indexedPaths.clear();
+        enqueue(new PendingDocument(null, null));
+    }
+
+    private void enqueue(PendingDocument document) {
+        pending.add(document);
+        if (flushScheduled.compareAndSet(false, true)) {
+            writer.execute(this::flush);
+        }
+    }
+
+    /**
+     * Check whether a capture has already been indexed or queued
+     */
+    public boolean contains(File capture) {
+        return indexedPaths.contains(capture.getAbsolutePath());
+    }
+
+    /**
+     * Number of documents in the index
+     */
+    public int size() {
+        return indexedPaths.size();
+    }
+
+    /**
+     * Write all pending documents as one segment, then merge if needed.
+     * Removals and clears are applied in the order they were queued.
+     */
+    private void flush() {
+        flushScheduled.set(false);
+        List<String> paths = new ArrayList<>();
+        Map<String, List<Integer>> postings = new HashMap<>();
+        List<Integer> removedFromBatch = new ArrayList<>();
+        int firstDoc = nextDoc;
+
+        PendingDocument document;
+        while ((document = pending.poll()) != null) {
+            if (document.path() == null) {
+                // Nothing queued before a clear needs to be written
+                paths.clear();
+                postings.clear();
+                removedFromBatch.clear();
+                wipe();
+                firstDoc = nextDoc;
+            } else if (document.text() == null) {
+                for (int i = 0; i < paths.size(); i++) {
+                    if (paths.get(i).equals(document.path())) {
+                        removedFromBatch.add(firstDoc + i);
+                    }
+                }
+                tombstone(document.path());
+            } else {
+                int doc = firstDoc + paths.size();
+                paths.add(document.path());
+                for (String term : Tokenizer.indexTerms(document.text())) {
+                    postings.computeIfAbsent(term, k -> new ArrayList<>()).add(doc);
+                }
+            }
+        }
+        if (paths.isEmpty()) {
+            return;
+        }
+
+        SortedMap<String, int[]> sorted = new TreeMap<>();
+        postings.forEach((term, docs) -> sorted.put(term, docs.stream().mapToInt(Integer::intValue).toArray()));
+        try {
+            IndexSegment segment = IndexSegment.write(directory, firstDoc, paths, sorted);
+            nextDoc = firstDoc + paths.size();
+            for (int doc : removedFromBatch) {
+                deleteDoc(doc);
+            }
+            List<IndexSegment> updated = new ArrayList<>(segments);
+            updated.add(segment);
+            segments = List.copyOf(updated);
+            mergeTail();
+        } catch (IOException e) {
+            System.err.println("Failed to write index segment: " + e.getMessage());
+            paths.forEach(indexedPaths::remove);
+        }
+    }
+
+    /**
+     * Record every live document of a path in the written segments as deleted
+     */
+    private void tombstone(String path) {
+        for (IndexSegment segment : segments) {
+            for (int doc = segment.getFirstDoc(); doc <= segment.getLastDoc(); doc++) {
+                if (!deletedDocs.contains(doc) && segment.getPath(doc).equals(path)) {
+                    deleteDoc(doc);
+                }
+            }
+        }
+    }
+
+    private void deleteDoc(int doc) {
+        try {
+            appendTombstone(doc);
+            deletedDocs.add(doc);
+        } catch (IOException e) {
+            System.err.println("Failed to record removed index document: " + e.getMessage());
+        }
+    }
+
+    private void appendTombstone(int doc) throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(directory, TOMBSTONE_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            if (channel.size() == 0) {
+                buffer.putInt(clearedBelow);
+            }
+            buffer.putInt(doc).flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Mark every id issued so far as cleared, then delete the segments.
+     * Segments that cannot be deleted while mapped are dropped on the next start.
+     */
+    private void wipe() {
+        try {
+            Path temp = new File(directory, TOMBSTONE_FILE + ".tmp").toPath();
+            try (FileChannel channel = FileChannel.open(temp,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(4).putInt(nextDoc).flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            EncodeService.moveAtomically(temp, new File(directory, TOMBSTONE_FILE).toPath());
+        } catch (IOException e) {
+            System.err.println("Failed to clear the search index: " + e.getMessage());
+            return;
+        }
+        clearedBelow = nextDoc;
+        deletedDocs.clear();
+        List<IndexSegment> old = segments;
+        segments = List.of();
+        for (IndexSegment segment : old) {
+            deleteQuietly(segment.getFile());
+        }
+    }
+
+    /**
+     * Merge trailing segments while the last {@link #MERGE_FACTOR} share a level
+     */
+    private void mergeTail() throws IOException {
+        while (true) {
+            List<IndexSegment> current = segments;
+            int size = current.size();
+            if (size < MERGE_FACTOR) {
+                return;
+            }
+            List<IndexSegment> tail = current.subList(size - MERGE_FACTOR, size);
+            int level = tail.get(0).level();
+            if (tail.stream().anyMatch(s -> s.level() != level)) {
+                return;
+            }
+            IndexSegment merged = IndexSegment.merge(directory, tail, deletedDocs::contains);
+            List<IndexSegment> updated = new ArrayList<>(current.subList(0, size - MERGE_FACTOR));
+            updated.add(merged);
+            segments = List.copyOf(updated);
+            for (IndexSegment old : tail) {
+                deleteQuietly(old.getFile());
+            }
+        }
+    }
+
+    /**
+     * Search the index.
+     * Every query word must match, either as a whole indexed word or, for
+     * words of three or more characters, through all of its trigrams.
+     *
+     * @param query free text query
+     * @param limit maximum number of hits
+     * @return hits ordered by score, newest first on ties
+     */
+    public List<SearchHit> search(String query, int limit) {
+        List<String> words = new ArrayList<>();
+        for (String word : Tokenizer.words(query)) {
+            words.add(word.toLowerCase(Locale.ROOT));
+        }
+        if (words.isEmpty()) {
+            return List.of();
+        }
+
+        List<long[]> scored = new ArrayList<>();
+        for (IndexSegment segment : segments) {
+            int[] docs = null;
+            int[] scores = null;
+            for (String word : words) {
+                int[] exact = segment.postings(word);
+                int[] partial = word.length() >= Tokenizer.GRAM_SIZE ? intersectGrams(segment, word) : new int[0];
+                int[] matched = union(exact, partial);
+                if (docs == null) {
+                    docs = matched;
+                    scores = new int[docs.length];
+                } else {
+                    int[][] narrowed = intersect(docs, scores, matched);
+                    docs = narrowed[0];
+                    scores = narrowed[1];
+                }
+                if (docs.length == 0) {
+                    break;
+                }
+                // One point per matched word, one more when it matched as a whole word
+                for (int i = 0; i < docs.length; i++) {
+                    scores[i] += Arrays.binarySearch(exact, docs[i]) >= 0 ? 2 : 1;
+                }
+            }
+            if (docs == null) {
+                continue;
+            }
+            for (int i = 0; i < docs.length; i++) {
+                if (!deletedDocs.contains(docs[i])) {
+                    scored.add(new long[]{docs[i], scores[i]});
+                }
+            }
+        }
+
+        scored.sort((a, b) -> a[1] != b[1] ? Long.compare(b[1], a[1]) : Long.compare(b[0], a[0]));
+        List<SearchHit> hits = new ArrayList<>();
+        for (long[] entry : scored) {
+            if (hits.size() >= limit) {
+                break;
+            }
+            File file = new File(pathOf((int) entry[0]));
+            if (file.exists()) {
+                hits.add(new SearchHit(file, (int) entry[1]));
+            }
+        }
+        return hits;
+    }
+
+    private String pathOf(int doc) {
+        for (IndexSegment segment : segments) {
+            if (doc >= segment.getFirstDoc() && doc <= segment.getLastDoc()) {
+                return segment.getPath(doc);
+            }
+        }
+        return "";
+    }
+
+    private static int[] intersectGrams(IndexSegment segment, String word) {
+        int[] result = null;
+        for (String gram : Tokenizer.grams(word)) {
+            int[] docs = segment.postings(gram);
+            result = result == null ? docs : intersect(result, docs);
+            if (result.length == 0) {
+                break;
+            }
+        }
+        return result == null ? new int[0] : result;
+    }
+
+    /**
+     * Intersect a scored document list with another list, keeping the scores aligned
+     */
+    private static int[][] intersect(int[] docs, int[] scores, int[] other) {
+        int[] outDocs = new int[Math.min(docs.length, other.length)];
+        int[] outScores = new int[outDocs.length];
+        int i = 0, j = 0, n = 0;
+        while (i < docs.length && j < other.length) {
+            if (docs[i] < other[j]) {
+                i++;
+            } else if (docs[i] > other[j]) {
+                j++;
+            } else {
+                outDocs[n] = docs[i];
+                outScores[n++] = scores[i];
+                i++;
+                j++;
+            }
+        }
+        return new int[][]{Arrays.copyOf(outDocs, n), Arrays.copyOf(outScores, n)};
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        int[] out = new int[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length || j < b.length) {
+            if (j >= b.length || (i < a.length && a[i] < b[j])) {
+                out[n++] = a[i++];
+            } else if (i >= a.length || b[j] < a[i]) {
+                out[n++] = b[j++];
+            } else {
+                out[n++] = a[i++];
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static void deleteQuietly(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException ignored) {
+            // Fails while the file is still mapped; cleaned up on the next start
+        }
+    }
+
+    /**
+     * Flush pending documents and stop the writer
+     */
+    public void close() {
+        writer.execute(this::flush);
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.github.sticker.history;
+
+import javafx.application.Platform;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Decodes history thumbnails in the background and keeps recent ones in memory.
+ * <p>
+ * Thumbnails come from the pack written by {@link HistoryStore}; only when
+ * that read fails is the full capture decoded and subsampled. Decoded images
+ * are held in an LRU map bounded by their pixel memory rather than by count.
+ * Requests are keyed by entry hash, so cells that ask for the same entry share
+ * one decode, and a request that is cancelled before a worker picks it up
+ * costs nothing. All methods must be called on the FX thread.
+ */
+final class ThumbnailCache {
+    private final long budgetBytes;
+    private final int size;
+    private final LinkedHashMap<String, Image> images = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, Request> pending = new HashMap<>();
+    private long usedBytes = 0;
+    private final ExecutorService decoders;
+
+    /**
+     * Callbacks waiting for one thumbnail
+     */
+    private static final class Request {
+        final Map<Object, Consumer<Image>> waiting = new HashMap<>();
+        volatile boolean cancelled = false;
+    }
+
+    /**
+     * @param budgetBytes pixel memory to keep, at four bytes per pixel
+     * @param size        longest edge used when a thumbnail has to be recomputed
+     */
+    ThumbnailCache(long budgetBytes, int size) {
+        this.budgetBytes = budgetBytes;
+        this.size = size;
+        AtomicInteger counter = new AtomicInteger();
+        decoders = Executors.newFixedThreadPool(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)), r -> {
+            Thread thread = new Thread(r, "thumbnail-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+    }
+
+    /**
+     * Get a cached thumbnail without loading it
+     */
+    Image getIfPresent(HistoryStore.Entry entry) {
+        return images.get(entry.hash());
+    }
+
+    /**
+     * Request a thumbnail
+     *
+     * @param entry    the capture
+     * @param owner    identifies the requester, a later request or {@link #cancel} by the same owner replaces it
+     * @param callback receives the image on the FX thread
+     */
+    void load(HistoryStore.Entry entry, Object owner, Consumer<Image> callback) {
+        Image cached = images.get(entry.hash());
+        if (cached != null) {
+            callback.accept(cached);
+            return;
+        }
+        Request request = pending.get(entry.hash());
+        if (request == null) {
+            Request created = new Request();
+            request = created;
+            pending.put(entry.hash(), created);
+            CompletableFuture.supplyAsync(() -> created.cancelled ? null : decode(entry), decoders)
+                    .whenComplete((image, ex) -> Platform.runLater(() -> complete(entry, created, image, ex)));
+        }
+        request.waiting.put(owner, callback);
+    }
+
+    /**
+     * Drop the callback of an owner, cancelling the decode when nobody else waits for it
+     */
+    void cancel(HistoryStore.Entry entry, Object owner) {
+        Request request = pending.get(entry.hash());
+        if (request != null) {
+            request.waiting.remove(owner);
+            if (request.waiting.isEmpty()) {
+                request.cancelled = true;
+                pending.remove(entry.hash());
+            }
+        }
+    }
+
+    private void complete(HistoryStore.Entry entry, Request request, Image image, Throwable ex) {
+        if (pending.get(entry.hash()) == request) {
+            pending.remove(entry.hash());
+        }
+        if (ex != null) {
+            System.err.println("Failed to load thumbnail " + entry.hash() + ": " + ex.getMessage());
+            return;
+        }
+        if (image == null) {
+            return;
+        }
+        put(entry.hash(), image);
+        for (Consumer<Image> callback : request.waiting.values()) {
+            callback.accept(image);
+        }
+    }
+
+    private void put(String hash, Image image) {
+        Image previous = images.put(hash, image);
+        if (previous != null) {
+            usedBytes -= weight(previous);
+        }
+        usedBytes += weight(image);
+        Iterator<Map.Entry<String, Image>> eldest = images.entrySet().iterator();
+        while (usedBytes > budgetBytes && eldest.hasNext()) {
+            Map.Entry<String, Image> victim = eldest.next();
+            if (victim.getKey().equals(hash)) {
+                break;
+            }
+            usedBytes -= weight(victim.getValue());
+            eldest.remove();
+        }
+    }
+
+    private static long weight(Image image) {
+        return 4L * (long) image.getWidth() * (long) image.getHeight();
+    }
+
+    /**
+     * Read the persisted thumbnail, or subsample the full capture when it is unavailable
+     */
+    private Image decode(HistoryStore.Entry entry) {
+        HistoryStore store = HistoryStore.getInstance();
+        BufferedImage thumbnail;
+        try {
+            thumbnail = store.readThumbnail(entry);
+        } catch (IOException e) {
+            try {
+                BufferedImage capture = HistoryPaths.readCapture(store.getFile(entry));
+                thumbnail = capture == null ? null : subsample(capture, size);
+            } catch (IOException fallback) {
+                throw new RuntimeException(fallback);
+            }
+        }
+        return thumbnail == null ? null : SwingFXUtils.toFXImage(thumbnail, null);
+    }
+
+    /**
+     * Nearest-neighbour subsampling with an integer stride, enough for a preview
+     */
+    private static BufferedImage subsample(BufferedImage image, int size) {
+        int step = Math.max(1, (int) Math.ceil((double) Math.max(image.getWidth(), image.getHeight()) / size));
+        int width = Math.max(1, image.getWidth() / step);
+        int height = Math.max(1, image.getHeight() / step);
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] row = new int[image.getWidth()];
+        int[] out = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y * step, image.getWidth(), 1, row, 0, image.getWidth());
+            for (int x = 0; x < width; x++) {
+                out[x] = row[x * step];
+            }
+            result.setRGB(0, y, width, 1, out, 0, width);
+        }
+        return result;
+    }
+
+    /**
+     * Release memory and stop the decoders
+     */
+    void dispose() {
+        for (Request request : pending.values()) {
+            request.cancelled = true;
+        }
+        pending.clear();
+        images.clear();
+        usedBytes = 0;
+        decoders.shutdownNow();
+    }
+}
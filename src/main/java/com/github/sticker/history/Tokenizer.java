@@ -0,0 +1,95 @@
+package com.github.sticker.history;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Splits OCR text into index terms.
+ * Besides whole words, identifiers are split at camelCase and snake_case
+ * boundaries, and every word of three or more characters contributes its
+ * trigrams so that partial identifiers can be found.
+ */
+final class Tokenizer {
+    /** Prefix separating trigram keys from word keys in the term dictionary */
+    static final char GRAM_PREFIX = '#';
+    static final int GRAM_SIZE = 3;
+
+    private Tokenizer() {
+    }
+
+    /**
+     * Split text into raw words made of letters, digits and underscores
+     */
+    static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && isWordChar(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Produce the distinct index terms of a document
+     */
+    static Set<String> indexTerms(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (String word : words(text)) {
+            String lower = word.toLowerCase(Locale.ROOT);
+            terms.add(lower);
+            for (String part : identifierParts(word)) {
+                terms.add(part);
+            }
+            terms.addAll(grams(lower));
+        }
+        return terms;
+    }
+
+    /**
+     * Trigram keys of a word, empty when the word is too short
+     */
+    static List<String> grams(String lowerWord) {
+        List<String> grams = new ArrayList<>();
+        for (int i = 0; i + GRAM_SIZE <= lowerWord.length(); i++) {
+            grams.add(GRAM_PREFIX + lowerWord.substring(i, i + GRAM_SIZE));
+        }
+        return grams;
+    }
+
+    /**
+     * Split an identifier such as {@code parseHttpHeader_v2} into
+     * {@code parse}, {@code http}, {@code header} and {@code v2}
+     */
+    static List<String> identifierParts(String word) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i <= word.length(); i++) {
+            boolean boundary = i == word.length()
+                    || word.charAt(i) == '_'
+                    || (Character.isUpperCase(word.charAt(i)) && Character.isLowerCase(word.charAt(i - 1)))
+                    || (Character.isUpperCase(word.charAt(i)) && i + 1 < word.length()
+                    && Character.isUpperCase(word.charAt(i - 1)) && Character.isLowerCase(word.charAt(i + 1)));
+            if (boundary) {
+                String part = word.substring(start, i).replace("_", "");
+                if (part.length() >= 2 && part.length() < word.length()) {
+                    parts.add(part.toLowerCase(Locale.ROOT));
+                }
+                start = i < word.length() && word.charAt(i) == '_' ? i + 1 : i;
+            }
+        }
+        return parts;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
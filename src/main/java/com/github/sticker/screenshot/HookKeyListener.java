@@ -2,6 +2,7 @@ package com.github.sticker.screenshot;
 
 import com.github.kwhat.jnativehook.GlobalScreen;
 import com.github.kwhat.jnativehook.NativeHookException;
+import com.github.kwhat.jnativehook.NativeInputEvent;
 import com.github.kwhat.jnativehook.keyboard.NativeKeyEvent;
 import com.github.kwhat.jnativehook.keyboard.NativeKeyListener;
 import javafx.application.Platform;
@@ -16,7 +17,9 @@ public class HookKeyListener implements NativeKeyListener {
 
     @Override
     public void nativeKeyPressed(NativeKeyEvent e) {
-        if (e.getKeyCode() == NativeKeyEvent.VC_F1) {
+        if (e.getKeyCode() == NativeKeyEvent.VC_F1 && (e.getModifiers() & NativeInputEvent.SHIFT_MASK) != 0) {
+            Platform.runLater(screenshotSelector::startTextSelection);
+        } else if (e.getKeyCode() == NativeKeyEvent.VC_F1) {
             Platform.runLater(this::takeScreenshot);
         } else if (e.getKeyCode() == NativeKeyEvent.VC_ESCAPE) {
             Platform.runLater(screenshotSelector::cancelSelection);
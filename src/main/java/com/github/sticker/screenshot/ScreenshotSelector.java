@@ -3,8 +3,10 @@ package com.github.sticker.screenshot;
 import com.github.sticker.draw.DrawCanvas;
 import com.github.sticker.draw.FloatingToolbar;
 import com.github.sticker.draw.Icon;
+import com.github.sticker.draw.PixelSource;
 import com.github.sticker.feature.Magnifier;
 import com.github.sticker.util.ScreenManager;
+import com.github.sticker.util.ShotScreen;
 import com.github.sticker.util.StealthWindow;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
@@ -75,6 +77,9 @@ public class ScreenshotSelector {
 
     private FloatingToolbar floatingToolbar;
 
+    // Snip-to-text mode: releasing the mouse copies the selected text instead of showing the toolbar
+    private boolean textMode = false;
+
 
     //  /////////////////////////////////////////////////////////////////
 
@@ -139,6 +144,7 @@ public class ScreenshotSelector {
     public void startSelection() {
         // Reset selection state
         isSelecting = false;
+        textMode = false;
 
         // Get current screen and mouse position
         currentScreen = screenManager.getCurrentScreen();
@@ -181,6 +187,26 @@ public class ScreenshotSelector {
         magnifier.update((int) mousePos.getX(), (int) mousePos.getY());
     }
 
+    /**
+     * Start a selection whose text is copied to the clipboard on release
+     */
+    public void startTextSelection() {
+        startSelection();
+        textMode = true;
+    }
+
+    /**
+     * Copy the text inside the current selection and close the selector
+     */
+    public void copyText() {
+        if (selectionArea == null || selectionArea.getWidth() < 1 || selectionArea.getHeight() < 1) {
+            cancelSelection();
+            return;
+        }
+        SnipToText.copyText(root.getScene(), selectionArea);
+        cancelSelection();
+    }
+
     public void stopMouseTracking() {
         if (mouseTracker != null) {
             mouseTracker.stop();
@@ -252,6 +278,23 @@ public class ScreenshotSelector {
         drawCanvasArea.setLayoutX(0);
         drawCanvasArea.setLayoutY(0);
         drawCanvasArea.setPrefSize(currentScreenBounds.getWidth(), currentScreenBounds.getHeight());
+        drawCanvasArea.setPixelSource(this::captureSelectionPixels);
+    }
+
+    /**
+     * Capture the screen inside the selection for the redaction tools.
+     * Annotations and redactions already drawn are part of the capture, so they are redacted too.
+     *
+     * @return the pixels, or null when there is no selection
+     */
+    private PixelSource captureSelectionPixels() {
+        if (selectionArea == null || selectionArea.getWidth() < 1 || selectionArea.getHeight() < 1) {
+            return null;
+        }
+        java.awt.image.BufferedImage pixels = ShotScreen.captureScreen(root.getScene(), selectionArea);
+        javafx.geometry.Point2D origin = drawCanvasArea.sceneToLocal(
+                root.localToScene(selectionArea.getX(), selectionArea.getY()));
+        return PixelSource.of(pixels, origin.getX(), origin.getY(), pixels.getWidth() / selectionArea.getWidth());
     }
 
     /**
@@ -501,6 +544,10 @@ public class ScreenshotSelector {
         isSelecting = false;  // 选择完成，重置状态
 
         updateSelectionAreaPosition();
+        if (textMode) {
+            copyText();
+            return;
+        }
         setupDragHandlers();
 
         if (floatingToolbar != null) {
@@ -0,0 +1,88 @@
+package com.github.sticker.screenshot;
+
+import com.github.sticker.util.ImagePreprocessor;
+import com.github.sticker.util.OCRUtil;
+import com.github.sticker.util.ShotScreen;
+import javafx.application.Platform;
+import javafx.scene.Scene;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.shape.Rectangle;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Captures a screen region and puts its recognised text on the clipboard.
+ * No sticker is created: the pixels go straight from the capture through
+ * preprocessing and OCR on the warm OCR pool, and the time spent in each
+ * stage is reported once the text lands on the clipboard.
+ */
+public final class SnipToText {
+    private SnipToText() {
+    }
+
+    /**
+     * Time spent in each stage, in nanoseconds
+     */
+    private record Latency(long capture, long preprocess, long ocr, long clipboard) {
+        long total() {
+            return capture + preprocess + ocr + clipboard;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d ms (capture %d ms, preprocess %d ms, ocr %d ms, clipboard %d ms)",
+                    millis(total()), millis(capture), millis(preprocess), millis(ocr), millis(clipboard));
+        }
+
+        private static long millis(long nanos) {
+            return nanos / 1_000_000;
+        }
+    }
+
+    /**
+     * Capture the selection and copy its text.
+     * Must be called on the FX thread while the selection is still on screen;
+     * the caller may close the selector as soon as this returns.
+     *
+     * @param scene         scene of the selection
+     * @param selectionArea selected rectangle in scene coordinates
+     * @return future completing with the copied text
+     */
+    public static CompletableFuture<String> copyText(Scene scene, Rectangle selectionArea) {
+        long start = System.nanoTime();
+        BufferedImage capture = ShotScreen.captureScreen(scene, selectionArea);
+        long captured = System.nanoTime();
+
+        long[] marks = new long[2];
+        CompletableFuture<String> result = new CompletableFuture<>();
+        CompletableFuture.supplyAsync(() -> {
+                    BufferedImage prepared = ImagePreprocessor.prepareForOcr(capture);
+                    marks[0] = System.nanoTime();
+                    return prepared;
+                })
+                .thenCompose(OCRUtil::submitText)
+                .thenAccept(text -> {
+                    marks[1] = System.nanoTime();
+                    Platform.runLater(() -> {
+                        if (!text.isEmpty()) {
+                            ClipboardContent content = new ClipboardContent();
+                            content.putString(text);
+                            Clipboard.getSystemClipboard().setContent(content);
+                        }
+                        long done = System.nanoTime();
+                        Latency latency = new Latency(captured - start, marks[0] - captured,
+                                marks[1] - marks[0], done - marks[1]);
+                        System.out.println("Snip to text: " + text.length() + " chars in " + latency);
+                        result.complete(text);
+                    });
+                })
+                .exceptionally(e -> {
+                    System.err.println("Snip to text failed: " + e.getMessage());
+                    result.completeExceptionally(e);
+                    return null;
+                });
+        return result;
+    }
+}
@@ -6,12 +6,25 @@
  */
 package com.github.sticker.screenshot;
 
+import com.github.sticker.feature.StickerStage;
+import com.github.sticker.feature.widget.StickerMemoryManager;
+import com.github.sticker.history.HistoryBrowserWindow;
+import com.github.sticker.history.HistorySearchWindow;
+import com.github.sticker.history.HistoryStore;
+import com.github.sticker.util.EncodeService;
 import javafx.application.Platform;
+import javafx.scene.control.Alert;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.ProgressBar;
+import javafx.stage.DirectoryChooser;
+import javafx.stage.FileChooser;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.InputStream;
+import java.util.Optional;
 
 /**
  * Manages the system tray functionality for the application.
@@ -39,7 +52,13 @@ public class SystemTrayManager {
     private static final String PASTE = STATUS_PLACEHOLDER + "Paste" + SHORTCUT_PLACEHOLDER + "F3";
     private static final String SNIP = STATUS_PLACEHOLDER + "Snip";
     private static final String SNIP_AND_COPY = STATUS_PLACEHOLDER + "Snip and copy" + SHORTCUT_PLACEHOLDER2_STRING + "F1";
+    private static final String SNIP_TO_TEXT = STATUS_PLACEHOLDER + "Snip to text" + SHORTCUT_PLACEHOLDER2_STRING + "Shift+F1";
+    private static final String SEARCH = STATUS_PLACEHOLDER + "Search snips...";
+    private static final String BROWSE = STATUS_PLACEHOLDER + "Browse snips...";
+    private static final String EXPORT = STATUS_PLACEHOLDER + "Export all stickers...";
+    private static final String SKIP_DUPLICATES = STATUS_PLACEHOLDER + "Skip near-duplicate snips";
     private static final String HIDE_SHOW = STATUS_PLACEHOLDER + "Hide/Show all images";
+    private static final String MEMORY = STATUS_PLACEHOLDER + "Sticker memory...";
     private static final String HELP = STATUS_PLACEHOLDER + "Help";
     private static final String PREFERENCES = STATUS_PLACEHOLDER + "Preferences...";
     private static final String MOTTO = STATUS_PLACEHOLDER + "Simplicity is the ultimate sophistication";
@@ -84,7 +103,14 @@ public class SystemTrayManager {
             MenuItem paste = new MenuItem(PASTE);
             MenuItem snip = new MenuItem(SNIP);
             MenuItem snipAndCopy = new MenuItem(SNIP_AND_COPY);
+            MenuItem snipToText = new MenuItem(SNIP_TO_TEXT);
+            MenuItem search = new MenuItem(SEARCH);
+            MenuItem browse = new MenuItem(BROWSE);
+            MenuItem export = new MenuItem(EXPORT);
+            CheckboxMenuItem skipDuplicates = new CheckboxMenuItem(SKIP_DUPLICATES,
+                    HistoryStore.getInstance().isSkipNearDuplicates());
             MenuItem hideShow = new MenuItem(HIDE_SHOW);
+            MenuItem memory = new MenuItem(MEMORY);
             MenuItem help = new MenuItem(HELP);
             MenuItem preferences = new MenuItem(PREFERENCES);
             MenuItem motto = new MenuItem(MOTTO);
@@ -93,7 +119,7 @@ public class SystemTrayManager {
 
             // Apply font to all menu items
             for (MenuItem item : new MenuItem[]{clearRecords, paste, snip, snipAndCopy,
-                    hideShow, help, preferences, restart, quit}) {
+                    snipToText, search, browse, export, skipDuplicates, hideShow, memory, help, preferences, restart, quit}) {
                 item.setFont(menuFont);
             }
 
@@ -102,7 +128,6 @@ public class SystemTrayManager {
             motto.setEnabled(false);  // Make it non-clickable
 
             // Set specific items to disabled state
-            clearRecords.setEnabled(false);  // Disable Clear snip records
             hideShow.setEnabled(false);      // Disable Hide/Show all images
             snip.setEnabled(false);          // Disable Snip
             help.setEnabled(false);          // Disable Help
@@ -115,13 +140,29 @@ public class SystemTrayManager {
                 tray.remove(trayIcon);
             }));
             snipAndCopy.addActionListener(e -> Platform.runLater(this::takeScreenshot));
+            snipToText.addActionListener(e -> Platform.runLater(screenshotSelector::startTextSelection));
+            search.addActionListener(e -> Platform.runLater(HistorySearchWindow::showWindow));
+            browse.addActionListener(e -> HistoryStore.getInstance().whenLoaded()
+                    .thenRun(() -> Platform.runLater(HistoryBrowserWindow::showWindow)));
+            export.addActionListener(e -> Platform.runLater(this::exportStickers));
+            skipDuplicates.addItemListener(e -> HistoryStore.getInstance()
+                    .setSkipNearDuplicates(skipDuplicates.getState()));
+            clearRecords.addActionListener(e -> HistoryStore.getInstance().whenLoaded()
+                    .thenRun(() -> Platform.runLater(this::clearRecords)));
+            memory.addActionListener(e -> Platform.runLater(this::showMemoryUsage));
 
             // Add items to popup menu
             popup.add(clearRecords);
             popup.add(paste);
             popup.add(snip);
             popup.add(snipAndCopy);
+            popup.add(snipToText);
+            popup.add(search);
+            popup.add(browse);
+            popup.add(export);
+            popup.add(skipDuplicates);
             popup.add(hideShow);
+            popup.add(memory);
             popup.addSeparator();
             popup.add(help);
             popup.add(preferences);
@@ -185,6 +226,126 @@ public class SystemTrayManager {
         screenshotSelector.startSelection();
     }
 
+    /**
+     * Ask for confirmation, then delete all saved captures in the background
+     */
+    private void clearRecords() {
+        HistoryStore store = HistoryStore.getInstance();
+        int count = store.getEntries().size();
+        Alert confirm = new Alert(Alert.AlertType.CONFIRMATION,
+                String.format("Delete %d saved snips (%.1f MB)? This cannot be undone.",
+                        count, store.getTotalBytes() / (1024.0 * 1024.0)),
+                ButtonType.OK, ButtonType.CANCEL);
+        confirm.setTitle("Clear snip records");
+        confirm.setHeaderText(null);
+        confirm.showAndWait()
+                .filter(button -> button == ButtonType.OK)
+                .ifPresent(button -> store.clear()
+                        .thenAccept(deleted -> System.out.println("Cleared " + deleted + " snip records"))
+                        .exceptionally(ex -> {
+                            System.err.println("Failed to clear snip records: " + ex.getMessage());
+                            return null;
+                        }));
+    }
+
+    /**
+     * Export every pinned sticker to a folder or a ZIP file, showing progress in a dialog
+     */
+    private void exportStickers() {
+        int count = StickerStage.isCreated() ? StickerStage.getInstance().getStickerStageList().size() : 0;
+        if (count == 0) {
+            Alert info = new Alert(Alert.AlertType.INFORMATION, "There are no pinned stickers to export.", ButtonType.OK);
+            info.setTitle("Export all stickers");
+            info.setHeaderText(null);
+            info.show();
+            return;
+        }
+
+        ButtonType folder = new ButtonType("Folder");
+        ButtonType zip = new ButtonType("ZIP file");
+        Alert choice = new Alert(Alert.AlertType.CONFIRMATION,
+                String.format("Export %d stickers as PNG images into a folder or a single ZIP file?", count),
+                folder, zip, ButtonType.CANCEL);
+        choice.setTitle("Export all stickers");
+        choice.setHeaderText(null);
+        Optional<ButtonType> answer = choice.showAndWait();
+        if (answer.isEmpty() || answer.get() == ButtonType.CANCEL) {
+            return;
+        }
+
+        boolean asZip = answer.get() == zip;
+        File picturesDir = new File(System.getProperty("user.home"), "Pictures");
+        File target;
+        if (asZip) {
+            FileChooser fileChooser = new FileChooser();
+            fileChooser.setTitle("Export all stickers");
+            fileChooser.setInitialFileName(String.format("SnapSticker_%1$tY%1$tm%1$td%1$tH%1$tM%1$tS.zip",
+                    System.currentTimeMillis()));
+            fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("ZIP archive", "*.zip"));
+            if (picturesDir.exists()) {
+                fileChooser.setInitialDirectory(picturesDir);
+            }
+            target = fileChooser.showSaveDialog(null);
+        } else {
+            DirectoryChooser directoryChooser = new DirectoryChooser();
+            directoryChooser.setTitle("Export all stickers");
+            if (picturesDir.exists()) {
+                directoryChooser.setInitialDirectory(picturesDir);
+            }
+            target = directoryChooser.showDialog(null);
+        }
+        if (target == null) {
+            return;
+        }
+
+        EncodeService.Job<EncodeService.BatchResult> job = StickerStage.getInstance().exportStickers(target, asZip);
+        ProgressBar progressBar = new ProgressBar(0);
+        progressBar.setPrefWidth(280);
+        Alert progress = new Alert(Alert.AlertType.INFORMATION, String.format("Exporting %d stickers...", count),
+                ButtonType.CLOSE);
+        progress.setTitle("Export all stickers");
+        progress.setHeaderText(null);
+        progress.setGraphic(progressBar);
+        // Closing the dialog before the export is done cancels it
+        progress.setOnHidden(e -> {
+            if (!job.result().isDone()) {
+                job.cancel();
+            }
+        });
+        job.onProgress(value -> Platform.runLater(() -> progressBar.setProgress(value)));
+        job.result().whenComplete((result, ex) -> Platform.runLater(() -> {
+            progressBar.setProgress(1);
+            if (ex != null) {
+                progress.setContentText("Export failed: " + ex.getMessage());
+                return;
+            }
+            StringBuilder text = new StringBuilder(String.format("Exported %d stickers to %s",
+                    result.written(), target.getAbsolutePath()));
+            if (!result.failures().isEmpty()) {
+                text.append(String.format("%n%d failed:", result.failures().size()));
+                result.failures().forEach((name, message) ->
+                        text.append(String.format("%n%s: %s", name, message)));
+            }
+            progress.setContentText(text.toString());
+        }));
+        progress.show();
+    }
+
+    /**
+     * Show how much memory the pinned stickers use in each tier
+     */
+    private void showMemoryUsage() {
+        StickerMemoryManager.Usage usage = StickerMemoryManager.getInstance().getUsage();
+        Alert info = new Alert(Alert.AlertType.INFORMATION, String.format(
+                "Full images:    %d stickers, %.1f MB%nCompressed:    %d stickers, %.1f MB%nSpilled to disk: %d stickers, %.1f MB",
+                usage.fullCount(), usage.fullBytes() / (1024.0 * 1024.0),
+                usage.compressedCount(), usage.compressedBytes() / (1024.0 * 1024.0),
+                usage.spilledCount(), usage.spilledBytes() / (1024.0 * 1024.0)), ButtonType.OK);
+        info.setTitle("Sticker memory");
+        info.setHeaderText(null);
+        info.show();
+    }
+
     /**
      * Clean up system tray resources
      */
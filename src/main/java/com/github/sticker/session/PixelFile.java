@@ -0,0 +1,76 @@
+package com.github.sticker.session;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Raw pixel files backing session stickers.
+ * <p>
+ * A file is a 16-byte header followed by premultiplied BGRA rows, the native
+ * layout of JavaFX images. Writing maps the file and lets the image copy its
+ * pixels straight into the mapping; reading maps it read-only and hands the
+ * mapping to a {@link javafx.scene.image.PixelWriter}, so a sticker comes back
+ * without any decoding.
+ * <p>
+ * Unlike history captures these files are not QOI-encoded: a restore should
+ * cost one copy per sticker rather than a decode, and session files are
+ * deleted when their sticker is closed, so the larger size on disk is only
+ * held while the sticker is pinned.
+ */
+final class PixelFile {
+    private static final int MAGIC = 0x53535058; // "SSPX"
+    private static final int HEADER_SIZE = 16;
+
+    private PixelFile() {
+    }
+
+    /**
+     * Write the pixels of an image and force them to disk
+     */
+    static void write(Path file, Image image) throws IOException {
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        long size = HEADER_SIZE + (long) width * height * 4;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Image too large for the session: " + width + "x" + height);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC).putInt(width).putInt(height).putInt(0);
+            image.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getByteBgraPreInstance(),
+                    buffer.slice(HEADER_SIZE, (int) size - HEADER_SIZE), width * 4);
+            buffer.force();
+        }
+    }
+
+    /**
+     * Map a pixel file into a new image
+     */
+    static WritableImage read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Bad pixel file " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int magic = buffer.getInt();
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            if (magic != MAGIC || width <= 0 || height <= 0 || size < HEADER_SIZE + (long) width * height * 4) {
+                throw new IOException("Bad pixel file " + file);
+            }
+            WritableImage image = new WritableImage(width, height);
+            image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getByteBgraPreInstance(),
+                    buffer.slice(HEADER_SIZE, width * height * 4), width * 4);
+            return image;
+        }
+    }
+}
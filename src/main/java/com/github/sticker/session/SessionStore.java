@@ -0,0 +1,915 @@
+package com.github.sticker.session;
+
+import com.github.sticker.draw.AnnotationCodec;
+import com.github.sticker.feature.StickerStage;
+import com.github.sticker.feature.widget.StickerPane;
+import com.github.sticker.feature.widget.StickerScaleHandler;
+import com.github.sticker.history.HistoryPaths;
+import com.github.sticker.util.AdjustmentStack;
+import com.github.sticker.util.EncodeService;
+import com.github.sticker.util.OCRUtil;
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.geometry.Point2D;
+import javafx.scene.image.Image;
+import javafx.scene.image.WritableImage;
+import javafx.scene.shape.Rectangle;
+import javafx.stage.Screen;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps pinned stickers across restarts and crashes.
+ * <p>
+ * Every change to a sticker is appended to a journal: additions, geometry
+ * (position, size, zoom, rotation, flips and opacity), annotations, OCR
+ * results, image adjustments, replaced images and removals. Each record carries its length and
+ * a CRC32, so a record torn by a crash is cut off on the next start. Rapid
+ * changes such as dragging are coalesced and written a few times a second.
+ * Once the journal outgrows a limit, and on a clean exit, the live state is
+ * written as a snapshot and the journal starts over; the generation number in
+ * both headers tells whether a journal still applies to the snapshot.
+ * <p>
+ * Pixels are kept as raw {@link PixelFile}s, so restoring never decodes an
+ * image, annotations use the {@link AnnotationCodec} encoding, and the stored
+ * OCR results spare restored stickers another recognition pass. Stickers
+ * left on a screen that is no longer connected stay in the session without
+ * being loaded until that screen is back.
+ */
+public final class SessionStore {
+    private static final int JOURNAL_MAGIC = 0x53534A4E;  // "SSJN"
+    private static final int SNAPSHOT_MAGIC = 0x5353534E; // "SSSN"
+    private static final int VERSION = 2;                 // 2 added image adjustments
+    private static final int JOURNAL_HEADER_SIZE = 16;
+
+    private static final byte RECORD_ADD = 1;
+    private static final byte RECORD_GEOMETRY = 2;
+    private static final byte RECORD_ANNOTATIONS = 3;
+    private static final byte RECORD_OCR = 4;
+    private static final byte RECORD_IMAGE = 5;
+    private static final byte RECORD_REMOVE = 6;
+    private static final byte RECORD_ADJUSTMENTS = 7;
+
+    private static final byte ADJUST_INVERT = 1;
+    private static final byte ADJUST_GRAYSCALE = 2;
+    private static final byte ADJUST_BRIGHTNESS_CONTRAST = 3;
+    private static final byte ADJUST_LEVELS = 4;
+    private static final byte ADJUST_GAMMA = 5;
+    private static final byte ADJUST_SHARPEN = 6;
+
+    private static final long FLUSH_DELAY_MS = 250;
+    private static final long COMPACT_BYTES = 1L << 20;
+    private static final int MAX_RECORD_SIZE = 64 << 20;
+    private static final String PIXEL_SUFFIX = ".px";
+
+    private static SessionStore instance;
+
+    private final File journalFile;
+    private final File snapshotFile;
+    private final File pixelDirectory;
+    private final CompletableFuture<List<Sticker>> loaded;
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "session-store");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Stickers on screen; only touched on the JavaFX thread
+    private final Map<StickerPane, Tracked> tracked = new IdentityHashMap<>();
+    private final Queue<Tracked> dirty = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private volatile boolean closing = false;
+
+    // Session state by sticker id; only touched on the worker
+    private final LinkedHashMap<Long, Sticker> stickers = new LinkedHashMap<>();
+    private long generation = 0;
+    private long nextKey = 1;
+    private FileChannel journal;
+    private long journalBytes = 0;
+    private boolean olderFormat = false; // loaded files of an older version, rewritten once loaded
+
+    /**
+     * Where and how a sticker is shown
+     *
+     * @param x      screen x of the sticker
+     * @param y      screen y of the sticker
+     * @param width  frame width
+     * @param height frame height
+     * @param scale  zoom level of the scale handler
+     * @param rotate rotation in degrees
+     */
+    private record Geometry(double x, double y, double width, double height, double scale, double rotate,
+                            boolean flipX, boolean flipY, double opacity) {
+        void write(DataOutputStream out) throws IOException {
+            out.writeDouble(x);
+            out.writeDouble(y);
+            out.writeDouble(width);
+            out.writeDouble(height);
+            out.writeDouble(scale);
+            out.writeDouble(rotate);
+            out.writeByte((flipX ? 1 : 0) | (flipY ? 2 : 0));
+            out.writeDouble(opacity);
+        }
+
+        static Geometry read(DataInputStream in) throws IOException {
+            double x = in.readDouble();
+            double y = in.readDouble();
+            double width = in.readDouble();
+            double height = in.readDouble();
+            double scale = in.readDouble();
+            double rotate = in.readDouble();
+            int flips = in.readByte();
+            double opacity = in.readDouble();
+            return new Geometry(x, y, width, height, scale, rotate, (flips & 1) != 0, (flips & 2) != 0, opacity);
+        }
+    }
+
+    /**
+     * A sticker of the session
+     *
+     * @param pixelKey    name of its pixel file
+     * @param ocrResults  recognised lines, null when recognition had not finished
+     * @param annotations {@link AnnotationCodec} encoding of its drawings
+     * @param adjustments colour adjustments shown on top of the pixels
+     */
+    private record Sticker(long id, long pixelKey, int imageWidth, int imageHeight, Geometry geometry,
+                           List<OCRUtil.OCRResult> ocrResults, byte[] annotations, AdjustmentStack adjustments) {
+        Sticker withGeometry(Geometry geometry) {
+            return new Sticker(id, pixelKey, imageWidth, imageHeight, geometry, ocrResults, annotations, adjustments);
+        }
+
+        Sticker withAnnotations(byte[] annotations) {
+            return new Sticker(id, pixelKey, imageWidth, imageHeight, geometry, ocrResults, annotations, adjustments);
+        }
+
+        Sticker withOcrResults(List<OCRUtil.OCRResult> ocrResults) {
+            return new Sticker(id, pixelKey, imageWidth, imageHeight, geometry, ocrResults, annotations, adjustments);
+        }
+
+        Sticker withImage(long pixelKey, int imageWidth, int imageHeight) {
+            return new Sticker(id, pixelKey, imageWidth, imageHeight, geometry, ocrResults, annotations, adjustments);
+        }
+
+        Sticker withAdjustments(AdjustmentStack adjustments) {
+            return new Sticker(id, pixelKey, imageWidth, imageHeight, geometry, ocrResults, annotations, adjustments);
+        }
+    }
+
+    /**
+     * Changes of one sticker waiting for the next flush
+     */
+    private static final class Tracked {
+        volatile long id = -1;      // assigned on the worker once the sticker is saved
+        volatile boolean removed = false;
+        final AtomicBoolean queued = new AtomicBoolean();
+        final AtomicReference<Geometry> geometry = new AtomicReference<>();
+        final AtomicReference<byte[]> annotations = new AtomicReference<>();
+        final AtomicReference<List<OCRUtil.OCRResult>> ocrResults = new AtomicReference<>();
+        final AtomicReference<AdjustmentStack> adjustments = new AtomicReference<>();
+    }
+
+    public static synchronized SessionStore getInstance() {
+        if (instance == null) {
+            instance = new SessionStore(HistoryPaths.getSessionDirectory());
+        }
+        return instance;
+    }
+
+    private SessionStore(File directory) {
+        this.journalFile = new File(directory, "session.journal");
+        this.snapshotFile = new File(directory, "session.snapshot");
+        this.pixelDirectory = new File(directory, "pixels");
+        pixelDirectory.mkdirs();
+        loaded = CompletableFuture.supplyAsync(this::load, worker);
+    }
+
+    /**
+     * Put the stickers of the last session back on screen
+     *
+     * @param stickerStage stage to pin them to
+     */
+    public void restore(StickerStage stickerStage) {
+        loaded.thenAccept(saved -> Platform.runLater(() -> {
+            for (Sticker sticker : saved) {
+                if (closing) {
+                    return;
+                }
+                Geometry geometry = sticker.geometry();
+                if (Screen.getScreensForRectangle(geometry.x(), geometry.y(),
+                        Math.max(1, geometry.width()), Math.max(1, geometry.height())).isEmpty()) {
+                    continue;
+                }
+                try {
+                    restore(stickerStage, sticker);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Failed to restore sticker " + sticker.id() + ": " + e.getMessage());
+                }
+            }
+        }));
+    }
+
+    private void restore(StickerStage stickerStage, Sticker sticker) throws IOException {
+        WritableImage image = PixelFile.read(pixelPath(sticker.pixelKey()));
+        StickerPane stickerPane = new StickerPane(image, sticker.ocrResults());
+        Geometry geometry = sticker.geometry();
+        stickerPane.setSize(geometry.width(), geometry.height());
+        Point2D local = stickerStage.getRoot().screenToLocal(geometry.x(), geometry.y());
+        stickerPane.setPosition(local != null ? local.getX() : geometry.x(), local != null ? local.getY() : geometry.y());
+
+        Rectangle frame = stickerPane.getFrame();
+        frame.setRotate(geometry.rotate());
+        stickerPane.setFlipped(geometry.flipX(), geometry.flipY());
+        frame.setOpacity(geometry.opacity());
+        if (frame.getProperties().get("scaleHandler") instanceof StickerScaleHandler scaleHandler) {
+            scaleHandler.restoreScale(geometry.scale());
+        }
+        stickerPane.getDrawCanvas().restore(AnnotationCodec.decode(sticker.annotations()));
+        stickerPane.setAdjustments(sticker.adjustments());
+
+        // Registered first so adding it to the stage does not save it a second time
+        Tracked state = new Tracked();
+        state.id = sticker.id();
+        tracked.put(stickerPane, state);
+        stickerStage.addSticker(stickerPane);
+        stickerPane.setToolbar(stickerStage.getRoot());
+        listen(stickerPane, state);
+    }
+
+    /**
+     * Start saving a sticker that was just added to the sticker stage
+     */
+    public void track(StickerPane stickerPane) {
+        if (closing || tracked.containsKey(stickerPane)) {
+            return;
+        }
+        Image image = stickerPane.getImage();
+        Tracked state = new Tracked();
+        tracked.put(stickerPane, state);
+        Geometry geometry = geometryOf(stickerPane);
+        byte[] annotations = stickerPane.getDrawCanvas().encodeAnnotations();
+        List<OCRUtil.OCRResult> ocrResults = stickerPane.getOcrResultsAsync().isDone()
+                ? stickerPane.getOcrResults() : null;
+        AdjustmentStack adjustments = stickerPane.getAdjustments();
+        worker.execute(() -> add(state, image, geometry, annotations, ocrResults, adjustments));
+        listen(stickerPane, state);
+    }
+
+    /**
+     * Drop a sticker the user closed from the session
+     */
+    public void forget(StickerPane stickerPane) {
+        Tracked state = tracked.remove(stickerPane);
+        if (state == null || closing) {
+            return;
+        }
+        state.removed = true;
+        worker.execute(() -> remove(state));
+    }
+
+    private void listen(StickerPane stickerPane, Tracked state) {
+        Rectangle frame = stickerPane.getFrame();
+        InvalidationListener geometryChanged = obs -> {
+            if (!state.removed && !closing) {
+                state.geometry.set(geometryOf(stickerPane));
+                queue(state);
+            }
+        };
+        stickerPane.layoutXProperty().addListener(geometryChanged);
+        stickerPane.layoutYProperty().addListener(geometryChanged);
+        frame.widthProperty().addListener(geometryChanged);
+        frame.heightProperty().addListener(geometryChanged);
+        frame.rotateProperty().addListener(geometryChanged);
+        stickerPane.flipXProperty().addListener(geometryChanged);
+        stickerPane.flipYProperty().addListener(geometryChanged);
+        frame.opacityProperty().addListener(geometryChanged);
+
+        stickerPane.getDrawCanvas().revisionProperty().addListener(obs -> {
+            if (!state.removed && !closing) {
+                state.annotations.set(stickerPane.getDrawCanvas().encodeAnnotations());
+                queue(state);
+            }
+        });
+        stickerPane.ocrResultsProperty().addListener((obs, oldResults, results) -> {
+            if (!state.removed && !closing) {
+                state.ocrResults.set(results);
+                queue(state);
+            }
+        });
+        stickerPane.adjustmentsProperty().addListener((obs, oldStack, stack) -> {
+            if (!state.removed && !closing) {
+                state.adjustments.set(stack);
+                queue(state);
+            }
+        });
+        stickerPane.imageRevisionProperty().addListener(obs -> {
+            if (!state.removed && !closing) {
+                Image image = stickerPane.getImage();
+                worker.execute(() -> replaceImage(state, image));
+            }
+        });
+    }
+
+    private static Geometry geometryOf(StickerPane stickerPane) {
+        Rectangle frame = stickerPane.getFrame();
+        double x = stickerPane.getLayoutX();
+        double y = stickerPane.getLayoutY();
+        Point2D screen = stickerPane.getParent() != null ? stickerPane.getParent().localToScreen(x, y) : null;
+        double scale = frame.getProperties().get("scaleHandler") instanceof StickerScaleHandler scaleHandler
+                ? scaleHandler.getCurrentScale() : 1.0;
+        return new Geometry(screen != null ? screen.getX() : x, screen != null ? screen.getY() : y,
+                frame.getWidth(), frame.getHeight(), scale, frame.getRotate(),
+                stickerPane.isFlippedX(), stickerPane.isFlippedY(), frame.getOpacity());
+    }
+
+    private void queue(Tracked state) {
+        if (state.queued.compareAndSet(false, true)) {
+            dirty.add(state);
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            worker.schedule(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // ---------------------------------------------------------------- worker
+
+    private void add(Tracked state, Image image, Geometry geometry, byte[] annotations,
+                     List<OCRUtil.OCRResult> ocrResults, AdjustmentStack adjustments) {
+        if (journal == null || state.removed) {
+            return;
+        }
+        long id = nextKey++;
+        Sticker sticker = new Sticker(id, id, (int) image.getWidth(), (int) image.getHeight(),
+                geometry, ocrResults, annotations, adjustments);
+        try {
+            // The pixels must be on disk before a record refers to them
+            PixelFile.write(pixelPath(id), image);
+            append(RECORD_ADD, out -> writeSticker(out, sticker));
+            journal.force(false);
+            stickers.put(id, sticker);
+            state.id = id;
+            compactIfNeeded();
+        } catch (IOException e) {
+            System.err.println("Failed to save sticker: " + e.getMessage());
+        }
+    }
+
+    private void replaceImage(Tracked state, Image image) {
+        Sticker sticker = journal != null && !state.removed ? stickers.get(state.id) : null;
+        if (sticker == null) {
+            return;
+        }
+        long pixelKey = nextKey++;
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        try {
+            PixelFile.write(pixelPath(pixelKey), image);
+            append(RECORD_IMAGE, out -> {
+                out.writeLong(sticker.id());
+                out.writeLong(pixelKey);
+                out.writeInt(width);
+                out.writeInt(height);
+            });
+            journal.force(false);
+            stickers.put(sticker.id(), sticker.withImage(pixelKey, width, height));
+            deletePixels(sticker.pixelKey());
+            compactIfNeeded();
+        } catch (IOException e) {
+            System.err.println("Failed to save sticker image: " + e.getMessage());
+        }
+    }
+
+    private void remove(Tracked state) {
+        Sticker sticker = journal != null ? stickers.get(state.id) : null;
+        if (sticker == null) {
+            return;
+        }
+        try {
+            append(RECORD_REMOVE, out -> out.writeLong(sticker.id()));
+            journal.force(false);
+            stickers.remove(sticker.id());
+            deletePixels(sticker.pixelKey());
+            compactIfNeeded();
+        } catch (IOException e) {
+            System.err.println("Failed to remove sticker from the session: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write the coalesced changes of all stickers with one sync
+     */
+    private void flush() {
+        flushScheduled.set(false);
+        if (journal == null) {
+            return;
+        }
+        boolean written = false;
+        try {
+            Tracked state;
+            while ((state = dirty.poll()) != null) {
+                state.queued.set(false);
+                Geometry geometry = state.geometry.getAndSet(null);
+                byte[] annotations = state.annotations.getAndSet(null);
+                List<OCRUtil.OCRResult> ocrResults = state.ocrResults.getAndSet(null);
+                AdjustmentStack adjustments = state.adjustments.getAndSet(null);
+                Sticker sticker = state.removed ? null : stickers.get(state.id);
+                if (sticker == null) {
+                    continue;
+                }
+                long id = sticker.id();
+                if (geometry != null) {
+                    append(RECORD_GEOMETRY, out -> {
+                        out.writeLong(id);
+                        geometry.write(out);
+                    });
+                    sticker = sticker.withGeometry(geometry);
+                }
+                if (annotations != null) {
+                    append(RECORD_ANNOTATIONS, out -> {
+                        out.writeLong(id);
+                        writeBytes(out, annotations);
+                    });
+                    sticker = sticker.withAnnotations(annotations);
+                }
+                if (ocrResults != null) {
+                    append(RECORD_OCR, out -> {
+                        out.writeLong(id);
+                        writeOcrResults(out, ocrResults);
+                    });
+                    sticker = sticker.withOcrResults(ocrResults);
+                }
+                if (adjustments != null) {
+                    append(RECORD_ADJUSTMENTS, out -> {
+                        out.writeLong(id);
+                        writeAdjustments(out, adjustments);
+                    });
+                    sticker = sticker.withAdjustments(adjustments);
+                }
+                stickers.put(id, sticker);
+                written = true;
+            }
+            if (written) {
+                journal.force(false);
+                compactIfNeeded();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to save sticker session: " + e.getMessage());
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Append one framed record: length, type and body, then a CRC32 of type and body
+     */
+    private void append(byte type, RecordWriter body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeByte(type);
+        body.write(out);
+        out.writeInt(0);
+        out.flush();
+        byte[] record = bytes.toByteArray();
+        int length = record.length - 8;
+        CRC32 crc = new CRC32();
+        crc.update(record, 4, length);
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        buffer.putInt(0, length);
+        buffer.putInt(record.length - 4, (int) crc.getValue());
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+        journalBytes += record.length;
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (journalBytes > COMPACT_BYTES) {
+            compact();
+        }
+    }
+
+    /**
+     * Write the live state as a snapshot of the next generation and start an empty journal
+     */
+    private void compact() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(generation + 1);
+        out.writeLong(nextKey);
+        out.writeInt(stickers.size());
+        for (Sticker sticker : stickers.values()) {
+            writeSticker(out, sticker);
+        }
+        out.flush();
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        out.flush();
+        writeAtomically(snapshotFile, bytes.toByteArray());
+        // From here on the old journal no longer matches the snapshot and is ignored
+        generation++;
+        resetJournal();
+    }
+
+    private void resetJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+        header.putInt(JOURNAL_MAGIC).putInt(VERSION).putLong(generation);
+        writeAtomically(journalFile, header.array());
+        openJournal(JOURNAL_HEADER_SIZE);
+    }
+
+    private void openJournal(long length) throws IOException {
+        journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE);
+        if (journal.size() > length) {
+            journal.truncate(length);
+        }
+        journal.position(length);
+        journalBytes = length;
+    }
+
+    private static void writeAtomically(File file, byte[] data) throws IOException {
+        Path target = file.toPath();
+        Path temp = target.resolveSibling("." + target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        EncodeService.moveAtomically(temp, target);
+    }
+
+    private Path pixelPath(long pixelKey) {
+        return new File(pixelDirectory, pixelKey + PIXEL_SUFFIX).toPath();
+    }
+
+    private void deletePixels(long pixelKey) {
+        try {
+            Files.deleteIfExists(pixelPath(pixelKey));
+        } catch (IOException e) {
+            // Still mapped by a restored image on some platforms; swept on the next start
+        }
+    }
+
+    // ---------------------------------------------------------------- loading
+
+    /**
+     * Read the snapshot, replay the journal behind it and sweep unused pixel files
+     */
+    private List<Sticker> load() {
+        try {
+            readSnapshot();
+        } catch (IOException e) {
+            System.err.println("Ignoring damaged sticker snapshot: " + e.getMessage());
+            stickers.clear();
+        }
+        try {
+            long valid = replayJournal();
+            if (valid < 0) {
+                resetJournal();
+            } else {
+                openJournal(valid);
+            }
+            if (olderFormat) {
+                // Records of the current version must not be appended to an older journal
+                compact();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to open sticker journal: " + e.getMessage());
+        }
+
+        stickers.values().removeIf(sticker -> !Files.exists(pixelPath(sticker.pixelKey())));
+        sweepPixels();
+        return List.copyOf(stickers.values());
+    }
+
+    private void readSnapshot() throws IOException {
+        if (!snapshotFile.exists()) {
+            return;
+        }
+        byte[] data = Files.readAllBytes(snapshotFile.toPath());
+        if (data.length < 4) {
+            throw new IOException("truncated");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        if ((int) crc.getValue() != ByteBuffer.wrap(data).getInt(data.length - 4)) {
+            throw new IOException("checksum mismatch");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 4));
+        int version = in.readInt() == SNAPSHOT_MAGIC ? in.readInt() : -1;
+        if (version < 1 || version > VERSION) {
+            throw new IOException("unknown format");
+        }
+        olderFormat |= version < VERSION;
+        generation = in.readLong();
+        nextKey = in.readLong();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Sticker sticker = readSticker(in, version);
+            stickers.put(sticker.id(), sticker);
+        }
+    }
+
+    /**
+     * Apply the journal records of the current generation
+     *
+     * @return length of the valid part of the journal, or -1 when it must be started over
+     */
+    private long replayJournal() throws IOException {
+        if (!journalFile.exists()) {
+            return -1;
+        }
+        byte[] data = Files.readAllBytes(journalFile.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int version = data.length >= JOURNAL_HEADER_SIZE && buffer.getInt() == JOURNAL_MAGIC ? buffer.getInt() : -1;
+        if (version < 1 || version > VERSION || buffer.getLong() != generation) {
+            // Unknown, or written before the snapshot, which already contains it
+            return -1;
+        }
+        olderFormat |= version < VERSION;
+        long valid = JOURNAL_HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= 8) {
+            int length = buffer.getInt();
+            if (length <= 0 || length > MAX_RECORD_SIZE || buffer.remaining() < length + 4) {
+                break;
+            }
+            crc.reset();
+            crc.update(data, buffer.position(), length);
+            if ((int) crc.getValue() != buffer.getInt(buffer.position() + length)) {
+                break;
+            }
+            try {
+                applyRecord(new DataInputStream(new ByteArrayInputStream(data, buffer.position(), length)), version);
+            } catch (EOFException e) {
+                break;
+            }
+            buffer.position(buffer.position() + length + 4);
+            valid = buffer.position();
+        }
+        if (valid < data.length) {
+            System.err.println("Dropped " + (data.length - valid) + " torn bytes from the sticker journal");
+        }
+        return valid;
+    }
+
+    private void applyRecord(DataInputStream in, int version) throws IOException {
+        byte type = in.readByte();
+        if (type == RECORD_ADD) {
+            Sticker sticker = readSticker(in, version);
+            stickers.put(sticker.id(), sticker);
+            return;
+        }
+        long id = in.readLong();
+        Sticker sticker = stickers.get(id);
+        switch (type) {
+            case RECORD_GEOMETRY -> {
+                Geometry geometry = Geometry.read(in);
+                if (sticker != null) {
+                    stickers.put(id, sticker.withGeometry(geometry));
+                }
+            }
+            case RECORD_ANNOTATIONS -> {
+                byte[] annotations = readBytes(in);
+                if (sticker != null) {
+                    stickers.put(id, sticker.withAnnotations(annotations));
+                }
+            }
+            case RECORD_OCR -> {
+                List<OCRUtil.OCRResult> ocrResults = readOcrResults(in);
+                if (sticker != null) {
+                    stickers.put(id, sticker.withOcrResults(ocrResults));
+                }
+            }
+            case RECORD_IMAGE -> {
+                long pixelKey = in.readLong();
+                int width = in.readInt();
+                int height = in.readInt();
+                nextKey = Math.max(nextKey, pixelKey + 1);
+                if (sticker != null) {
+                    stickers.put(id, sticker.withImage(pixelKey, width, height));
+                }
+            }
+            case RECORD_ADJUSTMENTS -> {
+                AdjustmentStack adjustments = readAdjustments(in);
+                if (sticker != null) {
+                    stickers.put(id, sticker.withAdjustments(adjustments));
+                }
+            }
+            case RECORD_REMOVE -> stickers.remove(id);
+            default -> throw new EOFException("Unknown record type " + type);
+        }
+    }
+
+    /**
+     * Delete pixel files no sticker refers to, left behind by a crash or a failed delete
+     */
+    private void sweepPixels() {
+        Set<String> used = new HashSet<>();
+        for (Sticker sticker : stickers.values()) {
+            used.add(sticker.pixelKey() + PIXEL_SUFFIX);
+        }
+        try (Stream<Path> files = Files.list(pixelDirectory.toPath())) {
+            for (Path file : files.toList()) {
+                if (!used.contains(file.getFileName().toString())) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to sweep sticker pixels: " + e.getMessage());
+        }
+    }
+
+    // ---------------------------------------------------------------- encoding
+
+    private void writeSticker(DataOutputStream out, Sticker sticker) throws IOException {
+        out.writeLong(sticker.id());
+        out.writeLong(sticker.pixelKey());
+        out.writeInt(sticker.imageWidth());
+        out.writeInt(sticker.imageHeight());
+        sticker.geometry().write(out);
+        writeBytes(out, sticker.annotations());
+        writeOcrResults(out, sticker.ocrResults());
+        writeAdjustments(out, sticker.adjustments());
+    }
+
+    private Sticker readSticker(DataInputStream in, int version) throws IOException {
+        long id = in.readLong();
+        long pixelKey = in.readLong();
+        int imageWidth = in.readInt();
+        int imageHeight = in.readInt();
+        Geometry geometry = Geometry.read(in);
+        byte[] annotations = readBytes(in);
+        List<OCRUtil.OCRResult> ocrResults = readOcrResults(in);
+        AdjustmentStack adjustments = version >= 2 ? readAdjustments(in) : AdjustmentStack.EMPTY;
+        nextKey = Math.max(nextKey, Math.max(id, pixelKey) + 1);
+        return new Sticker(id, pixelKey, imageWidth, imageHeight, geometry, ocrResults, annotations, adjustments);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_RECORD_SIZE) {
+            throw new EOFException("Bad length " + length);
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return data;
+    }
+
+    /**
+     * Lines with their words; null is written as -1 so restored stickers know to run OCR
+     */
+    private static void writeOcrResults(DataOutputStream out, List<OCRUtil.OCRResult> results) throws IOException {
+        if (results == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(results.size());
+        for (OCRUtil.OCRResult result : results) {
+            out.writeUTF(result.getText());
+            out.writeDouble(result.getX());
+            out.writeDouble(result.getY());
+            out.writeDouble(result.getWidth());
+            out.writeDouble(result.getHeight());
+            out.writeFloat(result.getConfidence());
+            writeOcrResults(out, result.getWords());
+        }
+    }
+
+    private static List<OCRUtil.OCRResult> readOcrResults(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            return null;
+        }
+        List<OCRUtil.OCRResult> results = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            String text = in.readUTF();
+            double x = in.readDouble();
+            double y = in.readDouble();
+            double width = in.readDouble();
+            double height = in.readDouble();
+            float confidence = in.readFloat();
+            List<OCRUtil.OCRResult> words = readOcrResults(in);
+            results.add(new OCRUtil.OCRResult(text, x, y, width, height, confidence,
+                    words != null ? words : List.of()));
+        }
+        return results;
+    }
+
+    /**
+     * Adjustments in stack order, each as a type byte followed by its parameters
+     */
+    private static void writeAdjustments(DataOutputStream out, AdjustmentStack stack) throws IOException {
+        out.writeByte(stack.adjustments().size());
+        for (AdjustmentStack.Adjustment adjustment : stack.adjustments()) {
+            if (adjustment instanceof AdjustmentStack.Invert) {
+                out.writeByte(ADJUST_INVERT);
+            } else if (adjustment instanceof AdjustmentStack.Grayscale) {
+                out.writeByte(ADJUST_GRAYSCALE);
+            } else if (adjustment instanceof AdjustmentStack.BrightnessContrast bc) {
+                out.writeByte(ADJUST_BRIGHTNESS_CONTRAST);
+                out.writeDouble(bc.brightness());
+                out.writeDouble(bc.contrast());
+            } else if (adjustment instanceof AdjustmentStack.Levels levels) {
+                out.writeByte(ADJUST_LEVELS);
+                out.writeByte(levels.black());
+                out.writeByte(levels.white());
+            } else if (adjustment instanceof AdjustmentStack.Gamma gamma) {
+                out.writeByte(ADJUST_GAMMA);
+                out.writeDouble(gamma.gamma());
+            } else if (adjustment instanceof AdjustmentStack.Sharpen sharpen) {
+                out.writeByte(ADJUST_SHARPEN);
+                out.writeDouble(sharpen.amount());
+            }
+        }
+    }
+
+    private static AdjustmentStack readAdjustments(DataInputStream in) throws IOException {
+        int count = in.readUnsignedByte();
+        List<AdjustmentStack.Adjustment> adjustments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte type = in.readByte();
+            adjustments.add(switch (type) {
+                case ADJUST_INVERT -> new AdjustmentStack.Invert();
+                case ADJUST_GRAYSCALE -> new AdjustmentStack.Grayscale();
+                case ADJUST_BRIGHTNESS_CONTRAST -> new AdjustmentStack.BrightnessContrast(in.readDouble(), in.readDouble());
+                case ADJUST_LEVELS -> new AdjustmentStack.Levels(in.readUnsignedByte(), in.readUnsignedByte());
+                case ADJUST_GAMMA -> new AdjustmentStack.Gamma(in.readDouble());
+                case ADJUST_SHARPEN -> new AdjustmentStack.Sharpen(in.readDouble());
+                default -> throw new EOFException("Unknown adjustment type " + type);
+            });
+        }
+        return new AdjustmentStack(adjustments);
+    }
+
+    /**
+     * Write pending changes and a final snapshot, then stop the session thread
+     */
+    public void close() {
+        closing = true;
+        worker.execute(() -> {
+            flush();
+            if (journal == null) {
+                return;
+            }
+            try {
+                compact();
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("Failed to write sticker snapshot: " + e.getMessage());
+            }
+            journal = null;
+        });
+        worker.shutdown();
+        try {
+            worker.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
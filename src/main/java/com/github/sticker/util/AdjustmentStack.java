@@ -0,0 +1,135 @@
+package com.github.sticker.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Ordered, immutable list of colour adjustments applied to a sticker.
+ * <p>
+ * The stack never touches the original pixels: it is applied to a copy when
+ * the sticker is displayed or exported. Stacks are values, so two stacks with
+ * the same adjustments are equal and can key a cache of adjusted pixels.
+ * Each adjustment type appears at most once.
+ *
+ * @param adjustments adjustments in the order they are applied
+ */
+public record AdjustmentStack(List<Adjustment> adjustments) {
+    public static final AdjustmentStack EMPTY = new AdjustmentStack(List.of());
+
+    public AdjustmentStack {
+        adjustments = List.copyOf(adjustments);
+    }
+
+    /**
+     * One step of the stack
+     */
+    public sealed interface Adjustment permits Invert, Grayscale, BrightnessContrast, Levels, Gamma, Sharpen {
+    }
+
+    /**
+     * Invert the colour channels
+     */
+    public record Invert() implements Adjustment {
+    }
+
+    /**
+     * Replace colours by their luma
+     */
+    public record Grayscale() implements Adjustment {
+    }
+
+    /**
+     * Shift and stretch the channels around mid grey
+     *
+     * @param brightness offset between -1 and 1, as a fraction of the full range
+     * @param contrast   between -1 (flat grey) and 1 (hard threshold), 0 leaves the image unchanged
+     */
+    public record BrightnessContrast(double brightness, double contrast) implements Adjustment {
+        public BrightnessContrast {
+            brightness = Math.max(-1, Math.min(1, brightness));
+            contrast = Math.max(-1, Math.min(1, contrast));
+        }
+    }
+
+    /**
+     * Map the input range [black, white] onto the full range
+     */
+    public record Levels(int black, int white) implements Adjustment {
+        public Levels {
+            black = Math.max(0, Math.min(254, black));
+            white = Math.max(black + 1, Math.min(255, white));
+        }
+    }
+
+    /**
+     * Gamma correction, values above 1 brighten the midtones
+     */
+    public record Gamma(double gamma) implements Adjustment {
+        public Gamma {
+            gamma = Math.max(0.1, Math.min(10, gamma));
+        }
+    }
+
+    /**
+     * Unsharp mask with a 3x3 blur
+     *
+     * @param amount how much of the detail to add back, 1 doubles it
+     */
+    public record Sharpen(double amount) implements Adjustment {
+        public Sharpen {
+            amount = Math.max(0, Math.min(4, amount));
+        }
+    }
+
+    public boolean isEmpty() {
+        return adjustments.isEmpty();
+    }
+
+    /**
+     * The adjustment of the given type, if present
+     */
+    public <T extends Adjustment> Optional<T> find(Class<T> type) {
+        return adjustments.stream().filter(type::isInstance).map(type::cast).findFirst();
+    }
+
+    public boolean contains(Class<? extends Adjustment> type) {
+        return find(type).isPresent();
+    }
+
+    /**
+     * Replace the adjustment of the same type in place, or append it
+     */
+    public AdjustmentStack with(Adjustment adjustment) {
+        List<Adjustment> result = new ArrayList<>(adjustments);
+        for (int i = 0; i < result.size(); i++) {
+            if (result.get(i).getClass() == adjustment.getClass()) {
+                result.set(i, adjustment);
+                return new AdjustmentStack(result);
+            }
+        }
+        result.add(adjustment);
+        return new AdjustmentStack(result);
+    }
+
+    /**
+     * Remove the adjustment of the given type
+     */
+    public AdjustmentStack without(Class<? extends Adjustment> type) {
+        return new AdjustmentStack(adjustments.stream().filter(a -> !type.isInstance(a)).toList());
+    }
+
+    /**
+     * Add the adjustment if its type is absent, remove it otherwise
+     */
+    public AdjustmentStack toggle(Adjustment adjustment) {
+        return contains(adjustment.getClass()) ? without(adjustment.getClass()) : with(adjustment);
+    }
+
+    /**
+     * Apply the stack to non-premultiplied ARGB pixels in place
+     */
+    public void apply(int[] argb, int width, int height) {
+        ImageAdjustments.apply(this, argb, width, height);
+    }
+}
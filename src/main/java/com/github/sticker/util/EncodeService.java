@@ -0,0 +1,592 @@
+package com.github.sticker.util;
+
+import javafx.application.Platform;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.DoubleConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Encodes images to files off the FX thread.
+ * <p>
+ * Jobs run on a small dedicated pool. At most {@link #MAX_PENDING} jobs may be
+ * queued or running: background producers block until a slot frees up, while
+ * the FX thread is never blocked and gets a rejected job instead. Files are
+ * written to a temporary sibling through a {@link FileChannel}, forced to disk
+ * and atomically renamed, so a crash or cancellation never leaves a partial
+ * image under the target name.
+ */
+public final class EncodeService {
+    private static final int MAX_PENDING = 8;
+    private static EncodeService instance;
+
+    private final ExecutorService workers;
+    private final Semaphore slots = new Semaphore(MAX_PENDING);
+
+    /**
+     * A running encode with progress and cancellation
+     *
+     * @param <T> result type
+     */
+    public static final class Job<T> {
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final List<DoubleConsumer> progressListeners = new CopyOnWriteArrayList<>();
+        private volatile double progress = 0;
+        private volatile boolean cancelled = false;
+        private volatile ImageWriter writer;
+
+        /**
+         * Future completing with the job result, or exceptionally on failure or cancellation
+         */
+        public CompletableFuture<T> result() {
+            return result;
+        }
+
+        /**
+         * Progress between 0 and 1
+         */
+        public double getProgress() {
+            return progress;
+        }
+
+        /**
+         * Register a progress listener, called on the encoder thread
+         */
+        public Job<T> onProgress(DoubleConsumer listener) {
+            progressListeners.add(listener);
+            return this;
+        }
+
+        /**
+         * Cancel the job; an encode in progress is aborted and its temporary file removed
+         */
+        public void cancel() {
+            cancelled = true;
+            ImageWriter current = writer;
+            if (current != null) {
+                current.abort();
+            }
+            result.completeExceptionally(new CancellationException("Encode cancelled"));
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        void setProgress(double value) {
+            progress = value;
+            for (DoubleConsumer listener : progressListeners) {
+                listener.accept(value);
+            }
+        }
+    }
+
+    public static synchronized EncodeService getInstance() {
+        if (instance == null) {
+            instance = new EncodeService();
+        }
+        return instance;
+    }
+
+    private EncodeService() {
+        int threads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() / 2));
+        workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "encode-worker-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Encode a JavaFX image to a file
+     *
+     * @param image  image to encode; must not be modified until the job completes
+     * @param target destination file
+     * @param format ImageIO format name, e.g. "png"
+     */
+    public Job<File> write(Image image, File target, String format) {
+        return submit(job -> writeFile(job, SwingFXUtils.fromFXImage(image, null), target, format));
+    }
+
+    /**
+     * Encode an AWT image to a file
+     */
+    public Job<File> write(BufferedImage image, File target, String format) {
+        return submit(job -> writeFile(job, image, target, format));
+    }
+
+    /**
+     * Encode a JavaFX image to a PNG file with the parallel encoder
+     *
+     * @param level compression effort, {@link PngEncoder.Level#SMALL} for export
+     */
+    public Job<File> writePng(Image image, File target, PngEncoder.Level level) {
+        return writePng(image, target, level, PngEncoder.Palette.OFF);
+    }
+
+    /**
+     * Encode a JavaFX image to a PNG file, indexed when the palette mode allows it
+     */
+    public Job<File> writePng(Image image, File target, PngEncoder.Level level, PngEncoder.Palette palette) {
+        return submit(job -> writePngFile(job, SwingFXUtils.fromFXImage(image, null), target, level, palette));
+    }
+
+    /**
+     * Encode an AWT image to a PNG file with the parallel encoder
+     */
+    public Job<File> writePng(BufferedImage image, File target, PngEncoder.Level level) {
+        return writePng(image, target, level, PngEncoder.Palette.OFF);
+    }
+
+    /**
+     * Encode an AWT image to a PNG file, indexed when the palette mode allows it
+     */
+    public Job<File> writePng(BufferedImage image, File target, PngEncoder.Level level, PngEncoder.Palette palette) {
+        return submit(job -> writePngFile(job, image, target, level, palette));
+    }
+
+    /**
+     * Run an arbitrary encode task on the encoder pool with the same back-pressure
+     *
+     * @param task task receiving its job for progress reporting and cancellation checks
+     */
+    public <T> Job<T> submit(EncodeTask<T> task) {
+        Job<T> job = new Job<>();
+        if (!acquireSlot()) {
+            job.result.completeExceptionally(new RejectedExecutionException("Too many pending encodes"));
+            return job;
+        }
+        try {
+            workers.execute(() -> {
+                try {
+                    if (!job.isCancelled()) {
+                        T value = task.run(job);
+                        job.setProgress(1);
+                        job.result.complete(value);
+                    }
+                } catch (Throwable e) {
+                    job.result.completeExceptionally(e);
+                } finally {
+                    slots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            slots.release();
+            job.result.completeExceptionally(e);
+        }
+        return job;
+    }
+
+    /**
+     * Work executed by the encoder pool
+     */
+    @FunctionalInterface
+    public interface EncodeTask<T> {
+        T run(Job<T> job) throws Exception;
+    }
+
+    private boolean acquireSlot() {
+        if (Platform.isFxApplicationThread()) {
+            // Never stall the UI, reject instead
+            return slots.tryAcquire();
+        }
+        try {
+            slots.acquire();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Store a JavaFX image as QOI, the internal lossless format
+     */
+    public Job<File> writeQoi(Image image, File target) {
+        return submit(job -> writeAtomically(job, target,
+                out -> QoiCodec.write(SwingFXUtils.fromFXImage(image, null), out)));
+    }
+
+    /**
+     * Store an AWT image as QOI, the internal lossless format
+     */
+    public Job<File> writeQoi(BufferedImage image, File target) {
+        return submit(job -> writeAtomically(job, target, out -> QoiCodec.write(image, out)));
+    }
+
+    /**
+     * One image of a batch export
+     *
+     * @param name   file or ZIP entry name, unique within the batch
+     * @param bytes  estimated peak memory of rendering and encoding the image
+     * @param pixels renders the image, called on a batch worker
+     */
+    public record BatchItem(String name, long bytes, Callable<BufferedImage> pixels) {
+    }
+
+    /**
+     * Outcome of a batch export
+     *
+     * @param written  number of images written
+     * @param failures error message of each image that could not be written, by name
+     */
+    public record BatchResult(int written, Map<String, String> failures) {
+    }
+
+    /**
+     * Render and encode many images to PNG, into a folder or a single ZIP file.
+     * <p>
+     * Images are rendered and encoded on a pool with one worker per core. Before
+     * rendering, each image reserves its estimated memory from a budget of half
+     * the free heap, so large images run fewer at a time instead of running the
+     * heap out. The batch does not take the regular encoder slots. A failing
+     * image is recorded in the result and the others are still written. In a
+     * folder, names that already exist get a numbered suffix rather than being
+     * overwritten. ZIP entries are stored, since PNG data does
+     * not compress further, and streamed into the archive as soon as each image
+     * is encoded; the archive is renamed onto its target once complete. A write
+     * to the archive itself that fails leaves it unusable, so it fails the whole
+     * job and the temporary archive is deleted.
+     *
+     * @param target folder to write into, or the ZIP file
+     * @param zip    whether to write a single ZIP file
+     * @return job whose progress is the fraction of images done
+     */
+    public Job<BatchResult> writePngBatch(List<BatchItem> items, File target, boolean zip, PngEncoder.Level level) {
+        Job<BatchResult> job = new Job<>();
+        Thread coordinator = new Thread(() -> {
+            try {
+                BatchResult result;
+                if (zip) {
+                    BatchResult[] written = new BatchResult[1];
+                    writeAtomically(job, target, out -> {
+                        ZipOutputStream archive = new ZipOutputStream(out);
+                        written[0] = runBatch(job, items, (item, image) -> {
+                            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                            PngEncoder.write(image, bytes, level, PngEncoder.Palette.OFF, p -> {
+                            }, job::isCancelled);
+                            ZipEntry entry = new ZipEntry(item.name());
+                            entry.setMethod(ZipEntry.STORED);
+                            entry.setSize(bytes.size());
+                            CRC32 crc = new CRC32();
+                            crc.update(bytes.toByteArray());
+                            entry.setCrc(crc.getValue());
+                            synchronized (archive) {
+                                try {
+                                    archive.putNextEntry(entry);
+                                    bytes.writeTo(archive);
+                                    archive.closeEntry();
+                                } catch (IOException e) {
+                                    throw new OutputFailure(e);
+                                }
+                            }
+                        });
+                        archive.finish();
+                    });
+                    result = written[0];
+                } else {
+                    Files.createDirectories(target.toPath());
+                    result = runBatch(job, freeNames(target, items), (item, image) -> writeAtomically(job, new File(target, item.name()),
+                            out -> PngEncoder.write(image, out, level, PngEncoder.Palette.OFF, p -> {
+                            }, job::isCancelled)));
+                }
+                job.setProgress(1);
+                job.result.complete(result);
+            } catch (Throwable e) {
+                job.result.completeExceptionally(e);
+            }
+        }, "encode-batch");
+        coordinator.setDaemon(true);
+        coordinator.start();
+        return job;
+    }
+
+    /**
+     * Writes one rendered image of a batch
+     */
+    @FunctionalInterface
+    private interface BatchWriter {
+        void write(BatchItem item, BufferedImage image) throws IOException;
+    }
+
+    /**
+     * A failure of the output shared by the whole batch, as opposed to one image
+     */
+    private static final class OutputFailure extends IOException {
+        OutputFailure(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Rename items whose file already exists in the folder, e.g. sticker-001 (2).png
+     */
+    private static List<BatchItem> freeNames(File folder, List<BatchItem> items) {
+        List<BatchItem> renamed = new ArrayList<>(items.size());
+        Set<String> taken = new HashSet<>();
+        for (BatchItem item : items) {
+            taken.add(item.name());
+        }
+        for (BatchItem item : items) {
+            String name = item.name();
+            if (new File(folder, name).exists()) {
+                int dot = name.lastIndexOf('.');
+                String base = dot > 0 ? name.substring(0, dot) : name;
+                String extension = dot > 0 ? name.substring(dot) : "";
+                for (int n = 2; taken.contains(name) || new File(folder, name).exists(); n++) {
+                    name = base + " (" + n + ")" + extension;
+                }
+                taken.add(name);
+            }
+            renamed.add(name.equals(item.name()) ? item : new BatchItem(name, item.bytes(), item.pixels()));
+        }
+        return renamed;
+    }
+
+    private static BatchResult runBatch(Job<BatchResult> job, List<BatchItem> items, BatchWriter writer)
+            throws IOException {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        // Memory budget in KiB, so a semaphore can hand it out; an item larger than the
+        // whole budget takes all of it and runs alone
+        Runtime runtime = Runtime.getRuntime();
+        long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        int budget = (int) Math.max(1, Math.min(Integer.MAX_VALUE, free / 2 / 1024));
+        Semaphore memory = new Semaphore(budget);
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService batchWorkers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "encode-batch-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger done = new AtomicInteger();
+        AtomicInteger written = new AtomicInteger();
+        Map<String, String> failures = new ConcurrentHashMap<>();
+        AtomicReference<IOException> outputFailure = new AtomicReference<>();
+        try {
+            List<Future<?>> futures = new ArrayList<>(items.size());
+            for (BatchItem item : items) {
+                futures.add(batchWorkers.submit(() -> {
+                    if (job.isCancelled() || outputFailure.get() != null) {
+                        return;
+                    }
+                    int reserved = (int) Math.max(1, Math.min(budget, item.bytes() / 1024));
+                    memory.acquireUninterruptibly(reserved);
+                    try {
+                        writer.write(item, item.pixels().call());
+                        written.incrementAndGet();
+                    } catch (OutputFailure e) {
+                        outputFailure.compareAndSet(null, (IOException) e.getCause());
+                        return;
+                    } catch (Exception e) {
+                        if (!job.isCancelled()) {
+                            failures.put(item.name(), String.valueOf(e.getMessage()));
+                        }
+                    } finally {
+                        memory.release(reserved);
+                    }
+                    job.setProgress((double) done.incrementAndGet() / items.size());
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Batch export interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            batchWorkers.shutdownNow();
+        }
+        if (outputFailure.get() != null) {
+            throw outputFailure.get();
+        }
+        if (job.isCancelled()) {
+            throw new CancellationException("Encode cancelled");
+        }
+        return new BatchResult(written.get(), Map.copyOf(failures));
+    }
+
+    private static File writeFile(Job<File> job, BufferedImage image, File target, String format) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new IOException("No writer for format " + format);
+        }
+        ImageWriter writer = writers.next();
+        writer.addIIOWriteProgressListener(new ProgressAdapter(job));
+        job.writer = writer;
+        try {
+            return writeAtomically(job, target, out -> {
+                try (ImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+                    writer.setOutput(stream);
+                    writer.write(null, new IIOImage(image, null, null), null);
+                    stream.flush();
+                }
+            });
+        } finally {
+            job.writer = null;
+            writer.dispose();
+        }
+    }
+
+    private static File writePngFile(Job<File> job, BufferedImage image, File target,
+                                     PngEncoder.Level level, PngEncoder.Palette palette) throws IOException {
+        return writeAtomically(job, target,
+                out -> PngEncoder.write(image, out, level, palette, job::setProgress, job::isCancelled));
+    }
+
+    /**
+     * Writes encoded bytes to a stream
+     */
+    @FunctionalInterface
+    private interface StreamWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Write through a temporary sibling, force it to disk and rename it onto the target.
+     * <p>
+     * The temporary name carries a random suffix and is created exclusively, so two
+     * jobs writing the same target, or another instance of the app, never share
+     * or delete each other's temporary file.
+     */
+    private static File writeAtomically(Job<?> job, File target, StreamWriter content) throws IOException {
+        Path targetPath = target.toPath().toAbsolutePath();
+        Path temp;
+        FileChannel created;
+        while (true) {
+            temp = targetPath.resolveSibling("." + targetPath.getFileName() + "."
+                    + Long.toHexString(ThreadLocalRandom.current().nextLong() >>> 1) + ".tmp");
+            try {
+                created = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // Taken by another writer, draw a new suffix
+            }
+        }
+        try {
+            try (FileChannel channel = created) {
+                // The channel stream is not closed here, the channel is forced first
+                OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+                content.write(out);
+                out.flush();
+                if (job.isCancelled()) {
+                    throw new CancellationException("Encode cancelled");
+                }
+                channel.force(true);
+            }
+            moveAtomically(temp, targetPath);
+            return target;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Rename a fully written temporary file over its target
+     */
+    public static void moveAtomically(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Stop accepting jobs and wait briefly for running ones
+     */
+    public void shutdown() {
+        workers.shutdown();
+        try {
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record ProgressAdapter(Job<?> job) implements IIOWriteProgressListener {
+        @Override
+        public void imageProgress(ImageWriter source, float percentageDone) {
+            job.setProgress(percentageDone / 100.0);
+        }
+
+        @Override
+        public void imageStarted(ImageWriter source, int imageIndex) {
+        }
+
+        @Override
+        public void imageComplete(ImageWriter source) {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageWriter source, int imageIndex, int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageWriter source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageWriter source) {
+        }
+
+        @Override
+        public void writeAborted(ImageWriter source) {
+        }
+    }
+}
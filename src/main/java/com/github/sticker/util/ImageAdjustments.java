@@ -0,0 +1,236 @@
+package com.github.sticker.util;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.util.stream.IntStream;
+
+/**
+ * Pixel kernels behind {@link AdjustmentStack}.
+ * <p>
+ * Kernels work on non-premultiplied int ARGB buffers and leave alpha alone.
+ * Consecutive per-channel adjustments (invert, brightness/contrast, levels and
+ * gamma) are composed into a single 256-entry lookup table and applied in one
+ * pass; grayscale and sharpen get a pass of their own. Every pass splits the
+ * image into bands of rows that run on the fork-join pool. The inner loops are
+ * branch-free indexed loops over int arrays, which the JIT unrolls and
+ * vectorises where it can.
+ */
+public final class ImageAdjustments {
+    private static final int BAND_PIXELS = 64 * 1024;
+
+    private ImageAdjustments() {
+    }
+
+    /**
+     * Apply a stack to non-premultiplied ARGB pixels in place
+     */
+    public static void apply(AdjustmentStack stack, int[] argb, int width, int height) {
+        int[] lut = null;
+        for (AdjustmentStack.Adjustment adjustment : stack.adjustments()) {
+            int[] table = lookupTable(adjustment);
+            if (table != null) {
+                lut = lut == null ? table : compose(lut, table);
+                continue;
+            }
+            if (lut != null) {
+                applyLut(argb, lut);
+                lut = null;
+            }
+            if (adjustment instanceof AdjustmentStack.Grayscale) {
+                grayscale(argb);
+            } else if (adjustment instanceof AdjustmentStack.Sharpen sharpen) {
+                sharpen(argb, width, height, sharpen.amount());
+            }
+        }
+        if (lut != null) {
+            applyLut(argb, lut);
+        }
+    }
+
+    /**
+     * Adjusted copy of an image, safe to call off the FX thread
+     */
+    public static WritableImage apply(AdjustmentStack stack, Image image) {
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        int[] argb = readPixels(image);
+        apply(stack, argb, width, height);
+        WritableImage result = new WritableImage(width, height);
+        result.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), argb, 0, width);
+        return result;
+    }
+
+    /**
+     * Non-premultiplied ARGB pixels of an image
+     */
+    public static int[] readPixels(Image image) {
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        int[] argb = new int[width * height];
+        image.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), argb, 0, width);
+        return argb;
+    }
+
+    /**
+     * Lookup table of a per-channel adjustment, null for the others
+     */
+    static int[] lookupTable(AdjustmentStack.Adjustment adjustment) {
+        int[] table = new int[256];
+        if (adjustment instanceof AdjustmentStack.Invert) {
+            for (int v = 0; v < 256; v++) {
+                table[v] = 255 - v;
+            }
+        } else if (adjustment instanceof AdjustmentStack.BrightnessContrast bc) {
+            // Contrast 1 approaches a threshold, -1 flattens to mid grey
+            double factor = bc.contrast() >= 0 ? 1 / Math.max(0.01, 1 - bc.contrast()) : 1 + bc.contrast();
+            for (int v = 0; v < 256; v++) {
+                table[v] = clamp((v - 127.5) * factor + 127.5 + bc.brightness() * 255);
+            }
+        } else if (adjustment instanceof AdjustmentStack.Levels levels) {
+            double range = levels.white() - levels.black();
+            for (int v = 0; v < 256; v++) {
+                table[v] = clamp((v - levels.black()) * 255 / range);
+            }
+        } else if (adjustment instanceof AdjustmentStack.Gamma gamma) {
+            for (int v = 0; v < 256; v++) {
+                table[v] = clamp(255 * Math.pow(v / 255.0, 1 / gamma.gamma()));
+            }
+        } else {
+            return null;
+        }
+        return table;
+    }
+
+    /**
+     * Table applying {@code first} then {@code second}
+     */
+    private static int[] compose(int[] first, int[] second) {
+        int[] table = new int[256];
+        for (int v = 0; v < 256; v++) {
+            table[v] = second[first[v]];
+        }
+        return table;
+    }
+
+    static void applyLut(int[] argb, int[] lut) {
+        forEachBand(argb.length, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int p = argb[i];
+                argb[i] = (p & 0xFF000000)
+                        | lut[(p >> 16) & 0xFF] << 16
+                        | lut[(p >> 8) & 0xFF] << 8
+                        | lut[p & 0xFF];
+            }
+        });
+    }
+
+    /**
+     * BT.601 luma in 8-bit fixed point, the weights add up to 256
+     */
+    static void grayscale(int[] argb) {
+        forEachBand(argb.length, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int p = argb[i];
+                int y = (((p >> 16) & 0xFF) * 77 + ((p >> 8) & 0xFF) * 150 + (p & 0xFF) * 29) >> 8;
+                argb[i] = (p & 0xFF000000) | y << 16 | y << 8 | y;
+            }
+        });
+    }
+
+    /**
+     * Unsharp mask: each channel moves away from its 3x3 box blur by {@code amount}.
+     * Edge pixels use their clamped neighbours. Reads a copy, so bands never see
+     * pixels another band has already written.
+     */
+    static void sharpen(int[] argb, int width, int height, double amount) {
+        if (amount <= 0 || width < 1 || height < 1) {
+            return;
+        }
+        int[] source = argb.clone();
+        // Fixed point with 8 fractional bits, blur weights are 1/9 each
+        int gain = (int) Math.round(amount * 256);
+        int rowsPerBand = Math.max(1, BAND_PIXELS / width);
+        int bands = (height + rowsPerBand - 1) / rowsPerBand;
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int y0 = band * rowsPerBand;
+            int y1 = Math.min(height, y0 + rowsPerBand);
+            for (int y = y0; y < y1; y++) {
+                int above = Math.max(0, y - 1) * width;
+                int row = y * width;
+                int below = Math.min(height - 1, y + 1) * width;
+                for (int x = 0; x < width; x++) {
+                    int left = Math.max(0, x - 1);
+                    int right = Math.min(width - 1, x + 1);
+                    int p = source[row + x];
+                    argb[row + x] = (p & 0xFF000000)
+                            | unsharp(source, above, row, below, left, x, right, 16, gain) << 16
+                            | unsharp(source, above, row, below, left, x, right, 8, gain) << 8
+                            | unsharp(source, above, row, below, left, x, right, 0, gain);
+                }
+            }
+        });
+    }
+
+    /**
+     * One channel of the unsharp mask at a pixel
+     *
+     * @param above offset of the row above, clamped
+     * @param row   offset of the pixel's row
+     * @param below offset of the row below, clamped
+     * @param shift bit offset of the channel
+     */
+    private static int unsharp(int[] source, int above, int row, int below,
+                               int left, int x, int right, int shift, int gain) {
+        int value = (source[row + x] >> shift) & 0xFF;
+        int blurSum = ((source[above + left] >> shift) & 0xFF) + ((source[above + x] >> shift) & 0xFF)
+                + ((source[above + right] >> shift) & 0xFF) + ((source[row + left] >> shift) & 0xFF)
+                + value + ((source[row + right] >> shift) & 0xFF)
+                + ((source[below + left] >> shift) & 0xFF) + ((source[below + x] >> shift) & 0xFF)
+                + ((source[below + right] >> shift) & 0xFF);
+        int detail = value * 9 - blurSum;
+        int result = value + (detail * gain) / (9 * 256);
+        return result < 0 ? 0 : Math.min(result, 255);
+    }
+
+    /**
+     * Input black and white points that clip {@code clip} of the pixels at either end of the luma histogram
+     *
+     * @param clip fraction of pixels allowed to clip, e.g. 0.005
+     * @return levels spreading the remaining range over the full range
+     */
+    public static AdjustmentStack.Levels autoLevels(int[] argb, double clip) {
+        int[] histogram = new int[256];
+        for (int p : argb) {
+            histogram[(((p >> 16) & 0xFF) * 77 + ((p >> 8) & 0xFF) * 150 + (p & 0xFF) * 29) >> 8]++;
+        }
+        long limit = (long) (argb.length * clip);
+        int black = 0;
+        long seen = histogram[0];
+        while (black < 254 && seen <= limit) {
+            seen += histogram[++black];
+        }
+        int white = 255;
+        seen = histogram[255];
+        while (white > black + 1 && seen <= limit) {
+            seen += histogram[--white];
+        }
+        return new AdjustmentStack.Levels(black, white);
+    }
+
+    @FunctionalInterface
+    private interface BandKernel {
+        void run(int from, int to);
+    }
+
+    private static void forEachBand(int length, BandKernel kernel) {
+        int bands = (length + BAND_PIXELS - 1) / BAND_PIXELS;
+        IntStream.range(0, bands).parallel()
+                .forEach(band -> kernel.run(band * BAND_PIXELS, Math.min(length, (band + 1) * BAND_PIXELS)));
+    }
+
+    private static int clamp(double value) {
+        return (int) Math.max(0, Math.min(255, Math.round(value)));
+    }
+}
@@ -0,0 +1,188 @@
+package com.github.sticker.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+
+/**
+ * Prepares screen captures for OCR.
+ * Converts to 8-bit luminance, upscales small captures so screen-sized text
+ * reaches the glyph height Tesseract is trained on, and binarises with an
+ * Otsu threshold so that text always ends up dark on a light background.
+ */
+public final class ImagePreprocessor {
+    // Upscaling is skipped above this size, large captures already have enough pixels per glyph
+    private static final long MAX_UPSCALE_PIXELS = 4_000_000L;
+
+    private ImagePreprocessor() {
+    }
+
+    /**
+     * Factor by which {@link #prepareForOcr(BufferedImage)} enlarges an image
+     *
+     * @param width  image width
+     * @param height image height
+     * @return 2 for normal screen captures, 1 for very large ones
+     */
+    public static int ocrScale(int width, int height) {
+        return (long) width * height <= MAX_UPSCALE_PIXELS ? 2 : 1;
+    }
+
+    /**
+     * Full OCR preprocessing: grayscale, upscale and binarise
+     *
+     * @param image source capture in any format
+     * @return binary image, {@link #ocrScale(int, int)} times the source size
+     */
+    public static BufferedImage prepareForOcr(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] gray = grayscale(image);
+        int scale = ocrScale(width, height);
+        if (scale > 1) {
+            gray = upscale(gray, width, height, scale);
+            width *= scale;
+            height *= scale;
+        }
+        return binarize(gray, width, height);
+    }
+
+    /**
+     * Convert an image to 8-bit luminance
+     *
+     * @return one unsigned byte per pixel, row major
+     */
+    public static byte[] grayscale(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] gray = new byte[width * height];
+        Raster raster = image.getRaster();
+        int type = image.getType();
+
+        if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                && raster.getDataBuffer() instanceof DataBufferInt buffer
+                && raster.getParent() == null) {
+            // Robot captures are packed ints, read them without per-pixel color model calls
+            int[] pixels = buffer.getData();
+            for (int i = 0; i < gray.length; i++) {
+                gray[i] = luminance(pixels[i]);
+            }
+            return gray;
+        }
+        if (type == BufferedImage.TYPE_BYTE_GRAY && raster.getDataBuffer() instanceof DataBufferByte buffer
+                && raster.getParent() == null) {
+            System.arraycopy(buffer.getData(), 0, gray, 0, gray.length);
+            return gray;
+        }
+
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                gray[offset + x] = luminance(row[x]);
+            }
+        }
+        return gray;
+    }
+
+    private static byte luminance(int rgb) {
+        int r = (rgb >> 16) & 0xFF;
+        int g = (rgb >> 8) & 0xFF;
+        int b = rgb & 0xFF;
+        return (byte) ((r * 77 + g * 150 + b * 29) >> 8);
+    }
+
+    /**
+     * Bilinear upscale of a grayscale buffer by an integer factor
+     */
+    public static byte[] upscale(byte[] gray, int width, int height, int scale) {
+        int outWidth = width * scale;
+        int outHeight = height * scale;
+        byte[] out = new byte[outWidth * outHeight];
+        for (int y = 0; y < outHeight; y++) {
+            double sy = Math.max(0, (y + 0.5) / scale - 0.5);
+            int y0 = Math.min((int) sy, height - 1);
+            int y1 = Math.min(y0 + 1, height - 1);
+            double fy = sy - y0;
+            for (int x = 0; x < outWidth; x++) {
+                double sx = Math.max(0, (x + 0.5) / scale - 0.5);
+                int x0 = Math.min((int) sx, width - 1);
+                int x1 = Math.min(x0 + 1, width - 1);
+                double fx = sx - x0;
+                double top = (gray[y0 * width + x0] & 0xFF) * (1 - fx) + (gray[y0 * width + x1] & 0xFF) * fx;
+                double bottom = (gray[y1 * width + x0] & 0xFF) * (1 - fx) + (gray[y1 * width + x1] & 0xFF) * fx;
+                out[y * outWidth + x] = (byte) Math.round(top * (1 - fy) + bottom * fy);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Compute the Otsu threshold of a grayscale buffer
+     *
+     * @return threshold in 0..255, pixels at or below it are the dark class
+     */
+    public static int otsuThreshold(byte[] gray) {
+        long[] histogram = new long[256];
+        for (byte value : gray) {
+            histogram[value & 0xFF]++;
+        }
+        long total = gray.length;
+        double sum = 0;
+        for (int i = 0; i < 256; i++) {
+            sum += (double) i * histogram[i];
+        }
+
+        double sumDark = 0;
+        long weightDark = 0;
+        double bestVariance = -1;
+        int threshold = 127;
+        for (int t = 0; t < 256; t++) {
+            weightDark += histogram[t];
+            if (weightDark == 0) {
+                continue;
+            }
+            long weightLight = total - weightDark;
+            if (weightLight == 0) {
+                break;
+            }
+            sumDark += (double) t * histogram[t];
+            double meanDark = sumDark / weightDark;
+            double meanLight = (sum - sumDark) / weightLight;
+            double variance = (double) weightDark * weightLight * (meanDark - meanLight) * (meanDark - meanLight);
+            if (variance > bestVariance) {
+                bestVariance = variance;
+                threshold = t;
+            }
+        }
+        return threshold;
+    }
+
+    /**
+     * Binarise a grayscale buffer with its Otsu threshold.
+     * The minority class is treated as text, so light-on-dark themes are
+     * inverted to dark text on white.
+     *
+     * @return a {@link BufferedImage#TYPE_BYTE_GRAY} image holding only 0 and 255
+     */
+    public static BufferedImage binarize(byte[] gray, int width, int height) {
+        int threshold = otsuThreshold(gray);
+        long dark = 0;
+        for (byte value : gray) {
+            if ((value & 0xFF) <= threshold) {
+                dark++;
+            }
+        }
+        boolean invert = dark * 2 > gray.length;
+
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] out = ((DataBufferByte) result.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < gray.length; i++) {
+            boolean isDark = (gray[i] & 0xFF) <= threshold;
+            out[i] = isDark != invert ? 0 : (byte) 255;
+        }
+        return result;
+    }
+}
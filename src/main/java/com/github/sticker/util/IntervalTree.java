@@ -0,0 +1,122 @@
+package com.github.sticker.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Static interval tree for one-dimensional hit testing.
+ * The intervals are sorted by start and stored as an implicit balanced tree,
+ * each node carrying the maximum end of its subtree, so stabbing and overlap
+ * queries only visit branches that can contain a match.
+ *
+ * @param <T> payload type attached to each interval
+ */
+public class IntervalTree<T> {
+    private final double[] starts;
+    private final double[] ends;
+    private final double[] maxEnds;
+    private final Object[] values;
+
+    /**
+     * Build a tree over the given values
+     *
+     * @param items values to index
+     * @param start function returning the interval start of a value
+     * @param end   function returning the interval end of a value
+     */
+    public IntervalTree(List<T> items, ToDoubleFunction<T> start, ToDoubleFunction<T> end) {
+        int n = items.size();
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> start.applyAsDouble(items.get(i))));
+
+        starts = new double[n];
+        ends = new double[n];
+        maxEnds = new double[n];
+        values = new Object[n];
+        for (int i = 0; i < n; i++) {
+            T item = items.get(order[i]);
+            starts[i] = start.applyAsDouble(item);
+            ends[i] = end.applyAsDouble(item);
+            values[i] = item;
+        }
+        buildMaxEnds(0, n - 1);
+    }
+
+    private double buildMaxEnds(int lo, int hi) {
+        if (lo > hi) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        int mid = (lo + hi) >>> 1;
+        double max = Math.max(ends[mid], Math.max(buildMaxEnds(lo, mid - 1), buildMaxEnds(mid + 1, hi)));
+        maxEnds[mid] = max;
+        return max;
+    }
+
+    /**
+     * Find all intervals containing the given point
+     */
+    public List<T> stab(double point) {
+        return overlapping(point, point);
+    }
+
+    /**
+     * Find all intervals overlapping [from, to]
+     */
+    public List<T> overlapping(double from, double to) {
+        List<T> result = new ArrayList<>();
+        collect(0, starts.length - 1, from, to, result);
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void collect(int lo, int hi, double from, double to, List<T> result) {
+        if (lo > hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        // 子树中所有区间都在查询范围左侧
+        if (maxEnds[mid] < from) {
+            return;
+        }
+        collect(lo, mid - 1, from, to, result);
+        if (starts[mid] <= to) {
+            if (ends[mid] >= from) {
+                result.add((T) values[mid]);
+            }
+            collect(mid + 1, hi, from, to, result);
+        }
+    }
+
+    /**
+     * Find the interval whose span is closest to the given point.
+     * Used to keep drag selection attached to text when the pointer
+     * wanders into the gaps between boxes.
+     */
+    @SuppressWarnings("unchecked")
+    public T nearest(double point) {
+        T best = null;
+        double bestDistance = Double.MAX_VALUE;
+        for (int i = 0; i < starts.length; i++) {
+            double distance = point < starts[i] ? starts[i] - point : Math.max(0, point - ends[i]);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = (T) values[i];
+            }
+        }
+        return best;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    public boolean isEmpty() {
+        return starts.length == 0;
+    }
+}
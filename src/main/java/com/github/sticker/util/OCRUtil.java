@@ -11,10 +11,36 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
 
 public class OCRUtil {
-    private static Tesseract tesseract;
+    // 训练数据目录，初始化失败时为null
+    private static String datapath;
+
+    // Tesseract实例不是线程安全的，每个工作线程持有一个已预热的引擎
+    private static final ThreadLocal<Tesseract> ENGINES = ThreadLocal.withInitial(OCRUtil::createEngine);
+
+    // OCR线程池，避免占用公共ForkJoin池，同时限制并发的原生内存占用
+    private static final int POOL_SIZE = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() / 2));
+    private static final ExecutorService OCR_POOL = Executors.newFixedThreadPool(POOL_SIZE, new ThreadFactory() {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ocr-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    });
     
     /**
      * OCR识别结果类
@@ -26,14 +52,21 @@ public class OCRUtil {
         private final double width;
         private final double height;
         private final float confidence;
+        private final List<OCRResult> words;
 
         public OCRResult(String text, double x, double y, double width, double height, float confidence) {
+            this(text, x, y, width, height, confidence, List.of());
+        }
+
+        public OCRResult(String text, double x, double y, double width, double height, float confidence,
+                         List<OCRResult> words) {
             this.text = text;
             this.x = x;
             this.y = y;
             this.width = width;
             this.height = height;
             this.confidence = confidence;
+            this.words = words;
         }
 
         public String getText() { return text; }
@@ -42,6 +75,22 @@ public class OCRUtil {
         public double getWidth() { return width; }
         public double getHeight() { return height; }
         public float getConfidence() { return confidence; }
+        /** 行结果包含的单词，单词结果本身为空列表 */
+        public List<OCRResult> getWords() { return words; }
+
+        /**
+         * 坐标变换：先缩放再平移，单词框一并变换
+         * @param offsetX 平移X
+         * @param offsetY 平移Y
+         * @param factor 缩放系数
+         */
+        public OCRResult transform(double offsetX, double offsetY, double factor) {
+            List<OCRResult> mappedWords = words.stream()
+                    .map(word -> word.transform(offsetX, offsetY, factor))
+                    .toList();
+            return new OCRResult(text, x * factor + offsetX, y * factor + offsetY,
+                    width * factor, height * factor, confidence, mappedWords);
+        }
     }
 
     static {
@@ -50,8 +99,6 @@ public class OCRUtil {
 
     private static void initializeTesseract() {
         try {
-            tesseract = new Tesseract();
-            
             // 创建临时目录来存储训练数据
             File tempDir = new File(System.getProperty("java.io.tmpdir"), "tessdata_" + System.currentTimeMillis());
             tempDir.mkdirs();
@@ -59,28 +106,8 @@ public class OCRUtil {
             copyResourceToFile("/mode/eng.traineddata", new File(tempDir, "eng.traineddata"));
             copyResourceToFile("/mode/osd.traineddata", new File(tempDir, "osd.traineddata"));
 
-            tesseract.setDatapath(tempDir.getAbsolutePath());
-            tesseract.setLanguage("eng"); // 只使用英文
-            
-            // 配置Tesseract参数以提高识别质量
-            tesseract.setPageSegMode(1); // PSM_AUTO_OSD - 自动检测方向和脚本
-            tesseract.setOcrEngineMode(1); // OEM_LSTM_ONLY - 使用LSTM引擎
-            
-            // 设置识别参数
-            tesseract.setTessVariable("user_defined_dpi", "300");
-//            tesseract.setTessVariable("debug_file", "/dev/null");
-            
-            // 优化识别设置
-//            tesseract.setTessVariable("tessedit_char_whitelist", "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz._()"); // 允许代码中常见的字符
-//            tesseract.setTessVariable("textord_min_linesize", "1.5"); // 降低最小行高要求
-//            tesseract.setTessVariable("tessedit_do_invert", "0"); // 不要反转图像
-//            tesseract.setTessVariable("textord_really_quick", "0"); // 不使用快速但不准确的模式
-//            tesseract.setTessVariable("tessedit_enable_dict_correction", "0"); // 禁用字典校正，因为是代码
-//            tesseract.setTessVariable("tessedit_enable_bigram_correction", "0"); // 禁用二元语法校正
-//            tesseract.setTessVariable("tessedit_unrej_any_wd", "1"); // 不要拒绝任何单词
-//            tesseract.setTessVariable("tessedit_pageseg_mode", "1"); // 自动页面分割
-//            tesseract.setTessVariable("tessedit_minimal_confidence", "1"); // 降低最小置信度要求
-            
+            datapath = tempDir.getAbsolutePath();
+
             // 注册关闭钩子以清理临时文件
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 try {
@@ -99,7 +126,111 @@ public class OCRUtil {
             e.printStackTrace();
         }
     }
+
+    /**
+     * 为当前线程创建Tesseract引擎
+     */
+    private static Tesseract createEngine() {
+        Tesseract tesseract = new Tesseract();
+        tesseract.setDatapath(datapath);
+        tesseract.setLanguage("eng"); // 只使用英文
+
+        // 配置Tesseract参数以提高识别质量
+        tesseract.setPageSegMode(1); // PSM_AUTO_OSD - 自动检测方向和脚本
+        tesseract.setOcrEngineMode(1); // OEM_LSTM_ONLY - 使用LSTM引擎
+
+        // 设置识别参数
+        tesseract.setTessVariable("user_defined_dpi", "300");
+//        tesseract.setTessVariable("debug_file", "/dev/null");
+
+        // 优化识别设置
+//        tesseract.setTessVariable("tessedit_char_whitelist", "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz._()"); // 允许代码中常见的字符
+//        tesseract.setTessVariable("textord_min_linesize", "1.5"); // 降低最小行高要求
+//        tesseract.setTessVariable("tessedit_do_invert", "0"); // 不要反转图像
+//        tesseract.setTessVariable("textord_really_quick", "0"); // 不使用快速但不准确的模式
+//        tesseract.setTessVariable("tessedit_enable_dict_correction", "0"); // 禁用字典校正，因为是代码
+//        tesseract.setTessVariable("tessedit_enable_bigram_correction", "0"); // 禁用二元语法校正
+//        tesseract.setTessVariable("tessedit_unrej_any_wd", "1"); // 不要拒绝任何单词
+//        tesseract.setTessVariable("tessedit_pageseg_mode", "1"); // 自动页面分割
+//        tesseract.setTessVariable("tessedit_minimal_confidence", "1"); // 降低最小置信度要求
+        return tesseract;
+    }
+
+    /**
+     * 在OCR线程池中异步识别图片
+     * @param image JavaFX图片
+     * @return 识别结果
+     */
+    public static CompletableFuture<List<OCRResult>> submit(Image image) {
+        return CompletableFuture.supplyAsync(() -> ocr(image), OCR_POOL);
+    }
+
+    /**
+     * 在OCR线程池中异步识别图片
+     * @param image AWT图片
+     * @return 识别结果
+     */
+    public static CompletableFuture<List<OCRResult>> submit(BufferedImage image) {
+        return CompletableFuture.supplyAsync(() -> ocr(image), OCR_POOL);
+    }
     
+    /**
+     * 预热OCR线程池中的每个引擎
+     * 首次识别需要加载LSTM模型，耗时数百毫秒，提前在空闲时完成
+     */
+    public static void warmUp() {
+        if (datapath == null) {
+            return;
+        }
+        BufferedImage blank = new BufferedImage(64, 32, BufferedImage.TYPE_BYTE_GRAY);
+        // 每个任务等待其他任务开始，保证它们分别落在不同的工作线程上
+        CountDownLatch started = new CountDownLatch(POOL_SIZE);
+        for (int i = 0; i < POOL_SIZE; i++) {
+            OCR_POOL.execute(() -> {
+                started.countDown();
+                try {
+                    started.await(5, TimeUnit.SECONDS);
+                    ENGINES.get().doOCR(blank);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (TesseractException e) {
+                    System.err.println("OCR warm-up failed: " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * 在OCR线程池中异步识别纯文本
+     * @param image 已预处理的图片
+     * @return 识别出的文本
+     */
+    public static CompletableFuture<String> submitText(BufferedImage image) {
+        return CompletableFuture.supplyAsync(() -> recognizeText(image), OCR_POOL);
+    }
+
+    /**
+     * 只识别文本，不计算行和单词的位置
+     * 单次识别，比{@link #ocr(BufferedImage)}少一次版面分析
+     * @param image 已预处理的图片
+     * @return 识别出的文本，去掉多余的空行
+     */
+    public static String recognizeText(BufferedImage image) {
+        if (datapath == null) {
+            System.err.println("Tesseract is not initialized");
+            return "";
+        }
+        Tesseract tesseract = ENGINES.get();
+        try {
+            tesseract.setPageSegMode(3); // PSM_AUTO
+            String text = tesseract.doOCR(image);
+            return text.replaceAll("(\\R\\s*){2,}", System.lineSeparator()).strip();
+        } catch (TesseractException e) {
+            System.err.println("OCR recognition failed: " + e.getMessage());
+            return "";
+        }
+    }
+
     private static void copyResourceToFile(String resourcePath, File destFile) throws IOException {
         try (var inputStream = OCRUtil.class.getResourceAsStream(resourcePath)) {
             if (inputStream == null) {
@@ -119,17 +250,51 @@ public class OCRUtil {
      * @return OCR识别结果列表
      */
     public static List<OCRResult> ocr(Image image) {
-        if (tesseract == null) {
+        // 转换JavaFX Image为BufferedImage
+        return ocr(SwingFXUtils.fromFXImage(image, null));
+    }
+
+    /**
+     * 对图片进行OCR识别
+     * @param bufferedImage AWT图片
+     * @return OCR识别结果列表
+     */
+    public static List<OCRResult> ocr(BufferedImage bufferedImage) {
+        return ocr(bufferedImage, 3);
+    }
+
+    /**
+     * 在OCR线程池中识别预处理图片的一个区域
+     * @param image 缓存的预处理图片
+     * @param region 区域，原图像素坐标
+     * @return 识别结果，原图像素坐标
+     */
+    public static CompletableFuture<List<OCRResult>> submitRegion(PreprocessedImage image, Rectangle2D region) {
+        return CompletableFuture.supplyAsync(() -> {
+            BufferedImage crop = image.crop(region);
+            if (crop == null) {
+                return List.<OCRResult>of();
+            }
+            // 区域通常只有一个单元格或几行文字，按单个文本块识别
+            return image.toSource(ocr(crop, 6), region);
+        }, OCR_POOL);
+    }
+
+    /**
+     * 对图片进行OCR识别
+     * @param bufferedImage AWT图片
+     * @param pageSegMode Tesseract页面分割模式，3为自动分割，6为单个文本块
+     * @return OCR识别结果列表
+     */
+    public static List<OCRResult> ocr(BufferedImage bufferedImage, int pageSegMode) {
+        if (datapath == null) {
             System.err.println("Tesseract is not initialized");
             return new ArrayList<>();
         }
 
         System.out.println("Starting OCR process...");
-        System.out.println("Image size: " + image.getWidth() + "x" + image.getHeight());
-
-        // 转换JavaFX Image为BufferedImage
-        BufferedImage bufferedImage = SwingFXUtils.fromFXImage(image, null);
-        System.out.println("Converted to BufferedImage");
+        System.out.println("Image size: " + bufferedImage.getWidth() + "x" + bufferedImage.getHeight());
+        Tesseract tesseract = ENGINES.get();
 
         // 执行OCR识别
         List<OCRResult> results = new ArrayList<>();
@@ -137,75 +302,67 @@ public class OCRUtil {
         try {
             System.out.println("Starting Tesseract recognition...");
             
-            // 首先获取行级别的区域
-            tesseract.setPageSegMode(3); // PSM_AUTO - 完全自动页面分割，但没有OSD
+            // 首先获取行级别的区域（仅版面分析，不做识别）
+            tesseract.setPageSegMode(pageSegMode);
             var regions = tesseract.getSegmentedRegions(bufferedImage, net.sourceforge.tess4j.ITessAPI.TessPageIteratorLevel.RIL_TEXTLINE);
             
             if (regions != null) {
                 System.out.println("Found " + regions.size() + " text lines");
-                
-                int lineNumber = 0;
-                for (Rectangle rect : regions) {
-                    lineNumber++;
-                    System.out.println("\nProcessing line " + lineNumber + ":");
-                    System.out.println("Region bounds: " + rect);
-                    
-                    // 在这个区域内进行词级别的识别
-                    var words = tesseract.getWords(bufferedImage, 3);
-                    if (words != null) {
+
+                // 整张图只做一次词级别识别，再按行区域归类
+                var words = tesseract.getWords(bufferedImage, net.sourceforge.tess4j.ITessAPI.TessPageIteratorLevel.RIL_WORD);
+                if (words != null) {
+                    for (Rectangle rect : regions) {
                         StringBuilder lineText = new StringBuilder();
-                        boolean hasValidWords = false;
-                        
+                        List<OCRResult> lineWords = new ArrayList<>();
+
                         // 找出属于当前行的所有单词
                         for (Word word : words) {
                             var wordBox = word.getBoundingBox();
                             // 检查这个单词是否在当前行的范围内
-                            if (wordBox.getY() >= rect.getY() - 5 && 
-                                wordBox.getY() + wordBox.getHeight() <= rect.getY() + rect.getHeight() + 5) {
-                                
+                            if (wordBox.getY() >= rect.getY() - 5 &&
+                                wordBox.getY() + wordBox.getHeight() <= rect.getY() + rect.getHeight() + 5 &&
+                                wordBox.getX() + wordBox.getWidth() > rect.getX() &&
+                                wordBox.getX() < rect.getX() + rect.getWidth()) {
+
                                 String text = word.getText().trim();
                                 float confidence = word.getConfidence();
-                                
-                                System.out.println(String.format(
-                                    "Word: '%s', confidence: %.2f, position: (%.1f,%.1f)",
-                                    text, confidence, wordBox.getX(), wordBox.getY()
-                                ));
-                                
+
                                 if (confidence >= 30 && !text.isEmpty()) {
                                     if (lineText.length() > 0) {
                                         lineText.append(" ");
                                     }
                                     lineText.append(text);
-                                    hasValidWords = true;
+                                    lineWords.add(new OCRResult(
+                                        text,
+                                        wordBox.getX(),
+                                        wordBox.getY(),
+                                        wordBox.getWidth(),
+                                        wordBox.getHeight(),
+                                        confidence
+                                    ));
                                 }
                             }
                         }
-                        
+
                         // 如果这一行有有效的单词，添加到结果中
-                        if (hasValidWords) {
-                            String finalText = lineText.toString().trim();
-                            System.out.println(String.format(
-                                "Adding line: '%s', position: (%.1f,%.1f,%.1f,%.1f)",
-                                finalText,
-                                rect.getX(), rect.getY(), rect.getWidth(), rect.getHeight()
-                            ));
-                            
+                        if (!lineWords.isEmpty()) {
+                            lineWords.sort(java.util.Comparator.comparingDouble(OCRResult::getX));
                             results.add(new OCRResult(
-                                finalText,
+                                lineText.toString().trim(),
                                 rect.getX(),
                                 rect.getY(),
                                 rect.getWidth(),
                                 rect.getHeight(),
-                                90.0f
+                                90.0f,
+                                lineWords
                             ));
-                        } else {
-                            System.out.println("Skipped: No valid words in line");
                         }
                     }
                 }
             }
             
-            System.out.println("\nOCR completed, found " + results.size() + " valid results");
+            System.out.println("OCR completed, found " + results.size() + " valid results");
         } catch (Exception e) {
             System.err.println("OCR recognition failed: " + e.getMessage());
             e.printStackTrace();
@@ -0,0 +1,319 @@
+package com.github.sticker.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reduces images to at most 256 colours for indexed PNG output.
+ * <p>
+ * UI screenshots rarely use more than a few hundred distinct colours, so
+ * {@link #exact} first tries to collect the real palette and gives up as soon
+ * as a 257th colour appears. {@link #medianCut} is the lossy fallback: colours
+ * are binned into a 5-5-5-3 bit RGBA histogram and the populated bins are
+ * split by weighted median along the widest channel until the palette is full.
+ * Each palette entry is the mean of the exact colours that fell into its box.
+ */
+public final class PaletteQuantizer {
+    public static final int MAX_COLORS = 256;
+
+    private static final int HASH_SIZE = 1024;      // power of two, four times the palette size
+    private static final int BINS = 1 << 18;        // 5 bits red, green and blue, 3 bits alpha
+
+    private PaletteQuantizer() {
+    }
+
+    /**
+     * An image reduced to a palette
+     *
+     * @param colors  ARGB palette entries, translucent entries first
+     * @param indices one palette index per pixel, row-major
+     */
+    public record IndexedImage(int width, int height, int[] colors, byte[] indices) {
+        /**
+         * Number of leading palette entries that are not fully opaque
+         */
+        public int translucentCount() {
+            int count = 0;
+            while (count < colors.length && (colors[count] >>> 24) != 0xFF) {
+                count++;
+            }
+            return count;
+        }
+
+        /**
+         * Expand back to an ARGB image
+         */
+        public BufferedImage toBufferedImage() {
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            for (int i = 0; i < data.length; i++) {
+                data[i] = colors[indices[i] & 0xFF];
+            }
+            return image;
+        }
+    }
+
+    /**
+     * Build an exact palette
+     *
+     * @return the indexed image, or null when the image has more than {@link #MAX_COLORS} colours
+     */
+    public static IndexedImage exact(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] keys = new int[HASH_SIZE];
+        int[] slots = new int[HASH_SIZE];
+        Arrays.fill(slots, -1);
+        int[] colors = new int[MAX_COLORS];
+        int count = 0;
+        byte[] indices = new byte[width * height];
+        int[] row = new int[width];
+
+        // Consecutive pixels usually share a colour, so remember the last lookup
+        int lastColor = 0;
+        int lastIndex = -1;
+        for (int y = 0; y < height; y++) {
+            readRow(image, y, row);
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                int argb = row[x];
+                if (argb != lastColor || lastIndex < 0) {
+                    int hash = mix(argb) & (HASH_SIZE - 1);
+                    while (slots[hash] >= 0 && keys[hash] != argb) {
+                        hash = (hash + 1) & (HASH_SIZE - 1);
+                    }
+                    if (slots[hash] < 0) {
+                        if (count == MAX_COLORS) {
+                            return null;
+                        }
+                        keys[hash] = argb;
+                        slots[hash] = count;
+                        colors[count++] = argb;
+                    }
+                    lastColor = argb;
+                    lastIndex = slots[hash];
+                }
+                indices[offset + x] = (byte) lastIndex;
+            }
+        }
+        return sortTranslucentFirst(width, height, Arrays.copyOf(colors, count), indices);
+    }
+
+    /**
+     * Quantize with median cut over a reduced colour histogram
+     *
+     * @param maxColors palette size, at most {@link #MAX_COLORS}
+     */
+    public static IndexedImage medianCut(BufferedImage image, int maxColors) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        maxColors = Math.max(1, Math.min(MAX_COLORS, maxColors));
+
+        int[] counts = new int[BINS];
+        long[][] sums = new long[4][BINS];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            readRow(image, y, row);
+            for (int argb : row) {
+                int bin = bin(argb);
+                counts[bin]++;
+                sums[0][bin] += (argb >>> 24);
+                sums[1][bin] += (argb >> 16) & 0xFF;
+                sums[2][bin] += (argb >> 8) & 0xFF;
+                sums[3][bin] += argb & 0xFF;
+            }
+        }
+
+        int populated = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                populated++;
+            }
+        }
+        int[] bins = new int[populated];
+        for (int bin = 0, i = 0; bin < BINS; bin++) {
+            if (counts[bin] > 0) {
+                bins[i++] = bin;
+            }
+        }
+
+        List<Box> boxes = new ArrayList<>();
+        boxes.add(new Box(bins, 0, populated, counts));
+        while (boxes.size() < maxColors) {
+            Box widest = null;
+            for (Box box : boxes) {
+                if (box.splittable() && (widest == null || box.priority() > widest.priority())) {
+                    widest = box;
+                }
+            }
+            if (widest == null) {
+                break;
+            }
+            boxes.remove(widest);
+            boxes.addAll(widest.split(bins, counts));
+        }
+
+        int[] colors = new int[boxes.size()];
+        int[] binIndex = new int[BINS];
+        for (int i = 0; i < boxes.size(); i++) {
+            Box box = boxes.get(i);
+            long total = 0, a = 0, r = 0, g = 0, b = 0;
+            for (int j = box.from; j < box.to; j++) {
+                int bin = bins[j];
+                total += counts[bin];
+                a += sums[0][bin];
+                r += sums[1][bin];
+                g += sums[2][bin];
+                b += sums[3][bin];
+                binIndex[bin] = i;
+            }
+            colors[i] = (int) ((a + total / 2) / total) << 24 | (int) ((r + total / 2) / total) << 16
+                    | (int) ((g + total / 2) / total) << 8 | (int) ((b + total / 2) / total);
+        }
+
+        byte[] indices = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            readRow(image, y, row);
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                indices[offset + x] = (byte) binIndex[bin(row[x])];
+            }
+        }
+        return sortTranslucentFirst(width, height, colors, indices);
+    }
+
+    /**
+     * Move translucent entries to the front so the tRNS chunk stays short
+     */
+    private static IndexedImage sortTranslucentFirst(int width, int height, int[] colors, byte[] indices) {
+        int[] order = new int[colors.length];
+        int[] sorted = new int[colors.length];
+        int next = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < colors.length; i++) {
+                boolean opaque = (colors[i] >>> 24) == 0xFF;
+                if (opaque == (pass == 1)) {
+                    order[i] = next;
+                    sorted[next++] = colors[i];
+                }
+            }
+        }
+        boolean identity = true;
+        for (int i = 0; i < order.length && identity; i++) {
+            identity = order[i] == i;
+        }
+        if (!identity) {
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = (byte) order[indices[i] & 0xFF];
+            }
+        }
+        return new IndexedImage(width, height, sorted, indices);
+    }
+
+    private static void readRow(BufferedImage image, int y, int[] row) {
+        int width = image.getWidth();
+        Raster raster = image.getRaster();
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB
+                && raster.getDataBuffer() instanceof DataBufferInt buffer && raster.getParent() == null) {
+            System.arraycopy(buffer.getData(), y * width, row, 0, width);
+        } else {
+            image.getRGB(0, y, width, 1, row, 0, width);
+        }
+    }
+
+    private static int bin(int argb) {
+        return ((argb >>> 29) << 15) | (((argb >> 19) & 0x1F) << 10) | (((argb >> 11) & 0x1F) << 5) | ((argb >> 3) & 0x1F);
+    }
+
+    private static int mix(int value) {
+        value *= 0x9E3779B9;
+        return value ^ (value >>> 16);
+    }
+
+    /**
+     * A contiguous range of histogram bins
+     */
+    private static final class Box {
+        private static final int[] SHIFTS = {15, 10, 5, 0};
+        private static final int[] MASKS = {0x7, 0x1F, 0x1F, 0x1F};
+
+        final int from, to;
+        final long population;
+        final int channel;      // channel with the largest extent
+        final int extent;
+
+        Box(int[] bins, int from, int to, int[] counts) {
+            this.from = from;
+            this.to = to;
+            long population = 0;
+            int[] min = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+            int[] max = {-1, -1, -1, -1};
+            for (int i = from; i < to; i++) {
+                int bin = bins[i];
+                population += counts[bin];
+                for (int c = 0; c < 4; c++) {
+                    int value = channelValue(bin, c);
+                    min[c] = Math.min(min[c], value);
+                    max[c] = Math.max(max[c], value);
+                }
+            }
+            int channel = 0;
+            int extent = -1;
+            for (int c = 0; c < 4; c++) {
+                if (max[c] - min[c] > extent) {
+                    extent = max[c] - min[c];
+                    channel = c;
+                }
+            }
+            this.population = population;
+            this.channel = channel;
+            this.extent = extent;
+        }
+
+        /**
+         * Channel value scaled to 0-255 so alpha and colour extents are comparable
+         */
+        static int channelValue(int bin, int channel) {
+            int value = (bin >> SHIFTS[channel]) & MASKS[channel];
+            return channel == 0 ? value << 5 : value << 3;
+        }
+
+        boolean splittable() {
+            return to - from > 1 && extent > 0;
+        }
+
+        /**
+         * Large, widely spread boxes are split first
+         */
+        double priority() {
+            return (double) extent * Math.sqrt(population);
+        }
+
+        List<Box> split(int[] bins, int[] counts) {
+            Integer[] order = new Integer[to - from];
+            for (int i = from; i < to; i++) {
+                order[i - from] = bins[i];
+            }
+            Arrays.sort(order, (a, b) -> Integer.compare(channelValue(a, channel), channelValue(b, channel)));
+            for (int i = from; i < to; i++) {
+                bins[i] = order[i - from];
+            }
+
+            long half = population / 2;
+            long seen = 0;
+            int cut = from + 1;
+            for (int i = from; i < to - 1; i++) {
+                seen += counts[bins[i]];
+                cut = i + 1;
+                if (seen >= half) {
+                    break;
+                }
+            }
+            return List.of(new Box(bins, from, cut, counts), new Box(bins, cut, to, counts));
+        }
+    }
+}
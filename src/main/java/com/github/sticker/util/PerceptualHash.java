@@ -0,0 +1,68 @@
+package com.github.sticker.util;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * 64-bit difference hash (dHash) for finding visually similar captures.
+ * <p>
+ * The image is reduced to a 9x8 luminance grid by box averaging, and each bit
+ * records whether a cell is brighter than its right neighbour. The hash
+ * survives rescaling, recompression and small edits such as a changed clock
+ * or cursor, and the Hamming distance between two hashes measures how much
+ * the images differ.
+ */
+public final class PerceptualHash {
+    private static final int GRID_WIDTH = 9;
+    private static final int GRID_HEIGHT = 8;
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * Compute the difference hash of an image
+     */
+    public static long dHash(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        long[] sums = new long[GRID_WIDTH * GRID_HEIGHT];
+        int[] counts = new int[GRID_WIDTH * GRID_HEIGHT];
+
+        // Cell index of every column, so the inner loop only adds
+        int[] cellX = new int[width];
+        for (int x = 0; x < width; x++) {
+            cellX[x] = Math.min(GRID_WIDTH - 1, x * GRID_WIDTH / width);
+        }
+        // Large images are sampled every few rows, which is plenty for 8 rows of cells
+        int rowStep = Math.max(1, height / (GRID_HEIGHT * 16));
+        int[] row = new int[width];
+        for (int y = 0; y < height; y += rowStep) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int offset = Math.min(GRID_HEIGHT - 1, y * GRID_HEIGHT / height) * GRID_WIDTH;
+            for (int x = 0; x < width; x++) {
+                int argb = row[x];
+                int luma = (((argb >> 16) & 0xFF) * 77 + ((argb >> 8) & 0xFF) * 150 + (argb & 0xFF) * 29) >> 8;
+                sums[offset + cellX[x]] += luma;
+                counts[offset + cellX[x]]++;
+            }
+        }
+
+        long hash = 0;
+        for (int y = 0; y < GRID_HEIGHT; y++) {
+            for (int x = 0; x < GRID_WIDTH - 1; x++) {
+                int left = y * GRID_WIDTH + x;
+                // Compare averages without dividing: a/ca > b/cb  <=>  a*cb > b*ca
+                boolean brighter = sums[left] * Math.max(1, counts[left + 1])
+                        > sums[left + 1] * Math.max(1, counts[left]);
+                hash = (hash << 1) | (brighter ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Number of differing bits between two hashes
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+}
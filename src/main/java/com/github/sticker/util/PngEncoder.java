@@ -0,0 +1,481 @@
+package com.github.sticker.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleConsumer;
+import java.util.stream.IntStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder that filters and deflates large images in parallel.
+ * <p>
+ * Scanlines are split into bands of roughly {@link #BAND_BYTES}. Each band is
+ * filtered independently (the filters only look at the raw previous row) and
+ * compressed as a raw deflate stream ending in a sync flush, primed with the
+ * last 32 KiB of the preceding band as preset dictionary, in the style of
+ * pigz. The concatenated bands form one valid zlib stream, so compression
+ * loses almost nothing against a single-threaded encode.
+ * <p>
+ * Filters are chosen per row with the minimum-sum-of-absolute-differences
+ * heuristic. That heuristic is poor on flat UI content, where unfiltered rows
+ * often compress better, so {@link Level#SMALL} also tries the unfiltered
+ * band with a quick trial deflate and keeps whichever is smaller.
+ * <p>
+ * Images with few colours can be written as 8-bit indexed PNG, see
+ * {@link Palette}. Index rows are left unfiltered, as filtering palette
+ * indices only obscures the repetition deflate relies on.
+ */
+public final class PngEncoder {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int BAND_BYTES = 256 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int MAX_IDAT = 1 << 20;
+
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_AVERAGE = 3;
+    private static final int FILTER_PAETH = 4;
+
+    /**
+     * Speed/size trade-off
+     */
+    public enum Level {
+        /** Quick deflate and a cheap filter search, for history autosave */
+        FAST(1, new int[]{FILTER_NONE, FILTER_SUB, FILTER_UP}, false),
+        /** Maximum deflate effort, all five filters and per-band trial, for explicit export */
+        SMALL(9, new int[]{FILTER_NONE, FILTER_SUB, FILTER_UP, FILTER_AVERAGE, FILTER_PAETH}, true);
+
+        private final int deflateLevel;
+        private final int[] filters;
+        private final boolean trialUnfiltered;
+
+        Level(int deflateLevel, int[] filters, boolean trialUnfiltered) {
+            this.deflateLevel = deflateLevel;
+            this.filters = filters;
+            this.trialUnfiltered = trialUnfiltered;
+        }
+    }
+
+    /**
+     * Whether to write an indexed image
+     */
+    public enum Palette {
+        /** Always truecolor */
+        OFF,
+        /** Indexed when the image has at most 256 colours, truecolor otherwise; always lossless */
+        LOSSLESS,
+        /** Indexed, reducing the image to 256 colours by median cut when it has more */
+        QUANTIZED
+    }
+
+    /**
+     * Reads one row of raw sample bytes
+     */
+    @FunctionalInterface
+    private interface RowSource {
+        void read(int y, byte[] row, int[] scratch);
+    }
+
+    private PngEncoder() {
+    }
+
+    /**
+     * Encode an image into a byte array
+     */
+    public static byte[] encode(BufferedImage image, Level level) throws IOException {
+        return encode(image, level, Palette.OFF);
+    }
+
+    /**
+     * Encode an image into a byte array
+     */
+    public static byte[] encode(BufferedImage image, Level level, Palette palette) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(image, out, level, palette, p -> {
+        }, () -> false);
+        return out.toByteArray();
+    }
+
+    /**
+     * Encode an image
+     *
+     * @param image     source image, alpha is kept only when it is not fully opaque
+     * @param out       destination, not closed
+     * @param level     compression level
+     * @param progress  receives values between 0 and 1 as bands complete
+     * @param cancelled polled between bands, aborts with {@link CancellationException}
+     */
+    public static void write(BufferedImage image, OutputStream out, Level level,
+                             DoubleConsumer progress, BooleanSupplier cancelled) throws IOException {
+        write(image, out, level, Palette.OFF, progress, cancelled);
+    }
+
+    /**
+     * Encode an image, optionally as indexed colour
+     *
+     * @param palette whether to reduce the image to a palette
+     * @see #write(BufferedImage, OutputStream, Level, DoubleConsumer, BooleanSupplier)
+     */
+    public static void write(BufferedImage image, OutputStream out, Level level, Palette palette,
+                             DoubleConsumer progress, BooleanSupplier cancelled) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        PaletteQuantizer.IndexedImage indexed = switch (palette) {
+            case OFF -> null;
+            case LOSSLESS -> PaletteQuantizer.exact(image);
+            case QUANTIZED -> {
+                PaletteQuantizer.IndexedImage exact = PaletteQuantizer.exact(image);
+                yield exact != null ? exact : PaletteQuantizer.medianCut(image, PaletteQuantizer.MAX_COLORS);
+            }
+        };
+        checkCancelled(cancelled);
+
+        int channels;
+        RowSource source;
+        int[] filters;
+        boolean trialUnfiltered;
+        if (indexed != null) {
+            channels = 1;
+            source = (y, row, scratch) -> System.arraycopy(indexed.indices(), y * width, row, 0, width);
+            filters = new int[]{FILTER_NONE};
+            trialUnfiltered = false;
+        } else {
+            channels = hasTranslucency(image) ? 4 : 3;
+            int truecolorChannels = channels;
+            source = (y, row, scratch) -> readRow(image, y, truecolorChannels, scratch, row);
+            filters = level.filters;
+            trialUnfiltered = level.trialUnfiltered;
+        }
+        int rowBytes = width * channels;
+        int rowsPerBand = Math.max(1, BAND_BYTES / (rowBytes + 1));
+        int bands = (height + rowsPerBand - 1) / rowsPerBand;
+
+        // Phase 1: filter all bands in parallel
+        byte[][] filtered = new byte[bands][];
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            if (!cancelled.getAsBoolean()) {
+                int from = band * rowsPerBand;
+                int to = Math.min(height, from + rowsPerBand);
+                byte[] adaptive = filterRows(source, width, from, to, channels, filters);
+                if (trialUnfiltered) {
+                    byte[] unfiltered = filterRows(source, width, from, to, channels, new int[]{FILTER_NONE});
+                    filtered[band] = trialSize(unfiltered) < trialSize(adaptive) ? unfiltered : adaptive;
+                } else {
+                    filtered[band] = adaptive;
+                }
+            }
+        });
+        checkCancelled(cancelled);
+        progress.accept(0.3);
+
+        // Phase 2: deflate all bands in parallel, each primed with the tail of its predecessor
+        byte[][] compressed = new byte[bands][];
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            if (!cancelled.getAsBoolean()) {
+                compressed[band] = deflateBand(filtered, band, level.deflateLevel);
+            }
+        });
+        checkCancelled(cancelled);
+        progress.accept(0.8);
+
+        Adler32 adler = new Adler32();
+        for (byte[] data : filtered) {
+            adler.update(data);
+        }
+
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.write(SIGNATURE);
+        writeHeader(dataOut, width, height, indexed != null ? 3 : channels == 4 ? 6 : 2);
+        if (indexed != null) {
+            writePalette(dataOut, indexed);
+        }
+        IdatWriter idat = new IdatWriter(dataOut);
+        idat.write(new byte[]{0x78, zlibLevelFlag(level.deflateLevel)});
+        for (byte[] data : compressed) {
+            idat.write(data);
+        }
+        long checksum = adler.getValue();
+        idat.write(new byte[]{(byte) (checksum >>> 24), (byte) (checksum >>> 16), (byte) (checksum >>> 8), (byte) checksum});
+        idat.flush();
+        writeChunk(dataOut, "IEND", new byte[0], 0);
+        dataOut.flush();
+        progress.accept(1);
+    }
+
+    private static void checkCancelled(BooleanSupplier cancelled) {
+        if (cancelled.getAsBoolean()) {
+            throw new CancellationException("PNG encode cancelled");
+        }
+    }
+
+    private static boolean hasTranslucency(BufferedImage image) {
+        if (!image.getColorModel().hasAlpha()) {
+            return false;
+        }
+        int width = image.getWidth();
+        int[] row = new int[width];
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int argb : row) {
+                if ((argb >>> 24) != 0xFF) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Filter a band of rows, choosing per row the filter with the smallest sum of absolute values
+     */
+    private static byte[] filterRows(RowSource source, int width, int from, int to, int channels, int[] filters) {
+        int rowBytes = width * channels;
+        byte[] out = new byte[(to - from) * (rowBytes + 1)];
+        byte[] previous = new byte[rowBytes];
+        byte[] current = new byte[rowBytes];
+        byte[] candidate = new byte[rowBytes];
+        byte[] best = new byte[rowBytes];
+        int[] argb = new int[width];
+
+        if (from > 0) {
+            source.read(from - 1, previous, argb);
+        }
+        int position = 0;
+        for (int y = from; y < to; y++) {
+            source.read(y, current, argb);
+            long bestScore = Long.MAX_VALUE;
+            int bestFilter = FILTER_NONE;
+            for (int filter : filters) {
+                long score = applyFilter(filter, current, previous, channels, candidate);
+                if (score < bestScore) {
+                    bestScore = score;
+                    bestFilter = filter;
+                    byte[] swap = best;
+                    best = candidate;
+                    candidate = swap;
+                }
+            }
+            out[position++] = (byte) bestFilter;
+            System.arraycopy(best, 0, out, position, rowBytes);
+            position += rowBytes;
+
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return out;
+    }
+
+    private static void readRow(BufferedImage image, int y, int channels, int[] argb, byte[] row) {
+        int width = image.getWidth();
+        Raster raster = image.getRaster();
+        int type = image.getType();
+        if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                && raster.getDataBuffer() instanceof DataBufferInt buffer && raster.getParent() == null) {
+            System.arraycopy(buffer.getData(), y * width, argb, 0, width);
+            if (type == BufferedImage.TYPE_INT_RGB) {
+                for (int x = 0; x < width; x++) {
+                    argb[x] |= 0xFF000000;
+                }
+            }
+        } else {
+            image.getRGB(0, y, width, 1, argb, 0, width);
+        }
+        int i = 0;
+        for (int x = 0; x < width; x++) {
+            int pixel = argb[x];
+            row[i++] = (byte) (pixel >> 16);
+            row[i++] = (byte) (pixel >> 8);
+            row[i++] = (byte) pixel;
+            if (channels == 4) {
+                row[i++] = (byte) (pixel >>> 24);
+            }
+        }
+    }
+
+    /**
+     * Apply one PNG filter to a row
+     *
+     * @return the minimum-sum-of-absolute-differences score of the result
+     */
+    private static long applyFilter(int filter, byte[] row, byte[] previous, int bpp, byte[] out) {
+        long score = 0;
+        for (int i = 0; i < row.length; i++) {
+            int x = row[i] & 0xFF;
+            int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+            int b = previous[i] & 0xFF;
+            int c = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+            int value = switch (filter) {
+                case FILTER_SUB -> x - a;
+                case FILTER_UP -> x - b;
+                case FILTER_AVERAGE -> x - ((a + b) >>> 1);
+                case FILTER_PAETH -> x - paeth(a, b, c);
+                default -> x;
+            };
+            out[i] = (byte) value;
+            score += Math.abs((byte) value);
+        }
+        return score;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    /**
+     * Compressed size of a band at the fastest level, used to compare filter strategies
+     */
+    private static long trialSize(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                deflater.deflate(buffer);
+            }
+            return deflater.getBytesWritten();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] deflateBand(byte[][] bands, int band, int deflateLevel) {
+        Deflater deflater = new Deflater(deflateLevel, true);
+        try {
+            if (band > 0) {
+                byte[] prior = bands[band - 1];
+                int length = Math.min(DICTIONARY_SIZE, prior.length);
+                deflater.setDictionary(prior, prior.length - length, length);
+            }
+            byte[] input = bands[band];
+            deflater.setInput(input);
+            boolean last = band == bands.length - 1;
+            if (last) {
+                deflater.finish();
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            while (true) {
+                int count = last
+                        ? deflater.deflate(buffer)
+                        : deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                out.write(buffer, 0, count);
+                if (last ? deflater.finished() : count < buffer.length && deflater.needsInput()) {
+                    break;
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte zlibLevelFlag(int deflateLevel) {
+        // CMF 0x78 (deflate, 32K window) with FLEVEL chosen so that the header is divisible by 31
+        if (deflateLevel <= 1) {
+            return 0x01;
+        }
+        return deflateLevel >= 7 ? (byte) 0xDA : (byte) 0x9C;
+    }
+
+    private static void writeHeader(DataOutputStream out, int width, int height, int colorType) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream data = new DataOutputStream(header);
+        data.writeInt(width);
+        data.writeInt(height);
+        data.writeByte(8);                       // bit depth
+        data.writeByte(colorType);               // 2 truecolor, 3 indexed, 6 truecolor with alpha
+        data.writeByte(0);                       // deflate
+        data.writeByte(0);                       // adaptive filtering
+        data.writeByte(0);                       // no interlace
+        writeChunk(out, "IHDR", header.toByteArray(), header.size());
+    }
+
+    /**
+     * Write the PLTE chunk and, when some entries are translucent, the tRNS chunk
+     */
+    private static void writePalette(DataOutputStream out, PaletteQuantizer.IndexedImage indexed) throws IOException {
+        int[] colors = indexed.colors();
+        byte[] plte = new byte[colors.length * 3];
+        for (int i = 0; i < colors.length; i++) {
+            plte[i * 3] = (byte) (colors[i] >> 16);
+            plte[i * 3 + 1] = (byte) (colors[i] >> 8);
+            plte[i * 3 + 2] = (byte) colors[i];
+        }
+        writeChunk(out, "PLTE", plte, plte.length);
+
+        // Entries past the end of tRNS are opaque, which is why translucent entries come first
+        int translucent = indexed.translucentCount();
+        if (translucent > 0) {
+            byte[] trns = new byte[translucent];
+            for (int i = 0; i < translucent; i++) {
+                trns[i] = (byte) (colors[i] >>> 24);
+            }
+            writeChunk(out, "tRNS", trns, trns.length);
+        }
+    }
+
+    static void writeChunk(DataOutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Splits the zlib stream into IDAT chunks of bounded size
+     */
+    private static final class IdatWriter {
+        private final DataOutputStream out;
+        private final byte[] buffer = new byte[MAX_IDAT];
+        private int size = 0;
+
+        IdatWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void write(byte[] data) throws IOException {
+            int offset = 0;
+            while (offset < data.length) {
+                int count = Math.min(data.length - offset, buffer.length - size);
+                System.arraycopy(data, offset, buffer, size, count);
+                size += count;
+                offset += count;
+                if (size == buffer.length) {
+                    flush();
+                }
+            }
+        }
+
+        void flush() throws IOException {
+            if (size > 0) {
+                writeChunk(out, "IDAT", buffer, size);
+                size = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.github.sticker.util;
+
+import javafx.stage.FileChooser;
+
+/**
+ * The PNG file types offered by save dialogs and the palette mode each one maps to.
+ */
+public final class PngFileTypes {
+    private static final String PNG = "PNG Image";
+    private static final String REDUCED_PNG = "PNG Image, 256 colours";
+
+    private PngFileTypes() {
+    }
+
+    /**
+     * Offer plain and reduced-colour PNG in a save dialog
+     */
+    public static void addFilters(FileChooser fileChooser) {
+        fileChooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter(PNG, "*.png"),
+                new FileChooser.ExtensionFilter(REDUCED_PNG, "*.png")
+        );
+    }
+
+    /**
+     * Map the chosen file type to a palette mode.
+     * Plain PNG is still lossless, it is only written indexed when the image has few colours.
+     */
+    public static PngEncoder.Palette paletteFor(FileChooser fileChooser) {
+        FileChooser.ExtensionFilter filter = fileChooser.getSelectedExtensionFilter();
+        return filter != null && REDUCED_PNG.equals(filter.getDescription())
+                ? PngEncoder.Palette.QUANTIZED : PngEncoder.Palette.LOSSLESS;
+    }
+}
@@ -0,0 +1,135 @@
+package com.github.sticker.util;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+/**
+ * OCR-ready copy of an image, kept around so repeated region queries on the
+ * same sticker skip grayscale conversion, upscaling and thresholding.
+ * The binary image is {@link #getScale()} times the source size; region
+ * coordinates are always given in source pixels.
+ */
+public final class PreprocessedImage {
+    // White margin around cropped regions, Tesseract misses glyphs touching the border
+    private static final int PADDING = 8;
+
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int scale;
+    private final byte[] gray;
+    private final BufferedImage binary;
+
+    private PreprocessedImage(int sourceWidth, int sourceHeight, int scale, byte[] gray, BufferedImage binary) {
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.scale = scale;
+        this.gray = gray;
+        this.binary = binary;
+    }
+
+    /**
+     * Preprocess an image once
+     *
+     * @param image source pixels
+     * @return the cached OCR input
+     */
+    public static PreprocessedImage of(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int scale = ImagePreprocessor.ocrScale(width, height);
+        byte[] gray = ImagePreprocessor.grayscale(image);
+        if (scale > 1) {
+            gray = ImagePreprocessor.upscale(gray, width, height, scale);
+        }
+        BufferedImage binary = ImagePreprocessor.binarize(gray, width * scale, height * scale);
+        return new PreprocessedImage(width, height, scale, gray, binary);
+    }
+
+    public int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    /**
+     * Upscaled luminance, one unsigned byte per pixel of {@link #getBinary()}
+     */
+    public byte[] getGray() {
+        return gray;
+    }
+
+    /**
+     * Binarised image with dark text on white
+     */
+    public BufferedImage getBinary() {
+        return binary;
+    }
+
+    /**
+     * Crop a region of the binary image, with a white margin
+     *
+     * @param region rectangle in source pixels, clipped to the image
+     * @return padded crop, or null when the region is empty after clipping
+     */
+    public BufferedImage crop(Rectangle2D region) {
+        Rectangle2D clipped = clip(region);
+        if (clipped == null) {
+            return null;
+        }
+        int x = (int) clipped.getX() * scale;
+        int y = (int) clipped.getY() * scale;
+        int width = (int) clipped.getWidth() * scale;
+        int height = (int) clipped.getHeight() * scale;
+
+        BufferedImage crop = new BufferedImage(width + PADDING * 2, height + PADDING * 2, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = crop.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, crop.getWidth(), crop.getHeight());
+        g.drawImage(binary.getSubimage(x, y, width, height), PADDING, PADDING, null);
+        g.dispose();
+        return crop;
+    }
+
+    /**
+     * Map OCR results found in {@link #crop(Rectangle2D)} back to source pixels
+     *
+     * @param results results in crop coordinates
+     * @param region  the region passed to {@link #crop(Rectangle2D)}
+     */
+    public List<OCRUtil.OCRResult> toSource(List<OCRUtil.OCRResult> results, Rectangle2D region) {
+        Rectangle2D clipped = clip(region);
+        if (clipped == null) {
+            return List.of();
+        }
+        double offsetX = (int) clipped.getX() - (double) PADDING / scale;
+        double offsetY = (int) clipped.getY() - (double) PADDING / scale;
+        return results.stream().map(r -> r.transform(offsetX, offsetY, 1.0 / scale)).toList();
+    }
+
+    /**
+     * Map OCR results found in the whole binary image back to source pixels
+     */
+    public List<OCRUtil.OCRResult> toSource(List<OCRUtil.OCRResult> results) {
+        return results.stream().map(r -> r.transform(0, 0, 1.0 / scale)).toList();
+    }
+
+    private Rectangle2D clip(Rectangle2D region) {
+        int x = (int) Math.max(0, Math.floor(region.getMinX()));
+        int y = (int) Math.max(0, Math.floor(region.getMinY()));
+        int maxX = (int) Math.min(sourceWidth, Math.ceil(region.getMaxX()));
+        int maxY = (int) Math.min(sourceHeight, Math.ceil(region.getMaxY()));
+        if (maxX - x < 1 || maxY - y < 1) {
+            return null;
+        }
+        return new Rectangle2D.Double(x, y, maxX - x, maxY - y);
+    }
+}
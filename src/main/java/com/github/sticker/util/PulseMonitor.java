@@ -0,0 +1,77 @@
+package com.github.sticker.util;
+
+import javafx.scene.Scene;
+
+/**
+ * Pulse timing for performance checks, off unless the JVM is started with
+ * {@code -Dsnapsticker.pulseStats=true}.
+ * <p>
+ * Once a second it prints how many pulses ran, how long the CSS and layout
+ * phase of those pulses took, and how many sticker layout passes and canvas
+ * resizes happened. Zooming a sticker should show pulses with no layout
+ * passes and no canvas resizes.
+ */
+public final class PulseMonitor {
+    public static final boolean ENABLED = Boolean.getBoolean("snapsticker.pulseStats");
+    private static final long REPORT_INTERVAL_NS = 1_000_000_000L;
+
+    private static long pulseStart;
+    private static long windowStart;
+    private static int pulses;
+    private static long layoutNanos;
+    private static long maxLayoutNanos;
+    private static int layoutPasses;
+    private static int canvasResizes;
+
+    private PulseMonitor() {
+    }
+
+    /**
+     * Time the pulses of a scene
+     */
+    public static void attach(Scene scene) {
+        if (!ENABLED) {
+            return;
+        }
+        scene.addPreLayoutPulseListener(() -> pulseStart = System.nanoTime());
+        scene.addPostLayoutPulseListener(PulseMonitor::pulseLaidOut);
+    }
+
+    /**
+     * Record a layout pass of a sticker
+     */
+    public static void layoutPass() {
+        if (ENABLED) {
+            layoutPasses++;
+        }
+    }
+
+    /**
+     * Record a canvas resize, which reallocates its texture
+     */
+    public static void canvasResized() {
+        if (ENABLED) {
+            canvasResizes++;
+        }
+    }
+
+    private static void pulseLaidOut() {
+        long now = System.nanoTime();
+        long elapsed = now - pulseStart;
+        pulses++;
+        layoutNanos += elapsed;
+        maxLayoutNanos = Math.max(maxLayoutNanos, elapsed);
+        if (windowStart == 0) {
+            windowStart = now;
+        } else if (now - windowStart >= REPORT_INTERVAL_NS) {
+            System.out.printf("Pulses: %d, layout avg %.3f ms max %.3f ms, sticker layouts: %d, canvas resizes: %d%n",
+                    pulses, layoutNanos / 1e6 / pulses, maxLayoutNanos / 1e6, layoutPasses, canvasResizes);
+            windowStart = now;
+            pulses = 0;
+            layoutNanos = 0;
+            maxLayoutNanos = 0;
+            layoutPasses = 0;
+            canvasResizes = 0;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.github.sticker.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encoder and decoder for the QOI ("Quite OK Image") format.
+ * <p>
+ * QOI is lossless and encodes in a single pass over packed ARGB ints, which
+ * makes it several times faster than PNG for both directions. It is the
+ * default storage format for history captures; PNG is produced when an image
+ * leaves the application, and for captures QOI barely compresses.
+ *
+ * @see <a href="https://qoiformat.org/qoi-specification.pdf">QOI specification</a>
+ */
+public final class QoiCodec {
+    public static final String EXTENSION = ".qoi";
+
+    private static final int MAGIC = 0x716F6966; // "qoif"
+    private static final int HEADER_SIZE = 14;
+    private static final byte[] END_MARKER = {0, 0, 0, 0, 0, 0, 0, 1};
+
+    private static final int OP_INDEX = 0x00;
+    private static final int OP_DIFF = 0x40;
+    private static final int OP_LUMA = 0x80;
+    private static final int OP_RUN = 0xC0;
+    private static final int OP_RGB = 0xFE;
+    private static final int OP_RGBA = 0xFF;
+    private static final int MASK_2 = 0xC0;
+
+    private QoiCodec() {
+    }
+
+    /**
+     * Decoded image data
+     *
+     * @param width    image width
+     * @param height   image height
+     * @param channels 3 for opaque images, 4 with alpha
+     * @param pixels   packed ARGB, row major
+     */
+    public record QoiImage(int width, int height, int channels, int[] pixels) {
+        /**
+         * Wrap the pixels in a {@link BufferedImage} without copying
+         */
+        public BufferedImage toBufferedImage() {
+            BufferedImage image = new BufferedImage(width, height,
+                    channels == 4 ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            int[] target = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            System.arraycopy(pixels, 0, target, 0, pixels.length);
+            return image;
+        }
+    }
+
+    /**
+     * Encode packed ARGB pixels
+     *
+     * @param pixels   row-major ARGB, alpha ignored when channels is 3
+     * @param width    image width
+     * @param height   image height
+     * @param channels 3 or 4
+     * @return the complete QOI file
+     */
+    public static byte[] encode(int[] pixels, int width, int height, int channels) {
+        int count = width * height;
+        // Worst case: every pixel as OP_RGBA
+        byte[] out = new byte[HEADER_SIZE + count * (channels + 1) + END_MARKER.length];
+        int p = writeInt(out, 0, MAGIC);
+        p = writeInt(out, p, width);
+        p = writeInt(out, p, height);
+        out[p++] = (byte) channels;
+        out[p++] = 0; // sRGB with linear alpha
+
+        int[] index = new int[64];
+        int previous = 0xFF000000;
+        int run = 0;
+        boolean alpha = channels == 4;
+
+        for (int i = 0; i < count; i++) {
+            int pixel = alpha ? pixels[i] : pixels[i] | 0xFF000000;
+            if (pixel == previous) {
+                run++;
+                if (run == 62 || i == count - 1) {
+                    out[p++] = (byte) (OP_RUN | (run - 1));
+                    run = 0;
+                }
+                continue;
+            }
+            if (run > 0) {
+                out[p++] = (byte) (OP_RUN | (run - 1));
+                run = 0;
+            }
+
+            int hash = hash(pixel);
+            if (index[hash] == pixel) {
+                out[p++] = (byte) (OP_INDEX | hash);
+            } else {
+                index[hash] = pixel;
+                if ((pixel & 0xFF000000) == (previous & 0xFF000000)) {
+                    int dr = (byte) ((pixel >> 16) - (previous >> 16));
+                    int dg = (byte) ((pixel >> 8) - (previous >> 8));
+                    int db = (byte) (pixel - previous);
+                    int drDg = dr - dg;
+                    int dbDg = db - dg;
+                    if (dr >= -2 && dr <= 1 && dg >= -2 && dg <= 1 && db >= -2 && db <= 1) {
+                        out[p++] = (byte) (OP_DIFF | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2));
+                    } else if (dg >= -32 && dg <= 31 && drDg >= -8 && drDg <= 7 && dbDg >= -8 && dbDg <= 7) {
+                        out[p++] = (byte) (OP_LUMA | (dg + 32));
+                        out[p++] = (byte) ((drDg + 8) << 4 | (dbDg + 8));
+                    } else {
+                        out[p++] = (byte) OP_RGB;
+                        out[p++] = (byte) (pixel >> 16);
+                        out[p++] = (byte) (pixel >> 8);
+                        out[p++] = (byte) pixel;
+                    }
+                } else {
+                    out[p++] = (byte) OP_RGBA;
+                    out[p++] = (byte) (pixel >> 16);
+                    out[p++] = (byte) (pixel >> 8);
+                    out[p++] = (byte) pixel;
+                    out[p++] = (byte) (pixel >>> 24);
+                }
+            }
+            previous = pixel;
+        }
+
+        System.arraycopy(END_MARKER, 0, out, p, END_MARKER.length);
+        return Arrays.copyOf(out, p + END_MARKER.length);
+    }
+
+    /**
+     * Encode an image, keeping alpha only when it is not fully opaque
+     */
+    public static byte[] encode(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = argbPixels(image);
+        boolean opaque = true;
+        if (image.getColorModel().hasAlpha()) {
+            for (int pixel : pixels) {
+                if ((pixel >>> 24) != 0xFF) {
+                    opaque = false;
+                    break;
+                }
+            }
+        }
+        return encode(pixels, width, height, opaque ? 3 : 4);
+    }
+
+    /**
+     * Encode an image to a stream
+     */
+    public static void write(BufferedImage image, OutputStream out) throws IOException {
+        out.write(encode(image));
+    }
+
+    /**
+     * Decode a complete QOI file
+     *
+     * @throws IOException when the data is not a valid QOI image
+     */
+    public static QoiImage decode(byte[] data) throws IOException {
+        return decode(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Decode a complete QOI file from the remaining bytes of a buffer,
+     * such as a memory-mapped file, without copying it to the heap first
+     *
+     * @throws IOException when the data is not a valid QOI image
+     */
+    public static QoiImage decode(ByteBuffer data) throws IOException {
+        int start = data.position();
+        int length = data.remaining();
+        if (length < HEADER_SIZE + END_MARKER.length || data.getInt(start) != MAGIC) {
+            throw new IOException("Not a QOI image");
+        }
+        int width = data.getInt(start + 4);
+        int height = data.getInt(start + 8);
+        int channels = data.get(start + 12);
+        if (width <= 0 || height <= 0 || (channels != 3 && channels != 4)
+                || (long) width * height > Integer.MAX_VALUE - 8) {
+            throw new IOException("Invalid QOI header");
+        }
+
+        int count = width * height;
+        int[] pixels = new int[count];
+        int[] index = new int[64];
+        int pixel = 0xFF000000;
+        int p = start + HEADER_SIZE;
+        int end = start + length - END_MARKER.length;
+        int run = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (run > 0) {
+                run--;
+            } else if (p < end) {
+                int b1 = data.get(p++) & 0xFF;
+                if (b1 == OP_RGB) {
+                    pixel = (pixel & 0xFF000000) | (data.get(p) & 0xFF) << 16 | (data.get(p + 1) & 0xFF) << 8 | (data.get(p + 2) & 0xFF);
+                    p += 3;
+                } else if (b1 == OP_RGBA) {
+                    pixel = (data.get(p + 3) & 0xFF) << 24 | (data.get(p) & 0xFF) << 16 | (data.get(p + 1) & 0xFF) << 8 | (data.get(p + 2) & 0xFF);
+                    p += 4;
+                } else if ((b1 & MASK_2) == OP_INDEX) {
+                    pixel = index[b1];
+                } else if ((b1 & MASK_2) == OP_DIFF) {
+                    int r = ((pixel >> 16) + ((b1 >> 4) & 0x03) - 2) & 0xFF;
+                    int g = ((pixel >> 8) + ((b1 >> 2) & 0x03) - 2) & 0xFF;
+                    int b = (pixel + (b1 & 0x03) - 2) & 0xFF;
+                    pixel = (pixel & 0xFF000000) | r << 16 | g << 8 | b;
+                } else if ((b1 & MASK_2) == OP_LUMA) {
+                    int b2 = data.get(p++) & 0xFF;
+                    int dg = (b1 & 0x3F) - 32;
+                    int r = ((pixel >> 16) + dg - 8 + ((b2 >> 4) & 0x0F)) & 0xFF;
+                    int g = ((pixel >> 8) + dg) & 0xFF;
+                    int b = (pixel + dg - 8 + (b2 & 0x0F)) & 0xFF;
+                    pixel = (pixel & 0xFF000000) | r << 16 | g << 8 | b;
+                } else {
+                    run = b1 & 0x3F;
+                }
+                index[hash(pixel)] = pixel;
+            }
+            pixels[i] = pixel;
+        }
+        return new QoiImage(width, height, channels, pixels);
+    }
+
+    /**
+     * Decode a QOI image from a stream
+     */
+    public static QoiImage read(InputStream in) throws IOException {
+        return decode(in.readAllBytes());
+    }
+
+    /**
+     * Check whether a file name uses the QOI extension
+     */
+    public static boolean isQoi(String fileName) {
+        return fileName.toLowerCase().endsWith(EXTENSION);
+    }
+
+    private static int[] argbPixels(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Raster raster = image.getRaster();
+        int type = image.getType();
+        if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                && raster.getDataBuffer() instanceof DataBufferInt buffer && raster.getParent() == null) {
+            return buffer.getData();
+        }
+        return image.getRGB(0, 0, width, height, null, 0, width);
+    }
+
+    private static int hash(int argb) {
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+        int a = argb >>> 24;
+        return (r * 3 + g * 5 + b * 7 + a * 11) & 63;
+    }
+
+    private static int writeInt(byte[] out, int p, int value) {
+        out[p] = (byte) (value >>> 24);
+        out[p + 1] = (byte) (value >>> 16);
+        out[p + 2] = (byte) (value >>> 8);
+        out[p + 3] = (byte) value;
+        return p + 4;
+    }
+}
@@ -0,0 +1,202 @@
+package com.github.sticker.util;
+
+import java.util.stream.IntStream;
+
+/**
+ * Pixel filters for redacting part of an image.
+ * <p>
+ * Both filters read a source patch and write one output rectangle inside it,
+ * on premultiplied int ARGB pixels so transparent pixels do not bleed colour.
+ * The box blur reads its averages from summed-area tables, so the work per
+ * pixel is the same at any radius. The table is built per band of output
+ * rows, which keeps its memory proportional to the band rather than the
+ * image, and lets the bands run in parallel.
+ */
+public final class RedactionFilters {
+    /** Output rows per band; the table of a band also covers the blur radius above and below it */
+    private static final int BAND_ROWS = 128;
+
+    /** Largest radius whose box sums still fit in 32 unsigned bits */
+    public static final int MAX_RADIUS = 1024;
+
+    private RedactionFilters() {
+    }
+
+    /**
+     * Box blur of a rectangle of the source
+     * <p>
+     * The box is clipped to the source, so pixels near its edges average fewer
+     * neighbours instead of fading to transparent. Callers pass a source that
+     * extends {@code radius} beyond the output wherever the image allows.
+     *
+     * @param source       premultiplied ARGB source patch
+     * @param sourceWidth  width of the patch
+     * @param sourceHeight height of the patch
+     * @param x            left of the output in patch coordinates
+     * @param y            top of the output in patch coordinates
+     * @param width        output width
+     * @param height       output height
+     * @param radius       box radius, the box is {@code 2 * radius + 1} pixels wide
+     * @return blurred premultiplied ARGB pixels of the output rectangle
+     */
+    public static int[] blur(int[] source, int sourceWidth, int sourceHeight,
+                             int x, int y, int width, int height, int radius) {
+        int r = Math.max(0, Math.min(MAX_RADIUS, radius));
+        int[] out = new int[width * height];
+        int sx0 = Math.max(0, x - r);
+        int sx1 = Math.min(sourceWidth, x + width + r);
+        int bandRows = Math.max(BAND_ROWS, 2 * r);
+        int bands = (height + bandRows - 1) / bandRows;
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int oy0 = y + band * bandRows;
+            int oy1 = Math.min(y + height, oy0 + bandRows);
+            int sy0 = Math.max(0, oy0 - r);
+            int sy1 = Math.min(sourceHeight, oy1 + r);
+            SummedAreaTable table = new SummedAreaTable(source, sourceWidth, sx0, sy0, sx1, sy1);
+            for (int oy = oy0; oy < oy1; oy++) {
+                int by0 = Math.max(sy0, oy - r) - sy0;
+                int by1 = Math.min(sy1, oy + r + 1) - sy0;
+                int row = (oy - y) * width - x;
+                for (int ox = x; ox < x + width; ox++) {
+                    int bx0 = Math.max(sx0, ox - r) - sx0;
+                    int bx1 = Math.min(sx1, ox + r + 1) - sx0;
+                    out[row + ox] = table.average(bx0, by0, bx1, by1);
+                }
+            }
+        });
+        return out;
+    }
+
+    /**
+     * Mosaic of a rectangle of the source
+     * <p>
+     * Blocks are aligned to a grid anchored at the image origin, so neighbouring
+     * redactions share block edges. Each block takes the average of its pixels
+     * inside the source, so callers pass a source covering every block the
+     * output touches wherever the image allows.
+     *
+     * @param source       premultiplied ARGB source patch
+     * @param sourceWidth  width of the patch
+     * @param sourceHeight height of the patch
+     * @param originX      image x of the patch's left column
+     * @param originY      image y of the patch's top row
+     * @param x            left of the output in patch coordinates
+     * @param y            top of the output in patch coordinates
+     * @param width        output width
+     * @param height       output height
+     * @param block        block size in pixels
+     * @return pixelated premultiplied ARGB pixels of the output rectangle
+     */
+    public static int[] pixelate(int[] source, int sourceWidth, int sourceHeight, int originX, int originY,
+                                 int x, int y, int width, int height, int block) {
+        int size = Math.max(1, block);
+        int[] out = new int[width * height];
+        // Block rows and columns in image coordinates
+        int firstRow = Math.floorDiv(originY + y, size);
+        int lastRow = Math.floorDiv(originY + y + height - 1, size);
+        int firstColumn = Math.floorDiv(originX + x, size);
+        int lastColumn = Math.floorDiv(originX + x + width - 1, size);
+        IntStream.rangeClosed(firstRow, lastRow).parallel().forEach(blockRow -> {
+            int sy0 = Math.max(0, blockRow * size - originY);
+            int sy1 = Math.min(sourceHeight, (blockRow + 1) * size - originY);
+            int oy0 = Math.max(y, sy0);
+            int oy1 = Math.min(y + height, sy1);
+            for (int blockColumn = firstColumn; blockColumn <= lastColumn; blockColumn++) {
+                int sx0 = Math.max(0, blockColumn * size - originX);
+                int sx1 = Math.min(sourceWidth, (blockColumn + 1) * size - originX);
+                long a = 0;
+                long r = 0;
+                long g = 0;
+                long b = 0;
+                for (int sy = sy0; sy < sy1; sy++) {
+                    int row = sy * sourceWidth;
+                    for (int sx = sx0; sx < sx1; sx++) {
+                        int p = source[row + sx];
+                        a += p >>> 24;
+                        r += (p >> 16) & 0xFF;
+                        g += (p >> 8) & 0xFF;
+                        b += p & 0xFF;
+                    }
+                }
+                long count = (long) (sx1 - sx0) * (sy1 - sy0);
+                int average = (int) ((a + count / 2) / count) << 24
+                        | (int) ((r + count / 2) / count) << 16
+                        | (int) ((g + count / 2) / count) << 8
+                        | (int) ((b + count / 2) / count);
+                int ox0 = Math.max(x, sx0);
+                int ox1 = Math.min(x + width, sx1);
+                for (int oy = oy0; oy < oy1; oy++) {
+                    int row = (oy - y) * width - x;
+                    for (int ox = ox0; ox < ox1; ox++) {
+                        out[row + ox] = average;
+                    }
+                }
+            }
+        });
+        return out;
+    }
+
+    /**
+     * Per-channel summed-area table of a rectangle of the source.
+     * <p>
+     * Entries wrap around on overflow. A box sum is a difference of four
+     * entries, which is exact modulo 2^32, and the true sum of a box no larger
+     * than {@link #MAX_RADIUS} allows is below 2^32, so reading it back as an
+     * unsigned int gives the right value.
+     */
+    private static final class SummedAreaTable {
+        private final int stride;
+        private final int[] a;
+        private final int[] r;
+        private final int[] g;
+        private final int[] b;
+
+        SummedAreaTable(int[] source, int sourceWidth, int x0, int y0, int x1, int y1) {
+            int width = x1 - x0;
+            int height = y1 - y0;
+            stride = width + 1;
+            // Row and column 0 stay zero so boxes touching the edge need no special case
+            int size = stride * (height + 1);
+            a = new int[size];
+            r = new int[size];
+            g = new int[size];
+            b = new int[size];
+            for (int y = 0; y < height; y++) {
+                int in = (y0 + y) * sourceWidth + x0;
+                int above = y * stride + 1;
+                int row = above + stride;
+                int ra = 0;
+                int rr = 0;
+                int rg = 0;
+                int rb = 0;
+                for (int x = 0; x < width; x++) {
+                    int p = source[in + x];
+                    ra += p >>> 24;
+                    rr += (p >> 16) & 0xFF;
+                    rg += (p >> 8) & 0xFF;
+                    rb += p & 0xFF;
+                    a[row + x] = a[above + x] + ra;
+                    r[row + x] = r[above + x] + rr;
+                    g[row + x] = g[above + x] + rg;
+                    b[row + x] = b[above + x] + rb;
+                }
+            }
+        }
+
+        /**
+         * Rounded average of the box [x0, x1) x [y0, y1) in table coordinates, packed as ARGB
+         */
+        int average(int x0, int y0, int x1, int y1) {
+            int count = (x1 - x0) * (y1 - y0);
+            int i00 = y0 * stride + x0;
+            int i01 = y0 * stride + x1;
+            int i10 = y1 * stride + x0;
+            int i11 = y1 * stride + x1;
+            int half = count >>> 1;
+            return Integer.divideUnsigned(a[i11] - a[i01] - a[i10] + a[i00] + half, count) << 24
+                    | Integer.divideUnsigned(r[i11] - r[i01] - r[i10] + r[i00] + half, count) << 16
+                    | Integer.divideUnsigned(g[i11] - g[i01] - g[i10] + g[i00] + half, count) << 8
+                    | Integer.divideUnsigned(b[i11] - b[i01] - b[i10] + b[i00] + half, count);
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.github.sticker.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds sensitive text in OCR output and maps it back to pixel boxes.
+ * <p>
+ * Works on the word boxes OCR already produced, so nothing is recognised
+ * twice. The words of a line are joined with single spaces, the rules run
+ * over that string, and each match is mapped back to the words it covers,
+ * splitting a word box by character position when a match covers only part
+ * of a word. Rules are compiled once; earlier rules win where matches overlap.
+ * After the rules, an entropy check catches random-looking tokens that no
+ * pattern knows about.
+ */
+public final class SensitiveTextDetector {
+    /** Minimum length of a token the entropy check looks at */
+    private static final int MIN_SECRET_LENGTH = 16;
+    /** Shannon entropy per character above which a mixed-alphabet token counts as random */
+    private static final double SECRET_ENTROPY = 3.5;
+    /** Hex tokens have at most 4 bits per character, so length decides instead */
+    private static final int MIN_HEX_SECRET_LENGTH = 32;
+    /** Padding around a finding, as a fraction of its height, so glyph edges are covered too */
+    private static final double PADDING = 0.15;
+
+    private static final Pattern TOKEN = Pattern.compile("[A-Za-z0-9+/=_\\-]+");
+    private static final Pattern HEX = Pattern.compile("[0-9a-fA-F]+");
+
+    private static final List<Rule> RULES = List.of(
+            // Values after a key word, only the value is redacted
+            new Rule(Category.SECRET, Pattern.compile(
+                    "(?i)\\b(?:password|passwd|pwd|secret|token|api[_-]?key|access[_-]?key)\\s*[:=]\\s*(\\S+)"), 1, null),
+            new Rule(Category.SECRET, Pattern.compile("\\bAKIA[0-9A-Z]{16}\\b"), 0, null),
+            new Rule(Category.SECRET, Pattern.compile("\\bgh[pousr]_[A-Za-z0-9]{30,}\\b"), 0, null),
+            new Rule(Category.SECRET, Pattern.compile("\\bxox[abprs]-[A-Za-z0-9-]{10,}"), 0, null),
+            new Rule(Category.SECRET, Pattern.compile("\\bsk-[A-Za-z0-9_-]{20,}"), 0, null),
+            new Rule(Category.SECRET, Pattern.compile("\\beyJ[A-Za-z0-9_-]+\\.[A-Za-z0-9_-]+\\.[A-Za-z0-9_-]+"), 0, null),
+            new Rule(Category.EMAIL, Pattern.compile("[A-Za-z0-9._%+-]+@[A-Za-z0-9-]+(?:\\.[A-Za-z0-9-]+)*\\.[A-Za-z]{2,}"),
+                    0, null),
+            new Rule(Category.IP_ADDRESS, Pattern.compile(
+                    "(?<![\\d.])(?:(?:25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)\\.){3}(?:25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(?!\\.?\\d)"),
+                    0, null),
+            new Rule(Category.IP_ADDRESS, Pattern.compile(
+                    "(?i)(?<![0-9a-f:])(?:[0-9a-f]{0,4}:){2,7}[0-9a-f]{1,4}(?![0-9a-f:])"),
+                    0, SensitiveTextDetector::looksLikeIpv6),
+            new Rule(Category.CARD_NUMBER, Pattern.compile("(?<![\\d-])\\d(?:[ -]?\\d){12,18}(?![\\d-])"),
+                    0, SensitiveTextDetector::passesLuhn),
+            new Rule(Category.ACCOUNT_NUMBER, Pattern.compile(
+                    "\\b[A-Z]{2}\\d{2}(?: ?[A-Z0-9]{4}){2,7}(?: ?[A-Z0-9]{1,3})?\\b"),
+                    0, SensitiveTextDetector::passesIbanCheck),
+            new Rule(Category.ACCOUNT_NUMBER, Pattern.compile("(?<![\\d.])\\d(?:[ -]?\\d){8,}(?![\\d.])"), 0, null)
+    );
+
+    private SensitiveTextDetector() {
+    }
+
+    /**
+     * Kind of sensitive text
+     */
+    public enum Category {
+        EMAIL,
+        IP_ADDRESS,
+        CARD_NUMBER,
+        ACCOUNT_NUMBER,
+        SECRET
+    }
+
+    /**
+     * A piece of sensitive text on one line, in the coordinates of the OCR results
+     *
+     * @param category what kind of text it is
+     * @param text     the matched text
+     */
+    public record Finding(Category category, String text, double x, double y, double width, double height) {
+    }
+
+    /**
+     * One detector
+     *
+     * @param group capture group holding the sensitive part, 0 for the whole match
+     * @param check extra validation of the matched text, null when the pattern is enough
+     */
+    private record Rule(Category category, Pattern pattern, int group, Predicate<String> check) {
+    }
+
+    /**
+     * A word of a line and where it starts in the joined line text
+     */
+    private record Word(OCRUtil.OCRResult box, int start, int end) {
+    }
+
+    /**
+     * Find sensitive text in OCR lines
+     *
+     * @param lines line results, with word boxes where OCR provided them
+     * @return one finding per match and line, padded to cover whole glyphs
+     */
+    public static List<Finding> detect(List<OCRUtil.OCRResult> lines) {
+        List<Finding> findings = new ArrayList<>();
+        for (OCRUtil.OCRResult line : lines) {
+            detectLine(line, findings);
+        }
+        return findings;
+    }
+
+    private static void detectLine(OCRUtil.OCRResult line, List<Finding> findings) {
+        // Lines restored without word boxes are treated as a single word
+        List<OCRUtil.OCRResult> boxes = line.getWords().isEmpty() ? List.of(line) : line.getWords();
+        List<Word> words = new ArrayList<>(boxes.size());
+        StringBuilder text = new StringBuilder();
+        for (OCRUtil.OCRResult box : boxes) {
+            if (text.length() > 0) {
+                text.append(' ');
+            }
+            int start = text.length();
+            text.append(box.getText());
+            words.add(new Word(box, start, text.length()));
+        }
+        if (text.length() == 0) {
+            return;
+        }
+
+        BitSet claimed = new BitSet(text.length());
+        for (Rule rule : RULES) {
+            Matcher matcher = rule.pattern().matcher(text);
+            while (matcher.find()) {
+                int start = matcher.start(rule.group());
+                int end = matcher.end(rule.group());
+                String match = matcher.group(rule.group());
+                int next = claimed.nextSetBit(start);
+                if (start < end && (next < 0 || next >= end)
+                        && (rule.check() == null || rule.check().test(match))) {
+                    claimed.set(start, end);
+                    addFinding(rule.category(), match, words, start, end, findings);
+                }
+            }
+        }
+
+        Matcher tokens = TOKEN.matcher(text);
+        while (tokens.find()) {
+            int start = tokens.start();
+            int end = tokens.end();
+            int next = claimed.nextSetBit(start);
+            if ((next < 0 || next >= end) && looksRandom(tokens.group())) {
+                claimed.set(start, end);
+                addFinding(Category.SECRET, tokens.group(), words, start, end, findings);
+            }
+        }
+    }
+
+    /**
+     * Map a character range of the joined line back to a box covering the words it touches
+     */
+    private static void addFinding(Category category, String match, List<Word> words, int start, int end,
+                                   List<Finding> findings) {
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (Word word : words) {
+            if (word.end() <= start || word.start() >= end) {
+                continue;
+            }
+            // Characters are assumed to be equally wide within a word
+            OCRUtil.OCRResult box = word.box();
+            double charWidth = box.getWidth() / Math.max(1, word.end() - word.start());
+            double left = box.getX() + charWidth * Math.max(0, start - word.start());
+            double right = box.getX() + charWidth * (Math.min(end, word.end()) - word.start());
+            minX = Math.min(minX, left);
+            maxX = Math.max(maxX, right);
+            minY = Math.min(minY, box.getY());
+            maxY = Math.max(maxY, box.getY() + box.getHeight());
+        }
+        if (minX >= maxX || minY >= maxY) {
+            return;
+        }
+        double pad = (maxY - minY) * PADDING;
+        findings.add(new Finding(category, match, minX - pad, minY - pad,
+                maxX - minX + 2 * pad, maxY - minY + 2 * pad));
+    }
+
+    /**
+     * Whether a token looks like a random key rather than a word or number
+     */
+    static boolean looksRandom(String token) {
+        if (token.length() < MIN_SECRET_LENGTH) {
+            return false;
+        }
+        boolean digit = false;
+        boolean lower = false;
+        boolean upper = false;
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            digit |= Character.isDigit(c);
+            lower |= Character.isLowerCase(c);
+            upper |= Character.isUpperCase(c);
+        }
+        if (!digit || !(lower || upper)) {
+            // Words and plain numbers are left to the other rules
+            return false;
+        }
+        if (HEX.matcher(token).matches()) {
+            return token.length() >= MIN_HEX_SECRET_LENGTH;
+        }
+        return entropy(token) >= SECRET_ENTROPY;
+    }
+
+    /**
+     * Shannon entropy of the characters of a string, in bits per character
+     */
+    static double entropy(String text) {
+        int[] counts = new int[128];
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 128) {
+                counts[c]++;
+            } else {
+                other++;
+            }
+        }
+        double entropy = 0;
+        double length = text.length();
+        for (int count : counts) {
+            if (count > 0) {
+                double p = count / length;
+                entropy -= p * Math.log(p);
+            }
+        }
+        if (other > 0) {
+            double p = other / length;
+            entropy -= p * Math.log(p);
+        }
+        return entropy / Math.log(2);
+    }
+
+    /**
+     * Luhn checksum used by payment card numbers
+     */
+    static boolean passesLuhn(String number) {
+        int sum = 0;
+        boolean doubled = false;
+        for (int i = number.length() - 1; i >= 0; i--) {
+            char c = number.charAt(i);
+            if (!Character.isDigit(c)) {
+                continue;
+            }
+            int digit = c - '0';
+            if (doubled) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+            doubled = !doubled;
+        }
+        return sum % 10 == 0;
+    }
+
+    /**
+     * ISO 13616 mod-97 check of an IBAN
+     */
+    static boolean passesIbanCheck(String iban) {
+        String compact = iban.replace(" ", "");
+        if (compact.length() < 15 || compact.length() > 34) {
+            return false;
+        }
+        String rearranged = compact.substring(4) + compact.substring(0, 4);
+        int remainder = 0;
+        for (int i = 0; i < rearranged.length(); i++) {
+            int value = Character.digit(rearranged.charAt(i), 36);
+            if (value < 0) {
+                return false;
+            }
+            remainder = (value < 10 ? remainder * 10 : remainder * 100) + value;
+            remainder %= 97;
+        }
+        return remainder == 1;
+    }
+
+    /**
+     * Rules out times such as 12:30:45 that share the IPv6 alphabet
+     */
+    private static boolean looksLikeIpv6(String text) {
+        long colons = text.chars().filter(c -> c == ':').count();
+        return text.contains("::") || colons >= 5;
+    }
+}
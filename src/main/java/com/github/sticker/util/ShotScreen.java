@@ -11,19 +11,29 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 
 public class ShotScreen {
+    // Creating a Robot costs a native peer lookup, reuse one across captures
+    private static Robot robot;
+
     public static WritableImage snapshotScreen(Scene scene, Rectangle selectionArea) {
+        BufferedImage screenImage = captureScreen(scene, selectionArea);
+        WritableImage screenContent = new WritableImage(screenImage.getWidth(), screenImage.getHeight());
+        SwingFXUtils.toFXImage(screenImage, screenContent);
+        return screenContent;
+    }
+
+    /**
+     * Capture the screen pixels under a node rectangle without converting to a JavaFX image
+     *
+     * @param scene         scene the rectangle belongs to
+     * @param selectionArea rectangle in scene root coordinates
+     * @return the captured pixels
+     */
+    public static BufferedImage captureScreen(Scene scene, Rectangle selectionArea) {
         double x = selectionArea.getX();
         double y = selectionArea.getY();
         double width = selectionArea.getWidth();
         double height = selectionArea.getHeight();
 
-        Robot robot;
-        try {
-            robot = new Robot();
-        } catch (AWTException e) {
-            throw new RuntimeException("Failed to create Robot instance", e);
-        }
-
         Point2D sceneCoords = scene.getRoot().localToScreen(x, y);
 
         java.awt.Rectangle awtRect = new java.awt.Rectangle(
@@ -33,9 +43,17 @@ public class ShotScreen {
                 (int) height
         );
 
-        BufferedImage screenImage = robot.createScreenCapture(awtRect);
-        WritableImage screenContent = new WritableImage((int) width, (int) height);
-        SwingFXUtils.toFXImage(screenImage, screenContent);
-        return screenContent;
+        return getRobot().createScreenCapture(awtRect);
+    }
+
+    private static synchronized Robot getRobot() {
+        if (robot == null) {
+            try {
+                robot = new Robot();
+            } catch (AWTException e) {
+                throw new RuntimeException("Failed to create Robot instance", e);
+            }
+        }
+        return robot;
     }
 }
@@ -0,0 +1,283 @@
+package com.github.sticker.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Recovers the grid of a captured table.
+ * Ruling lines and column gutters are found with horizontal and vertical
+ * projection profiles of the binarised image; the word boxes of the regular
+ * OCR pass are then dropped into the resulting cells, so no cell is
+ * recognised on its own.
+ */
+public final class TableExtractor {
+    // A row or column is a ruling line when this share of it is ink
+    private static final double RULE_COVERAGE = 0.6;
+    // Column gutters must be at least this many word heights wide, inter-word spaces are narrower
+    private static final double MIN_GUTTER = 0.9;
+
+    private TableExtractor() {
+    }
+
+    /**
+     * Extracted cell texts, row major, all rows of equal length
+     */
+    public record Table(List<List<String>> rows) {
+        public int rowCount() {
+            return rows.size();
+        }
+
+        public int columnCount() {
+            return rows.isEmpty() ? 0 : rows.get(0).size();
+        }
+
+        public String toTsv() {
+            StringBuilder builder = new StringBuilder();
+            for (List<String> row : rows) {
+                for (int i = 0; i < row.size(); i++) {
+                    if (i > 0) {
+                        builder.append('\t');
+                    }
+                    builder.append(row.get(i).replace('\t', ' '));
+                }
+                builder.append(System.lineSeparator());
+            }
+            return builder.toString();
+        }
+
+        public String toCsv() {
+            StringBuilder builder = new StringBuilder();
+            for (List<String> row : rows) {
+                for (int i = 0; i < row.size(); i++) {
+                    if (i > 0) {
+                        builder.append(',');
+                    }
+                    String cell = row.get(i);
+                    if (cell.indexOf(',') >= 0 || cell.indexOf('"') >= 0 || cell.indexOf('\n') >= 0) {
+                        builder.append('"').append(cell.replace("\"", "\"\"")).append('"');
+                    } else {
+                        builder.append(cell);
+                    }
+                }
+                builder.append("\r\n");
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Build a table from a preprocessed image and the line results of one OCR pass
+     *
+     * @param image   binarised copy of the captured table
+     * @param results line results with word boxes, in source pixels
+     * @return the recovered table, empty when no words were found
+     */
+    public static Table extract(PreprocessedImage image, List<OCRUtil.OCRResult> results) {
+        List<OCRUtil.OCRResult> words = new ArrayList<>();
+        for (OCRUtil.OCRResult line : results) {
+            words.addAll(line.getWords().isEmpty() ? List.of(line) : line.getWords());
+        }
+        if (words.isEmpty()) {
+            return new Table(List.of());
+        }
+
+        BufferedImage binary = image.getBinary();
+        int width = binary.getWidth();
+        int height = binary.getHeight();
+        int scale = image.getScale();
+        byte[] pixels = ((DataBufferByte) binary.getRaster().getDataBuffer()).getData();
+
+        // Only the area covered by words matters, margins and window chrome are ignored
+        int left = width, top = height, right = 0, bottom = 0;
+        double[] wordHeights = new double[words.size()];
+        for (int i = 0; i < words.size(); i++) {
+            OCRUtil.OCRResult word = words.get(i);
+            left = Math.min(left, (int) (word.getX() * scale));
+            top = Math.min(top, (int) (word.getY() * scale));
+            right = Math.max(right, (int) Math.ceil((word.getX() + word.getWidth()) * scale));
+            bottom = Math.max(bottom, (int) Math.ceil((word.getY() + word.getHeight()) * scale));
+            wordHeights[i] = word.getHeight() * scale;
+        }
+        left = Math.max(0, left);
+        top = Math.max(0, top);
+        right = Math.min(width, right);
+        bottom = Math.min(height, bottom);
+        Arrays.sort(wordHeights);
+        double wordHeight = Math.max(1, wordHeights[wordHeights.length / 2]);
+
+        // Ruling lines are long runs of ink across the whole table
+        boolean[] ruleRow = new boolean[height];
+        boolean[] ruleColumn = new boolean[width];
+        int[] rowInk = new int[height];
+        int[] columnInk = new int[width];
+        for (int y = 0; y < height; y++) {
+            int offset = y * width;
+            for (int x = left; x < right; x++) {
+                if (pixels[offset + x] == 0) {
+                    rowInk[y]++;
+                }
+            }
+            ruleRow[y] = rowInk[y] >= (right - left) * RULE_COVERAGE;
+        }
+        for (int y = top; y < bottom; y++) {
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                if (pixels[offset + x] == 0) {
+                    columnInk[x]++;
+                }
+            }
+        }
+        for (int x = 0; x < width; x++) {
+            ruleColumn[x] = columnInk[x] >= (bottom - top) * RULE_COVERAGE;
+        }
+
+        // Column profile without the ink of horizontal rules, so gutters show as empty runs
+        int[] textColumnInk = new int[width];
+        for (int y = top; y < bottom; y++) {
+            if (ruleRow[y]) {
+                continue;
+            }
+            int offset = y * width;
+            for (int x = left; x < right; x++) {
+                if (pixels[offset + x] == 0 && !ruleColumn[x]) {
+                    textColumnInk[x]++;
+                }
+            }
+        }
+        int[] textRowInk = new int[height];
+        for (int y = top; y < bottom; y++) {
+            if (ruleRow[y]) {
+                continue;
+            }
+            int offset = y * width;
+            for (int x = left; x < right; x++) {
+                if (pixels[offset + x] == 0 && !ruleColumn[x]) {
+                    textRowInk[y]++;
+                }
+            }
+        }
+
+        double[] columnCuts = cuts(ruleColumn, textColumnInk, left, right, wordHeight * MIN_GUTTER);
+        double[] rowCuts = cuts(ruleRow, textRowInk, top, bottom, 1);
+
+        // Drop every word into the cell containing its centre
+        int columns = columnCuts.length + 1;
+        int rows = rowCuts.length + 1;
+        List<List<List<OCRUtil.OCRResult>>> cells = new ArrayList<>();
+        for (int r = 0; r < rows; r++) {
+            List<List<OCRUtil.OCRResult>> row = new ArrayList<>();
+            for (int c = 0; c < columns; c++) {
+                row.add(new ArrayList<>());
+            }
+            cells.add(row);
+        }
+        for (OCRUtil.OCRResult word : words) {
+            double centerX = (word.getX() + word.getWidth() / 2) * scale;
+            double centerY = (word.getY() + word.getHeight() / 2) * scale;
+            cells.get(bucket(rowCuts, centerY)).get(bucket(columnCuts, centerX)).add(word);
+        }
+
+        return new Table(toText(cells, wordHeight / scale));
+    }
+
+    /**
+     * Find separator positions along one axis.
+     * When the table is ruled, only the rules separate cells so that wrapped
+     * cell text stays in one cell; otherwise wide empty runs are used.
+     *
+     * @param rule   positions that are ruling lines
+     * @param ink    ink per position with rules removed
+     * @param from   first position of the table
+     * @param to     end of the table, exclusive
+     * @param minGap minimum width of an empty run to count as a separator
+     * @return separator centres, ascending
+     */
+    private static double[] cuts(boolean[] rule, int[] ink, int from, int to, double minGap) {
+        List<Double> ruleCuts = new ArrayList<>();
+        List<Double> gapCuts = new ArrayList<>();
+        boolean seenContent = false;
+        int gapStart = -1;
+        boolean gapHasRule = false;
+        for (int i = from; i < to; i++) {
+            boolean empty = rule[i] || ink[i] == 0;
+            if (empty) {
+                if (gapStart < 0) {
+                    gapStart = i;
+                    gapHasRule = false;
+                }
+                gapHasRule |= rule[i];
+            } else {
+                if (gapStart >= 0 && seenContent) {
+                    double center = (gapStart + i) / 2.0;
+                    if (gapHasRule) {
+                        ruleCuts.add(center);
+                    }
+                    if (gapHasRule || i - gapStart >= minGap) {
+                        gapCuts.add(center);
+                    }
+                }
+                gapStart = -1;
+                seenContent = true;
+            }
+        }
+        List<Double> cuts = ruleCuts.size() >= 2 ? ruleCuts : gapCuts;
+        return cuts.stream().mapToDouble(Double::doubleValue).toArray();
+    }
+
+    private static int bucket(double[] cuts, double position) {
+        int index = Arrays.binarySearch(cuts, position);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Join the words of each cell and drop rows and columns that stayed empty
+     */
+    private static List<List<String>> toText(List<List<List<OCRUtil.OCRResult>>> cells, double lineHeight) {
+        int columns = cells.get(0).size();
+        boolean[] usedColumn = new boolean[columns];
+        List<List<String>> rows = new ArrayList<>();
+        for (List<List<OCRUtil.OCRResult>> row : cells) {
+            List<String> texts = new ArrayList<>();
+            boolean used = false;
+            for (int c = 0; c < columns; c++) {
+                List<OCRUtil.OCRResult> words = row.get(c);
+                // Reading order inside a cell, words on the same visual line share a band
+                words.sort((a, b) -> {
+                    long bandA = Math.round(a.getY() / lineHeight);
+                    long bandB = Math.round(b.getY() / lineHeight);
+                    return bandA != bandB ? Long.compare(bandA, bandB) : Double.compare(a.getX(), b.getX());
+                });
+                StringBuilder text = new StringBuilder();
+                for (OCRUtil.OCRResult word : words) {
+                    if (text.length() > 0) {
+                        text.append(' ');
+                    }
+                    text.append(word.getText());
+                }
+                texts.add(text.toString());
+                if (!words.isEmpty()) {
+                    used = true;
+                    usedColumn[c] = true;
+                }
+            }
+            if (used) {
+                rows.add(texts);
+            }
+        }
+
+        List<List<String>> result = new ArrayList<>();
+        for (List<String> row : rows) {
+            List<String> kept = new ArrayList<>();
+            for (int c = 0; c < columns; c++) {
+                if (usedColumn[c]) {
+                    kept.add(row.get(c));
+                }
+            }
+            result.add(kept);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,247 @@
+package com.github.sticker.draw;
+
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Path;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.awt.BasicStroke;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 画笔拟合的样本集
+ * 用几种典型的笔画按DrawCanvas的采样间距和容差生成采样，检查拟合后的路径元素数比原来逐点生成的路径少多少，
+ * 以及轮廓和中心线画出来与按采样点直接画的结果相比不一致的像素比例。
+ * 轮廓的参考图用同样的随速度变化的半宽画出每个采样处的圆和相邻采样间的梯形，中心线的参考图是圆头描边的折线。
+ * 渲染关闭描边规整化，否则Java2D会把折线和曲线的坐标分别对齐到像素，比较的是对齐的差别而不是拟合的偏离
+ */
+class PenStrokeCorpusTest {
+    private static final int SIZE = 640;
+    /** 默认线宽和线宽滑块的最大值 */
+    private static final double DEFAULT_WIDTH = 2;
+    private static final double MAX_WIDTH = 20;
+    /** 轮廓不一致像素占参考图着色像素的上限，百分比，按默认线宽和最大线宽 */
+    private static final double MAX_OUTLINE_MISMATCH = 0.5;
+    private static final double MAX_WIDE_OUTLINE_MISMATCH = 2.0;
+    /** 中心线不一致像素的上限，百分比 */
+    private static final double MAX_CENTERLINE_MISMATCH = 0.5;
+
+    /**
+     * 笔画的种类
+     * 波浪的高频分量在波峰处的曲率半径只有1像素左右，比采样间距还小，每个波峰都是急转弯，元素数只能减少到三分之一左右
+     */
+    enum Kind {
+        CIRCLE(20),
+        SPIRAL(20),
+        WAVE(2.5),
+        ZIGZAG(8),
+        SIGNATURE(7);
+
+        /** 元素数至少减少的倍数 */
+        final double minRatio;
+
+        Kind(double minRatio) {
+            this.minRatio = minRatio;
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(Kind.class)
+    void outlineHasFewerElements(Kind kind) {
+        List<double[]> samples = sample(kind);
+        Path outline = stroke(samples).toOutline(DrawCanvas.SIMPLIFY_TOLERANCE, Color.BLACK, DEFAULT_WIDTH, 1);
+        // 原来逐点生成的路径：MoveTo、LineTo，之后每个采样一条QuadCurveTo，松开时再补一条
+        double ratio = (samples.size() + 1) / (double) outline.getElements().size();
+        assertTrue(ratio >= kind.minRatio, kind + " only " + ratio + "x fewer elements");
+    }
+
+    @ParameterizedTest
+    @EnumSource(Kind.class)
+    void centerlineStaysWithinTolerance(Kind kind) {
+        List<double[]> samples = sample(kind);
+        Shape center = AnnotationRaster.outline(stroke(samples).toCenterline(DrawCanvas.SIMPLIFY_TOLERANCE));
+        List<double[]> points = flatten(center);
+        for (double[] p : samples) {
+            double distance = Double.MAX_VALUE;
+            for (int i = 1; i < points.size(); i++) {
+                distance = Math.min(distance, Line2D.ptSegDist(points.get(i - 1)[0], points.get(i - 1)[1],
+                        points.get(i)[0], points.get(i)[1], p[0], p[1]));
+            }
+            assertTrue(distance <= DrawCanvas.SIMPLIFY_TOLERANCE * 1.01,
+                    kind + " sample at " + p[0] + "," + p[1] + " is " + distance + " off the centerline");
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(Kind.class)
+    void outlineMatchesSamples(Kind kind) {
+        List<double[]> samples = sample(kind);
+        for (double width : new double[]{DEFAULT_WIDTH, MAX_WIDTH}) {
+            PenStroke stroke = stroke(samples);
+            Path outline = stroke.toOutline(DrawCanvas.SIMPLIFY_TOLERANCE, Color.BLACK, width, 1);
+            double mismatch = mismatch(draw(reference(samples, stroke.radii(width, 1)), width, true),
+                    draw(AnnotationRaster.outline(outline), width, true));
+            double limit = width == DEFAULT_WIDTH ? MAX_OUTLINE_MISMATCH : MAX_WIDE_OUTLINE_MISMATCH;
+            assertTrue(mismatch <= limit, kind + " outline at width " + width + " differs in " + mismatch + "%");
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(Kind.class)
+    void centerlineMatchesSamples(Kind kind) {
+        List<double[]> samples = sample(kind);
+        Path center = stroke(samples).toCenterline(DrawCanvas.SIMPLIFY_TOLERANCE);
+        Path2D.Double polyline = new Path2D.Double();
+        polyline.moveTo(samples.get(0)[0], samples.get(0)[1]);
+        for (double[] p : samples) {
+            polyline.lineTo(p[0], p[1]);
+        }
+        double mismatch = mismatch(draw(polyline, DEFAULT_WIDTH, false),
+                draw(AnnotationRaster.outline(center), DEFAULT_WIDTH, false));
+        assertTrue(mismatch <= MAX_CENTERLINE_MISMATCH, kind + " centerline differs in " + mismatch + "%");
+    }
+
+    private static PenStroke stroke(List<double[]> samples) {
+        PenStroke stroke = new PenStroke();
+        for (double[] p : samples) {
+            stroke.add(p[0], p[1], p[2]);
+        }
+        return stroke;
+    }
+
+    /**
+     * 按曲线参数密集取点，再按采样间距筛选，时间间隔在8到12毫秒之间变化
+     */
+    private static List<double[]> sample(Kind kind) {
+        List<double[]> samples = new ArrayList<>();
+        double time = 0;
+        double[] last = null;
+        for (double s = 0; s <= 1; s += 0.0002) {
+            double x;
+            double y;
+            switch (kind) {
+                case CIRCLE -> {
+                    x = 300 + 200 * Math.cos(s * 2 * Math.PI);
+                    y = 300 + 200 * Math.sin(s * 2 * Math.PI);
+                }
+                case SPIRAL -> {
+                    double a = s * 6 * Math.PI;
+                    x = 300 + a * 15 * Math.cos(a);
+                    y = 300 + a * 15 * Math.sin(a);
+                }
+                case WAVE -> {
+                    x = 20 + s * 560;
+                    y = 300 + 60 * Math.sin(s * 40) + 20 * Math.sin(s * 97);
+                }
+                case ZIGZAG -> {
+                    double k = s * 8;
+                    double f = k - Math.floor(k);
+                    x = 20 + s * 560;
+                    y = 300 + (((int) k) % 2 == 0 ? f : 1 - f) * 200;
+                }
+                default -> {
+                    // 连笔的签名：向右前进的几个圈
+                    double a = s * 10 * Math.PI;
+                    x = 40 + s * 520 + 40 * Math.sin(a);
+                    y = 300 - 60 * Math.cos(a) * (0.6 + 0.4 * Math.sin(s * 7));
+                }
+            }
+            if (last == null || Math.hypot(x - last[0], y - last[1]) >= DrawCanvas.SAMPLE_DISTANCE) {
+                last = new double[]{x, y, time};
+                samples.add(last);
+                time += 10 + 2 * Math.sin(samples.size() * 0.1);
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * 按采样点画的变宽笔画：每个采样处一个圆，相邻采样之间一个梯形，都按同一方向环绕，非零规则填充后就是它们的并集
+     */
+    private static Shape reference(List<double[]> samples, double[] radii) {
+        Path2D.Double shape = new Path2D.Double(Path2D.WIND_NON_ZERO);
+        for (int i = 0; i < samples.size(); i++) {
+            double[] p = samples.get(i);
+            shape.moveTo(p[0] + radii[i], p[1]);
+            for (int k = 1; k <= 64; k++) {
+                double a = -2 * Math.PI * k / 64;
+                shape.lineTo(p[0] + radii[i] * Math.cos(a), p[1] + radii[i] * Math.sin(a));
+            }
+            shape.closePath();
+            if (i == 0) {
+                continue;
+            }
+            double[] q = samples.get(i - 1);
+            double length = Math.hypot(p[0] - q[0], p[1] - q[1]);
+            double nx = -(p[1] - q[1]) / length;
+            double ny = (p[0] - q[0]) / length;
+            // 沿法线一侧向前、另一侧走回，和圆的环绕方向一致
+            shape.moveTo(q[0] + nx * radii[i - 1], q[1] + ny * radii[i - 1]);
+            shape.lineTo(p[0] + nx * radii[i], p[1] + ny * radii[i]);
+            shape.lineTo(p[0] - nx * radii[i], p[1] - ny * radii[i]);
+            shape.lineTo(q[0] - nx * radii[i - 1], q[1] - ny * radii[i - 1]);
+            shape.closePath();
+        }
+        return shape;
+    }
+
+    private static List<double[]> flatten(Shape shape) {
+        List<double[]> points = new ArrayList<>();
+        double[] coords = new double[6];
+        for (PathIterator it = shape.getPathIterator(null, 0.001); !it.isDone(); it.next()) {
+            it.currentSegment(coords);
+            points.add(new double[]{coords[0], coords[1]});
+        }
+        return points;
+    }
+
+    private static BufferedImage draw(Shape shape, double width, boolean fill) {
+        BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+            g.setColor(java.awt.Color.BLACK);
+            if (fill) {
+                g.fill(shape);
+            } else {
+                g.setStroke(new BasicStroke((float) width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+                g.draw(shape);
+            }
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * 覆盖情况不同的像素占参考图着色像素的比例，透明度相差超过一半算不同
+     */
+    private static double mismatch(BufferedImage reference, BufferedImage candidate) {
+        int ink = 0;
+        int different = 0;
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                int a = reference.getRGB(x, y) >>> 24;
+                int b = candidate.getRGB(x, y) >>> 24;
+                if (a > 0) {
+                    ink++;
+                }
+                if (Math.abs(a - b) > 128) {
+                    different++;
+                }
+            }
+        }
+        return 100.0 * different / Math.max(1, ink);
+    }
+}
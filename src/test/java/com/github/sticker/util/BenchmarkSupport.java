@@ -0,0 +1,222 @@
+package com.github.sticker.util;
+
+import javax.imageio.ImageIO;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Images and timing shared by the codec and kernel benchmarks.
+ * <p>
+ * The benchmarks are plain programs run from the test classpath, for example
+ * {@code java -cp target/classes:target/test-classes com.github.sticker.util.QoiCodecBenchmark ~/shots}.
+ * Given a folder they use every PNG and JPEG in it as the corpus; without one
+ * they draw four 1920x1080 images standing in for typical captures: a desktop
+ * UI, a page of text, a chart with few colours and a photo. Each measurement
+ * runs a few warm-up rounds and reports the median of the timed rounds.
+ */
+final class BenchmarkSupport {
+    static final int WARMUP = 5;
+    static final int ROUNDS = 10;
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+
+    /**
+     * One corpus image
+     */
+    record Sample(String name, BufferedImage image) {
+        long rawBytes() {
+            return (long) image.getWidth() * image.getHeight() * 4;
+        }
+    }
+
+    /**
+     * A measured task that may throw
+     */
+    @FunctionalInterface
+    interface Task {
+        void run() throws Exception;
+    }
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * The images in the folder named by the first argument, or the synthetic set
+     */
+    static List<Sample> corpus(String[] args) throws IOException {
+        if (args.length == 0) {
+            return List.of(new Sample("ui", ui()), new Sample("text", text()),
+                    new Sample("chart", chart()), new Sample("photo", photo()));
+        }
+        File[] files = new File(args[0]).listFiles((dir, name) -> {
+            String lower = name.toLowerCase(Locale.ROOT);
+            return lower.endsWith(".png") || lower.endsWith(".jpg") || lower.endsWith(".jpeg");
+        });
+        if (files == null || files.length == 0) {
+            throw new IOException("No PNG or JPEG images in " + args[0]);
+        }
+        Arrays.sort(files);
+        List<Sample> samples = new ArrayList<>();
+        for (File file : files) {
+            BufferedImage read = ImageIO.read(file);
+            if (read != null) {
+                samples.add(new Sample(file.getName(), toArgb(read)));
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Median time of one run in milliseconds
+     */
+    static double millis(Task task) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            task.run();
+        }
+        double[] times = new double[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            task.run();
+            times[i] = (System.nanoTime() - start) / 1e6;
+        }
+        Arrays.sort(times);
+        return times[ROUNDS / 2];
+    }
+
+    /**
+     * Throughput in megabytes of raw ARGB pixels per second
+     */
+    static double megabytesPerSecond(Sample sample, double millis) {
+        return sample.rawBytes() / 1e6 / (millis / 1000);
+    }
+
+    static BufferedImage toArgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+            return image;
+        }
+        BufferedImage argb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = argb.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return argb;
+    }
+
+    private static BufferedImage ui() {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = graphics(image);
+        g.setColor(new Color(0xF3F3F3));
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        Random random = new Random(1);
+        for (int i = 0; i < 12; i++) {
+            int x = random.nextInt(WIDTH - 600);
+            int y = random.nextInt(HEIGHT - 400);
+            g.setColor(Color.WHITE);
+            g.fillRect(x, y, 600, 400);
+            g.setColor(new Color(0x2B579A));
+            g.fillRect(x, y, 600, 32);
+            g.setColor(new Color(0xCCCCCC));
+            g.drawRect(x, y, 600, 400);
+            for (int b = 0; b < 4; b++) {
+                g.setColor(new Color(0xE1E1E1));
+                g.fillRoundRect(x + 20 + b * 140, y + 350, 120, 30, 6, 6);
+                g.setColor(Color.BLACK);
+                g.drawString("Button " + b, x + 40 + b * 140, y + 370);
+            }
+            for (int line = 0; line < 12; line++) {
+                g.drawString("Lorem ipsum dolor sit amet, consectetur adipiscing elit " + line, x + 20, y + 60 + line * 22);
+            }
+        }
+        g.dispose();
+        return image;
+    }
+
+    private static BufferedImage text() {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = graphics(image);
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        g.setColor(new Color(0x202020));
+        g.setFont(new Font(Font.SERIF, Font.PLAIN, 15));
+        Random random = new Random(2);
+        StringBuilder line = new StringBuilder();
+        for (int y = 24; y < HEIGHT; y += 20) {
+            line.setLength(0);
+            while (line.length() < 220) {
+                int length = 2 + random.nextInt(9);
+                for (int i = 0; i < length; i++) {
+                    line.append((char) ('a' + random.nextInt(26)));
+                }
+                line.append(' ');
+            }
+            g.drawString(line.toString(), 16, y);
+        }
+        g.dispose();
+        return image;
+    }
+
+    private static BufferedImage chart() {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = graphics(image);
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        g.setColor(new Color(0xDDDDDD));
+        for (int x = 100; x < WIDTH; x += 100) {
+            g.drawLine(x, 50, x, HEIGHT - 50);
+        }
+        Color[] series = {new Color(0x4472C4), new Color(0xED7D31), new Color(0xA5A5A5), new Color(0x70AD47)};
+        Random random = new Random(3);
+        g.setStroke(new BasicStroke(3));
+        for (Color color : series) {
+            g.setColor(color);
+            int previous = HEIGHT / 2;
+            for (int x = 100; x < WIDTH - 100; x += 20) {
+                int next = Math.max(60, Math.min(HEIGHT - 60, previous + random.nextInt(81) - 40));
+                g.drawLine(x, previous, x + 20, next);
+                previous = next;
+            }
+        }
+        g.dispose();
+        return image;
+    }
+
+    private static BufferedImage photo() {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = graphics(image);
+        g.setPaint(new GradientPaint(0, 0, new Color(0x87CEEB), 0, HEIGHT, new Color(0x2E4A1F)));
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        g.dispose();
+        // Sensor noise, which is what defeats run-length and index based compression
+        Random random = new Random(4);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int argb = image.getRGB(x, y);
+                int noise = random.nextInt(9) - 4;
+                int r = Math.max(0, Math.min(255, ((argb >> 16) & 0xFF) + noise));
+                int gr = Math.max(0, Math.min(255, ((argb >> 8) & 0xFF) + noise));
+                int b = Math.max(0, Math.min(255, (argb & 0xFF) + noise));
+                image.setRGB(x, y, 0xFF000000 | r << 16 | gr << 8 | b);
+            }
+        }
+        return image;
+    }
+
+    private static Graphics2D graphics(BufferedImage image) {
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        return g;
+    }
+}
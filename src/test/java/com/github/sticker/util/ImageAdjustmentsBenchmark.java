@@ -0,0 +1,50 @@
+package com.github.sticker.util;
+
+import com.github.sticker.util.BenchmarkSupport.Sample;
+
+import java.util.List;
+
+/**
+ * Throughput of each adjustment kernel, and of a typical stack applied with
+ * its lookup tables fused against one pass per adjustment.
+ * <p>
+ * Usage: {@code ImageAdjustmentsBenchmark [folder of screenshots]}. Kernels run
+ * in place on one pixel buffer per image; their cost does not depend on the
+ * pixel values, so rounds do not need a fresh copy.
+ */
+public final class ImageAdjustmentsBenchmark {
+    private static final AdjustmentStack STACK = new AdjustmentStack(List.of(
+            new AdjustmentStack.BrightnessContrast(0.1, 0.2),
+            new AdjustmentStack.Levels(10, 240),
+            new AdjustmentStack.Gamma(1.2),
+            new AdjustmentStack.Invert()));
+
+    private ImageAdjustmentsBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Sample> samples = BenchmarkSupport.corpus(args);
+        int[] lut = ImageAdjustments.lookupTable(new AdjustmentStack.Gamma(1.2));
+        System.out.printf("%-16s %-16s %10s %10s%n", "image", "kernel", "ms", "MB/s");
+        for (Sample sample : samples) {
+            int width = sample.image().getWidth();
+            int height = sample.image().getHeight();
+            int[] argb = sample.image().getRGB(0, 0, width, height, null, 0, width);
+
+            report(sample, "lut", BenchmarkSupport.millis(() -> ImageAdjustments.applyLut(argb, lut)));
+            report(sample, "grayscale", BenchmarkSupport.millis(() -> ImageAdjustments.grayscale(argb)));
+            report(sample, "sharpen", BenchmarkSupport.millis(() -> ImageAdjustments.sharpen(argb, width, height, 0.8)));
+            report(sample, "stack fused", BenchmarkSupport.millis(() -> ImageAdjustments.apply(STACK, argb, width, height)));
+            report(sample, "stack per step", BenchmarkSupport.millis(() -> {
+                for (AdjustmentStack.Adjustment adjustment : STACK.adjustments()) {
+                    ImageAdjustments.applyLut(argb, ImageAdjustments.lookupTable(adjustment));
+                }
+            }));
+        }
+    }
+
+    private static void report(Sample sample, String kernel, double millis) {
+        System.out.printf("%-16s %-16s %10.2f %10.1f%n", sample.name(), kernel, millis,
+                BenchmarkSupport.megabytesPerSecond(sample, millis));
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.sticker.util;
+
+import com.github.sticker.util.BenchmarkSupport.Sample;
+
+import java.util.List;
+
+/**
+ * Encode-time cost and output size of the indexed PNG modes against
+ * truecolor, plus the cost of building the palette on its own.
+ * <p>
+ * Usage: {@code PaletteBenchmark [folder of screenshots]}. All encodes use
+ * {@link PngEncoder.Level#SMALL}, the level exports use.
+ */
+public final class PaletteBenchmark {
+    private PaletteBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Sample> samples = BenchmarkSupport.corpus(args);
+        System.out.printf("%-16s %-12s %10s %10s %8s%n", "image", "mode", "ms", "bytes", "vs off");
+        for (Sample sample : samples) {
+            int truecolor = PngEncoder.encode(sample.image(), PngEncoder.Level.SMALL, PngEncoder.Palette.OFF).length;
+            for (PngEncoder.Palette palette : PngEncoder.Palette.values()) {
+                int bytes = PngEncoder.encode(sample.image(), PngEncoder.Level.SMALL, palette).length;
+                double millis = BenchmarkSupport.millis(
+                        () -> PngEncoder.encode(sample.image(), PngEncoder.Level.SMALL, palette));
+                System.out.printf("%-16s %-12s %10.1f %10d %7.1f%%%n", sample.name(),
+                        palette.name().toLowerCase(), millis, bytes, 100.0 * bytes / truecolor);
+            }
+            System.out.printf("%-16s %-12s %10.1f%n", sample.name(), "exact scan",
+                    BenchmarkSupport.millis(() -> PaletteQuantizer.exact(sample.image())));
+            System.out.printf("%-16s %-12s %10.1f%n", sample.name(), "median cut",
+                    BenchmarkSupport.millis(() -> PaletteQuantizer.medianCut(sample.image(), PaletteQuantizer.MAX_COLORS)));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.sticker.util;
+
+import com.github.sticker.util.BenchmarkSupport.Sample;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+/**
+ * Encode and decode throughput and output size of the QOI history format
+ * against the PNG alternatives: our encoder at both levels and ImageIO.
+ * <p>
+ * Usage: {@code QoiCodecBenchmark [folder of screenshots]}. Throughput is in
+ * megabytes of raw ARGB pixels per second, size is relative to those raw bytes.
+ */
+public final class QoiCodecBenchmark {
+    private QoiCodecBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Sample> samples = BenchmarkSupport.corpus(args);
+        System.out.printf("%-16s %-12s %10s %10s %10s %8s%n",
+                "image", "codec", "enc MB/s", "dec MB/s", "bytes", "ratio");
+        for (Sample sample : samples) {
+            byte[] qoi = QoiCodec.encode(sample.image());
+            report(sample, "qoi", BenchmarkSupport.millis(() -> QoiCodec.encode(sample.image())),
+                    BenchmarkSupport.millis(() -> QoiCodec.decode(qoi)), qoi.length);
+
+            for (PngEncoder.Level level : PngEncoder.Level.values()) {
+                byte[] png = PngEncoder.encode(sample.image(), level);
+                report(sample, "png " + level.name().toLowerCase(),
+                        BenchmarkSupport.millis(() -> PngEncoder.encode(sample.image(), level)),
+                        BenchmarkSupport.millis(() -> readPng(png)), png.length);
+            }
+
+            byte[] imageIo = writePng(sample);
+            report(sample, "png imageio", BenchmarkSupport.millis(() -> writePng(sample)),
+                    BenchmarkSupport.millis(() -> readPng(imageIo)), imageIo.length);
+        }
+    }
+
+    private static void report(Sample sample, String codec, double encodeMillis, double decodeMillis, int bytes) {
+        System.out.printf("%-16s %-12s %10.1f %10.1f %10d %7.1f%%%n", sample.name(), codec,
+                BenchmarkSupport.megabytesPerSecond(sample, encodeMillis),
+                BenchmarkSupport.megabytesPerSecond(sample, decodeMillis),
+                bytes, 100.0 * bytes / sample.rawBytes());
+    }
+
+    private static byte[] writePng(Sample sample) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(sample.image(), "png", out);
+        return out.toByteArray();
+    }
+
+    private static void readPng(byte[] png) throws Exception {
+        ImageIO.read(new ByteArrayInputStream(png));
+    }
+}